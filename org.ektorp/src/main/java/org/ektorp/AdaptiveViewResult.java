@@ -0,0 +1,260 @@
+package org.ektorp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.ektorp.ViewResult.Row;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * View result that is read into memory as long as it stays within a ResultSizeLimit and that switches to streaming
+ * the remaining rows from the response when the limit is exceeded, so the memory used is bounded regardless of the
+ * size of the view result.
+ *
+ * The limit is checked against the Content-Length of the response up front, when the server declares one, and
+ * against the bytes read and rows buffered while parsing.
+ *
+ * A streaming result can only be iterated once and has to be closed after usage, a result that has been read
+ * completely can be iterated any number of times and closing it has no effect.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class AdaptiveViewResult implements Iterable<Row>, Closeable {
+
+	private static final String ROWS_FIELD_NAME = "rows";
+	private static final String OFFSET_FIELD_NAME = "offset";
+	private static final String TOTAL_ROWS_FIELD_NAME = "total_rows";
+	private static final String UPDATE_SEQ_FIELD_NAME = "update_seq";
+
+	private final HttpResponse httpResponse;
+	private final boolean ignoreNotFound;
+	private final List<JsonNode> bufferedRows = new ArrayList<JsonNode>();
+	private int totalRows = -1;
+	private int offset = -1;
+	private String updateSeq;
+	/**
+	 * positioned inside the rows array while there are rows left to stream, null when the response is consumed.
+	 */
+	private JsonParser parser;
+	/**
+	 * the row that exceeded the limit, it is the first row returned after the buffered rows.
+	 */
+	private JsonNode overflowRow;
+	private boolean streaming;
+	private boolean iteratorCalled;
+
+	public AdaptiveViewResult(ObjectMapper objectMapper, HttpResponse httpResponse, boolean ignoreNotFound, ResultSizeLimit limit) {
+		Assert.notNull(objectMapper, "objectMapper may not be null");
+		Assert.notNull(httpResponse, "httpResponse may not be null");
+		Assert.notNull(limit, "limit may not be null");
+		this.httpResponse = httpResponse;
+		this.ignoreNotFound = ignoreNotFound;
+		try {
+			CountingInputStream in = new CountingInputStream(httpResponse.getContent());
+			JsonParser jp = objectMapper.getFactory().createParser(in);
+			streaming = limit.exceedsBytes(httpResponse.getContentLength());
+			if (jp.nextToken() != JsonToken.START_OBJECT) {
+				throw new DbAccessException("Expected data to start with an Object");
+			}
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				if (ROWS_FIELD_NAME.equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+					if (streaming || !bufferRows(jp, in, limit)) {
+						streaming = true;
+						parser = jp;
+						return;
+					}
+				} else {
+					readField(jp);
+				}
+			}
+			jp.close();
+			httpResponse.releaseConnection();
+		} catch (IOException e) {
+			httpResponse.abort();
+			throw new DbAccessException(e);
+		}
+	}
+	/**
+	 * @return false if the limit was exceeded before the end of the rows was reached.
+	 */
+	private boolean bufferRows(JsonParser jp, CountingInputStream in, ResultSizeLimit limit) throws IOException {
+		while (jp.nextToken() == JsonToken.START_OBJECT) {
+			JsonNode row = jp.readValueAsTree();
+			if (!include(row)) {
+				continue;
+			}
+			if (limit.isExceeded(in.getByteCount(), bufferedRows.size() + 1)) {
+				overflowRow = row;
+				return false;
+			}
+			bufferedRows.add(row);
+		}
+		return true;
+	}
+
+	private boolean include(JsonNode row) {
+		return !(ignoreNotFound && row.has(Row.ERROR_FIELD_NAME));
+	}
+
+	private void readField(JsonParser jp) throws IOException {
+		String name = jp.getCurrentName();
+		if (TOTAL_ROWS_FIELD_NAME.equals(name)) {
+			totalRows = jp.getIntValue();
+		} else if (OFFSET_FIELD_NAME.equals(name)) {
+			offset = jp.getIntValue();
+		} else if (UPDATE_SEQ_FIELD_NAME.equals(name)) {
+			updateSeq = jp.getText();
+			jp.skipChildren();
+		} else {
+			jp.skipChildren();
+		}
+	}
+	/**
+	 * @return true if the result exceeded the limit and the rows beyond the limit are read from the response during
+	 * iteration.
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+	/**
+	 * @return -1 if result did not contain a total_rows field
+	 */
+	public int getTotalRows() {
+		return totalRows;
+	}
+	/**
+	 * @return -1 if result did not contain an offset field
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	/**
+	 * For streaming results the update_seq is only available here if the server sent it before the rows.
+	 * @return null if the result did not contain an update_seq field
+	 */
+	public String getUpdateSeq() {
+		return updateSeq;
+	}
+	/**
+	 * Converts a result that has been read completely into a ViewResult.
+	 * @throws IllegalStateException if the result is streaming
+	 */
+	public ViewResult toViewResult() {
+		if (streaming) {
+			throw new IllegalStateException("a streaming result cannot be converted to a ViewResult");
+		}
+		ObjectNode node = JsonNodeFactory.instance.objectNode();
+		if (totalRows != -1) {
+			node.put(TOTAL_ROWS_FIELD_NAME, totalRows);
+		}
+		if (offset != -1) {
+			node.put(OFFSET_FIELD_NAME, offset);
+		}
+		if (updateSeq != null) {
+			node.put(UPDATE_SEQ_FIELD_NAME, updateSeq);
+		}
+		ArrayNode rows = node.putArray(ROWS_FIELD_NAME);
+		rows.addAll(bufferedRows);
+		return new ViewResult(node, ignoreNotFound);
+	}
+
+	public Iterator<Row> iterator() {
+		if (streaming) {
+			if (iteratorCalled) {
+				throw new IllegalStateException("Iterator can only be called once for a streaming result!");
+			}
+			iteratorCalled = true;
+		}
+		return new RowIterator();
+	}
+	/**
+	 * Aborts the response if it has not been read to its end, so the rest of a large result is not transferred.
+	 */
+	public void close() {
+		overflowRow = null;
+		if (parser != null) {
+			httpResponse.abort();
+			closeParser();
+		}
+	}
+
+	private void closeParser() {
+		try {
+			parser.close();
+		} catch (IOException e) {
+			// ignore
+		} finally {
+			parser = null;
+			httpResponse.releaseConnection();
+		}
+	}
+
+	private class RowIterator implements Iterator<Row> {
+
+		private int next;
+		private Row row;
+
+		public boolean hasNext() {
+			if (row != null) {
+				return true;
+			}
+			if (next < bufferedRows.size()) {
+				row = new Row(bufferedRows.get(next++));
+				return true;
+			}
+			if (overflowRow != null) {
+				row = new Row(overflowRow);
+				overflowRow = null;
+				return true;
+			}
+			if (!streaming || parser == null) {
+				return false;
+			}
+			try {
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					JsonNode node = parser.readValueAsTree();
+					if (include(node)) {
+						row = new Row(node);
+						return true;
+					}
+				}
+				while (parser.nextValue() != JsonToken.END_OBJECT) {
+					readField(parser);
+				}
+				closeParser();
+				return false;
+			} catch (IOException e) {
+				close();
+				throw new DbAccessException(e);
+			}
+		}
+
+		public Row next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Attempt to iterate beyond the result set");
+			}
+			Row r = row;
+			row = null;
+			return r;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
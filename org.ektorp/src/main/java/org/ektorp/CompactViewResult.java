@@ -0,0 +1,386 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Memory efficient alternative to ViewResult for large results.
+ *
+ * The raw response is retained as a byte array and the rows are indexed into parallel arrays holding the byte range
+ * of each row's id, key, value and doc. No JsonNode tree is built while parsing; fields are decoded from their byte
+ * range when accessed, so accessing a field of a row is O(1) regardless of the size of the row.
+ *
+ * Rows can be accessed by index, which avoids allocating any wrapper objects, or through getRows() / iterator() which
+ * decode each row to a ViewResult.Row on demand.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class CompactViewResult implements Iterable<ViewResult.Row> {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String OFFSET_FIELD_NAME = "offset";
+	private static final String TOTAL_ROWS_FIELD_NAME = "total_rows";
+	private static final String UPDATE_SEQ = "update_seq";
+	private static final String ROWS_FIELD_NAME = "rows";
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * Each row field occupies two slots in its array: start offset and end offset (exclusive).
+	 * A start offset of -1 means that the field was not present in the row.
+	 */
+	private static final int NOT_PRESENT = -1;
+
+	private final ObjectMapper mapper;
+	private final byte[] data;
+
+	private int totalRows = -1;
+	private int offset = -1;
+	private String updateSeq;
+
+	private int size;
+	private int[] rowRanges = new int[INITIAL_CAPACITY * 2];
+	private int[] idRanges = new int[INITIAL_CAPACITY * 2];
+	private int[] keyRanges = new int[INITIAL_CAPACITY * 2];
+	private int[] valueRanges = new int[INITIAL_CAPACITY * 2];
+	private int[] docRanges = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * Reads the whole stream and indexes the rows. The stream is not closed.
+	 */
+	public static CompactViewResult parse(InputStream json, ObjectMapper mapper, boolean ignoreNotFound) throws IOException {
+		return new CompactViewResult(IOUtils.toByteArray(json), mapper, ignoreNotFound);
+	}
+
+	public CompactViewResult(byte[] data, ObjectMapper mapper, boolean ignoreNotFound) {
+		Assert.notNull(data, "data may not be null");
+		Assert.notNull(mapper, "mapper may not be null");
+		this.data = data;
+		this.mapper = mapper;
+		try {
+			index(ignoreNotFound);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private void index(boolean ignoreNotFound) throws IOException {
+		JsonParser jp = mapper.getFactory().createParser(data);
+		try {
+			if (jp.nextToken() != JsonToken.START_OBJECT) {
+				throw new DbAccessException("Expected data to start with an Object");
+			}
+			boolean rowsFound = false;
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				String name = jp.getCurrentName();
+				if (ROWS_FIELD_NAME.equals(name) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+					rowsFound = true;
+					indexRows(jp, ignoreNotFound);
+				} else if (TOTAL_ROWS_FIELD_NAME.equals(name)) {
+					totalRows = jp.getIntValue();
+				} else if (OFFSET_FIELD_NAME.equals(name)) {
+					offset = jp.getIntValue();
+				} else if (UPDATE_SEQ.equals(name)) {
+					updateSeq = jp.getText();
+				} else {
+					jp.skipChildren();
+				}
+			}
+			Assert.isTrue(rowsFound, "result must contain 'rows' field of array type");
+		} finally {
+			jp.close();
+		}
+	}
+
+	private void indexRows(JsonParser jp, boolean ignoreNotFound) throws IOException {
+		while (jp.nextToken() == JsonToken.START_OBJECT) {
+			ensureCapacity(size + 1);
+			int slot = size * 2;
+			rowRanges[slot] = valueStart(start(jp));
+			idRanges[slot] = NOT_PRESENT;
+			keyRanges[slot] = NOT_PRESENT;
+			valueRanges[slot] = NOT_PRESENT;
+			docRanges[slot] = NOT_PRESENT;
+			String error = null;
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				String name = jp.getCurrentName();
+				if (ViewResult.Row.ID_FIELD_NAME.equals(name)) {
+					mark(jp, idRanges, slot);
+				} else if (ViewResult.Row.KEY_FIELD_NAME.equals(name)) {
+					mark(jp, keyRanges, slot);
+				} else if (ViewResult.Row.VALUE_FIELD_NAME.equals(name)) {
+					mark(jp, valueRanges, slot);
+				} else if (ViewResult.Row.DOC_FIELD_NAME.equals(name)) {
+					mark(jp, docRanges, slot);
+				} else if (ViewResult.Row.ERROR_FIELD_NAME.equals(name)) {
+					error = jp.getText();
+				} else {
+					jp.skipChildren();
+				}
+			}
+			rowRanges[slot + 1] = end(jp);
+			if (error != null) {
+				if (!ignoreNotFound) {
+					throw new ViewResultException(decode(keyRanges, slot), error);
+				}
+				continue;
+			}
+			size++;
+		}
+	}
+
+	private void mark(JsonParser jp, int[] ranges, int slot) throws IOException {
+		ranges[slot] = valueStart(start(jp));
+		if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+			// string tokens are decoded lazily, the parser's location is not past the closing quote until it is
+			jp.getTextLength();
+		} else {
+			jp.skipChildren();
+		}
+		ranges[slot + 1] = end(jp);
+	}
+
+	private static int start(JsonParser jp) {
+		return (int) jp.getTokenLocation().getByteOffset();
+	}
+
+	private static int end(JsonParser jp) {
+		return (int) jp.getCurrentLocation().getByteOffset();
+	}
+	/**
+	 * Some Jackson versions (e.g. 2.6) report the location where scanning for the token started, i.e. the separator
+	 * before an array element, and for a value read with nextValue() also its field name. These are skipped.
+	 */
+	private int valueStart(int start) {
+		start = skipSeparators(start);
+		if (data[start] != '"') {
+			return start;
+		}
+		int i = start + 1;
+		while (data[i] != '"') {
+			i += data[i] == '\\' ? 2 : 1;
+		}
+		i = skipSeparators(i + 1);
+		// a string followed by a colon is the field name
+		return data[i] == ':' ? skipSeparators(i + 1) : start;
+	}
+
+	private int skipSeparators(int i) {
+		while (i < data.length && (data[i] == ' ' || data[i] == '\t' || data[i] == '\n' || data[i] == '\r' || data[i] == ',')) {
+			i++;
+		}
+		return i;
+	}
+
+	private void ensureCapacity(int rows) {
+		if (rows * 2 > rowRanges.length) {
+			int newLength = Math.max(rows * 2, rowRanges.length * 2);
+			rowRanges = Arrays.copyOf(rowRanges, newLength);
+			idRanges = Arrays.copyOf(idRanges, newLength);
+			keyRanges = Arrays.copyOf(keyRanges, newLength);
+			valueRanges = Arrays.copyOf(valueRanges, newLength);
+			docRanges = Arrays.copyOf(docRanges, newLength);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	/**
+	 *
+	 * @return -1 if result did not contain an offset field
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	/**
+	 *
+	 * @return -1 if result did not contain a total_rows field
+	 */
+	public int getTotalRows() {
+		return totalRows;
+	}
+	/**
+	 *
+	 * @return null if result did not contain an update_seq field
+	 */
+	public String getUpdateSeqAsString() {
+		return updateSeq;
+	}
+
+	public String getId(int row) {
+		return text(idRanges, slot(row));
+	}
+
+	public String getKey(int row) {
+		return text(keyRanges, slot(row));
+	}
+
+	public JsonNode getKeyAsNode(int row) {
+		return decode(keyRanges, slot(row));
+	}
+	/**
+	 * @return the raw JSON of the key, as it appeared in the response.
+	 */
+	public String getKeyAsJson(int row) {
+		return raw(keyRanges, slot(row));
+	}
+
+	public String getValue(int row) {
+		return asString(getValueAsNode(row));
+	}
+
+	public JsonNode getValueAsNode(int row) {
+		return decode(valueRanges, slot(row));
+	}
+
+	public int getValueAsInt(int row) {
+		return getValueAsNode(row).asInt(0);
+	}
+	/**
+	 * @return the raw JSON of the value, as it appeared in the response.
+	 */
+	public String getValueAsJson(int row) {
+		return raw(valueRanges, slot(row));
+	}
+
+	public String getDoc(int row) {
+		return asString(getDocAsNode(row));
+	}
+
+	public JsonNode getDocAsNode(int row) {
+		return decode(docRanges, slot(row));
+	}
+	/**
+	 * Binds the row's included doc directly from its bytes, without building an intermediate tree.
+	 * @return null if the row has no doc
+	 */
+	public <T> T getDocAs(int row, Class<T> type) {
+		return bind(docRanges, slot(row), type);
+	}
+	/**
+	 * Binds the row's value directly from its bytes, without building an intermediate tree.
+	 * @return null if the row has no value
+	 */
+	public <T> T getValueAs(int row, Class<T> type) {
+		return bind(valueRanges, slot(row), type);
+	}
+
+	public ViewResult.Row getRow(int row) {
+		return new ViewResult.Row(decode(rowRanges, slot(row)));
+	}
+	/**
+	 * @return a view of the rows where each row is decoded when accessed.
+	 */
+	public List<ViewResult.Row> getRows() {
+		return new AbstractList<ViewResult.Row>() {
+			@Override
+			public ViewResult.Row get(int index) {
+				return getRow(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	public Iterator<ViewResult.Row> iterator() {
+		return getRows().iterator();
+	}
+
+	private int slot(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException(String.format("row: %s size: %s", row, size));
+		}
+		return row * 2;
+	}
+
+	/**
+	 * Strings without escape sequences are decoded straight from the bytes, everything else goes through the parser.
+	 */
+	private String text(int[] ranges, int slot) {
+		int start = ranges[slot];
+		if (start == NOT_PRESENT) {
+			return null;
+		}
+		int end = ranges[slot + 1];
+		if (isPlainString(start, end)) {
+			return new String(data, start + 1, end - start - 2, UTF_8);
+		}
+		return asString(decode(ranges, slot));
+	}
+
+	private boolean isPlainString(int start, int end) {
+		if (data[start] != '"') {
+			return false;
+		}
+		for (int i = start + 1; i < end - 1; i++) {
+			if (data[i] == '\\') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String raw(int[] ranges, int slot) {
+		int start = ranges[slot];
+		if (start == NOT_PRESENT) {
+			return null;
+		}
+		return new String(data, start, ranges[slot + 1] - start, UTF_8);
+	}
+
+	private JsonNode decode(int[] ranges, int slot) {
+		int start = ranges[slot];
+		if (start == NOT_PRESENT) {
+			return MissingNode.getInstance();
+		}
+		try {
+			return mapper.readTree(mapper.getFactory().createParser(data, start, ranges[slot + 1] - start));
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private <T> T bind(int[] ranges, int slot, Class<T> type) {
+		int start = ranges[slot];
+		if (start == NOT_PRESENT) {
+			return null;
+		}
+		try {
+			return mapper.readValue(data, start, ranges[slot + 1] - start, type);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private static String asString(JsonNode node) {
+		if (node == null || node.isNull() || node.isMissingNode()) return null;
+		return node.isContainerNode() ? node.toString() : node.asText();
+	}
+
+	@Override
+	public String toString() {
+		return new String(data, UTF_8);
+	}
+}
@@ -41,7 +41,17 @@ public class ComplexKey {
 	}
 
 	private ComplexKey(Object[] components) {
-		this.components = Arrays.asList(components);
+		this.components = Collections.unmodifiableList(Arrays.asList(components));
+	}
+
+	public List<Object> getComponents() {
+		return components;
+	}
+	/**
+	 * @return true if the object is the marker returned by emptyObject()
+	 */
+	public static boolean isEmptyObject(Object o) {
+		return o == EMPTY_OBJECT;
 	}
 
 	@JsonValue
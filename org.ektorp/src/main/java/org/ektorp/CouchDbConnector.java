@@ -1,13 +1,17 @@
 package org.ektorp;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.ektorp.changes.ChangesCommand;
 import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesFeedReconnectListener;
+import org.ektorp.changes.ChangesPublisher;
 import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.TypedChangesFeed;
 import org.ektorp.http.HttpClient;
 
 /**
@@ -126,6 +130,26 @@ public interface CouchDbConnector extends LocalBulkBuffer {
      */
     <T> T get(Class<T> c, String id, Options options);
 
+    /**
+     * Reads only the specified parts of a document. The response is streamed and everything outside the JSON
+     * pointers is skipped, so large documents can be read without building or binding the unused fields.
+     * 
+     * The projected values keep their position in the document, i.e. "/address/city" results in an object with an
+     * address field holding only the city, and can be mapped to the same class as the whole document. Include
+     * "/_id" and "/_rev" if the id and revision are needed.
+     * 
+     * @param id
+     *            the id of the document in the database.
+     * @param c
+     *            the target class to map to.
+     * @param jsonPointers
+     *            the parts of the document to read, e.g. "/name" or "/address/city".
+     * @return the projected document mapped as the specified class.
+     * @throws DocumentNotFoundException
+     *             if the document was not found.
+     */
+    <T> T getProjected(String id, Class<T> c, String... jsonPointers);
+
     /**
      * Same as get(Class<T> c, String id) with the difference that null is return if the document was not found.
      * 
@@ -187,6 +211,25 @@ public interface CouchDbConnector extends LocalBulkBuffer {
      */
     boolean contains(String id);
 
+    /**
+     * Checks the existence of many documents with one multiple-key _all_docs request instead of one HEAD request per
+     * id.
+     *
+     * @param ids
+     * @return true if all documents exist in the database, deleted documents do not exist.
+     */
+    boolean containsAll(Collection<String> ids);
+
+    /**
+     * Fetches the current revisions of many documents with one multiple-key _all_docs request.
+     * The returned map is a compact open-addressing table, see OpenAddressingStringMap.
+     *
+     * @param ids
+     * @return the current revision of each existing document keyed by document id. Missing and deleted documents
+     * are not included.
+     */
+    Map<String, String> getCurrentRevisions(Collection<String> ids);
+
     /**
      * Please note that the stream has to be closed after usage, otherwise http connection leaks will occur and the
      * system will eventually hang due to connection starvation.
@@ -317,6 +360,32 @@ public interface CouchDbConnector extends LocalBulkBuffer {
      */
     <T> List<T> queryView(ViewQuery query, Class<T> type);
 
+    /**
+     * Counts the rows of a (non reduced) view query without fetching them.
+     *
+     * The count is computed from total_rows and the offsets of limit=0 queries positioned at the start and end of
+     * the query's key range, i.e. at most three small requests regardless of the number of rows. Skip and limit are
+     * taken into account. If the server does not return offsets (e.g. partitioned queries) or the query has multiple
+     * keys, the rows are streamed and counted without being parsed.
+     *
+     * @param query
+     * @return the number of rows the query would return with reduce=false
+     */
+    long count(ViewQuery query);
+
+    /**
+     * Same as queryView(ViewQuery query, Class<T> type) but only the parts of each row's included doc (or value, if
+     * the query does not include docs) at the JSON pointers are read, see getProjected.
+     * Rows without a doc, e.g. for deleted documents, are left out.
+     * 
+     * @param query
+     * @param type
+     *            the type to map the projected rows to
+     * @param jsonPointers
+     * @return the projected rows mapped as the specified class.
+     */
+    <T> List<T> queryViewProjected(ViewQuery query, Class<T> type, String... jsonPointers);
+
     /**
      * Provides paged view results. Implementation based on the recipe described in the book
      * "CouchDB The Definitive Guide" http://guide.couchdb.org/editions/1/en/recipes.html#pagination
@@ -337,6 +406,115 @@ public interface CouchDbConnector extends LocalBulkBuffer {
      */
     ViewResult queryView(ViewQuery query);
 
+    /**
+     * Same as queryView(ViewQuery query) but returns the result in a compact form that retains the raw response
+     * and decodes row fields on access. Uses considerably less memory than ViewResult for large results.
+     * 
+     * @param query
+     * @return
+     */
+    CompactViewResult queryViewCompact(ViewQuery query);
+
+    /**
+     * Queries a view reduced to integral values, e.g. by _count or _sum, with or without grouping.
+     * The values are decoded directly into a primitive array.
+     * 
+     * @param query
+     * @return
+     */
+    LongReduceResult queryForLongReduce(ViewQuery query);
+
+    /**
+     * Queries a view reduced to numeric values, e.g. by _sum, with or without grouping.
+     * The values are decoded directly into a primitive array.
+     * 
+     * @param query
+     * @return
+     */
+    DoubleReduceResult queryForDoubleReduce(ViewQuery query);
+
+    /**
+     * Queries a view reduced by _stats, with or without grouping.
+     * The statistics are decoded directly into primitive arrays.
+     * 
+     * @param query
+     * @return
+     */
+    StatsReduceResult queryForStatsReduce(ViewQuery query);
+
+    /**
+     * Executes several queries against the same view in one request, using the view's multi-query endpoint
+     * (POST .../_view/{view}/queries). Requires CouchDB 2.2 or later.
+     * 
+     * @param queries must all have the same design doc and view.
+     * @return one result per query, in the same order as the queries.
+     */
+    List<ViewResult> queryViews(List<ViewQuery> queries);
+
+    /**
+     * Same as queryViews(List<ViewQuery> queries) but each query's rows are mapped to the specified type in the same
+     * way as queryView(ViewQuery query, Class<T> type).
+     * 
+     * @param queries must all have the same design doc and view.
+     * @param type
+     * @return one list of rows per query, in the same order as the queries.
+     */
+    <T> List<List<T>> queryViews(List<ViewQuery> queries, Class<T> type);
+
+    /**
+     * Executes a Mango query (POST /{db}/_find). The matching documents are streamed from the response and bound
+     * directly to the specified type.
+     * 
+     * @param query
+     * @param type
+     * @return the documents, the bookmark for the next page and execution stats if requested.
+     */
+    <T> FindResult<T> find(FindQuery query, Class<T> type);
+
+    /**
+     * Creates a Mango index. If an identical index already exists, nothing happens.
+     * 
+     * @param index
+     * @return the index with the design doc id and name assigned by CouchDB.
+     */
+    MangoIndex createIndex(MangoIndex index);
+
+    /**
+     * 
+     * @return all Mango indexes in this database, including the special _all_docs index.
+     */
+    List<MangoIndex> getIndexes();
+
+    /**
+     * Deletes a Mango index.
+     * 
+     * @param designDocId
+     * @param name
+     */
+    void deleteIndex(String designDocId, String name);
+
+    /**
+     * Reads the view result into memory as long as it stays within the ResultSizeLimit set on the connector (or a
+     * default limit of 64 MB if none is set) and streams the remaining rows from the response beyond it.
+     * Please note that the result needs to be closed after usage if it is streaming.
+     *
+     * @param query
+     * @return the view result as an iterable with bounded memory usage.
+     */
+    AdaptiveViewResult queryForAdaptiveView(ViewQuery query);
+
+    /**
+     * Writes the view result to the output stream after filtering and projecting its rows with the transformer.
+     * The result is relayed row by row, so memory usage does not depend on the size of the result.
+     * The output stream is not closed.
+     *
+     * @param query
+     * @param transformer
+     * @param out
+     * @return the number of rows written
+     */
+    int queryForTransformedStream(ViewQuery query, ViewResultTransformer transformer, OutputStream out);
+
     /**
      * Please note that the StreamingViewResult need to be closed after usage.
      * 
@@ -557,11 +735,55 @@ public interface CouchDbConnector extends LocalBulkBuffer {
      * the heartbeat parameter.
      * 
      * @param cmd
-     * @return a running changes feed that buffers incoming changes in a unbounded queue (will grow until
-     *         OutOfMemoryException if not polled).
+     * @return a running changes feed that buffers incoming changes in a bounded queue of ChangesCommand.queueCapacity
+     *         changes, reading of the feed is paused while the queue is full.
      */
     ChangesFeed changesFeed(ChangesCommand cmd);
 
+    /**
+     * Sets up a continuous changes feed with include_docs=true where the documents are bound to docType while the feed
+     * is read. Since and heartbeat defaults are the same as in changesFeed(ChangesCommand cmd).
+     * 
+     * @param cmd
+     * @param docType
+     * @return a running changes feed that buffers incoming changes in a bounded queue of ChangesCommand.queueCapacity
+     *         changes.
+     */
+    <T> TypedChangesFeed<T> changesFeed(ChangesCommand cmd, Class<T> docType);
+
+    /**
+     * Sets up a continuous changes feed that survives lost connections. The feed reconnects with jittered exponential
+     * backoff and resumes from the last change it received, so no change is missed or delivered twice. A connection
+     * that has not delivered a heartbeat in three heartbeat intervals is considered dead and is replaced.
+     * Since and heartbeat defaults are the same as in changesFeed(ChangesCommand cmd).
+     * 
+     * @param cmd
+     * @param listener is notified of disconnects and reconnects, may be null
+     * @return a running changes feed that only stops when cancelled.
+     */
+    ChangesFeed resumingChangesFeed(ChangesCommand cmd, ChangesFeedReconnectListener listener);
+
+    /**
+     * Creates a publisher of a continuous changes feed where the subscribers control how fast the feed is read. Each
+     * subscription opens its own connection on its first request and reads no more changes than requested.
+     * Cancelling a subscription closes its connection. Since and heartbeat defaults are the same as in
+     * changesFeed(ChangesCommand cmd), the since value is resolved when the publisher is created.
+     * 
+     * @param cmd
+     * @return
+     */
+    ChangesPublisher<DocumentChange> changesPublisher(ChangesCommand cmd);
+
+    /**
+     * Like changesPublisher(ChangesCommand cmd), but each requested item is a batch of at least one and at most
+     * maxBatchSize changes. A batch holds the changes that have already arrived, it is never delayed to fill it up.
+     * 
+     * @param cmd
+     * @param maxBatchSize
+     * @return
+     */
+    ChangesPublisher<List<DocumentChange>> batchedChangesPublisher(ChangesCommand cmd, int maxBatchSize);
+
     /**
      * 
      * @param designDoc
@@ -2,6 +2,7 @@ package org.ektorp;
 
 import java.util.*;
 
+import org.ektorp.changes.DbUpdatesFeed;
 import org.ektorp.http.*;
 
 
@@ -108,4 +109,12 @@ public interface CouchDbInstance {
      * @return all active tasks
      */
     Collection<ActiveTask> getActiveTasks();
+    /**
+     * Sets up a continuous _db_updates feed that survives lost connections: the feed reconnects with jittered
+     * exponential backoff and resumes from the sequence of the last update it received. A connection that has not
+     * delivered a heartbeat in three heartbeat intervals is considered dead and is replaced.
+     * @param since the sequence to start from, null or "now" to start from the current end of the feed.
+     * @return a running feed that only stops when cancelled.
+     */
+    DbUpdatesFeed dbUpdatesFeed(String since);
 }
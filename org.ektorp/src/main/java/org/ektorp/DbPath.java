@@ -19,9 +19,18 @@ public class DbPath {
 	private final String dbName;
 	private final String path;
 	private final String allDocs;
+	private final boolean partitioned;
 
 	public DbPath(String s) {
+		this(s, false);
+	}
+	/**
+	 * @param s
+	 * @param partitioned if true, the database will be created as a partitioned database (CouchDB 3.0 or later).
+	 */
+	public DbPath(String s, boolean partitioned) {
 		Assert.notNull(s);
+		this.partitioned = partitioned;
 		checkDbName(s);
 		
 		int start = s.startsWith("/") ? 1 : 0;
@@ -58,6 +67,35 @@ public class DbPath {
 	public static DbPath fromString(String s) {
 		return new DbPath(s);
 	}
+	/**
+	 * @return a path to a partitioned database
+	 */
+	public static DbPath partitioned(String s) {
+		return new DbPath(s, true);
+	}
+
+	public boolean isPartitioned() {
+		return partitioned;
+	}
+	/**
+	 * @return the path used when creating the database, includes the partitioned=true parameter for partitioned databases.
+	 */
+	public String getCreatePath() {
+		return partitioned ? path + "?partitioned=true" : path;
+	}
+	/**
+	 * @return the path to the partition, i.e. /{db}/_partition/{partition}/
+	 */
+	public String getPartitionPath(String partition) {
+		Documents.assertValidPartition(partition);
+		return path + "_partition/" + escape(partition) + "/";
+	}
+	/**
+	 * @return the path to the partition's _all_docs
+	 */
+	public String getPartitionAllDocsPath(String partition) {
+		return getPartitionPath(partition) + "_all_docs";
+	}
 	
 	private void checkDbName(String path) {
 		Assert.isTrue(path.matches(DB_NAME_PATTERN), format("Invalid database name: %s", path));
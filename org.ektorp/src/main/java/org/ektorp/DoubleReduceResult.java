@@ -0,0 +1,73 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Result of a view reduced to numeric values, e.g. by the built in _sum reduce function on non integral values.
+ * The values are held in a double array.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class DoubleReduceResult extends ReduceResult {
+
+	private double[] values = new double[0];
+
+	/**
+	 * Reads the result from the stream. The stream is not closed.
+	 */
+	public static DoubleReduceResult parse(InputStream json, JsonFactory jsonFactory) throws IOException {
+		DoubleReduceResult result = new DoubleReduceResult();
+		result.read(json, jsonFactory);
+		return result;
+	}
+
+	@Override
+	protected void ensureCapacity(int capacity) {
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	@Override
+	protected void readValue(JsonParser jp, int row) throws IOException {
+		switch (jp.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			values[row] = jp.getDoubleValue();
+			break;
+		case VALUE_STRING:
+			values[row] = Double.parseDouble(jp.getText());
+			break;
+		default:
+			throw unexpectedValue(jp, row);
+		}
+	}
+
+	public double getValue(int row) {
+		checkRow(row);
+		return values[row];
+	}
+	/**
+	 * @throws IllegalArgumentException if the result does not contain the key
+	 */
+	public double getValue(String key) {
+		return values[rowOf(key)];
+	}
+	/**
+	 * @return the value of the key or defaultValue if the result does not contain the key
+	 */
+	public double getValue(String key, double defaultValue) {
+		int row = indexOf(key);
+		return row != -1 ? values[row] : defaultValue;
+	}
+	/**
+	 * @return a copy of the values in row order
+	 */
+	public double[] getValues() {
+		return Arrays.copyOf(values, getSize());
+	}
+}
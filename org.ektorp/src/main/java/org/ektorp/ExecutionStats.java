@@ -0,0 +1,82 @@
+package org.ektorp;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Execution statistics of a Mango query, returned when FindQuery.executionStats(true) is set.
+ * A large difference between docs examined and results returned indicates that the query is not well
+ * served by any index.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ExecutionStats implements Serializable {
+
+	private static final long serialVersionUID = -2365470390419468346L;
+
+	@JsonProperty("total_keys_examined")
+	long totalKeysExamined;
+	@JsonProperty("total_docs_examined")
+	long totalDocsExamined;
+	@JsonProperty("total_quorum_docs_examined")
+	long totalQuorumDocsExamined;
+	@JsonProperty("results_returned")
+	long resultsReturned;
+	@JsonProperty("execution_time_ms")
+	double executionTimeMs;
+
+	private Map<String, Object> unknownFields;
+
+	public long getTotalKeysExamined() {
+		return totalKeysExamined;
+	}
+
+	public long getTotalDocsExamined() {
+		return totalDocsExamined;
+	}
+
+	public long getTotalQuorumDocsExamined() {
+		return totalQuorumDocsExamined;
+	}
+
+	public long getResultsReturned() {
+		return resultsReturned;
+	}
+
+	public double getExecutionTimeMs() {
+		return executionTimeMs;
+	}
+	/**
+	 * @return docs examined per returned result, 0 if no results were returned.
+	 */
+	public double getDocsExaminedPerResult() {
+		return resultsReturned > 0 ? (double) totalDocsExamined / resultsReturned : 0;
+	}
+
+	private Map<String, Object> unknown() {
+		if (unknownFields == null) {
+			unknownFields = new HashMap<String, Object>();
+		}
+		return unknownFields;
+	}
+
+	@JsonAnySetter
+	public void setUnknown(String key, Object value) {
+		unknown().put(key, value);
+	}
+
+	public Object getField(String key) {
+		return unknown().get(key);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("keys examined: %s, docs examined: %s, results returned: %s, execution time: %s ms",
+				totalKeysExamined, totalDocsExamined, resultsReturned, executionTimeMs);
+	}
+}
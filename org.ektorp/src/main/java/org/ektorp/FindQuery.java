@@ -0,0 +1,257 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Query for the Mango _find endpoint.
+ *
+ * <code>
+ * FindQuery query = new FindQuery()
+ *		.selector("{\"type\":\"person\",\"age\":{\"$gt\":30}}")
+ *		.fields("_id", "name", "age")
+ *		.sort("age")
+ *		.limit(50);
+ * FindResult&lt;Person&gt; result = db.find(query, Person.class);
+ * // next page
+ * db.find(query.bookmark(result.getBookmark()), Person.class);
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class FindQuery {
+
+	private final static int NOT_SET = -1;
+
+	private Object selector;
+	private String rawSelector;
+	private final List<String> fields = new ArrayList<String>();
+	private final List<String[]> sort = new ArrayList<String[]>();
+	private int limit = NOT_SET;
+	private int skip = NOT_SET;
+	private String bookmark;
+	private String useIndexDesignDoc;
+	private String useIndexName;
+	private boolean executionStats;
+	private boolean conflicts;
+	private Boolean update;
+	private boolean stable;
+
+	/**
+	 * @param o will be JSON-encoded, typically a Map or a JsonNode.
+	 * @return the query for chained calls
+	 */
+	public FindQuery selector(Object o) {
+		Assert.notNull(o, "selector may not be null");
+		selector = o;
+		rawSelector = null;
+		return this;
+	}
+	/**
+	 * @param json the selector as a JSON string
+	 * @return the query for chained calls
+	 */
+	public FindQuery selector(String json) {
+		Assert.hasText(json, "selector may not be empty");
+		rawSelector = json;
+		selector = null;
+		return this;
+	}
+	/**
+	 * Only the specified fields will be included in the returned documents.
+	 * @return the query for chained calls
+	 */
+	public FindQuery fields(String... names) {
+		Collections.addAll(fields, names);
+		return this;
+	}
+	/**
+	 * Sort ascending on the field. Can be called multiple times to sort on several fields.
+	 * The sort fields have to be covered by an index.
+	 * @return the query for chained calls
+	 */
+	public FindQuery sort(String field) {
+		sort.add(new String[] {field, "asc"});
+		return this;
+	}
+
+	public FindQuery sortDescending(String field) {
+		sort.add(new String[] {field, "desc"});
+		return this;
+	}
+
+	public FindQuery limit(int i) {
+		limit = i;
+		return this;
+	}
+
+	public FindQuery skip(int i) {
+		skip = i;
+		return this;
+	}
+	/**
+	 * @param s the bookmark of the previous result, used to fetch the next page.
+	 * @return the query for chained calls
+	 */
+	public FindQuery bookmark(String s) {
+		bookmark = s;
+		return this;
+	}
+	/**
+	 * Instruct the query to use the index in the specified design document.
+	 * @return the query for chained calls
+	 */
+	public FindQuery useIndex(String designDocId) {
+		return useIndex(designDocId, null);
+	}
+	/**
+	 * Instruct the query to use the named index in the specified design document.
+	 * @return the query for chained calls
+	 */
+	public FindQuery useIndex(String designDocId, String indexName) {
+		useIndexDesignDoc = designDocId;
+		useIndexName = indexName;
+		return this;
+	}
+	/**
+	 * If set to true, the result will contain execution statistics, see FindResult.getExecutionStats()
+	 * @return the query for chained calls
+	 */
+	public FindQuery executionStats(boolean b) {
+		executionStats = b;
+		return this;
+	}
+
+	public FindQuery conflicts(boolean b) {
+		conflicts = b;
+		return this;
+	}
+	/**
+	 * Whether to update the index prior to returning the result. Default is true.
+	 * @return the query for chained calls
+	 */
+	public FindQuery update(boolean b) {
+		update = b;
+		return this;
+	}
+
+	public FindQuery stable(boolean b) {
+		stable = b;
+		return this;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getSkip() {
+		return skip;
+	}
+
+	public String getBookmark() {
+		return bookmark;
+	}
+
+	public boolean isExecutionStats() {
+		return executionStats;
+	}
+
+	public List<String> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+	/**
+	 * Writes the query as the JSON request body expected by the _find endpoint.
+	 * @param jg
+	 * @throws IOException
+	 */
+	public void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartObject();
+		jg.writeFieldName("selector");
+		if (rawSelector != null) {
+			jg.writeRawValue(rawSelector);
+		} else if (selector != null) {
+			jg.writeObject(selector);
+		} else {
+			jg.writeStartObject();
+			jg.writeEndObject();
+		}
+		if (!fields.isEmpty()) {
+			jg.writeArrayFieldStart("fields");
+			for (String f : fields) {
+				jg.writeString(f);
+			}
+			jg.writeEndArray();
+		}
+		if (!sort.isEmpty()) {
+			jg.writeArrayFieldStart("sort");
+			for (String[] s : sort) {
+				jg.writeStartObject();
+				jg.writeStringField(s[0], s[1]);
+				jg.writeEndObject();
+			}
+			jg.writeEndArray();
+		}
+		if (limit != NOT_SET) {
+			jg.writeNumberField("limit", limit);
+		}
+		if (skip != NOT_SET) {
+			jg.writeNumberField("skip", skip);
+		}
+		if (bookmark != null) {
+			jg.writeStringField("bookmark", bookmark);
+		}
+		if (useIndexDesignDoc != null) {
+			if (useIndexName != null) {
+				jg.writeArrayFieldStart("use_index");
+				jg.writeString(useIndexDesignDoc);
+				jg.writeString(useIndexName);
+				jg.writeEndArray();
+			} else {
+				jg.writeStringField("use_index", useIndexDesignDoc);
+			}
+		}
+		if (conflicts) {
+			jg.writeBooleanField("conflicts", true);
+		}
+		if (update != null) {
+			jg.writeBooleanField("update", update);
+		}
+		if (stable) {
+			jg.writeBooleanField("stable", true);
+		}
+		if (executionStats) {
+			jg.writeBooleanField("execution_stats", true);
+		}
+		jg.writeEndObject();
+	}
+	/**
+	 * @param mapper used to serialize the selector
+	 * @return the JSON request body
+	 */
+	public String toJson(ObjectMapper mapper) {
+		try {
+			StringWriter w = new StringWriter();
+			JsonGenerator jg = mapper.getFactory().createGenerator(w);
+			writeTo(jg);
+			jg.close();
+			return w.toString();
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toJson(new ObjectMapper());
+	}
+}
@@ -0,0 +1,61 @@
+package org.ektorp;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Result of a Mango query.
+ *
+ * @author henrik lundgren
+ *
+ * @param <T> the document type
+ */
+public class FindResult<T> implements Iterable<T> {
+
+	private final List<T> docs;
+	private final String bookmark;
+	private final String warning;
+	private final ExecutionStats executionStats;
+
+	public FindResult(List<T> docs, String bookmark, String warning, ExecutionStats executionStats) {
+		this.docs = docs != null ? docs : Collections.<T>emptyList();
+		this.bookmark = bookmark;
+		this.warning = warning;
+		this.executionStats = executionStats;
+	}
+
+	public List<T> getDocs() {
+		return docs;
+	}
+
+	public int getSize() {
+		return docs.size();
+	}
+
+	public boolean isEmpty() {
+		return docs.isEmpty();
+	}
+	/**
+	 * @return the bookmark to pass to FindQuery.bookmark(String) in order to fetch the next page.
+	 */
+	public String getBookmark() {
+		return bookmark;
+	}
+	/**
+	 * @return the warning issued by CouchDB, e.g. when no matching index was found, otherwise null.
+	 */
+	public String getWarning() {
+		return warning;
+	}
+	/**
+	 * @return null unless the query was executed with executionStats(true)
+	 */
+	public ExecutionStats getExecutionStats() {
+		return executionStats;
+	}
+
+	public Iterator<T> iterator() {
+		return docs.iterator();
+	}
+}
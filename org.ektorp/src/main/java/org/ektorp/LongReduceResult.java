@@ -0,0 +1,85 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Result of a view reduced to integral values, e.g. by the built in _count or _sum reduce functions.
+ * The values are held in a long array.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class LongReduceResult extends ReduceResult {
+
+	private long[] values = new long[0];
+
+	/**
+	 * Reads the result from the stream. The stream is not closed.
+	 */
+	public static LongReduceResult parse(InputStream json, JsonFactory jsonFactory) throws IOException {
+		LongReduceResult result = new LongReduceResult();
+		result.read(json, jsonFactory);
+		return result;
+	}
+
+	@Override
+	protected void ensureCapacity(int capacity) {
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	@Override
+	protected void readValue(JsonParser jp, int row) throws IOException {
+		switch (jp.getCurrentToken()) {
+		case VALUE_NUMBER_INT:
+			values[row] = jp.getLongValue();
+			break;
+		case VALUE_NUMBER_FLOAT:
+			values[row] = (long) jp.getDoubleValue();
+			break;
+		case VALUE_STRING:
+			values[row] = Long.parseLong(jp.getText());
+			break;
+		default:
+			throw unexpectedValue(jp, row);
+		}
+	}
+
+	public long getValue(int row) {
+		checkRow(row);
+		return values[row];
+	}
+	/**
+	 * @throws IllegalArgumentException if the result does not contain the key
+	 */
+	public long getValue(String key) {
+		return values[rowOf(key)];
+	}
+	/**
+	 * @return the value of the key or defaultValue if the result does not contain the key
+	 */
+	public long getValue(String key, long defaultValue) {
+		int row = indexOf(key);
+		return row != -1 ? values[row] : defaultValue;
+	}
+	/**
+	 * @return a copy of the values in row order
+	 */
+	public long[] getValues() {
+		return Arrays.copyOf(values, getSize());
+	}
+	/**
+	 * @return the sum of all values
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (int i = 0; i < getSize(); i++) {
+			total += values[i];
+		}
+		return total;
+	}
+}
@@ -0,0 +1,184 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Definition of a Mango (_index) index.
+ *
+ * <code>
+ * db.createIndex(MangoIndex.on("type", "age").name("type-age").designDocId("_design/mango"));
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class MangoIndex {
+
+	private static final String ASC = "asc";
+	private static final String DESC = "desc";
+
+	private final Map<String, String> fields = new LinkedHashMap<String, String>();
+	private String designDocId;
+	private String name;
+	private String type = "json";
+	private Object partialFilterSelector;
+
+	/**
+	 * @param fieldNames the fields to index, in ascending order
+	 */
+	public static MangoIndex on(String... fieldNames) {
+		MangoIndex index = new MangoIndex();
+		for (String f : fieldNames) {
+			index.field(f);
+		}
+		return index;
+	}
+
+	public MangoIndex field(String fieldName) {
+		Assert.hasText(fieldName, "fieldName may not be empty");
+		fields.put(fieldName, ASC);
+		return this;
+	}
+
+	public MangoIndex fieldDescending(String fieldName) {
+		Assert.hasText(fieldName, "fieldName may not be empty");
+		fields.put(fieldName, DESC);
+		return this;
+	}
+	/**
+	 * If not set, CouchDB will generate a design doc id.
+	 */
+	public MangoIndex designDocId(String s) {
+		designDocId = s;
+		return this;
+	}
+	/**
+	 * If not set, CouchDB will generate a name.
+	 */
+	public MangoIndex name(String s) {
+		name = s;
+		return this;
+	}
+
+	public MangoIndex type(String s) {
+		type = s;
+		return this;
+	}
+	/**
+	 * Only documents matching the selector will be indexed.
+	 * @param selector will be JSON-encoded, typically a Map or a JsonNode.
+	 */
+	public MangoIndex partialFilterSelector(Object selector) {
+		partialFilterSelector = selector;
+		return this;
+	}
+
+	public MangoIndex copy() {
+		MangoIndex copy = new MangoIndex();
+		copy.fields.putAll(fields);
+		copy.designDocId = designDocId;
+		copy.name = name;
+		copy.type = type;
+		copy.partialFilterSelector = partialFilterSelector;
+		return copy;
+	}
+
+	public List<String> getFields() {
+		return Collections.unmodifiableList(new ArrayList<String>(fields.keySet()));
+	}
+
+	public boolean isDescending(String fieldName) {
+		return DESC.equals(fields.get(fieldName));
+	}
+
+	public String getDesignDocId() {
+		return designDocId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public Object getPartialFilterSelector() {
+		return partialFilterSelector;
+	}
+	/**
+	 * @return the request body expected by POST /{db}/_index
+	 */
+	public String toJson(ObjectMapper mapper) {
+		try {
+			StringWriter w = new StringWriter();
+			JsonGenerator jg = mapper.getFactory().createGenerator(w);
+			jg.writeStartObject();
+			jg.writeObjectFieldStart("index");
+			jg.writeArrayFieldStart("fields");
+			for (Map.Entry<String, String> f : fields.entrySet()) {
+				jg.writeStartObject();
+				jg.writeStringField(f.getKey(), f.getValue());
+				jg.writeEndObject();
+			}
+			jg.writeEndArray();
+			if (partialFilterSelector != null) {
+				jg.writeFieldName("partial_filter_selector");
+				jg.writeObject(partialFilterSelector);
+			}
+			jg.writeEndObject();
+			if (designDocId != null) {
+				jg.writeStringField("ddoc", designDocId);
+			}
+			if (name != null) {
+				jg.writeStringField("name", name);
+			}
+			jg.writeStringField("type", type);
+			jg.writeEndObject();
+			jg.close();
+			return w.toString();
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+	/**
+	 * Creates an index from an element of the indexes array returned by GET /{db}/_index
+	 */
+	public static MangoIndex fromJson(JsonNode node) {
+		MangoIndex index = new MangoIndex();
+		index.designDocId = node.path("ddoc").textValue();
+		index.name = node.path("name").textValue();
+		index.type = node.path("type").asText();
+		JsonNode def = node.path("def");
+		for (JsonNode f : def.path("fields")) {
+			if (f.isTextual()) {
+				index.fields.put(f.textValue(), ASC);
+			} else {
+				Map.Entry<String, JsonNode> e = f.fields().next();
+				index.fields.put(e.getKey(), e.getValue().asText());
+			}
+		}
+		if (def.has("partial_filter_selector")) {
+			index.partialFilterSelector = def.get("partial_filter_selector");
+		}
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MangoIndex %s/%s on %s", designDocId, name, fields);
+	}
+}
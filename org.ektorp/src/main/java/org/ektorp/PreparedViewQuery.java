@@ -0,0 +1,144 @@
+package org.ektorp;
+
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Immutable, thread safe view query template.
+ *
+ * The design doc, view and all static parameters are taken from a ViewQuery once and encoded into a query string
+ * prefix that does not depend on the db path, so a prepared query can be executed against any database. Only key,
+ * start key, end key and limit are bound per execution, their values are encoded without going through the
+ * ObjectMapper for strings, numbers, booleans and ComplexKeys. The connector adds the db path when the query is
+ * executed.
+ *
+ * A PreparedViewQuery is typically kept in a static or instance field and shared between threads:
+ * <code>
+ * private static final PreparedViewQuery BY_NAME = PreparedViewQuery.of(new ViewQuery()
+ *				.designDocId("_design/Person")
+ *				.viewName("by_name")
+ *				.includeDocs(true));
+ *
+ * List&lt;Person&gt; people = db.queryView(BY_NAME.bind().key("Bob").limit(10).toQuery(), Person.class);
+ * </code>
+ *
+ * Key, start key, end key and limit set in the template are ignored. Multiple-key queries cannot be prepared.
+ *
+ * @author henrik lundgren
+ *
+ */
+public final class PreparedViewQuery {
+
+	private static final int NOT_SET = -1;
+
+	private final ViewQuery template;
+	private final ObjectMapper mapper;
+	private final String prefix;
+	private final boolean prefixHasParams;
+
+	private PreparedViewQuery(ViewQuery query) {
+		Assert.notNull(query, "query may not be null");
+		this.template = query.unbound();
+		this.mapper = query.getMapper();
+		this.prefix = template.buildRelativeQuery();
+		this.prefixHasParams = prefix.indexOf('?') != -1;
+	}
+
+	/**
+	 * The query is copied, later changes to it does not affect the prepared query.
+	 * @param query must have at least viewName set
+	 * @return
+	 */
+	public static PreparedViewQuery of(ViewQuery query) {
+		return new PreparedViewQuery(query);
+	}
+
+	/**
+	 * @return a new binding, bindings are not thread safe and should not be shared.
+	 */
+	public Binding bind() {
+		return new Binding();
+	}
+
+	/**
+	 * Shortcut for bind().key(key).toQuery()
+	 */
+	public ViewQuery key(Object key) {
+		return bind().key(key).toQuery();
+	}
+
+	/**
+	 * Shortcut for bind().startKey(startKey).endKey(endKey).toQuery()
+	 */
+	public ViewQuery range(Object startKey, Object endKey) {
+		return bind().startKey(startKey).endKey(endKey).toQuery();
+	}
+	/**
+	 * @return the query string shared by all bound queries, relative to the db path.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	@Override
+	public String toString() {
+		return prefix;
+	}
+
+	public final class Binding {
+
+		private Object key;
+		private Object startKey;
+		private Object endKey;
+		private int limit = NOT_SET;
+
+		private Binding() {}
+
+		public Binding key(Object o) {
+			key = o;
+			return this;
+		}
+
+		public Binding startKey(Object o) {
+			startKey = o;
+			return this;
+		}
+
+		public Binding endKey(Object o) {
+			endKey = o;
+			return this;
+		}
+
+		public Binding limit(int i) {
+			limit = i;
+			return this;
+		}
+		/**
+		 * @return a new ViewQuery with its query string already built from the prepared prefix and the bound values.
+		 */
+		public ViewQuery toQuery() {
+			StringBuilder query = new StringBuilder(prefix.length() + 64).append(prefix);
+			boolean hasParams = prefixHasParams;
+			if (key != null) {
+				hasParams = appendKey(query, hasParams, "key", key);
+			}
+			if (startKey != null) {
+				hasParams = appendKey(query, hasParams, "startkey", startKey);
+			}
+			if (endKey != null) {
+				hasParams = appendKey(query, hasParams, "endkey", endKey);
+			}
+			if (limit != NOT_SET) {
+				query.append(hasParams ? '&' : '?').append("limit=").append(limit);
+			}
+			return template.bind(query.toString(), key, startKey, endKey, limit);
+		}
+
+		private boolean appendKey(StringBuilder query, boolean hasParams, String name, Object value) {
+			query.append(hasParams ? '&' : '?').append(name).append('=');
+			QueryKeyEncoder.appendUrlEncoded(query, QueryKeyEncoder.toJson(value, mapper));
+			return true;
+		}
+	}
+}
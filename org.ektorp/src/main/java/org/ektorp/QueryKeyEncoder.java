@@ -0,0 +1,149 @@
+package org.ektorp;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encodes view keys to JSON and URL encodes query parameter values without going through an ObjectMapper for the
+ * common key types: strings, integral numbers, finite floating point numbers, booleans and ComplexKeys built from
+ * those. Any other type is serialized by the supplied ObjectMapper.
+ *
+ * The output is identical to ObjectMapper.writeValueAsString followed by URLEncoder.encode.
+ *
+ * @author henrik lundgren
+ *
+ */
+final class QueryKeyEncoder {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private QueryKeyEncoder() {}
+
+	static String toJson(Object key, ObjectMapper fallback) {
+		if (key instanceof String) {
+			StringBuilder sb = new StringBuilder(((String) key).length() + 2);
+			appendString(sb, (String) key);
+			return sb.toString();
+		}
+		StringBuilder sb = new StringBuilder(16);
+		appendJson(sb, key, fallback);
+		return sb.toString();
+	}
+
+	static void appendJson(StringBuilder sb, Object key, ObjectMapper fallback) {
+		if (key == null) {
+			sb.append("null");
+		} else if (key instanceof String) {
+			appendString(sb, (String) key);
+		} else if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+			sb.append(((Number) key).longValue());
+		} else if (key instanceof Boolean) {
+			sb.append(((Boolean) key).booleanValue());
+		} else if (key instanceof Double && isFinite((Double) key)) {
+			sb.append(((Double) key).doubleValue());
+		} else if (key instanceof Float && isFinite(((Float) key).doubleValue())) {
+			sb.append(((Float) key).floatValue());
+		} else if (key instanceof ComplexKey) {
+			appendArray(sb, ((ComplexKey) key).getComponents(), fallback);
+		} else if (ComplexKey.isEmptyObject(key)) {
+			sb.append("{}");
+		} else if (key instanceof Object[]) {
+			appendArray(sb, Arrays.asList((Object[]) key), fallback);
+		} else if (key instanceof Collection) {
+			appendArray(sb, (Collection<?>) key, fallback);
+		} else {
+			try {
+				sb.append(fallback.writeValueAsString(key));
+			} catch (Exception e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+	}
+
+	private static void appendArray(StringBuilder sb, Collection<?> components, ObjectMapper fallback) {
+		sb.append('[');
+		boolean first = true;
+		for (Object c : components) {
+			if (!first) {
+				sb.append(',');
+			}
+			appendJson(sb, c, fallback);
+			first = false;
+		}
+		sb.append(']');
+	}
+
+	private static boolean isFinite(double d) {
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		sb.append('"');
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\b':
+				sb.append("\\b");
+				break;
+			case '\f':
+				sb.append("\\f");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Appends the value encoded as application/x-www-form-urlencoded, the same way as URLEncoder.encode(s, "UTF-8").
+	 * ASCII is encoded inline, the remainder of a string containing non ASCII characters is handed to URLEncoder.
+	 */
+	static void appendUrlEncoded(StringBuilder sb, String s) {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '.' || c == '-' || c == '*' || c == '_') {
+				sb.append(c);
+			} else if (c == ' ') {
+				sb.append('+');
+			} else if (c < 0x80) {
+				sb.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+			} else {
+				try {
+					sb.append(URLEncoder.encode(s.substring(i), "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw Exceptions.propagate(e);
+				}
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.ektorp;
+
+/**
+ * Timings and sizes of one view query execution.
+ *
+ * A profile is created by the query executor when the request is sent and filled in while the response is read:
+ * the executor records the time to first byte and the number of bytes received, response handlers that support
+ * profiling (see org.ektorp.impl.QueryProfileAware) record rows and parse and bind time. Values that were not
+ * recorded are zero, except the time to first byte which is -1 if no response was received.
+ *
+ * Completed profiles are delivered to the QueryProfileListeners registered with the query executor.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class QueryProfile {
+
+	private final String designDocId;
+	private final String viewName;
+	private final String label;
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+
+	private long timeToFirstByteNanos = -1;
+	private long totalNanos;
+	private long bytesReceived;
+	private long rowsParsed;
+	private long rowsSkipped;
+	private long parseNanos;
+	private long bindNanos;
+	private boolean successful;
+
+	public QueryProfile(String designDocId, String viewName, String label) {
+		this.designDocId = designDocId;
+		this.viewName = viewName;
+		this.label = label;
+	}
+	/**
+	 * Called when the response status and headers have been received.
+	 */
+	public void responseReceived() {
+		timeToFirstByteNanos = System.nanoTime() - startNanos;
+	}
+
+	public void addBytesReceived(long bytes) {
+		bytesReceived += bytes;
+	}
+	/**
+	 * @param parsed the number of rows read from the response
+	 * @param skipped the number of those rows that were not part of the result, i.e. ignored error rows and rows
+	 * without a value
+	 */
+	public void addRows(long parsed, long skipped) {
+		rowsParsed += parsed;
+		rowsSkipped += skipped;
+	}
+
+	public void addParseNanos(long nanos) {
+		parseNanos += nanos;
+	}
+
+	public void addBindNanos(long nanos) {
+		bindNanos += nanos;
+	}
+	/**
+	 * Called by the query executor when the query has finished.
+	 */
+	public void complete(boolean successful) {
+		complete(successful, System.nanoTime() - startNanos);
+	}
+
+	void complete(boolean successful, long totalNanos) {
+		this.successful = successful;
+		this.totalNanos = totalNanos;
+	}
+
+	public String getDesignDocId() {
+		return designDocId;
+	}
+
+	public String getViewName() {
+		return viewName;
+	}
+	/**
+	 * @return the label of the query, see ViewQuery.label(String), or null
+	 */
+	public String getLabel() {
+		return label;
+	}
+	/**
+	 * @return the time the query was started, in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getTimeToFirstByteNanos() {
+		return timeToFirstByteNanos;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public long getRowsParsed() {
+		return rowsParsed;
+	}
+
+	public long getRowsSkipped() {
+		return rowsSkipped;
+	}
+	/**
+	 * @return the time spent reading the response, excluding binding
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+	/**
+	 * @return the time spent binding rows to the result type. With pipelined binding this is the sum of the time
+	 * spent by the binding threads and may exceed the total time.
+	 */
+	public long getBindNanos() {
+		return bindNanos;
+	}
+
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s/%s%s: %d ms (first byte %d ms, parse %d ms, bind %d ms), %d bytes, %d rows (%d skipped)%s",
+				designDocId, viewName, label != null ? " [" + label + "]" : "",
+				totalNanos / 1000000, timeToFirstByteNanos / 1000000, parseNanos / 1000000, bindNanos / 1000000,
+				bytesReceived, rowsParsed, rowsSkipped, successful ? "" : " failed");
+	}
+}
@@ -0,0 +1,16 @@
+package org.ektorp;
+
+/**
+ * Receives a QueryProfile for each view query executed by a query executor the listener is registered with, see
+ * org.ektorp.impl.DefaultQueryExecutor.addProfileListener.
+ *
+ * Listeners are called synchronously by the thread that executed the query, after the response has been handled,
+ * and should return quickly.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface QueryProfileListener {
+
+	void queryCompleted(QueryProfile profile);
+}
@@ -0,0 +1,197 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Base class for typed results of reduced views. The result is decoded directly from the token stream, each subclass
+ * stores the reduced values in primitive arrays.
+ *
+ * Group keys are held in the same form as ViewResult.Row.getKey() returns them: string keys as their text, complex
+ * keys, numbers and booleans as JSON and null keys (i.e. the key of a reduction without grouping) as null.
+ *
+ * @author henrik lundgren
+ *
+ */
+public abstract class ReduceResult {
+
+	private static final String ROWS_FIELD_NAME = "rows";
+	private static final String KEY_FIELD_NAME = "key";
+	private static final String VALUE_FIELD_NAME = "value";
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MIN_INDEX_CAPACITY = 16;
+
+	private String[] keys = new String[0];
+	private int size;
+	/**
+	 * Open addressing table with linear probing from group key to row + 1, 0 marks an empty slot.
+	 */
+	private int[] index;
+
+	/**
+	 * Reads the rows from the stream. The stream is not closed.
+	 */
+	protected final void read(InputStream json, JsonFactory jsonFactory) throws IOException {
+		Assert.notNull(json, "json may not be null");
+		JsonParser jp = jsonFactory.createParser(json);
+		try {
+			if (jp.nextToken() != JsonToken.START_OBJECT) {
+				throw new DbAccessException("Expected data to start with an Object");
+			}
+			boolean rowsFound = false;
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				if (ROWS_FIELD_NAME.equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+					rowsFound = true;
+					readRows(jp, jsonFactory);
+				} else {
+					jp.skipChildren();
+				}
+			}
+			Assert.isTrue(rowsFound, "result must contain 'rows' field of array type");
+		} finally {
+			jp.close();
+		}
+	}
+
+	private void readRows(JsonParser jp, JsonFactory jsonFactory) throws IOException {
+		while (jp.nextToken() == JsonToken.START_OBJECT) {
+			if (size == keys.length) {
+				int capacity = Math.max(INITIAL_CAPACITY, keys.length * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				ensureCapacity(capacity);
+			}
+			boolean valueFound = false;
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				String name = jp.getCurrentName();
+				if (KEY_FIELD_NAME.equals(name)) {
+					keys[size] = readKey(jp, jsonFactory);
+				} else if (VALUE_FIELD_NAME.equals(name)) {
+					readValue(jp, size);
+					valueFound = true;
+				} else {
+					jp.skipChildren();
+				}
+			}
+			if (!valueFound) {
+				throw new DbAccessException(String.format("row %s in reduce result has no value", size));
+			}
+			size++;
+		}
+	}
+
+	private static String readKey(JsonParser jp, JsonFactory jsonFactory) throws IOException {
+		switch (jp.getCurrentToken()) {
+		case VALUE_NULL:
+			return null;
+		case START_ARRAY:
+		case START_OBJECT:
+			StringWriter w = new StringWriter();
+			JsonGenerator jg = jsonFactory.createGenerator(w);
+			jg.copyCurrentStructure(jp);
+			jg.close();
+			return w.toString();
+		default:
+			return jp.getText();
+		}
+	}
+	/**
+	 * Grow the value arrays so that they can hold at least capacity rows.
+	 */
+	protected abstract void ensureCapacity(int capacity);
+	/**
+	 * Read the value of the row at the parser's current token. The value has to be consumed completely.
+	 */
+	protected abstract void readValue(JsonParser jp, int row) throws IOException;
+
+	protected static DbAccessException unexpectedValue(JsonParser jp, int row) {
+		return new DbAccessException(String.format("unexpected value %s in row %s of reduce result", jp.getCurrentToken(), row));
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public String getKey(int row) {
+		checkRow(row);
+		return keys[row];
+	}
+	/**
+	 * @return the row of the group key or -1 if the result does not contain the key.
+	 */
+	public int indexOf(String key) {
+		int[] table = index;
+		if (table == null) {
+			table = buildIndex();
+			index = table;
+		}
+		int mask = table.length - 1;
+		for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+			int row = table[i] - 1;
+			if (row == -1 || equal(keys[row], key)) {
+				return row;
+			}
+		}
+	}
+	/**
+	 * The first row of a key wins if the key occurs more than once.
+	 */
+	private int[] buildIndex() {
+		int capacity = MIN_INDEX_CAPACITY;
+		// load factor <= 0.5, so there is always an empty slot that ends a probe
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for (int row = 0; row < size; row++) {
+			int i = slot(keys[row], mask);
+			while (table[i] != 0 && !equal(keys[table[i] - 1], keys[row])) {
+				i = (i + 1) & mask;
+			}
+			if (table[i] == 0) {
+				table[i] = row + 1;
+			}
+		}
+		return table;
+	}
+
+	private static int slot(String key, int mask) {
+		int h = key != null ? key.hashCode() : 0;
+		// spread the bits as the hashes of numeric and complex keys differ mostly in the low bits
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	protected final void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException(String.format("row: %s size: %s", row, size));
+		}
+	}
+
+	protected final int rowOf(String key) {
+		int row = indexOf(key);
+		if (row == -1) {
+			throw new IllegalArgumentException(String.format("result does not contain key: %s", key));
+		}
+		return row;
+	}
+}
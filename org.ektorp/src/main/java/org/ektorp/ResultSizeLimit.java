@@ -0,0 +1,61 @@
+package org.ektorp;
+
+import org.ektorp.util.Assert;
+
+/**
+ * Memory budget for view results. A result exceeds the limit when it holds more rows than maxRows or when more
+ * than maxBytes of the response has been read. Limits that are not set are not checked.
+ *
+ * <code>
+ * db.setResultSizeLimit(new ResultSizeLimit().maxBytes(64 * 1024 * 1024).maxRows(100000));
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ResultSizeLimit {
+
+	private final static int NOT_SET = -1;
+
+	private long maxBytes = NOT_SET;
+	private int maxRows = NOT_SET;
+
+	public ResultSizeLimit maxBytes(long l) {
+		Assert.isTrue(l > 0, "maxBytes must be greater than zero");
+		maxBytes = l;
+		return this;
+	}
+
+	public ResultSizeLimit maxRows(int i) {
+		Assert.isTrue(i > 0, "maxRows must be greater than zero");
+		maxRows = i;
+		return this;
+	}
+	/**
+	 * @return -1 if not set
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	/**
+	 * @return -1 if not set
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public boolean isExceeded(long bytes, int rows) {
+		return exceedsBytes(bytes) || (maxRows != NOT_SET && rows > maxRows);
+	}
+	/**
+	 * @param bytes a negative value means unknown, which never exceeds the limit.
+	 */
+	public boolean exceedsBytes(long bytes) {
+		return maxBytes != NOT_SET && bytes > maxBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("max bytes: %s max rows: %s", maxBytes, maxRows);
+	}
+}
@@ -0,0 +1,68 @@
+package org.ektorp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.ektorp.util.Assert;
+
+/**
+ * QueryProfileListener that keeps the profiles of the N slowest queries seen, by total time.
+ *
+ * <code>
+ * SlowQueryRegistry slowQueries = new SlowQueryRegistry(20);
+ * queryExecutor.addProfileListener(slowQueries);
+ * ...
+ * for (QueryProfile p : slowQueries.getSlowest()) {
+ *		log.info(p.toString());
+ * }
+ * </code>
+ *
+ * The registry is thread safe.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class SlowQueryRegistry implements QueryProfileListener {
+
+	private static final Comparator<QueryProfile> BY_TOTAL_TIME = new Comparator<QueryProfile>() {
+		public int compare(QueryProfile o1, QueryProfile o2) {
+			return o1.getTotalNanos() < o2.getTotalNanos() ? -1 : (o1.getTotalNanos() == o2.getTotalNanos() ? 0 : 1);
+		}
+	};
+
+	private final int capacity;
+	/**
+	 * the fastest of the retained profiles is at the head
+	 */
+	private final PriorityQueue<QueryProfile> slowest;
+
+	public SlowQueryRegistry(int capacity) {
+		Assert.isTrue(capacity > 0, "capacity must be greater than zero");
+		this.capacity = capacity;
+		this.slowest = new PriorityQueue<QueryProfile>(capacity, BY_TOTAL_TIME);
+	}
+
+	public synchronized void queryCompleted(QueryProfile profile) {
+		if (slowest.size() < capacity) {
+			slowest.add(profile);
+		} else if (BY_TOTAL_TIME.compare(profile, slowest.peek()) > 0) {
+			slowest.poll();
+			slowest.add(profile);
+		}
+	}
+	/**
+	 * @return the retained profiles, slowest first
+	 */
+	public synchronized List<QueryProfile> getSlowest() {
+		List<QueryProfile> result = new ArrayList<QueryProfile>(slowest);
+		Collections.sort(result, Collections.reverseOrder(BY_TOTAL_TIME));
+		return result;
+	}
+
+	public synchronized void clear() {
+		slowest.clear();
+	}
+}
@@ -0,0 +1,103 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Result of a view reduced by the built in _stats reduce function. Each statistic is held in its own primitive array.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class StatsReduceResult extends ReduceResult {
+
+	private double[] sum = new double[0];
+	private long[] count = new long[0];
+	private double[] min = new double[0];
+	private double[] max = new double[0];
+	private double[] sumsqr = new double[0];
+
+	/**
+	 * Reads the result from the stream. The stream is not closed.
+	 */
+	public static StatsReduceResult parse(InputStream json, JsonFactory jsonFactory) throws IOException {
+		StatsReduceResult result = new StatsReduceResult();
+		result.read(json, jsonFactory);
+		return result;
+	}
+
+	@Override
+	protected void ensureCapacity(int capacity) {
+		sum = Arrays.copyOf(sum, capacity);
+		count = Arrays.copyOf(count, capacity);
+		min = Arrays.copyOf(min, capacity);
+		max = Arrays.copyOf(max, capacity);
+		sumsqr = Arrays.copyOf(sumsqr, capacity);
+	}
+
+	@Override
+	protected void readValue(JsonParser jp, int row) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw unexpectedValue(jp, row);
+		}
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			String name = jp.getCurrentName();
+			if (!jp.getCurrentToken().isNumeric()) {
+				throw unexpectedValue(jp, row);
+			}
+			if ("sum".equals(name)) {
+				sum[row] = jp.getDoubleValue();
+			} else if ("count".equals(name)) {
+				count[row] = jp.getLongValue();
+			} else if ("min".equals(name)) {
+				min[row] = jp.getDoubleValue();
+			} else if ("max".equals(name)) {
+				max[row] = jp.getDoubleValue();
+			} else if ("sumsqr".equals(name)) {
+				sumsqr[row] = jp.getDoubleValue();
+			}
+		}
+	}
+
+	public double getSum(int row) {
+		checkRow(row);
+		return sum[row];
+	}
+
+	public long getCount(int row) {
+		checkRow(row);
+		return count[row];
+	}
+
+	public double getMin(int row) {
+		checkRow(row);
+		return min[row];
+	}
+
+	public double getMax(int row) {
+		checkRow(row);
+		return max[row];
+	}
+
+	public double getSumsqr(int row) {
+		checkRow(row);
+		return sumsqr[row];
+	}
+
+	public double getMean(int row) {
+		checkRow(row);
+		return count[row] != 0 ? sum[row] / count[row] : Double.NaN;
+	}
+	/**
+	 * @return the population variance computed from sum, sumsqr and count
+	 */
+	public double getVariance(int row) {
+		double mean = getMean(row);
+		return count[row] != 0 ? sumsqr[row] / count[row] - mean * mean : Double.NaN;
+	}
+}
@@ -6,17 +6,21 @@ import java.io.Serializable;
 import java.util.Iterator;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ektorp.changes.ChangesFeedMetrics;
+import org.ektorp.changes.ChangesFeedMetricsSource;
 import org.ektorp.changes.DocumentChange;
 import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.changes.ChangesFeedMeter;
 import org.ektorp.impl.changes.StdDocumentChange;
 
 /**
  *
  * @author Sverre Kristian Valskrå
  */
-public class StreamingChangesResult implements Serializable, Iterable<DocumentChange>, Closeable{
+public class StreamingChangesResult implements Serializable, Iterable<DocumentChange>, Closeable, ChangesFeedMetricsSource {
 
 	private static final long serialVersionUID = 4750290767936801714L;
 	private boolean iteratorCalled;
@@ -26,22 +30,61 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
 
 	private long lastSeq = -1l;
 
+	private String lastSeqAsText;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="SE_BAD_FIELD")
     private final HttpResponse response;
 
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="SE_BAD_FIELD")
+    private final ChangesFeedMeter meter;
+
+    private volatile String lastDeliveredSeq;
+
 	public StreamingChangesResult(ObjectMapper objectMapper, HttpResponse response) {
+		this(objectMapper, response, null);
+	}
+
+	public StreamingChangesResult(ObjectMapper objectMapper, HttpResponse response, String dbName) {
 		this.response = response;
+		this.meter = new ChangesFeedMeter(dbName);
         try{
-		    jp = objectMapper.getFactory().createParser(response.getContent());
-		    jp.nextValue();
-		    jp.nextValue();
-		    jp.nextToken();
+		    jp = objectMapper.getFactory().createParser(meter.meter(response.getContent()));
+		    moveToResults();
     	}catch(Exception e) {
             throw new DbAccessException(e);
         }
 	}
 
 
+	private void moveToResults() throws IOException {
+		if (jp.nextToken() != JsonToken.START_OBJECT) {
+			throw new DbAccessException("Expected data to start with an Object");
+		}
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			if ("results".equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+				return;
+			}
+			jp.skipChildren();
+		}
+		throw new DbAccessException("Expected a results field");
+	}
+
+	private void readLastSeq() throws IOException {
+		JsonToken token = jp.nextValue();
+		while (token != null && token != JsonToken.END_OBJECT) {
+			if ("last_seq".equals(jp.getCurrentName())) {
+				lastSeq = jp.getValueAsLong();
+				if (token.isScalarValue()) {
+					lastSeqAsText = token == JsonToken.VALUE_NULL ? null : jp.getText();
+				} else {
+					lastSeqAsText = jp.readValueAsTree().toString();
+				}
+			}
+			jp.skipChildren();
+			token = jp.nextValue();
+		}
+	}
+
 	public Iterator<DocumentChange> iterator() {
 		if (iteratorCalled) {
 			throw new IllegalStateException("Iterator can only be called once!");
@@ -79,6 +122,20 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
         return lastSeq;
     }
 
+	/**
+	 * @return the last_seq of the result whether it is a number or a string, null until the stream is fully iterated.
+	 */
+	public String getLastSeqAsText() {
+		return lastSeqAsText;
+	}
+
+	/**
+	 * @return the metrics of reading this result, the queue size, reconnect count and sequence lag are not applicable.
+	 */
+	public ChangesFeedMetrics getMetrics() {
+		return meter.snapshot(0, 0, lastDeliveredSeq);
+	}
+
 
 	private class StreamingResultIterator implements Iterator<DocumentChange>{
         private DocumentChange row;
@@ -94,21 +151,27 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
 		public DocumentChange next() {
             findNext();
             hasNext = null;
+            if (row != null) {
+                String seq = ((StdDocumentChange) row).getSequenceAsText();
+                // null between the sequences sent with seq_interval
+                if (seq != null) {
+                    lastDeliveredSeq = seq;
+                }
+            }
             return row;
 		}
 
 		protected void findNext() {
             if (hasNext == null) {
                 try {
-                    JsonNode jsonNode = jp.readValueAs(JsonNode.class);
-                    if (jsonNode == null) {
-                        jsonNode = jp.readValueAs(JsonNode.class);
-                        lastSeq = jsonNode.get("last_seq").longValue();
+                    if (jp.nextToken() == JsonToken.START_OBJECT) {
+                        row = new StdDocumentChange(jp.<JsonNode>readValueAsTree());
+                        meter.changeRead();
+                        hasNext = true;
+                    } else {
+                        readLastSeq();
                         close();
                         hasNext = false;
-                    } else {
-                        row = new StdDocumentChange(jsonNode);
-                        hasNext = true;
                     }
                 } catch (Exception e) {
                     throw new DbAccessException(e);
@@ -1,5 +1,7 @@
 package org.ektorp;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -8,6 +10,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -17,6 +21,7 @@ import org.ektorp.impl.ObjectMapperFactory;
 import org.ektorp.impl.CachingObjectMapperFactory;
 import org.ektorp.impl.StdObjectMapperFactory;
 import org.ektorp.util.Assert;
+import org.ektorp.util.Documents;
 import org.ektorp.util.Exceptions;
 
 /**
@@ -116,14 +121,19 @@ public class ViewQuery {
 	private int groupLevel = NOT_SET;
 	private boolean reduce = true;
 	private boolean includeDocs = false;
+	private boolean deduplicateDocs = false;
 	private boolean inclusiveEnd = true;
 	private boolean ignoreNotFound = false;
 	private boolean updateSeq = false;
 
 	private boolean cacheOk = false;
+	private String label;
 
 	private String cachedQuery;
+	// query string relative to dbPath, set when the query was bound by PreparedViewQuery
+	private String boundQuery;
 	private String listName;
+	private String partition;
 
 	public ViewQuery() {
 		this(DEFAULT_OBJECT_MAPPER_FACTORY.createObjectMapper());
@@ -190,6 +200,10 @@ public class ViewQuery {
         return includeDocs;
     }
 
+    public boolean isDeduplicateDocs() {
+        return deduplicateDocs;
+    }
+
     public boolean isInclusiveEnd() {
         return inclusiveEnd;
     }
@@ -199,7 +213,10 @@ public class ViewQuery {
     }
 
     public ViewQuery dbPath(String s) {
-		reset();
+		// the rest of the query does not depend on the db path, a bound query string is kept
+		if (s == null ? dbPath != null : !s.equals(dbPath)) {
+			cachedQuery = null;
+		}
 		dbPath = s;
 		return this;
 	}
@@ -231,6 +248,21 @@ public class ViewQuery {
 		listName = s;
 		return this;
 	}
+	/**
+	 * Scopes the query to one partition of a partitioned database. The query will be routed to
+	 * /{db}/_partition/{partition}/_design/... (or .../_all_docs) and will only hit the shard holding the partition.
+	 * @param s the partition, i.e. the part of the doc ids before the colon
+	 * @return the view query for chained calls
+	 */
+	public ViewQuery partition(String s) {
+		reset();
+		partition = s;
+		return this;
+	}
+
+	public String getPartition() {
+		return partition;
+	}
 	/**
 	 * If set to true, the view query result will be cached and subsequent queries
 	 * (with cacheOk set) may be served from the cache instead of the db.
@@ -249,6 +281,20 @@ public class ViewQuery {
 	public boolean isCacheOk() {
 		return cacheOk;
 	}
+	/**
+	 * Tags the query with a caller defined label, e.g. the name of the use case, which is passed on to
+	 * QueryProfiles. The label is not sent to the server and is not part of the query's identity.
+	 * @param s
+	 * @return the view query for chained calls
+	 */
+	public ViewQuery label(String s) {
+		label = s;
+		return this;
+	}
+
+	public String getLabel() {
+		return label;
+	}
 	/**
 	 * @param Will be JSON-encoded.
 	 * @return the view query for chained calls
@@ -593,6 +639,25 @@ public class ViewQuery {
 		includeDocs = b;
 		return this;
 	}
+	/**
+	 * Alternative to includeDocs for views that emit several rows per document. The view is queried without
+	 * include_docs and each distinct document is fetched once in a multiple-key _all_docs request. The documents are
+	 * then joined back to the rows, so a document emitted by several rows occurs several times in the result.
+	 *
+	 * Like include_docs, a row whose value is an object with an _id field is joined to that linked document. A row
+	 * linking a specific revision through value._rev cannot be served from _all_docs, so if there is such a row the
+	 * view is queried again with plain include_docs.
+	 *
+	 * Only applies to CouchDbConnector.queryView(ViewQuery, Class). Rows referring to deleted or missing documents
+	 * are left out of the result.
+	 * @param b the deduplicateDocs flag
+	 * @return the view query for chained calls
+	 */
+	public ViewQuery deduplicateDocs(boolean b) {
+		reset();
+		deduplicateDocs = b;
+		return this;
+	}
 	/**
 	 * The inclusive_end option controls whether the endkey is included in the result. It defaults to true.
 	 * @param b the inclusiveEnd flag
@@ -616,6 +681,7 @@ public class ViewQuery {
 	}
 
 	public ViewQuery queryParam(String name, String value) {
+		reset();
 		queryParams.put(name, value);
 		return this;
 	}
@@ -625,6 +691,7 @@ public class ViewQuery {
 	 */
 	public void reset() {
 		cachedQuery = null;
+		boundQuery = null;
 	}
 
 	public Object getKey() {
@@ -642,6 +709,20 @@ public class ViewQuery {
         return keys.toJson(mapper);
     }
 
+    /**
+     * Writes the multiple-key request body, i.e. {"keys":[...]}, directly to the stream.
+     * The keys are serialized one at a time so no intermediate String is built for large key sets.
+     * @param out
+     * @throws IOException
+     */
+    public void writeKeysTo(OutputStream out) throws IOException {
+    	if (keys == null) {
+    		Keys.of().writeTo(out, mapper);
+    	} else {
+    		keys.writeTo(out, mapper);
+    	}
+    }
+
 
     public Object getStartKey() {
 		return startKey.asDecoded();
@@ -655,6 +736,11 @@ public class ViewQuery {
 		if (cachedQuery != null) {
 			return cachedQuery;
 		}
+		if (boundQuery != null) {
+			assertHasText(dbPath, "dbPath");
+			cachedQuery = dbPath.endsWith("/") ? dbPath + boundQuery : dbPath + "/" + boundQuery;
+			return cachedQuery;
+		}
 
         URI query = buildQueryURI();
 
@@ -662,9 +748,125 @@ public class ViewQuery {
 		return cachedQuery;
 	}
 
+    /**
+     * Builds the query with the keys in a keys=[...] query parameter, so that a multiple-key query
+     * can be sent as a GET request. Only suitable for small key sets as the length of the request line is limited.
+     * @return
+     */
+    public String buildQueryWithKeysParameter() {
+    	URI query = buildQueryURI();
+    	if (keys != null) {
+    		query.param("keys", keys.toJsonArray(mapper));
+    	}
+    	return query.toString();
+    }
+
+    /**
+     * @return the path of the view's multi-query endpoint, i.e. .../_view/{view}/queries
+     */
+    public String buildQueriesPath() {
+    	Assert.isTrue(!isNotEmpty(listName), "list queries cannot be sent to the queries endpoint");
+    	return buildViewPath().append("queries").toString();
+    }
+
+    /**
+     * Writes the parameters of this query as a JSON object, as expected by the view's multi-query endpoint.
+     * Keys are written as JSON, boolean and numeric parameters with their JSON types.
+     * @param jg
+     * @throws IOException
+     */
+    public void writeQueryObjectTo(JsonGenerator jg) throws IOException {
+    	jg.writeStartObject();
+    	if (!key.isNull()) {
+    		jg.writeFieldName("key");
+    		jg.writeRawValue(key.asEncoded());
+    	}
+    	if (keys != null) {
+    		jg.writeArrayFieldStart("keys");
+    		for (Object k : keys.getValues()) {
+    			jg.writeRawValue(mapper.writeValueAsString(k));
+    		}
+    		jg.writeEndArray();
+    	}
+    	if (!startKey.isNull()) {
+    		jg.writeFieldName("startkey");
+    		jg.writeRawValue(startKey.asEncoded());
+    	}
+    	if (!endKey.isNull()) {
+    		jg.writeFieldName("endkey");
+    		jg.writeRawValue(endKey.asEncoded());
+    	}
+    	if (isNotEmpty(startDocId)) {
+    		jg.writeStringField("startkey_docid", startDocId);
+    	}
+    	if (isNotEmpty(endDocId)) {
+    		jg.writeStringField("endkey_docid", endDocId);
+    	}
+    	if (hasValue(limit)) {
+    		jg.writeNumberField("limit", limit);
+    	}
+    	if (staleOk != null) {
+    		jg.writeStringField("stale", staleOk);
+    	}
+    	if (descending) {
+    		jg.writeBooleanField("descending", true);
+    	}
+    	if (!inclusiveEnd) {
+    		jg.writeBooleanField("inclusive_end", false);
+    	}
+    	if (!reduce) {
+    		jg.writeBooleanField("reduce", false);
+    	}
+    	if (hasValue(skip)) {
+    		jg.writeNumberField("skip", skip);
+    	}
+    	if (includeDocs) {
+    		jg.writeBooleanField("include_docs", true);
+    	}
+    	if (group) {
+    		jg.writeBooleanField("group", true);
+    	}
+    	if (hasValue(groupLevel)) {
+    		jg.writeNumberField("group_level", groupLevel);
+    	}
+    	for (Map.Entry<String, String> param : queryParams.entrySet()) {
+    		jg.writeFieldName(param.getKey());
+    		if (isJsonLiteral(param.getValue())) {
+    			jg.writeRawValue(param.getValue());
+    		} else {
+    			jg.writeString(param.getValue());
+    		}
+    	}
+    	if (updateSeq) {
+    		jg.writeBooleanField("update_seq", true);
+    	}
+    	jg.writeEndObject();
+    }
+
+    private boolean isJsonLiteral(String value) {
+    	if ("true".equals(value) || "false".equals(value)) {
+    		return true;
+    	}
+    	try {
+    		Long.parseLong(value);
+    		return true;
+    	} catch (NumberFormatException e) {
+    		return false;
+    	}
+    }
+
     public URI buildQueryURI() {
-		URI query = buildViewPath();
+		return appendParams(buildViewPath());
+	}
 
+	/**
+	 * @return the query string without the db path, e.g. _design/doc/_view/v?include_docs=true
+	 */
+	String buildRelativeQuery() {
+		return appendParams(appendViewPath(URI.of("/"))).toString().substring(1);
+	}
+
+	private URI appendParams(URI query) {
 		if (!key.isNull()) {
 			query.param("key", key.asEncoded());
 		}
@@ -744,13 +946,16 @@ public class ViewQuery {
 		copy.groupLevel = groupLevel;
 		copy.ignoreNotFound = ignoreNotFound;
 		copy.includeDocs = includeDocs;
+		copy.deduplicateDocs = deduplicateDocs;
 		copy.inclusiveEnd = inclusiveEnd;
+		copy.label = label;
 		key.copyTo(copy.key);
 		if (keys != null) {
 			copy.keys = keys.clone();
 		}
 		copy.limit = limit;
 		copy.listName = listName;
+		copy.partition = partition;
 		copy.queryParams.putAll(queryParams);
 		copy.reduce = reduce;
 		copy.skip = skip;
@@ -761,7 +966,39 @@ public class ViewQuery {
 		copy.viewName = viewName;
 		return copy;
 	}
-	
+
+	/**
+	 * @return a copy of this query without key, start key, end key and limit, i.e. the parameters that are bound
+	 * per execution by PreparedViewQuery.
+	 */
+	ViewQuery unbound() {
+		Assert.isTrue(keys == null, "multiple-key queries cannot be prepared");
+		ViewQuery copy = clone();
+		copy.key.setKey(null);
+		copy.startKey.setKey(null);
+		copy.endKey.setKey(null);
+		copy.limit = NOT_SET;
+		return copy;
+	}
+
+	/**
+	 * Used by PreparedViewQuery to create an executable copy of an unbound query where the query string, relative to
+	 * the db path, has already been built.
+	 */
+	ViewQuery bind(String query, Object key, Object startKey, Object endKey, int limit) {
+		ViewQuery copy = clone();
+		copy.key.setKey(key);
+		copy.startKey.setKey(startKey);
+		copy.endKey.setKey(endKey);
+		copy.limit = limit;
+		copy.boundQuery = query;
+		return copy;
+	}
+
+	ObjectMapper getMapper() {
+		return mapper;
+	}
+
 	private void appendQueryParams(URI query) {
 		for (Map.Entry<String, String> param : queryParams.entrySet()) {
 			query.param(param.getKey(), param.getValue());
@@ -770,9 +1007,16 @@ public class ViewQuery {
 
 	private URI buildViewPath() {
 		assertHasText(dbPath, "dbPath");
+		return appendViewPath(URI.of(dbPath));
+	}
+
+	private URI appendViewPath(URI uri) {
 		assertHasText(viewName, "viewName");
 
-		URI uri = URI.of(dbPath);
+		if (isNotEmpty(partition)) {
+			Documents.assertValidPartition(partition);
+			uri.append("_partition").append(partition);
+		}
 		if (isNotEmpty(listName)) {
 			uri.append(designDocId).append("_list").append(listName).append(viewName);
 		} else if (ALL_DOCS_VIEW_NAME.equals(viewName)) {
@@ -817,12 +1061,15 @@ public class ViewQuery {
 		result = prime * result + groupLevel;
 		result = prime * result + (ignoreNotFound ? 1231 : 1237);
 		result = prime * result + (includeDocs ? 1231 : 1237);
+		result = prime * result + (deduplicateDocs ? 1231 : 1237);
 		result = prime * result + (inclusiveEnd ? 1231 : 1237);
 		result = prime * result + (updateSeq ? 1231 : 1237);
 		result = prime * result + ((key == null) ? 0 : key.hashCode());
 		result = prime * result + limit;
 		result = prime * result
 				+ ((listName == null) ? 0 : listName.hashCode());
+		result = prime * result
+				+ ((partition == null) ? 0 : partition.hashCode());
 		result = prime * result
 				+ ((queryParams == null) ? 0 : queryParams.hashCode());
 		result = prime * result + (reduce ? 1231 : 1237);
@@ -880,6 +1127,8 @@ public class ViewQuery {
 			return false;
 		if (includeDocs != other.includeDocs)
 			return false;
+		if (deduplicateDocs != other.deduplicateDocs)
+			return false;
 		if (inclusiveEnd != other.inclusiveEnd)
 			return false;
 		if (updateSeq != other.updateSeq)
@@ -896,6 +1145,11 @@ public class ViewQuery {
 				return false;
 		} else if (!listName.equals(other.listName))
 			return false;
+		if (partition == null) {
+			if (other.partition != null)
+				return false;
+		} else if (!partition.equals(other.partition))
+			return false;
 		if (queryParams == null) {
 			if (other.queryParams != null)
 				return false;
@@ -963,6 +1217,10 @@ public class ViewQuery {
         public List<?> getValues() {
             return Collections.unmodifiableList(keys);
 		}
+
+		public int size() {
+			return keys.size();
+		}
 		
         @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="CN_IMPLEMENTS_CLONE_BUT_NOT_CLONEABLE")
 		public Keys clone() {
@@ -985,6 +1243,33 @@ public class ViewQuery {
 				throw Exceptions.propagate(e);
 			}
 		}
+
+		/**
+		 * @return the keys as a JSON array, suitable for the keys query parameter.
+		 */
+		public String toJsonArray(ObjectMapper mapper) {
+			try {
+				return mapper.writeValueAsString(keys);
+			} catch (Exception e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+
+		/**
+		 * Streams {"keys":[...]} to the output stream. The stream is flushed but not closed.
+		 */
+		public void writeTo(OutputStream out, ObjectMapper mapper) throws IOException {
+			JsonGenerator jg = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+			jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			jg.writeStartObject();
+			jg.writeArrayFieldStart("keys");
+			for (Object key : keys) {
+				jg.writeObject(key);
+			}
+			jg.writeEndArray();
+			jg.writeEndObject();
+			jg.close();
+		}
 	}
 
 
@@ -0,0 +1,23 @@
+package org.ektorp;
+
+/**
+ * Thrown when a view result exceeds the ResultSizeLimit set on the connector.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ViewResultTooLargeException extends DbAccessException {
+
+	private static final long serialVersionUID = -3960394736296513641L;
+
+	private final ResultSizeLimit limit;
+
+	public ViewResultTooLargeException(String path, ResultSizeLimit limit) {
+		super(String.format("result of %s exceeds the size limit (%s), use queryForAdaptiveView or queryForStreamingView for large results", path, limit));
+		this.limit = limit;
+	}
+
+	public ResultSizeLimit getLimit() {
+		return limit;
+	}
+}
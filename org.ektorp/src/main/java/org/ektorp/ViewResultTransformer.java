@@ -0,0 +1,376 @@
+package org.ektorp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.util.Assert;
+import org.ektorp.util.Predicate;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Relays a view result from an InputStream to an OutputStream while filtering rows and projecting fields out of the
+ * rows' documents or values. The result is processed token by token, only one row at a time is held in memory and
+ * no trees are built unless the filter asks for them.
+ *
+ * <code>
+ * ViewResultTransformer t = new ViewResultTransformer(objectMapper)
+ *		.project("/name", "/age")
+ *		.projectAs("city", "/address/city")
+ *		.filter(new Predicate&lt;ViewResultTransformer.RowView&gt;() {
+ *			public boolean apply(RowView row) {
+ *				return row.getField("age").intValue() &gt;= 18;
+ *			}
+ *		});
+ * db.queryForTransformedStream(query, t, servletResponse.getOutputStream());
+ * </code>
+ *
+ * The output has the same structure as the view result. With projections, the doc of each row (or the value if the
+ * row has no doc field) is replaced by an object with one field per projection, projections that do not match
+ * anything in the row are left out. Null docs, e.g. of deleted documents, are written as null.
+ *
+ * A configured transformer can be shared between threads.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ViewResultTransformer {
+
+	private static final String ROWS_FIELD_NAME = "rows";
+	private static final String ID_FIELD_NAME = "id";
+	private static final String KEY_FIELD_NAME = "key";
+	private static final String VALUE_FIELD_NAME = "value";
+	private static final String DOC_FIELD_NAME = "doc";
+	private static final String ERROR_FIELD_NAME = "error";
+
+	private final ObjectMapper mapper;
+	private final Map<String, JsonPointer> projections = new LinkedHashMap<String, JsonPointer>();
+	private Predicate<RowView> filter;
+	private volatile PathNode projectionTree;
+
+	public ViewResultTransformer(ObjectMapper mapper) {
+		Assert.notNull(mapper, "ObjectMapper may not be null");
+		this.mapper = mapper;
+	}
+	/**
+	 * Project the values at the JSON pointers, each value is written to a field named as the last segment of its
+	 * pointer.
+	 * @return the transformer for chained calls
+	 */
+	public ViewResultTransformer project(String... pointers) {
+		for (String p : pointers) {
+			JsonPointer ptr = JsonPointer.compile(p);
+			List<String> segments = segments(ptr);
+			Assert.isTrue(!segments.isEmpty(), "use projectAs(name, \"\") to project the whole document");
+			addProjection(segments.get(segments.size() - 1), ptr);
+		}
+		return this;
+	}
+	/**
+	 * Project the value at the JSON pointer to a field with the specified name.
+	 * @return the transformer for chained calls
+	 */
+	public ViewResultTransformer projectAs(String fieldName, String pointer) {
+		Assert.hasText(fieldName, "fieldName may not be empty");
+		addProjection(fieldName, JsonPointer.compile(pointer));
+		return this;
+	}
+	/**
+	 * Only rows accepted by the filter are written.
+	 * @return the transformer for chained calls
+	 */
+	public ViewResultTransformer filter(Predicate<RowView> p) {
+		filter = p;
+		return this;
+	}
+
+	private void addProjection(String fieldName, JsonPointer ptr) {
+		Assert.isTrue(!projections.containsKey(fieldName), String.format("duplicate projection field: %s", fieldName));
+		projections.put(fieldName, ptr);
+		projectionTree = null;
+	}
+
+	private static List<String> segments(JsonPointer ptr) {
+		List<String> segments = new ArrayList<String>();
+		for (JsonPointer p = ptr; !p.matches(); p = p.tail()) {
+			segments.add(p.getMatchingProperty());
+		}
+		return segments;
+	}
+
+	private PathNode projectionTree() {
+		PathNode root = projectionTree;
+		if (root == null && !projections.isEmpty()) {
+			root = new PathNode();
+			int slot = 0;
+			for (JsonPointer ptr : projections.values()) {
+				PathNode n = root;
+				for (String segment : segments(ptr)) {
+					n = n.child(segment);
+				}
+				n.slots.add(slot++);
+			}
+			projectionTree = root;
+		}
+		return root;
+	}
+	/**
+	 * Reads a view result from the input and writes the transformed result to the output.
+	 * Neither stream is closed.
+	 * @return the number of rows written
+	 */
+	public int transform(InputStream in, OutputStream out) throws IOException {
+		JsonParser jp = mapper.getFactory().createParser(in);
+		JsonGenerator jg = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		try {
+			return transform(jp, jg);
+		} finally {
+			jp.close();
+			jg.close();
+		}
+	}
+
+	private int transform(JsonParser jp, JsonGenerator jg) throws IOException {
+		if (jp.nextToken() != JsonToken.START_OBJECT) {
+			throw new DbAccessException("Expected data to start with an Object");
+		}
+		PathNode tree = projectionTree();
+		String[] fieldNames = projections.keySet().toArray(new String[projections.size()]);
+		int written = 0;
+		jg.writeStartObject();
+		while (jp.nextToken() == JsonToken.FIELD_NAME) {
+			String name = jp.getCurrentName();
+			jg.writeFieldName(name);
+			if (jp.nextToken() == JsonToken.START_ARRAY && ROWS_FIELD_NAME.equals(name)) {
+				jg.writeStartArray();
+				while (jp.nextToken() == JsonToken.START_OBJECT) {
+					RowView row = readRow(jp, tree, fieldNames.length);
+					if (filter == null || filter.apply(row)) {
+						row.writeTo(jg, fieldNames);
+						written++;
+					}
+				}
+				jg.writeEndArray();
+			} else {
+				jg.copyCurrentStructure(jp);
+			}
+		}
+		jg.writeEndObject();
+		return written;
+	}
+
+	private RowView readRow(JsonParser jp, PathNode tree, int slotCount) throws IOException {
+		RowView row = new RowView(tree != null ? new TokenBuffer[slotCount] : null);
+		while (jp.nextToken() == JsonToken.FIELD_NAME) {
+			String name = jp.getCurrentName();
+			jp.nextToken();
+			if (ID_FIELD_NAME.equals(name)) {
+				row.id = jp.getText();
+			} else if (ERROR_FIELD_NAME.equals(name)) {
+				row.error = jp.getText();
+			}
+			if (tree != null && DOC_FIELD_NAME.equals(name) && jp.getCurrentToken() != JsonToken.VALUE_NULL) {
+				// the doc is projected straight from the stream
+				project(jp, tree, row.slots);
+				row.projectedField = DOC_FIELD_NAME;
+				row.add(name, null);
+			} else {
+				row.add(name, copy(jp));
+			}
+		}
+		if (tree != null && row.projectedField == null && row.get(DOC_FIELD_NAME) == null) {
+			TokenBuffer value = row.get(VALUE_FIELD_NAME);
+			if (value != null) {
+				JsonParser vp = value.asParser(mapper);
+				vp.nextToken();
+				project(vp, tree, row.slots);
+				vp.close();
+				row.projectedField = VALUE_FIELD_NAME;
+			}
+		}
+		return row;
+	}
+
+	private TokenBuffer copy(JsonParser jp) throws IOException {
+		TokenBuffer tb = new TokenBuffer(mapper, false);
+		tb.copyCurrentStructure(jp);
+		return tb;
+	}
+	/**
+	 * Walks the value at the parser's current token and captures the values at the paths of the tree.
+	 * The value is consumed completely.
+	 */
+	private void project(JsonParser jp, PathNode node, TokenBuffer[] slots) throws IOException {
+		if (!node.slots.isEmpty()) {
+			TokenBuffer captured = copy(jp);
+			for (int slot : node.slots) {
+				slots[slot] = captured;
+			}
+			if (!node.children.isEmpty()) {
+				JsonParser cp = captured.asParser(mapper);
+				cp.nextToken();
+				projectChildren(cp, node, slots);
+				cp.close();
+			}
+		} else {
+			projectChildren(jp, node, slots);
+		}
+	}
+
+	private void projectChildren(JsonParser jp, PathNode node, TokenBuffer[] slots) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		if (t == JsonToken.START_OBJECT) {
+			while (jp.nextToken() == JsonToken.FIELD_NAME) {
+				PathNode child = node.children.get(jp.getCurrentName());
+				jp.nextToken();
+				if (child != null) {
+					project(jp, child, slots);
+				} else {
+					jp.skipChildren();
+				}
+			}
+		} else if (t == JsonToken.START_ARRAY) {
+			int index = 0;
+			while (jp.nextToken() != JsonToken.END_ARRAY) {
+				PathNode child = node.children.get(Integer.toString(index++));
+				if (child != null) {
+					project(jp, child, slots);
+				} else {
+					jp.skipChildren();
+				}
+			}
+		}
+	}
+	/**
+	 * A row as seen by the filter. Keys and projected fields are available as trees, which are only built when
+	 * requested.
+	 */
+	public class RowView {
+
+		private String id;
+		private String error;
+		private final List<String> names = new ArrayList<String>(4);
+		private final List<TokenBuffer> values = new ArrayList<TokenBuffer>(4);
+		private final TokenBuffer[] slots;
+		private String projectedField;
+		private Map<String, JsonNode> trees;
+
+		RowView(TokenBuffer[] slots) {
+			this.slots = slots;
+		}
+
+		void add(String name, TokenBuffer value) {
+			names.add(name);
+			values.add(value);
+		}
+
+		TokenBuffer get(String name) {
+			int i = names.indexOf(name);
+			return i != -1 ? values.get(i) : null;
+		}
+
+		public String getId() {
+			return id;
+		}
+		/**
+		 * @return the error of the row, e.g. not_found, or null if the row is not an error row.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public JsonNode getKey() {
+			return tree(KEY_FIELD_NAME, get(KEY_FIELD_NAME));
+		}
+		/**
+		 * @return the value of the row, null if the row has no value
+		 */
+		public JsonNode getValue() {
+			return tree(VALUE_FIELD_NAME, get(VALUE_FIELD_NAME));
+		}
+		/**
+		 * @param fieldName the name of a projection
+		 * @return the projected value or null if the projection did not match anything in the row.
+		 */
+		public JsonNode getField(String fieldName) {
+			int slot = 0;
+			for (String name : projections.keySet()) {
+				if (name.equals(fieldName)) {
+					return slots != null ? tree("/" + fieldName, slots[slot]) : null;
+				}
+				slot++;
+			}
+			throw new IllegalArgumentException(String.format("no projection named: %s", fieldName));
+		}
+
+		private JsonNode tree(String cacheKey, TokenBuffer tb) {
+			if (tb == null) {
+				return null;
+			}
+			if (trees == null) {
+				trees = new HashMap<String, JsonNode>();
+			}
+			JsonNode n = trees.get(cacheKey);
+			if (n == null) {
+				try {
+					JsonParser p = tb.asParser(mapper);
+					n = mapper.readTree(p);
+					p.close();
+				} catch (IOException e) {
+					throw new DbAccessException(e);
+				}
+				trees.put(cacheKey, n);
+			}
+			return n;
+		}
+
+		void writeTo(JsonGenerator jg, String[] fieldNames) throws IOException {
+			jg.writeStartObject();
+			for (int i = 0; i < names.size(); i++) {
+				String name = names.get(i);
+				jg.writeFieldName(name);
+				if (name.equals(projectedField)) {
+					jg.writeStartObject();
+					for (int s = 0; s < slots.length; s++) {
+						if (slots[s] != null) {
+							jg.writeFieldName(fieldNames[s]);
+							slots[s].serialize(jg);
+						}
+					}
+					jg.writeEndObject();
+				} else {
+					values.get(i).serialize(jg);
+				}
+			}
+			jg.writeEndObject();
+		}
+	}
+
+	private static class PathNode {
+		final Map<String, PathNode> children = new HashMap<String, PathNode>();
+		final List<Integer> slots = new ArrayList<Integer>(1);
+
+		PathNode child(String segment) {
+			PathNode n = children.get(segment);
+			if (n == null) {
+				n = new PathNode();
+				children.put(segment, n);
+			}
+			return n;
+		}
+	}
+}
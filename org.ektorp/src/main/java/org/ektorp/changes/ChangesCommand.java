@@ -1,7 +1,10 @@
 package org.ektorp.changes;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.ektorp.http.URI;
@@ -20,6 +23,26 @@ public class ChangesCommand {
 	public final int heartbeat;
 	public final int limit;
 	public final Map<String,String> extraQueryParams;
+	/**
+	 * The ids of the documents whose changes are requested when the built-in _doc_ids filter is used.
+	 */
+	public final List<String> docIds;
+	/**
+	 * The Mango selector when the built-in _selector filter is used.
+	 */
+	public final Object selector;
+	/**
+	 * The view whose map function filters the changes when the built-in _view filter is used.
+	 */
+	public final String view;
+	public final Style style;
+	public final int seqInterval;
+	/**
+	 * The number of changes a continuous feed buffers, not sent to the server.
+	 */
+	public final int queueCapacity;
+
+	public final static int DEFAULT_QUEUE_CAPACITY = 100;
 	
 	private String queryString; 
 	
@@ -30,6 +53,12 @@ public class ChangesCommand {
 		includeDocs = b.includeDocs;
 		heartbeat = b.heartbeat;
 		limit = b.limit;
+		queueCapacity = b.queueCapacity;
+		docIds = b.docIds != null ? Collections.unmodifiableList(new ArrayList<String>(b.docIds)) : null;
+		selector = b.selector;
+		view = b.view;
+		style = b.style;
+		seqInterval = b.seqInterval;
 		if (b.extraQueryParams != null) {
 			extraQueryParams = Collections.unmodifiableMap(new LinkedHashMap<String, String>(b.extraQueryParams));	
 		} else {
@@ -37,6 +66,30 @@ public class ChangesCommand {
 		}
 	}
 	
+	/**
+	 * The _doc_ids and _selector filters take their arguments in the body of a POST request.
+	 * @return true if the feed has to be requested with POST and a body created by getRequestBody()
+	 */
+	public boolean hasRequestBody() {
+		return docIds != null || selector != null;
+	}
+	/**
+	 * @return an object that serializes to the body of the POST request, null if the feed is requested with GET.
+	 */
+	public Map<String, Object> getRequestBody() {
+		if (!hasRequestBody()) {
+			return null;
+		}
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		if (docIds != null) {
+			body.put("doc_ids", docIds);
+		}
+		if (selector != null) {
+			body.put("selector", selector);
+		}
+		return body;
+	}
+
 	@Override
 	public String toString() {
 		if (queryString == null) {
@@ -52,6 +105,10 @@ public class ChangesCommand {
 			if (filter != null) {
 				uri.param("filter", filter);
 			}
+
+			if (view != null) {
+				uri.param("view", view);
+			}
 			
 			if (includeDocs) {
 				uri.param("include_docs", "true");
@@ -64,6 +121,14 @@ public class ChangesCommand {
 			if (limit > -1){
 				uri.param("limit", limit);
 			}
+
+			if (style != null) {
+				uri.param("style", style.value);
+			}
+
+			if (seqInterval > 0) {
+				uri.param("seq_interval", seqInterval);
+			}
 			
 			if (extraQueryParams != null) {
 				uri.params(extraQueryParams);
@@ -73,6 +138,22 @@ public class ChangesCommand {
 		}
 		return queryString;
 	}
+	/**
+	 * Which revisions of a changed document a change lists.
+	 */
+	public enum Style {
+		MAIN_ONLY("main_only"), ALL_DOCS("all_docs");
+
+		private final String value;
+
+		private Style(String value) {
+			this.value = value;
+		}
+
+		public String getValue() {
+			return value;
+		}
+	}
 	/**
 	 * Ised to create a valid ChangesCommand
 	 * 
@@ -87,7 +168,13 @@ public class ChangesCommand {
 		private boolean includeDocs;
 		private int heartbeat = -1;
 		private int limit = -1;
+		private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
 		private Map<String,String> extraQueryParams;
+		private List<String> docIds;
+		private Object selector;
+		private String view;
+		private Style style;
+		private int seqInterval;
 		
 		/**
 		 * Start the results from the change immediately after the given sequence number.
@@ -135,8 +222,84 @@ public class ChangesCommand {
 		 */
 		public Builder filter(String s) {
 			this.filter = s;
+			this.docIds = null;
+			this.selector = null;
+			this.view = null;
 			return this;
 		}
+		/**
+		 * Only return changes of the given documents, using the built-in _doc_ids filter.
+		 * The ids are posted in the request body, so the list may be long.
+		 * @param ids
+		 * @return
+		 */
+		public Builder docIds(Collection<String> ids) {
+			if (ids == null) {
+				throw new IllegalArgumentException("ids may not be null");
+			}
+			this.filter = "_doc_ids";
+			this.docIds = new ArrayList<String>(ids);
+			this.selector = null;
+			this.view = null;
+			return this;
+		}
+		/**
+		 * Only return changes of documents matching a Mango selector, using the built-in _selector filter.
+		 * Much faster than a JavaScript filter function. Requires CouchDB 2.0 or later.
+		 * @param selector a Map, JsonNode or any other object that serializes to a selector, e.g. {"type": "order"}
+		 * @return
+		 */
+		public Builder selector(Object selector) {
+			if (selector == null) {
+				throw new IllegalArgumentException("selector may not be null");
+			}
+			this.filter = "_selector";
+			this.selector = selector;
+			this.docIds = null;
+			this.view = null;
+			return this;
+		}
+		/**
+		 * Only return changes of documents for which the map function of the view emits something, using the
+		 * built-in _view filter.
+		 * @param designDocViewName e.g. "mydesigndoc/myview"
+		 * @return
+		 */
+		public Builder view(String designDocViewName) {
+			if (designDocViewName == null || designDocViewName.length() == 0) {
+				throw new IllegalArgumentException("designDocViewName may not be null or empty");
+			}
+			this.filter = "_view";
+			this.view = designDocViewName;
+			this.docIds = null;
+			this.selector = null;
+			return this;
+		}
+		/**
+		 * ALL_DOCS returns all leaf revisions of each changed document (i.e. including conflicts), MAIN_ONLY (the
+		 * default) only the winning revision.
+		 * @param s
+		 * @return
+		 */
+		public Builder style(Style s) {
+			this.style = s;
+			return this;
+		}
+		/**
+		 * Only compute the sequence of every n:th change on clustered databases (CouchDB 2.0 and later), changes in
+		 * between get a null seq. Lowers the load on the server for large feeds. Feeds, processors and schedulers
+		 * resume from the last change that had a sequence, or from the last_seq of the response.
+		 * @param n
+		 * @return
+		 */
+		public Builder seqInterval(int n) {
+			if (n < 1) {
+				throw new IllegalArgumentException("seqInterval must be greater than zero");
+			}
+			this.seqInterval = n;
+			return this;
+		}
+
 		/**
 		 * Include the associated document with each result.
 		 * @param b
@@ -157,12 +320,32 @@ public class ChangesCommand {
 		    	return this;
 		}
 		
+		/**
+		 * The max number of changes a continuous feed buffers before it stops reading from the server until the
+		 * consumer catches up. Default is 100. A larger queue evens out bursts, at the cost of memory.
+		 * @param i
+		 * @return
+		 */
+		public Builder queueCapacity(int i) {
+			if (i < 1) {
+				throw new IllegalArgumentException("queueCapacity must be greater than zero");
+			}
+			this.queueCapacity = i;
+			return this;
+		}
+
 		public Builder merge(ChangesCommand other) {
 			continuous = other.continuous;
+			queueCapacity = other.queueCapacity;
 			filter = other.filter;
 			includeDocs = other.includeDocs;
 			since = other.since;
 			limit = other.limit;
+			docIds = other.docIds;
+			selector = other.selector;
+			view = other.view;
+			style = other.style;
+			seqInterval = other.seqInterval;
 			if (other.extraQueryParams != null) {
 			    extraQueryParams = new LinkedHashMap<String, String>(other.extraQueryParams);
 			}
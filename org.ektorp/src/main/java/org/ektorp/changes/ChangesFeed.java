@@ -1,16 +1,18 @@
 package org.ektorp.changes;
 
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
  * ChangesFeed listens to the _changes feed in a CouchDB database.
  * Feeds are created by calling the method  changesFeed(ChangesCommand cmd) in CouchDbConnector.
  * 
- * An active feed buffers incoming changes in a unbounded queue that will grow until OutOfMemoryException if not polled.
+ * An active feed buffers incoming changes in a bounded queue, see ChangesCommand.Builder.queueCapacity. When the queue is
+ * full the feed stops reading from the server until changes are taken.
  * @author henrik lundgren
  *
  */
-public interface ChangesFeed {
+public interface ChangesFeed extends ChangesFeedMetricsSource {
 	/**
 	 * Retrieves and removes the head of this changes feed, waiting if necessary until an element becomes available.
 	 * @return
@@ -31,6 +33,18 @@ public interface ChangesFeed {
 	 * @throws InterruptedException when this changes feed is closed or otherwise is interrupted
 	 */
 	DocumentChange next(long timeout, TimeUnit unit) throws InterruptedException;
+	/**
+	 * Waits up to the specified wait time for a change to become available and then moves it and the changes queued
+	 * behind it, at most maxItems in total, to the target list in one operation.
+	 * Draining in batches is considerably faster than calling next() for each change when the feed is catching up.
+	 * @param target
+	 * @param maxItems
+	 * @param timeout
+	 * @param unit
+	 * @return the number of changes added to the target, 0 if the wait time elapsed.
+	 * @throws InterruptedException when this changes feed is closed or otherwise is interrupted
+	 */
+	int nextBatch(List<? super DocumentChange> target, int maxItems, long timeout, TimeUnit unit) throws InterruptedException;
 	/**
 	 * Will close this feed and interrupt any threads waiting on next()  
 	 */
@@ -44,5 +58,10 @@ public interface ChangesFeed {
 	 * @return the size of this feed's unhandled internal queue.
 	 */
 	int queueSize();
+	/**
+	 * A consumer that saves this sequence can later resume from it with ChangesCommand.Builder.since.
+	 * @return the sequence of the last change returned by next, poll or nextBatch, null if none has been returned.
+	 */
+	String getLastSeq();
 	
 }
@@ -0,0 +1,59 @@
+package org.ektorp.changes;
+
+/**
+ * A snapshot of the throughput and state of a changes feed.
+ *
+ * Counts and times are totals since the feed was created. Rates are averages since the feed was created, except in
+ * the metrics reported by a ChangesFeedMetricsReporter, where they cover the last reporting interval.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesFeedMetrics {
+
+	String getDbName();
+	/**
+	 * @return the time in millis when the snapshot was taken
+	 */
+	long getTimestamp();
+	/**
+	 * @return the number of changes read from the server
+	 */
+	long getChangeCount();
+	/**
+	 * @return the number of bytes read from the server, including heartbeats
+	 */
+	long getByteCount();
+
+	double getChangesPerSecond();
+
+	double getBytesPerSecond();
+	/**
+	 * @return the number of changes read but not yet taken by the consumer
+	 */
+	int getQueueSize();
+	/**
+	 * @return the time in millis the feed has spent waiting for the consumer to make room in a full queue. A value that
+	 * keeps growing means the consumer is the bottleneck.
+	 */
+	long getBlockedMillis();
+	/**
+	 * @return the time in millis since data (change or heartbeat) was last read from the server
+	 */
+	long getMillisSinceLastData();
+	/**
+	 * @return the longest time in millis between two reads of data from the server, i.e. the longest heartbeat interval
+	 */
+	long getLongestDataGapMillis();
+
+	int getReconnectCount();
+	/**
+	 * @return the sequence of the last change delivered to the consumer, null if none has been delivered
+	 */
+	String getLastSeq();
+	/**
+	 * @return the approximate number of database updates the consumer has not yet seen, i.e. the update_seq of the
+	 * database minus the last delivered sequence. -1 if unknown.
+	 */
+	long getSequenceLag();
+}
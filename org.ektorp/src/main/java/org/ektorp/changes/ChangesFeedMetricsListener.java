@@ -0,0 +1,14 @@
+package org.ektorp.changes;
+
+/**
+ * Receives the metrics of a changes feed at a fixed interval from a ChangesFeedMetricsReporter, e.g. in order to
+ * publish them to a monitoring system or to alert on consumers that fall behind.
+ * Called by the reporter's thread, so it should return quickly.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesFeedMetricsListener {
+
+	void onMetrics(ChangesFeedMetrics metrics);
+}
@@ -0,0 +1,15 @@
+package org.ektorp.changes;
+
+/**
+ * A changes feed that keeps metrics of itself.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesFeedMetricsSource {
+	/**
+	 * Cheap enough to be called often, the sequence lag is not known and is always -1.
+	 * @return a snapshot of the current metrics
+	 */
+	ChangesFeedMetrics getMetrics();
+}
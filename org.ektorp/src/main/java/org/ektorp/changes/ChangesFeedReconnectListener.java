@@ -0,0 +1,21 @@
+package org.ektorp.changes;
+
+/**
+ * Is notified when a resuming changes feed loses and regains its connection.
+ * Both methods are called by the feed's reading thread and should return quickly.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesFeedReconnectListener {
+	/**
+	 * @param lastSeq the sequence of the last change received, the feed resumes from it.
+	 * @param cause the error that ended the connection, null if the server closed it or it was aborted for missed heartbeats.
+	 */
+	void disconnected(String lastSeq, Exception cause);
+	/**
+	 * @param since the sequence the feed resumed from
+	 * @param failedAttempts the number of failed reconnect attempts before this one
+	 */
+	void reconnected(String since, int failedAttempts);
+}
@@ -0,0 +1,19 @@
+package org.ektorp.changes;
+
+/**
+ * Receives the changes of a feed driven by a ChangesFeedDispatcher or a ChangesProcessor.
+ *
+ * A ChangesFeedDispatcher delivers the changes of one feed one at a time and in sequence order, by one of the
+ * dispatcher's I/O threads. A listener that is slow holds up its thread, so heavy processing should be handed off to
+ * other threads. If onChange throws, the change is delivered again in a later poll.
+ *
+ * A ChangesProcessor delivers the changes of one document in sequence order, changes of different documents may be
+ * delivered concurrently. If onChange throws, the change is retried.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesListener {
+
+	void onChange(DocumentChange change);
+}
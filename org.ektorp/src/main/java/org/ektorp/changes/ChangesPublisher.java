@@ -0,0 +1,18 @@
+package org.ektorp.changes;
+
+/**
+ * Publishes the changes of a continuous feed to subscribers that signal demand, the feed is only read from the server
+ * as far as subscribers have requested.
+ *
+ * The interfaces mirror java.util.concurrent.Flow (and Reactive Streams) method for method, so that adapting a
+ * ChangesPublisher to a Flow.Publisher or a Reactive Streams Publisher only takes delegating wrappers.
+ *
+ * Every subscription opens its own connection to the feed.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesPublisher<T> {
+
+	void subscribe(ChangesSubscriber<? super T> subscriber);
+}
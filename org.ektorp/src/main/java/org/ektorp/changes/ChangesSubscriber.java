@@ -0,0 +1,23 @@
+package org.ektorp.changes;
+
+/**
+ * Receives the items of a ChangesPublisher. onNext is called no more times than requested through the subscription.
+ * All methods of a subscriber are called by the same thread, one at a time.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesSubscriber<T> {
+
+	void onSubscribe(ChangesSubscription subscription);
+
+	void onNext(T item);
+	/**
+	 * The feed failed, no more items will be published.
+	 */
+	void onError(Throwable throwable);
+	/**
+	 * The server closed the feed, no more items will be published.
+	 */
+	void onComplete();
+}
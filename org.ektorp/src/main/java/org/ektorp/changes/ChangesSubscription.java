@@ -0,0 +1,19 @@
+package org.ektorp.changes;
+
+/**
+ * Links a ChangesSubscriber to a ChangesPublisher.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface ChangesSubscription {
+	/**
+	 * Adds n items to the demand of the subscriber. The feed is read from the server only while there is demand.
+	 * @param n must be greater than zero
+	 */
+	void request(long n);
+	/**
+	 * Stops the publishing and aborts the connection to the feed.
+	 */
+	void cancel();
+}
@@ -0,0 +1,17 @@
+package org.ektorp.changes;
+
+/**
+ * Persists the sequence up to which the changes of a feed have been processed, so that processing can be resumed
+ * from there after a restart.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface CheckpointStore {
+	/**
+	 * @return the last saved sequence, null if no checkpoint has been saved.
+	 */
+	String load();
+
+	void save(String seq);
+}
@@ -0,0 +1,15 @@
+package org.ektorp.changes;
+
+/**
+ * Receives the changes of many databases from a ChangesCatchUpScheduler.
+ *
+ * The changes of one database are delivered in sequence order by one thread at a time, changes of different databases
+ * may be delivered concurrently. If onChange throws, the catch-up of the database is retried from the failed change.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface DatabaseChangesListener {
+
+	void onChange(String dbName, DocumentChange change);
+}
@@ -0,0 +1,24 @@
+package org.ektorp.changes;
+
+/**
+ * Represents an event in the _db_updates feed of a CouchDB instance.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface DbUpdate {
+
+	String CREATED = "created";
+	String UPDATED = "updated";
+	String DELETED = "deleted";
+
+	String getDbName();
+	/**
+	 * @return one of created, updated or deleted
+	 */
+	String getType();
+	/**
+	 * @return the sequence of this update in the _db_updates feed, null if the server does not send sequences (CouchDB 1.x).
+	 */
+	String getSequence();
+}
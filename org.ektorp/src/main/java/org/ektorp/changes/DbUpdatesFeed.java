@@ -0,0 +1,46 @@
+package org.ektorp.changes;
+
+import java.util.concurrent.*;
+
+/**
+ * DbUpdatesFeed listens to the _db_updates feed of a CouchDB instance, i.e. the creation, update and deletion of all
+ * databases in the instance. Feeds are created by calling the method dbUpdatesFeed(String since) in CouchDbInstance.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface DbUpdatesFeed {
+	/**
+	 * Retrieves and removes the head of this feed, waiting if necessary until an element becomes available.
+	 * @return
+	 * @throws InterruptedException when this feed is closed or otherwise is interrupted
+	 */
+	DbUpdate next() throws InterruptedException;
+	/**
+	 * Retrieves and removes the head of this feed, do not wait until an element becomes available. returns null if empty
+	 * @return
+	 * @throws InterruptedException when this feed is closed or otherwise is interrupted
+	 */
+	DbUpdate poll() throws InterruptedException;
+	/**
+	 * Retrieves and removes the head of this feed, waiting up to the specified wait time if necessary for an element to become available.
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException when this feed is closed or otherwise is interrupted
+	 */
+	DbUpdate next(long timeout, TimeUnit unit) throws InterruptedException;
+	/**
+	 * Will close this feed and interrupt any threads waiting on next()
+	 */
+	void cancel();
+	/**
+	 * @return true if this feed is active.
+	 */
+	boolean isAlive();
+	/**
+	 * A consumer that saves this sequence can later resume from it with dbUpdatesFeed(String since).
+	 * @return the sequence of the last update returned by next or poll, null if none has been returned.
+	 */
+	String getLastSeq();
+}
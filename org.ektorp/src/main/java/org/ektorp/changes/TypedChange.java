@@ -0,0 +1,32 @@
+package org.ektorp.changes;
+
+import java.util.List;
+
+/**
+ * A document change with the included document bound to a type.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface TypedChange<T> {
+	/**
+	 * @return the database sequence number in which this change took place.
+	 */
+	int getSequence();
+	/**
+	 * @return the database string format sequence number in which this change took place (e.g. Cloudant).
+	 */
+	String getStringSequence();
+
+	String getId();
+
+	String getRevision();
+
+	List<String> getRevisions();
+
+	boolean isDeleted();
+	/**
+	 * @return the included document, null if the change has no document (e.g. if it is deleted)
+	 */
+	T getDoc();
+}
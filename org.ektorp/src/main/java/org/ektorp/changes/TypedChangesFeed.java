@@ -0,0 +1,32 @@
+package org.ektorp.changes;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Changes feed where the included documents are bound to a type while the feed is read.
+ * Feeds are created by calling the method changesFeed(ChangesCommand cmd, Class<T> docType) in CouchDbConnector.
+ *
+ * The methods behave as their counterparts in ChangesFeed.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface TypedChangesFeed<T> extends ChangesFeedMetricsSource {
+
+	TypedChange<T> next() throws InterruptedException;
+
+	TypedChange<T> poll() throws InterruptedException;
+
+	TypedChange<T> next(long timeout, TimeUnit unit) throws InterruptedException;
+
+	int nextBatch(List<? super TypedChange<T>> target, int maxItems, long timeout, TimeUnit unit) throws InterruptedException;
+
+	void cancel();
+
+	boolean isAlive();
+
+	int queueSize();
+
+	String getLastSeq();
+}
@@ -93,6 +93,10 @@ public class RestTemplate {
 		return handleRawResponse(client.post(path,content));
 	}
 	
+	public HttpResponse post(String path, HttpEntity httpEntity) {
+		return handleRawResponse(client.post(path, httpEntity));
+	}
+
 	public HttpResponse postUncached(String path, String content ) {
 		return handleRawResponse(client.postUncached(path,content));
 	}
@@ -0,0 +1,81 @@
+package org.ektorp.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.ektorp.ViewQuery;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Request entity for the view multi-query endpoint. The {"queries":[...]} body is serialized straight to the
+ * connection's output stream when the request is sent.
+ *
+ * @see ViewQuery#writeQueryObjectTo(JsonGenerator)
+ */
+public class ViewQueriesEntity extends AbstractHttpEntity {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<ViewQuery> queries;
+
+    public ViewQueriesEntity(List<ViewQuery> queries) {
+        Assert.notEmpty(queries, "queries may not be empty");
+        this.queries = queries;
+        setContentType("application/json");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException, IllegalStateException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Assert.notNull(outputStream, "Output stream");
+        write(outputStream);
+        outputStream.flush();
+    }
+
+    private void write(OutputStream out) throws IOException {
+        JsonGenerator jg = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jg.writeStartObject();
+        jg.writeArrayFieldStart("queries");
+        for (ViewQuery q : queries) {
+            q.writeQueryObjectTo(jg);
+        }
+        jg.writeEndArray();
+        jg.writeEndObject();
+        jg.close();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public List<ViewQuery> getQueries() {
+        return queries;
+    }
+}
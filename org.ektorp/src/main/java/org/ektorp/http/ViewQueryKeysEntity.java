@@ -0,0 +1,62 @@
+package org.ektorp.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.ektorp.ViewQuery;
+import org.ektorp.util.Assert;
+
+/**
+ * Request entity for multiple-key view queries.
+ * The {"keys":[...]} body is serialized straight to the connection's output stream when the request is sent,
+ * so large key sets are never held in memory as a String.
+ *
+ * @see ViewQuery#writeKeysTo(OutputStream)
+ */
+public class ViewQueryKeysEntity extends AbstractHttpEntity {
+
+    private final ViewQuery query;
+
+    public ViewQueryKeysEntity(ViewQuery query) {
+        Assert.notNull(query, "query may not be null");
+        this.query = query;
+        setContentType("application/json");
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException, IllegalStateException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        query.writeKeysTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Assert.notNull(outputStream, "Output stream");
+        query.writeKeysTo(outputStream);
+        outputStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public ViewQuery getQuery() {
+        return query;
+    }
+}
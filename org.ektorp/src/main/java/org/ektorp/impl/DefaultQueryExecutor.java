@@ -1,8 +1,15 @@
 package org.ektorp.impl;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.ektorp.QueryProfile;
+import org.ektorp.QueryProfileListener;
 import org.ektorp.ViewQuery;
 import org.ektorp.http.ResponseCallback;
 import org.ektorp.http.RestTemplate;
+import org.ektorp.http.ViewQueryKeysEntity;
+import org.ektorp.util.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,6 +19,9 @@ import org.slf4j.LoggerFactory;
  *
  * Be aware that, as stated in https://github.com/helun/Ektorp/issues/165 this implementation is making use of POST HTTP method in case of multiple keys,
  * so that it may not be appropriate for hosted services like Cloudant where POST are more charged that GET.
+ * For such hosts, small key sets can be sent as GET requests with a keys parameter, see {@link #setMaxKeysAsQueryParameter(int)}.
+ *
+ * Queries are profiled when at least one QueryProfileListener is registered, see {@link #addProfileListener(QueryProfileListener)}.
  *
 */
 public class DefaultQueryExecutor implements QueryExecutor {
@@ -25,6 +35,10 @@ public class DefaultQueryExecutor implements QueryExecutor {
 
     private RestTemplate restTemplate;
 
+    private int maxKeysAsQueryParameter = 0;
+
+    private final List<QueryProfileListener> profileListeners = new CopyOnWriteArrayList<QueryProfileListener>();
+
     public DefaultQueryExecutor() {
         super();
     }
@@ -41,16 +55,68 @@ public class DefaultQueryExecutor implements QueryExecutor {
         this.restTemplate = value;
     }
 
+    public int getMaxKeysAsQueryParameter() {
+        return maxKeysAsQueryParameter;
+    }
+
+    /**
+     * Multiple-key queries with at most this many keys are sent as a GET request with a keys=[...] query parameter
+     * instead of as a POST request. Keep it small, the length of the request line is limited by the server.
+     * Default is 0, i.e. multiple-key queries are always posted.
+     * @param value
+     */
+    public void setMaxKeysAsQueryParameter(int value) {
+        this.maxKeysAsQueryParameter = value;
+    }
+
+    /**
+     * The listener will receive a QueryProfile for every query executed from now on.
+     * Profiling adds a few timer reads per query and row, queries are not profiled when no listener is registered.
+     * @param l
+     */
+    public void addProfileListener(QueryProfileListener l) {
+        Assert.notNull(l, "listener may not be null");
+        profileListeners.add(l);
+    }
+
+    public void removeProfileListener(QueryProfileListener l) {
+        profileListeners.remove(l);
+    }
+
     @Override
     public <T> T executeQuery(ViewQuery query, ResponseCallback<T> rh) {
+        if (profileListeners.isEmpty()) {
+            return doExecuteQuery(query, rh);
+        }
+        QueryProfile profile = new QueryProfile(query.getDesignDocId(), query.getViewName(), query.getLabel());
+        boolean successful = false;
+        try {
+            T result = doExecuteQuery(query, new ProfilingResponseCallback<T>(rh, profile));
+            successful = true;
+            return result;
+        } finally {
+            profile.complete(successful);
+            for (QueryProfileListener l : profileListeners) {
+                try {
+                    l.queryCompleted(profile);
+                } catch (RuntimeException e) {
+                    LOG.warn("QueryProfileListener threw exception", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the query and hands the response to the callback, without profiling.
+     */
+    protected <T> T doExecuteQuery(ViewQuery query, ResponseCallback<T> rh) {
         LOG.debug("Querying CouchDb view at {}.", query);
         T result;
-        if (!query.isCacheOk()) {
-            result = query.hasMultipleKeys() ? getRestTemplate().postUncached(query.buildQuery(), query.getKeysAsJson(), rh)
-                    : getRestTemplate().getUncached(query.buildQuery(), rh);
+        if (query.hasMultipleKeys() && query.getKeys().size() > maxKeysAsQueryParameter) {
+            result = getRestTemplate().post(query.buildQuery(), new ViewQueryKeysEntity(query), rh);
         } else {
-            result = query.hasMultipleKeys() ? getRestTemplate().post(query.buildQuery(), query.getKeysAsJson(), rh)
-                    : getRestTemplate().get(query.buildQuery(), rh);
+            String uri = query.hasMultipleKeys() ? query.buildQueryWithKeysParameter() : query.buildQuery();
+            result = query.isCacheOk() ? getRestTemplate().get(uri, rh) : getRestTemplate().getUncached(uri, rh);
         }
         LOG.debug("Answer from view query: {}.", result);
         return result;
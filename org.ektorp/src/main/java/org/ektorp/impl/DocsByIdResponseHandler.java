@@ -0,0 +1,75 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the included documents of an _all_docs?include_docs=true result into a map keyed by document id.
+ * Rows for missing or deleted documents are left out.
+ *
+ * @author henrik lundgren
+ *
+ * @param <T>
+ */
+public class DocsByIdResponseHandler<T> extends StdResponseHandler<Map<String, T>> {
+
+    private static final String ROWS_FIELD_NAME = "rows";
+
+    private final ObjectMapper mapper;
+    private final Class<T> type;
+
+    public DocsByIdResponseHandler(Class<T> type, ObjectMapper om) {
+        this.type = type;
+        this.mapper = om;
+    }
+
+    @Override
+    public Map<String, T> success(HttpResponse hr) throws Exception {
+        JsonParser jp = mapper.getFactory().createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            Map<String, T> docs = new HashMap<String, T>();
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                if (ROWS_FIELD_NAME.equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+                    readRows(jp, docs);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return docs;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private void readRows(JsonParser jp, Map<String, T> docs) throws IOException {
+        while (jp.nextToken() == JsonToken.START_OBJECT) {
+            String id = null;
+            T doc = null;
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if ("id".equals(name)) {
+                    id = jp.getText();
+                } else if ("doc".equals(name) && jp.getCurrentToken() != JsonToken.VALUE_NULL) {
+                    doc = mapper.readValue(jp, type);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (id != null && doc != null) {
+                docs.put(id, doc);
+            }
+        }
+    }
+}
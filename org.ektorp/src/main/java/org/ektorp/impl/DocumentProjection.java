@@ -0,0 +1,138 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Reads a subset of a JSON document straight from a parser. Only the values at the configured JSON pointers are
+ * copied, everything else is skipped with JsonParser.skipChildren() so no tree is built for the rest of the document.
+ *
+ * The projected values keep their position in the document, i.e. the projection of "/address/city" from
+ * {"name":"x","address":{"city":"y","zip":"z"}} is {"address":{"city":"y"}}, which binds to the same class as the
+ * whole document. Elements of arrays that precede a projected index are written as null.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class DocumentProjection {
+
+    private final Node root = new Node();
+
+    public DocumentProjection(String... jsonPointers) {
+        Assert.notNull(jsonPointers, "jsonPointers may not be null");
+        for (String p : jsonPointers) {
+            Node n = root;
+            for (JsonPointer ptr = JsonPointer.compile(p); !ptr.matches(); ptr = ptr.tail()) {
+                n = n.child(ptr.getMatchingProperty());
+            }
+            n.complete = true;
+        }
+    }
+    /**
+     * Reads the projection of the value at the parser's current token and binds it to the type.
+     * The value is consumed completely.
+     */
+    public <T> T read(JsonParser jp, ObjectMapper mapper, Class<T> type) throws IOException {
+        TokenBuffer tb = new TokenBuffer(mapper, false);
+        copy(jp, tb);
+        JsonParser p = tb.asParser(mapper);
+        try {
+            return mapper.readValue(p, type);
+        } finally {
+            p.close();
+        }
+    }
+    /**
+     * Writes the projection of the value at the parser's current token to the generator.
+     * The value is consumed completely.
+     */
+    public void copy(JsonParser jp, JsonGenerator jg) throws IOException {
+        copy(jp, jg, root);
+    }
+
+    private void copy(JsonParser jp, JsonGenerator jg, Node node) throws IOException {
+        if (node.complete) {
+            jg.copyCurrentStructure(jp);
+            return;
+        }
+        JsonToken t = jp.getCurrentToken();
+        if (t == JsonToken.START_OBJECT) {
+            jg.writeStartObject();
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String name = jp.getCurrentName();
+                Node child = node.children.get(name);
+                jp.nextToken();
+                if (child != null) {
+                    jg.writeFieldName(name);
+                    copy(jp, jg, child);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            jg.writeEndObject();
+        } else if (t == JsonToken.START_ARRAY) {
+            jg.writeStartArray();
+            int index = 0;
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                Node child = index < node.maxIndex ? node.children.get(Integer.toString(index)) : null;
+                if (child != null) {
+                    copy(jp, jg, child);
+                } else {
+                    jp.skipChildren();
+                    if (index < node.maxIndex) {
+                        jg.writeNull();
+                    }
+                }
+                index++;
+            }
+            jg.writeEndArray();
+        } else {
+            // a scalar where the projection expects a container
+            jg.writeNull();
+        }
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        /**
+         * one past the highest array index among the children, array elements at or beyond it are skipped.
+         */
+        int maxIndex;
+        boolean complete;
+
+        Node child(String segment) {
+            Node n = children.get(segment);
+            if (n == null) {
+                n = new Node();
+                children.put(segment, n);
+                int index = arrayIndex(segment);
+                if (index >= maxIndex) {
+                    maxIndex = index + 1;
+                }
+            }
+            return n;
+        }
+
+        private static int arrayIndex(String segment) {
+            if (segment.length() == 0 || segment.length() > 9) {
+                return -1;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (!Character.isDigit(segment.charAt(i))) {
+                    return -1;
+                }
+            }
+            return Integer.parseInt(segment);
+        }
+    }
+}
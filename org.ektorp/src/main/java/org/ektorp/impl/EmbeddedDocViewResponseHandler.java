@@ -1,8 +1,10 @@
 package org.ektorp.impl;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ektorp.QueryProfile;
 import org.ektorp.http.HttpResponse;
 import org.ektorp.http.StdResponseHandler;
 import org.ektorp.util.Assert;
@@ -14,7 +16,7 @@ import org.ektorp.util.Assert;
  * @param <T>
  */
 public class EmbeddedDocViewResponseHandler<T> extends
-		StdResponseHandler<List<T>> {
+		StdResponseHandler<List<T>> implements QueryProfileAware {
 
 	private QueryResultParser<T> parser;
 
@@ -32,6 +34,18 @@ public class EmbeddedDocViewResponseHandler<T> extends
 		parser.setIgnoreNotFound(ignoreNotFound);
 	}
 
+	/**
+	 * Rows will be bound to the doc type by the executor's threads while the response is read.
+	 * @param es
+	 */
+	public void setBindingExecutor(ExecutorService es) {
+		parser.setBindingExecutor(es);
+	}
+
+	public void setQueryProfile(QueryProfile profile) {
+		parser.setQueryProfile(profile);
+	}
+
 	@Override
 	public List<T> success(HttpResponse hr) throws Exception {
 		parser.parseResult(hr.getContent());
@@ -0,0 +1,83 @@
+package org.ektorp.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.ExecutionStats;
+import org.ektorp.FindResult;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the response of the Mango _find endpoint. The response is streamed and each document is bound
+ * directly to the specified type.
+ *
+ * @author henrik lundgren
+ *
+ * @param <T>
+ */
+public class FindResponseHandler<T> extends StdResponseHandler<FindResult<T>> {
+
+    private static final String DOCS_FIELD_NAME = "docs";
+    private static final String BOOKMARK_FIELD_NAME = "bookmark";
+    private static final String WARNING_FIELD_NAME = "warning";
+    private static final String EXECUTION_STATS_FIELD_NAME = "execution_stats";
+
+    private final Class<T> type;
+    private final ObjectMapper mapper;
+
+    public FindResponseHandler(Class<T> type, ObjectMapper mapper) {
+        Assert.notNull(type, "type may not be null");
+        Assert.notNull(mapper, "ObjectMapper may not be null");
+        this.type = type;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public FindResult<T> success(HttpResponse hr) throws Exception {
+        JsonParser jp = mapper.getFactory().createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            List<T> docs = null;
+            String bookmark = null;
+            String warning = null;
+            ExecutionStats stats = null;
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if (DOCS_FIELD_NAME.equals(name)) {
+                    docs = readDocs(jp);
+                } else if (BOOKMARK_FIELD_NAME.equals(name)) {
+                    bookmark = jp.getText();
+                } else if (WARNING_FIELD_NAME.equals(name)) {
+                    warning = jp.getText();
+                } else if (EXECUTION_STATS_FIELD_NAME.equals(name)) {
+                    stats = jp.readValueAs(ExecutionStats.class);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return new FindResult<T>(docs, bookmark, warning, stats);
+        } finally {
+            jp.close();
+        }
+    }
+
+    private List<T> readDocs(JsonParser jp) throws Exception {
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new DbAccessException("Expected docs to start with an Array");
+        }
+        List<T> docs = new ArrayList<T>();
+        while (jp.nextToken() == JsonToken.START_OBJECT) {
+            docs.add(jp.readValueAs(type));
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,78 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.ViewQuery;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the {"results":[...]} response of the view multi-query endpoint. The response is streamed and each result
+ * is handed to readResult together with the query it belongs to.
+ *
+ * @author henrik lundgren
+ *
+ * @param <R> the type of each query's result
+ */
+public abstract class MultiQueryResponseHandler<R> extends StdResponseHandler<List<R>> {
+
+    private static final String RESULTS_FIELD_NAME = "results";
+
+    private final ObjectMapper mapper;
+    private final List<ViewQuery> queries;
+
+    public MultiQueryResponseHandler(ObjectMapper mapper, List<ViewQuery> queries) {
+        this.mapper = mapper;
+        this.queries = queries;
+    }
+
+    @Override
+    public List<R> success(HttpResponse hr) throws Exception {
+        JsonParser jp = mapper.getFactory().createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            List<R> results = null;
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                if (RESULTS_FIELD_NAME.equals(jp.getCurrentName())) {
+                    results = readResults(jp);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (results == null || results.size() != queries.size()) {
+                throw new DbAccessException(String.format("Expected %s results in multi-query response", queries.size()));
+            }
+            return results;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private List<R> readResults(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new DbAccessException("Expected results to start with an Array");
+        }
+        List<R> results = new ArrayList<R>(queries.size());
+        while (jp.nextToken() == JsonToken.START_OBJECT) {
+            if (results.size() == queries.size()) {
+                throw new DbAccessException("Multi-query response contains more results than queries");
+            }
+            results.add(readResult(jp, queries.get(results.size())));
+        }
+        return results;
+    }
+    /**
+     * The parser is positioned at the START_OBJECT of the result and has to be left at its END_OBJECT.
+     */
+    protected abstract R readResult(JsonParser jp, ViewQuery query) throws IOException;
+
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.ektorp.Page;
 import org.ektorp.PageRequest;
+import org.ektorp.QueryProfile;
 import org.ektorp.http.HttpResponse;
 import org.ektorp.http.StdResponseHandler;
 import org.ektorp.util.Assert;
@@ -19,7 +20,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  *
  * @param <T>
  */
-public class PageResponseHandler<T> extends StdResponseHandler<Page<T>> {
+public class PageResponseHandler<T> extends StdResponseHandler<Page<T>> implements QueryProfileAware {
 
 	private final QueryResultParser<T> parser;
 	private final PageRequest pageRequest;
@@ -41,6 +42,10 @@ public class PageResponseHandler<T> extends StdResponseHandler<Page<T>> {
 		this.pageRequest = pr;
 	}
 	
+	public void setQueryProfile(QueryProfile profile) {
+		parser.setQueryProfile(profile);
+	}
+
 	@Override
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="DB_DUPLICATE_BRANCHES")
 	public Page<T> success(HttpResponse hr) throws Exception {
@@ -0,0 +1,261 @@
+package org.ektorp.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.DbAccessException;
+import org.ektorp.ViewQuery;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.ResponseCallback;
+import org.ektorp.http.RestTemplate;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * QueryExecutor that splits multiple-key queries with many keys into slices of at most chunkSize keys.
+ * The slices are executed concurrently by the supplied ExecutorService and the rows of the slice results are
+ * concatenated in slice order, so the merged result has its rows in the same key order as a single request would have.
+ *
+ * The merged result is handed to the ResponseCallback as if it was one response, so all query methods in
+ * CouchDbConnector work unchanged.
+ *
+ * Queries that declare limit or skip are not split as those parameters cannot be applied per slice.
+ * Keep the number of threads in the ExecutorService below the max number of connections in the HttpClient.
+ *
+ * Usage:
+ * <code>
+ * ExecutorService es = Executors.newFixedThreadPool(4);
+ * ParallelChunkedQueryExecutor qe = new ParallelChunkedQueryExecutor(new RestTemplate(httpClient), es);
+ * qe.setChunkSize(500);
+ * stdCouchDbConnector.setQueryExecutor(qe);
+ * </code>
+ */
+public class ParallelChunkedQueryExecutor extends DefaultQueryExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelChunkedQueryExecutor.class);
+    private static final String ROWS_FIELD_NAME = "rows";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final JsonFactory jsonFactory = new MappingJsonFactory();
+    private final ExecutorService executorService;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    public ParallelChunkedQueryExecutor(RestTemplate restTemplate, ExecutorService executorService) {
+        super(restTemplate);
+        Assert.notNull(executorService, "ExecutorService may not be null");
+        this.executorService = executorService;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Max number of keys sent in each request. Default is 1000.
+     * @param i
+     */
+    public void setChunkSize(int i) {
+        Assert.isTrue(i > 0, "chunkSize must be greater than zero");
+        this.chunkSize = i;
+    }
+
+    @Override
+    protected <T> T doExecuteQuery(ViewQuery query, ResponseCallback<T> rh) {
+        if (!shouldSplit(query)) {
+            return super.doExecuteQuery(query, rh);
+        }
+        List<?> keys = query.getKeys().getValues();
+        LOG.debug("Splitting query with {} keys into chunks of {} keys", keys.size(), chunkSize);
+        List<Future<BufferedHttpResponse>> chunks = new ArrayList<Future<BufferedHttpResponse>>();
+        try {
+            for (int from = 0; from < keys.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, keys.size());
+                chunks.add(executorService.submit(createChunkTask(query.clone().keys(keys.subList(from, to)))));
+            }
+            List<BufferedHttpResponse> responses = new ArrayList<BufferedHttpResponse>(chunks.size());
+            for (Future<BufferedHttpResponse> f : chunks) {
+                BufferedHttpResponse r = f.get();
+                if (!r.isSuccessful()) {
+                    return rh.error(r);
+                }
+                responses.add(r);
+            }
+            return rh.success(merge(responses));
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.propagate(e);
+        } catch (Exception e) {
+            throw Exceptions.propagate(e);
+        } finally {
+            for (Future<BufferedHttpResponse> f : chunks) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private boolean shouldSplit(ViewQuery query) {
+        return query.hasMultipleKeys()
+                && query.getKeys().size() > chunkSize
+                && query.getLimit() < 0
+                && query.getSkip() < 0;
+    }
+
+    private Callable<BufferedHttpResponse> createChunkTask(final ViewQuery chunk) {
+        return new Callable<BufferedHttpResponse>() {
+            @Override
+            public BufferedHttpResponse call() throws Exception {
+                return ParallelChunkedQueryExecutor.super.doExecuteQuery(chunk, new ResponseCallback<BufferedHttpResponse>() {
+                    @Override
+                    public BufferedHttpResponse success(HttpResponse hr) throws Exception {
+                        return BufferedHttpResponse.of(hr);
+                    }
+
+                    @Override
+                    public BufferedHttpResponse error(HttpResponse hr) {
+                        try {
+                            return BufferedHttpResponse.of(hr);
+                        } catch (IOException e) {
+                            throw Exceptions.propagate(e);
+                        }
+                    }
+                });
+            }
+        };
+    }
+    /**
+     * Concatenates the rows of all chunk results. Other top level fields (total_rows, offset, update_seq etc.)
+     * are taken from the first result that declares them.
+     */
+    private HttpResponse merge(List<BufferedHttpResponse> responses) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, JsonNode> fields = new LinkedHashMap<String, JsonNode>();
+        JsonGenerator jg = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+        try {
+            jg.writeStartObject();
+            jg.writeArrayFieldStart(ROWS_FIELD_NAME);
+            for (BufferedHttpResponse r : responses) {
+                copyRows(r, jg, fields);
+            }
+            jg.writeEndArray();
+            for (Map.Entry<String, JsonNode> e : fields.entrySet()) {
+                jg.writeFieldName(e.getKey());
+                jg.writeTree(e.getValue());
+            }
+            jg.writeEndObject();
+        } finally {
+            jg.close();
+        }
+        return new BufferedHttpResponse(200, responses.get(0).getRequestURI(), responses.get(0).getContentType(), null, out.toByteArray());
+    }
+
+    private void copyRows(BufferedHttpResponse r, JsonGenerator jg, Map<String, JsonNode> fields) throws IOException {
+        JsonParser jp = jsonFactory.createParser(r.getBytes());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if (ROWS_FIELD_NAME.equals(name)) {
+                    while (jp.nextToken() == JsonToken.START_OBJECT) {
+                        jg.copyCurrentStructure(jp);
+                    }
+                } else {
+                    JsonNode value = jp.readValueAsTree();
+                    if (!fields.containsKey(name)) {
+                        fields.put(name, value);
+                    }
+                }
+            }
+        } finally {
+            jp.close();
+        }
+    }
+
+    /**
+     * Response with its content read into memory, so that the connection can be released by the worker thread.
+     */
+    static class BufferedHttpResponse implements HttpResponse {
+
+        private final int code;
+        private final String requestURI;
+        private final String contentType;
+        private final String eTag;
+        private final byte[] bytes;
+
+        static BufferedHttpResponse of(HttpResponse hr) throws IOException {
+            InputStream in = hr.getContent();
+            byte[] content = in != null ? IOUtils.toByteArray(in) : new byte[0];
+            return new BufferedHttpResponse(hr.getCode(), hr.getRequestURI(), hr.getContentType(), hr.getETag(), content);
+        }
+
+        BufferedHttpResponse(int code, String requestURI, String contentType, String eTag, byte[] bytes) {
+            this.code = code;
+            this.requestURI = requestURI;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.bytes = bytes;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        public boolean isSuccessful() {
+            return code < 300;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getRequestURI() {
+            return requestURI;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getContentLength() {
+            return bytes.length;
+        }
+
+        public InputStream getContent() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public void releaseConnection() {
+        }
+
+        public void abort() {
+        }
+    }
+}
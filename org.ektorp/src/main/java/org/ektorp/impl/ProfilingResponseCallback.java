@@ -0,0 +1,107 @@
+package org.ektorp.impl;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.ektorp.QueryProfile;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.ResponseCallback;
+
+/**
+ * Records the time to first byte and the bytes read by the wrapped callback in a QueryProfile.
+ *
+ * @author henrik lundgren
+ *
+ */
+class ProfilingResponseCallback<T> implements ResponseCallback<T> {
+
+    private final ResponseCallback<T> delegate;
+    private final QueryProfile profile;
+
+    ProfilingResponseCallback(ResponseCallback<T> delegate, QueryProfile profile) {
+        this.delegate = delegate;
+        this.profile = profile;
+        if (delegate instanceof QueryProfileAware) {
+            ((QueryProfileAware) delegate).setQueryProfile(profile);
+        }
+    }
+
+    @Override
+    public T success(HttpResponse hr) throws Exception {
+        profile.responseReceived();
+        CountingResponse r = new CountingResponse(hr);
+        try {
+            return delegate.success(r);
+        } finally {
+            profile.addBytesReceived(r.getByteCount());
+        }
+    }
+
+    @Override
+    public T error(HttpResponse hr) {
+        profile.responseReceived();
+        CountingResponse r = new CountingResponse(hr);
+        try {
+            return delegate.error(r);
+        } finally {
+            profile.addBytesReceived(r.getByteCount());
+        }
+    }
+
+    private static class CountingResponse implements HttpResponse {
+
+        private final HttpResponse hr;
+        private CountingInputStream content;
+
+        CountingResponse(HttpResponse hr) {
+            this.hr = hr;
+        }
+
+        long getByteCount() {
+            return content != null ? content.getByteCount() : 0;
+        }
+
+        public boolean isSuccessful() {
+            return hr.isSuccessful();
+        }
+
+        public int getCode() {
+            return hr.getCode();
+        }
+
+        public String getRequestURI() {
+            return hr.getRequestURI();
+        }
+
+        public String getContentType() {
+            return hr.getContentType();
+        }
+
+        public long getContentLength() {
+            return hr.getContentLength();
+        }
+
+        public InputStream getContent() {
+            if (content == null) {
+                InputStream in = hr.getContent();
+                if (in == null) {
+                    return null;
+                }
+                content = new CountingInputStream(in);
+            }
+            return content;
+        }
+
+        public String getETag() {
+            return hr.getETag();
+        }
+
+        public void releaseConnection() {
+            hr.releaseConnection();
+        }
+
+        public void abort() {
+            hr.abort();
+        }
+    }
+}
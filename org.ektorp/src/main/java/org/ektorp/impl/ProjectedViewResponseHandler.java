@@ -0,0 +1,91 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.ViewResultException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Binds the projection of each row's included doc, or of each row's value when the query does not include docs, to
+ * the specified type. Rows with null docs are left out. Error rows are handled as in ViewRowIdResponseHandler.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ProjectedViewResponseHandler<T> extends StdResponseHandler<List<T>> {
+
+    private static final String NOT_FOUND_ERROR = "not_found";
+    private static final String ROWS_FIELD_NAME = "rows";
+
+    private final Class<T> type;
+    private final ObjectMapper mapper;
+    private final DocumentProjection projection;
+    private final String dataField;
+    private final boolean ignoreNotFound;
+
+    public ProjectedViewResponseHandler(Class<T> type, ObjectMapper om, DocumentProjection projection,
+            boolean includeDocs, boolean ignoreNotFound) {
+        this.type = type;
+        this.mapper = om;
+        this.projection = projection;
+        this.dataField = includeDocs ? "doc" : "value";
+        this.ignoreNotFound = ignoreNotFound;
+    }
+
+    @Override
+    public List<T> success(HttpResponse hr) throws Exception {
+        JsonParser jp = mapper.getFactory().createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            List<T> rows = new ArrayList<T>();
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                if (ROWS_FIELD_NAME.equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+                    readRows(jp, rows);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return rows;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private void readRows(JsonParser jp, List<T> rows) throws IOException {
+        while (jp.nextToken() == JsonToken.START_OBJECT) {
+            T value = null;
+            String error = null;
+            JsonNode key = null;
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if (dataField.equals(name) && jp.getCurrentToken() != JsonToken.VALUE_NULL) {
+                    value = projection.read(jp, mapper, type);
+                } else if ("error".equals(name)) {
+                    error = jp.getText();
+                } else if ("key".equals(name)) {
+                    key = jp.readValueAsTree();
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (error != null) {
+                if (!(ignoreNotFound && NOT_FOUND_ERROR.equals(error))) {
+                    throw new ViewResultException(key, error);
+                }
+            } else if (value != null) {
+                rows.add(value);
+            }
+        }
+    }
+}
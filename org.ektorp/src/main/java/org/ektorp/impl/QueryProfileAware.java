@@ -0,0 +1,16 @@
+package org.ektorp.impl;
+
+import org.ektorp.QueryProfile;
+
+/**
+ * Implemented by response handlers that record rows and parse and bind time in the QueryProfile of the query they
+ * handle. The profile is set by the query executor before the response is handed to the handler, and only if
+ * profiling is enabled.
+ *
+ * @author henrik lundgren
+ *
+ */
+public interface QueryProfileAware {
+
+    void setQueryProfile(QueryProfile profile);
+}
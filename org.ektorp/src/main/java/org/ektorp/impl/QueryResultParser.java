@@ -6,15 +6,24 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.ektorp.DbAccessException;
+import org.ektorp.QueryProfile;
 import org.ektorp.ViewResultException;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * @author Henrik Lundgren (original implementation)
@@ -31,6 +40,8 @@ public class QueryResultParser<T> {
     private static final String TOTAL_ROWS_FIELD_NAME = "total_rows";
     private static final String OFFSET_FIELD_NAME = "offset";
     private static final String UPDATE_SEQUENCE_NAME = "update_seq";
+    private static final int DEFAULT_BINDING_BATCH_SIZE = 256;
+    private static final int MAX_PENDING_BATCHES = 64;
 
     private int totalRows = -1;
     private long offset = -1;
@@ -46,6 +57,20 @@ public class QueryResultParser<T> {
     private final ObjectMapper mapper;
     private final Class<T> type;
     private boolean ignoreNotFound;
+    private ExecutorService bindingExecutor;
+    private int bindingBatchSize = DEFAULT_BINDING_BATCH_SIZE;
+
+    private QueryProfile profile;
+    private long rowsParsed;
+    private long rowsSkipped;
+    /**
+     * binding time on the parsing thread
+     */
+    private long bindNanos;
+    /**
+     * binding time of the binding executor's threads
+     */
+    private long pipelinedBindNanos;
 
     public QueryResultParser(Class<T> type, ObjectMapper mapper) {
         this.type = type;
@@ -62,11 +87,38 @@ public class QueryResultParser<T> {
         }
     }
 
+    /**
+     * Parses a result object embedded in a larger document, e.g. one result of a multi-query response.
+     * The parser should be positioned at the START_OBJECT token of the result and is left at its END_OBJECT.
+     */
+    public void parseEmbeddedResult(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new DbAccessException("Expected data to start with an Object");
+        }
+        parseFields(jp);
+    }
+
     private void parseResult(JsonParser jp) throws IOException {
         if (jp.nextToken() != JsonToken.START_OBJECT) {
             throw new DbAccessException("Expected data to start with an Object");
         }
+        parseFields(jp);
+    }
 
+    private void parseFields(JsonParser jp) throws IOException {
+        long start = startTimer();
+        try {
+            doParseFields(jp);
+        } finally {
+            if (profile != null) {
+                profile.addRows(rowsParsed, rowsSkipped);
+                profile.addBindNanos(bindNanos + pipelinedBindNanos);
+                profile.addParseNanos(elapsed(start) - bindNanos);
+            }
+        }
+    }
+
+    private void doParseFields(JsonParser jp) throws IOException {
         Map<String, String> errorFields = new HashMap<String, String>();
         // Issue #98: Can't assume order of JSON fields.
         while (jp.nextValue() != JsonToken.END_OBJECT) {
@@ -102,12 +154,15 @@ public class QueryResultParser<T> {
         String dataField = null;
         while (dataField == null && jp.nextToken() == JsonToken.START_OBJECT) {
             Row row = jp.readValueAs(Row.class);
+            rowsParsed++;
             if (row.error != null) {
                 if (!ignoreError(row.error)) {
                     throw new ViewResultException(row.key, row.error);
                 }
+                rowsSkipped++;
                 continue;
             }
+            long bindStart = startTimer();
             if (row.doc != null) {
                 dataField = INCLUDED_DOC_FIELD_NAME;
                 rows.add(mapper.readValue(row.doc.traverse(jp.getCodec()), type));
@@ -115,6 +170,7 @@ public class QueryResultParser<T> {
                 dataField = VALUE_FIELD_NAME;
                 rows.add(mapper.readValue(row.value.traverse(jp.getCodec()), type));
             }
+            bindNanos += elapsed(bindStart);
             firstId = row.id;
             firstKey = row.key;
         }
@@ -125,6 +181,11 @@ public class QueryResultParser<T> {
         if (dataField == null)
             return;
 
+        if (bindingExecutor != null) {
+            parseRemainingRowsInParallel(jp, dataField);
+            return;
+        }
+
         // Parse all the remaining rows; jp points at START_OBJECT except after
         // the last row
         while (jp.nextToken() != JsonToken.END_ARRAY) {
@@ -141,7 +202,9 @@ public class QueryResultParser<T> {
                 } else if (KEY_FIELD_NAME.equals(currentName)) {
                     currentKey = jp.readValueAsTree();
                 } else if (dataField.equals(currentName)) {
+                    long bindStart = startTimer();
                     value = jp.readValueAs(type);
+                    bindNanos += elapsed(bindStart);
                 } else if (ERROR_FIELD_NAME.equals(currentName)) {
                     error = jp.getText();
                 } else {
@@ -152,15 +215,114 @@ public class QueryResultParser<T> {
             if (error != null && !ignoreError(error)) {
                 throw new ViewResultException(currentKey, error);
             }
+            rowsParsed++;
             // If the current row is an error row, then value will be null
             if (value != null) {
                 lastId = currentId;
                 lastKey = currentKey;
                 rows.add(value);
+            } else {
+                rowsSkipped++;
+            }
+        }
+    }
+
+    /**
+     * Pipelined variant of the row loop in parseRows. This thread only tokenizes the stream: the data field of each
+     * row is copied into a TokenBuffer and batches of buffers are bound to T by the binding executor. Batches are
+     * collected in submission order so the rows keep the order of the response.
+     */
+    private void parseRemainingRowsInParallel(JsonParser jp, String dataField) throws IOException {
+        LinkedList<Future<List<T>>> pending = new LinkedList<Future<List<T>>>();
+        LinkedList<Batch> batches = new LinkedList<Batch>();
+        Batch batch = new Batch(bindingBatchSize);
+        try {
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                String currentId = null;
+                JsonNode currentKey = null;
+                String error = null;
+                TokenBuffer value = null;
+                while (jp.nextValue() != JsonToken.END_OBJECT) {
+                    String currentName = jp.getCurrentName();
+                    if (ID_FIELD_NAME.equals(currentName)) {
+                        currentId = jp.getText();
+                    } else if (KEY_FIELD_NAME.equals(currentName)) {
+                        currentKey = jp.readValueAsTree();
+                    } else if (dataField.equals(currentName)) {
+                        if (jp.getCurrentToken() != JsonToken.VALUE_NULL) {
+                            value = new TokenBuffer(jp.getCodec(), false);
+                            value.copyCurrentStructure(jp);
+                        }
+                    } else if (ERROR_FIELD_NAME.equals(currentName)) {
+                        error = jp.getText();
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                if (error != null && !ignoreError(error)) {
+                    throw new ViewResultException(currentKey, error);
+                }
+                rowsParsed++;
+                if (value == null) {
+                    rowsSkipped++;
+                } else {
+                    batch.add(currentId, currentKey, value);
+                    if (batch.size() == bindingBatchSize) {
+                        pending.add(bindingExecutor.submit(batch));
+                        batches.add(batch);
+                        batch = new Batch(bindingBatchSize);
+                        if (pending.size() > MAX_PENDING_BATCHES) {
+                            collect(pending.removeFirst(), batches.removeFirst());
+                        }
+                    }
+                }
+            }
+            if (batch.size() > 0) {
+                pending.add(bindingExecutor.submit(batch));
+                batches.add(batch);
+            }
+            while (!pending.isEmpty()) {
+                collect(pending.removeFirst(), batches.removeFirst());
+            }
+        } finally {
+            for (Future<List<T>> f : pending) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private void collect(Future<List<T>> f, Batch batch) throws IOException {
+        List<T> values;
+        try {
+            values = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw Exceptions.propagate(e.getCause());
+        }
+        pipelinedBindNanos += batch.bindNanos;
+        for (int i = 0; i < values.size(); i++) {
+            T value = values.get(i);
+            if (value != null) {
+                lastId = batch.ids.get(i);
+                lastKey = batch.keys.get(i);
+                rows.add(value);
             }
         }
     }
 
+    private long startTimer() {
+        return profile != null ? System.nanoTime() : 0L;
+    }
+
+    private long elapsed(long start) {
+        return profile != null ? System.nanoTime() - start : 0L;
+    }
+
     private boolean ignoreError(String error) {
         return ignoreNotFound && NOT_FOUND_ERROR.equals(error);
     }
@@ -197,10 +359,76 @@ public class QueryResultParser<T> {
         this.ignoreNotFound = ignoreNotFound;
     }
 
+    /**
+     * Rows, parse time and bind time will be recorded in the profile.
+     * @param profile null disables profiling
+     */
+    public void setQueryProfile(QueryProfile profile) {
+        this.profile = profile;
+    }
+
     public Long getUpdateSequence() {
         return updateSequence;
     }
 
+    /**
+     * Enables pipelined parsing: rows are bound to T by the executor's threads while this thread keeps reading the
+     * response. Worthwhile for large results with include_docs or big values, where binding dominates.
+     * @param es the executor binding the rows, null disables pipelining.
+     * @param batchSize the number of rows handed to a binding task.
+     */
+    public void setBindingExecutor(ExecutorService es, int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        this.bindingExecutor = es;
+        this.bindingBatchSize = batchSize;
+    }
+
+    public void setBindingExecutor(ExecutorService es) {
+        setBindingExecutor(es, DEFAULT_BINDING_BATCH_SIZE);
+    }
+
+    /**
+     * Rows waiting to be bound, read by the parsing thread and bound by one binding task.
+     */
+    private class Batch implements Callable<List<T>> {
+        private final List<String> ids;
+        private final List<JsonNode> keys;
+        private final List<TokenBuffer> values;
+        private long bindNanos;
+
+        Batch(int capacity) {
+            ids = new ArrayList<String>(capacity);
+            keys = new ArrayList<JsonNode>(capacity);
+            values = new ArrayList<TokenBuffer>(capacity);
+        }
+
+        void add(String id, JsonNode key, TokenBuffer value) {
+            ids.add(id);
+            keys.add(key);
+            values.add(value);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        @Override
+        public List<T> call() throws Exception {
+            long start = startTimer();
+            List<T> result = new ArrayList<T>(values.size());
+            for (TokenBuffer tb : values) {
+                JsonParser p = tb.asParser(mapper);
+                try {
+                    result.add(mapper.readValue(p, type));
+                } finally {
+                    p.close();
+                }
+            }
+            bindNanos = elapsed(start);
+            return result;
+        }
+    }
+
     @JsonAutoDetect(fieldVisibility = Visibility.ANY)
     private static class Row {
         private String id;
@@ -0,0 +1,82 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+import org.ektorp.util.OpenAddressingStringMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the current revision of each existing document from a multiple-key _all_docs result. Missing and deleted
+ * documents are left out.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class RevisionsResponseHandler extends StdResponseHandler<Map<String, String>> {
+
+    private final JsonFactory jsonFactory;
+    private final int expectedSize;
+
+    public RevisionsResponseHandler(ObjectMapper om, int expectedSize) {
+        this.jsonFactory = om.getFactory();
+        this.expectedSize = expectedSize;
+    }
+
+    @Override
+    public Map<String, String> success(HttpResponse hr) throws Exception {
+        JsonParser jp = jsonFactory.createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            OpenAddressingStringMap revisions = new OpenAddressingStringMap(expectedSize);
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                if ("rows".equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+                    while (jp.nextToken() == JsonToken.START_OBJECT) {
+                        readRow(jp, revisions);
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return revisions;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private void readRow(JsonParser jp, Map<String, String> revisions) throws IOException {
+        String id = null;
+        String rev = null;
+        boolean deleted = false;
+        while (jp.nextValue() != JsonToken.END_OBJECT) {
+            String name = jp.getCurrentName();
+            if ("id".equals(name)) {
+                id = jp.getText();
+            } else if ("value".equals(name) && jp.getCurrentToken() == JsonToken.START_OBJECT) {
+                while (jp.nextValue() != JsonToken.END_OBJECT) {
+                    if ("rev".equals(jp.getCurrentName())) {
+                        rev = jp.getText();
+                    } else if ("deleted".equals(jp.getCurrentName())) {
+                        deleted = jp.getCurrentToken() == JsonToken.VALUE_TRUE;
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+            } else {
+                jp.skipChildren();
+            }
+        }
+        if (id != null && rev != null && !deleted) {
+            revisions.put(id, rev);
+        }
+    }
+}
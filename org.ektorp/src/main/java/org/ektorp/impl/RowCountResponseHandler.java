@@ -0,0 +1,78 @@
+package org.ektorp.impl;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads total_rows and offset of a view result and counts its rows without reading their content.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class RowCountResponseHandler extends StdResponseHandler<RowCountResponseHandler.Counts> {
+
+    private final JsonFactory jsonFactory;
+
+    public RowCountResponseHandler(ObjectMapper om) {
+        this.jsonFactory = om.getFactory();
+    }
+
+    @Override
+    public Counts success(HttpResponse hr) throws Exception {
+        JsonParser jp = jsonFactory.createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            Counts counts = new Counts();
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if ("total_rows".equals(name) && jp.getCurrentToken().isNumeric()) {
+                    counts.totalRows = jp.getLongValue();
+                } else if ("offset".equals(name) && jp.getCurrentToken().isNumeric()) {
+                    counts.offset = jp.getLongValue();
+                } else if ("rows".equals(name) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+                    while (jp.nextToken() == JsonToken.START_OBJECT) {
+                        jp.skipChildren();
+                        counts.rows++;
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return counts;
+        } finally {
+            jp.close();
+        }
+    }
+
+    public static class Counts {
+
+        private long totalRows = -1;
+        private long offset = -1;
+        private long rows;
+
+        /**
+         * @return -1 if the result did not contain total_rows
+         */
+        public long getTotalRows() {
+            return totalRows;
+        }
+        /**
+         * @return -1 if the result did not contain an offset, e.g. partitioned and some clustered queries
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+}
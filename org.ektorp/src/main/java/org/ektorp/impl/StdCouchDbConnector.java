@@ -1,5 +1,6 @@
 package org.ektorp.impl;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -7,19 +8,30 @@ import org.apache.commons.io.IOUtils;
 import org.ektorp.*;
 import org.ektorp.changes.ChangesCommand;
 import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesFeedReconnectListener;
+import org.ektorp.changes.ChangesPublisher;
 import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.TypedChangesFeed;
 import org.ektorp.http.*;
+import org.ektorp.impl.changes.AbstractChangesPublisher;
+import org.ektorp.impl.changes.BatchingChangesPublisher;
 import org.ektorp.impl.changes.ContinuousChangesFeed;
+import org.ektorp.impl.changes.ContinuousChangesPublisher;
 import org.ektorp.impl.changes.StdDocumentChange;
+import org.ektorp.impl.changes.TypedContinuousChangesFeed;
+import org.ektorp.support.DesignDocument;
 import org.ektorp.util.Assert;
 import org.ektorp.util.Documents;
 import org.ektorp.util.Exceptions;
+import org.ektorp.util.OpenAddressingStringMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -29,6 +41,8 @@ import java.util.*;
 public class StdCouchDbConnector implements CouchDbConnector {
 
     private static final int DEFAULT_HEARTBEAT_INTERVAL = 9000;
+    private static final int MISSED_HEARTBEATS_BEFORE_RECONNECT = 3;
+    private static final ResultSizeLimit DEFAULT_ADAPTIVE_LIMIT = new ResultSizeLimit().maxBytes(64 * 1024 * 1024);
     private static final Logger LOG = LoggerFactory
             .getLogger(StdCouchDbConnector.class);
     private static final ResponseCallback<Void> VOID_RESPONSE_HANDLER = new StdResponseHandler<Void>();
@@ -40,6 +54,8 @@ public class StdCouchDbConnector implements CouchDbConnector {
 
     protected final RestTemplate restTemplate;
     protected QueryExecutor queryExecutor;
+    private ExecutorService rowBindingExecutor;
+    private ResultSizeLimit resultSizeLimit;
 
     private final CouchDbInstance dbInstance;
 
@@ -111,6 +127,35 @@ public class StdCouchDbConnector implements CouchDbConnector {
         this.queryExecutor = queryExecutor;
     }
 
+    /**
+     * Registers a listener that receives a QueryProfile for every view query executed by this connector.
+     * Requires the query executor to be a DefaultQueryExecutor (or a subclass), which is the default.
+     * @param l
+     */
+    public void addQueryProfileListener(QueryProfileListener l) {
+        if (!(queryExecutor instanceof DefaultQueryExecutor)) {
+            throw new IllegalStateException("query profiling requires a DefaultQueryExecutor");
+        }
+        ((DefaultQueryExecutor) queryExecutor).addProfileListener(l);
+    }
+
+    /**
+     * If set, queryView(ViewQuery, Class) binds rows to the requested type in the executor's threads while the
+     * response is being read. The order of the rows is preserved.
+     * Speeds up large results with include_docs or big values, where binding dominates parsing.
+     */
+    public void setRowBindingExecutor(ExecutorService es) {
+        this.rowBindingExecutor = es;
+    }
+
+    /**
+     * If set, queryView(ViewQuery) fails with a ViewResultTooLargeException as soon as the result exceeds the
+     * limit, instead of reading a result of any size into memory. The limit also applies to queryForAdaptiveView.
+     */
+    public void setResultSizeLimit(ResultSizeLimit limit) {
+        this.resultSizeLimit = limit;
+    }
+
     @Override
     public String path() {
         return dbURI.toString();
@@ -165,6 +210,25 @@ public class StdCouchDbConnector implements CouchDbConnector {
                 });
     }
 
+    @Override
+    public boolean containsAll(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        return getCurrentRevisions(ids).keySet().containsAll(ids);
+    }
+
+    @Override
+    public Map<String, String> getCurrentRevisions(Collection<String> ids) {
+        Assert.notNull(ids, "ids cannot be null");
+        if (ids.isEmpty()) {
+            return new OpenAddressingStringMap(0);
+        }
+        ViewQuery query = new ViewQuery(objectMapper)
+                .dbPath(dbURI.toString())
+                .allDocs()
+                .keys(ids);
+        return executeQuery(query, new RevisionsResponseHandler(objectMapper, ids.size()));
+    }
+
     @Override
     public String createAttachment(String docId, AttachmentInputStream data) {
         return createAttachment(docId, null, data);
@@ -246,6 +310,26 @@ public class StdCouchDbConnector implements CouchDbConnector {
                 });
     }
 
+    @Override
+    public <T> T getProjected(String id, final Class<T> c, String... jsonPointers) {
+        Assert.notNull(c, "Class may not be null");
+        assertDocIdHasValue(id);
+        final DocumentProjection projection = new DocumentProjection(jsonPointers);
+        return restTemplate.get(dbURI.append(id).toString(),
+                new StdResponseHandler<T>() {
+                    @Override
+                    public T success(HttpResponse hr) throws Exception {
+                        JsonParser jp = objectMapper.getFactory().createParser(hr.getContent());
+                        try {
+                            jp.nextToken();
+                            return projection.read(jp, objectMapper, c);
+                        } finally {
+                            jp.close();
+                        }
+                    }
+                });
+    }
+
     @Override
     public <T> T get(final Class<T> c, String id, String rev) {
         Assert.notNull(c, "Class may not be null");
@@ -422,13 +506,160 @@ public class StdCouchDbConnector implements CouchDbConnector {
     public <T> List<T> queryView(final ViewQuery query, final Class<T> type) {
         Assert.notNull(query, "query may not be null");
         query.dbPath(dbURI.toString());
+        if (query.isDeduplicateDocs()) {
+            return queryViewDeduplicatingDocs(query, type);
+        }
 
         EmbeddedDocViewResponseHandler<T> rh = new EmbeddedDocViewResponseHandler<T>(
                 type, objectMapper, query.isIgnoreNotFound());
+        if (rowBindingExecutor != null) {
+            rh.setBindingExecutor(rowBindingExecutor);
+        }
 
         return executeQuery(query, rh);
     }
 
+    /**
+     * Queries the view without include_docs and fetches each distinct document once through _all_docs.
+     * Rows linking a document through value._id are joined to the linked document. If a row links a specific
+     * revision through value._rev the view is queried again with plain include_docs, as _all_docs only returns the
+     * current revisions.
+     */
+    private <T> List<T> queryViewDeduplicatingDocs(ViewQuery query, Class<T> type) {
+        ViewRowIdResponseHandler idHandler = new ViewRowIdResponseHandler(objectMapper, query.isIgnoreNotFound());
+        List<String> ids = executeQuery(query.clone().includeDocs(false), idHandler);
+        if (idHandler.hasLinkedRevisions()) {
+            EmbeddedDocViewResponseHandler<T> rh = new EmbeddedDocViewResponseHandler<T>(
+                    type, objectMapper, query.isIgnoreNotFound());
+            if (rowBindingExecutor != null) {
+                rh.setBindingExecutor(rowBindingExecutor);
+            }
+            return executeQuery(query.clone().deduplicateDocs(false).includeDocs(true), rh);
+        }
+        if (ids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        Set<String> distinctIds = new LinkedHashSet<String>(ids);
+        ViewQuery docsQuery = new ViewQuery(objectMapper)
+                .dbPath(dbURI.toString())
+                .allDocs()
+                .includeDocs(true)
+                .keys(distinctIds);
+        Map<String, T> docs = executeQuery(docsQuery, new DocsByIdResponseHandler<T>(type, objectMapper));
+        List<T> result = new ArrayList<T>(ids.size());
+        for (String id : ids) {
+            T doc = docs.get(id);
+            if (doc != null) {
+                result.add(doc);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long count(ViewQuery query) {
+        Assert.notNull(query, "query cannot be null");
+        query.dbPath(dbURI.toString());
+        if (!query.hasMultipleKeys()) {
+            long count = countByOffsets(query);
+            if (count != -1) {
+                if (query.getSkip() > 0) {
+                    count = Math.max(0, count - query.getSkip());
+                }
+                return query.getLimit() >= 0 ? Math.min(count, query.getLimit()) : count;
+            }
+        }
+        return executeQuery(rowQuery(query), new RowCountResponseHandler(objectMapper)).getRows();
+    }
+
+    @Override
+    public <T> List<T> queryViewProjected(ViewQuery query, Class<T> type, String... jsonPointers) {
+        Assert.notNull(query, "query may not be null");
+        Assert.notNull(type, "type may not be null");
+        query.dbPath(dbURI.toString());
+        return executeQuery(query, new ProjectedViewResponseHandler<T>(type, objectMapper,
+                new DocumentProjection(jsonPointers), query.isIncludeDocs(), query.isIgnoreNotFound()));
+    }
+
+    /**
+     * @return -1 if the server did not provide offsets
+     */
+    private long countByOffsets(ViewQuery query) {
+        Object low, high;
+        String lowDocId, highDocId;
+        boolean lowInclusive = true, highInclusive = true;
+        if (query.getKey() != null) {
+            low = high = query.getKey();
+            lowDocId = highDocId = null;
+        } else if (!query.isDescending()) {
+            low = query.getStartKey();
+            lowDocId = query.getStartDocId();
+            high = query.getEndKey();
+            highDocId = query.getEndDocId();
+            highInclusive = query.isInclusiveEnd();
+        } else {
+            high = query.getStartKey();
+            highDocId = query.getStartDocId();
+            low = query.getEndKey();
+            lowDocId = query.getEndDocId();
+            lowInclusive = query.isInclusiveEnd();
+        }
+        // [total_rows, rows before low bound, rows up to high bound]
+        long[] counts = {-1, 0, -1};
+        if (low != null && !countRowsBefore(query, low, lowDocId, !lowInclusive, counts, 1)) {
+            return -1;
+        }
+        if (high != null && !countRowsBefore(query, high, highDocId, highInclusive, counts, 2)) {
+            return -1;
+        }
+        if (counts[0] == -1) {
+            RowCountResponseHandler.Counts c = executeQuery(rowQuery(query).skip(-1).limit(0), new RowCountResponseHandler(objectMapper));
+            if (c.getTotalRows() == -1) {
+                return -1;
+            }
+            counts[0] = c.getTotalRows();
+        }
+        long upper = high != null ? counts[2] : counts[0];
+        return Math.max(0, upper - counts[1]);
+    }
+
+    /**
+     * Runs a limit=0 query positioned at the key and stores the number of rows before it (or up to and including it)
+     * in counts[slot].
+     * @return false if the server did not provide an offset
+     */
+    private boolean countRowsBefore(ViewQuery query, Object key, String docId, boolean inclusive, long[] counts, int slot) {
+        // a descending query starting at the key skips the rows after it
+        ViewQuery q = rowQuery(query)
+                .key((Object) null)
+                .startKey(key)
+                .startDocId(docId)
+                .endKey((Object) null)
+                .endDocId(null)
+                .descending(inclusive)
+                .skip(-1)
+                .limit(0);
+        RowCountResponseHandler.Counts c = executeQuery(q, new RowCountResponseHandler(objectMapper));
+        if (c.getTotalRows() == -1 || c.getOffset() == -1) {
+            return false;
+        }
+        counts[0] = c.getTotalRows();
+        counts[slot] = inclusive ? c.getTotalRows() - c.getOffset() : c.getOffset();
+        return true;
+    }
+
+    /**
+     * @return a copy of the query that returns the map rows without documents
+     */
+    private ViewQuery rowQuery(ViewQuery query) {
+        return query.clone()
+                .reduce(false)
+                .group(false)
+                .groupLevel(-1)
+                .includeDocs(false)
+                .deduplicateDocs(false);
+    }
+
 	protected <T> T executeQuery(final ViewQuery query, ResponseCallback<T> rh) {
 		return queryExecutor.executeQuery(query, rh);
 	}
@@ -456,7 +687,16 @@ public class StdCouchDbConnector implements CouchDbConnector {
 
             @Override
             public ViewResult success(HttpResponse hr) throws Exception {
-                return new ViewResult(objectMapper.readTree(hr.getContent()), query.isIgnoreNotFound());
+                ResultSizeLimit limit = resultSizeLimit;
+                if (limit == null) {
+                    return new ViewResult(objectMapper.readTree(hr.getContent()), query.isIgnoreNotFound());
+                }
+                AdaptiveViewResult result = new AdaptiveViewResult(objectMapper, hr, query.isIgnoreNotFound(), limit);
+                if (result.isStreaming()) {
+                    result.close();
+                    throw new ViewResultTooLargeException(query.buildQuery(), limit);
+                }
+                return result.toViewResult();
             }
 
         };
@@ -464,11 +704,178 @@ public class StdCouchDbConnector implements CouchDbConnector {
         return executeQuery(query, rh);
     }
 
+    @Override
+    public CompactViewResult queryViewCompact(final ViewQuery query) {
+        Assert.notNull(query, "query cannot be null");
+        query.dbPath(dbURI.toString());
+        ResponseCallback<CompactViewResult> rh = new StdResponseHandler<CompactViewResult>() {
+
+            @Override
+            public CompactViewResult success(HttpResponse hr) throws Exception {
+                return CompactViewResult.parse(hr.getContent(), objectMapper, query.isIgnoreNotFound());
+            }
+
+        };
+
+        return executeQuery(query, rh);
+    }
+
+    @Override
+    public LongReduceResult queryForLongReduce(ViewQuery query) {
+        Assert.notNull(query, "query cannot be null");
+        query.dbPath(dbURI.toString());
+        return executeQuery(query, new StdResponseHandler<LongReduceResult>() {
+            @Override
+            public LongReduceResult success(HttpResponse hr) throws Exception {
+                return LongReduceResult.parse(hr.getContent(), objectMapper.getFactory());
+            }
+        });
+    }
+
+    @Override
+    public DoubleReduceResult queryForDoubleReduce(ViewQuery query) {
+        Assert.notNull(query, "query cannot be null");
+        query.dbPath(dbURI.toString());
+        return executeQuery(query, new StdResponseHandler<DoubleReduceResult>() {
+            @Override
+            public DoubleReduceResult success(HttpResponse hr) throws Exception {
+                return DoubleReduceResult.parse(hr.getContent(), objectMapper.getFactory());
+            }
+        });
+    }
+
+    @Override
+    public StatsReduceResult queryForStatsReduce(ViewQuery query) {
+        Assert.notNull(query, "query cannot be null");
+        query.dbPath(dbURI.toString());
+        return executeQuery(query, new StdResponseHandler<StatsReduceResult>() {
+            @Override
+            public StatsReduceResult success(HttpResponse hr) throws Exception {
+                return StatsReduceResult.parse(hr.getContent(), objectMapper.getFactory());
+            }
+        });
+    }
+
+    @Override
+    public List<ViewResult> queryViews(List<ViewQuery> queries) {
+        return restTemplate.post(prepareMultiQuery(queries), new ViewQueriesEntity(queries),
+                new MultiQueryResponseHandler<ViewResult>(objectMapper, queries) {
+            @Override
+            protected ViewResult readResult(JsonParser jp, ViewQuery query) throws IOException {
+                return new ViewResult(jp.<JsonNode>readValueAsTree(), query.isIgnoreNotFound());
+            }
+        });
+    }
+
+    @Override
+    public <T> List<List<T>> queryViews(List<ViewQuery> queries, final Class<T> type) {
+        Assert.notNull(type, "type cannot be null");
+        return restTemplate.post(prepareMultiQuery(queries), new ViewQueriesEntity(queries),
+                new MultiQueryResponseHandler<List<T>>(objectMapper, queries) {
+            @Override
+            protected List<T> readResult(JsonParser jp, ViewQuery query) throws IOException {
+                QueryResultParser<T> parser = new QueryResultParser<T>(type, objectMapper);
+                parser.setIgnoreNotFound(query.isIgnoreNotFound());
+                parser.parseEmbeddedResult(jp);
+                return parser.getRows() != null ? parser.getRows() : Collections.<T>emptyList();
+            }
+        });
+    }
+
+    @Override
+    public <T> FindResult<T> find(FindQuery query, Class<T> type) {
+        Assert.notNull(query, "query cannot be null");
+        return restTemplate.postUncached(dbURI.append("_find").toString(), query.toJson(objectMapper),
+                new FindResponseHandler<T>(type, objectMapper));
+    }
+
+    @Override
+    public MangoIndex createIndex(final MangoIndex index) {
+        Assert.notNull(index, "index cannot be null");
+        return restTemplate.post(indexPath(), index.toJson(objectMapper), new StdResponseHandler<MangoIndex>() {
+            @Override
+            public MangoIndex success(HttpResponse hr) throws Exception {
+                JsonNode rsp = objectMapper.readTree(hr.getContent());
+                return index.copy()
+                        .designDocId(rsp.path("id").textValue())
+                        .name(rsp.path("name").textValue());
+            }
+        });
+    }
+
+    @Override
+    public List<MangoIndex> getIndexes() {
+        return restTemplate.getUncached(indexPath(), new StdResponseHandler<List<MangoIndex>>() {
+            @Override
+            public List<MangoIndex> success(HttpResponse hr) throws Exception {
+                JsonNode rsp = objectMapper.readTree(hr.getContent());
+                List<MangoIndex> indexes = new ArrayList<MangoIndex>();
+                for (JsonNode n : rsp.path("indexes")) {
+                    indexes.add(MangoIndex.fromJson(n));
+                }
+                return indexes;
+            }
+        });
+    }
+
+    @Override
+    public void deleteIndex(String designDocId, String name) {
+        Assert.hasText(designDocId, "designDocId may not be null or empty");
+        Assert.hasText(name, "name may not be null or empty");
+        String ddoc = designDocId.startsWith(DesignDocument.ID_PREFIX) ? designDocId : DesignDocument.ID_PREFIX + designDocId;
+        restTemplate.delete(URI.of(indexPath()).append(ddoc).append("json").append(name).toString());
+    }
+
+    private String indexPath() {
+        return dbURI.append("_index").toString();
+    }
+
+    /**
+     * Sets the db path of all queries and verifies that they target the same view.
+     * @return the path of the view's multi-query endpoint
+     */
+    private String prepareMultiQuery(List<ViewQuery> queries) {
+        Assert.notEmpty(queries, "queries cannot be empty");
+        String path = null;
+        for (ViewQuery q : queries) {
+            Assert.notNull(q, "query cannot be null");
+            q.dbPath(dbURI.toString());
+            String p = q.buildQueriesPath();
+            if (path == null) {
+                path = p;
+            } else {
+                Assert.isTrue(path.equals(p), "all queries must target the same view");
+            }
+        }
+        return path;
+    }
+
     @Override
     public StreamingViewResult queryForStreamingView(ViewQuery query) {
         return new StreamingViewResult(objectMapper, queryForHttpResponse(query), query.isIgnoreNotFound());
     }
 
+    @Override
+    public AdaptiveViewResult queryForAdaptiveView(ViewQuery query) {
+        ResultSizeLimit limit = resultSizeLimit != null ? resultSizeLimit : DEFAULT_ADAPTIVE_LIMIT;
+        return new AdaptiveViewResult(objectMapper, queryForHttpResponse(query), query.isIgnoreNotFound(), limit);
+    }
+
+    @Override
+    public int queryForTransformedStream(ViewQuery query, ViewResultTransformer transformer, OutputStream out) {
+        Assert.notNull(transformer, "transformer cannot be null");
+        Assert.notNull(out, "out cannot be null");
+        HttpResponse hr = queryForHttpResponse(query);
+        try {
+            return transformer.transform(hr.getContent(), out);
+        } catch (IOException e) {
+            hr.abort();
+            throw Exceptions.propagate(e);
+        } finally {
+            hr.releaseConnection();
+        }
+    }
+
     @Override
     public InputStream queryForStream(ViewQuery query) {
         return queryForHttpResponse(query).getContent();
@@ -477,8 +884,8 @@ public class StdCouchDbConnector implements CouchDbConnector {
     private HttpResponse queryForHttpResponse(ViewQuery query) {
         Assert.notNull(query, "query cannot be null");
         query.dbPath(dbURI.toString());
-        return query.hasMultipleKeys() ? restTemplate.postUncached(query.buildQuery(),
-                query.getKeysAsJson()) : restTemplate.getUncached(
+        return query.hasMultipleKeys() ? restTemplate.post(query.buildQuery(),
+                new ViewQueryKeysEntity(query)) : restTemplate.getUncached(
                 query.buildQuery());
     }
 
@@ -690,9 +1097,18 @@ public class StdCouchDbConnector implements CouchDbConnector {
     }
 
     private InputStream fetchChangesAsStream(ChangesCommand cmd) {
-        HttpResponse r = restTemplate.get(dbURI.append(cmd.toString())
-                .toString());
-        return r.getContent();
+        return fetchChanges(cmd).getContent();
+    }
+
+    /**
+     * Feeds filtered by _doc_ids or _selector are requested with POST, as the filter arguments go in the body.
+     */
+    private HttpResponse fetchChanges(ChangesCommand cmd) {
+        String uri = dbURI.append(cmd.toString()).toString();
+        if (cmd.hasRequestBody()) {
+            return restTemplate.postUncached(uri, serializeToJson(cmd.getRequestBody()));
+        }
+        return cmd.continuous ? restTemplate.getUncached(uri) : restTemplate.get(uri);
     }
 
     @Override
@@ -729,10 +1145,7 @@ public class StdCouchDbConnector implements CouchDbConnector {
         ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
                 .continuous(false).build();
 
-        HttpResponse response = restTemplate.get(dbURI.append(actualCmd.toString())
-                .toString());
-
-        return new StreamingChangesResult(objectMapper, response);
+        return new StreamingChangesResult(objectMapper, fetchChanges(actualCmd), dbName);
     }
 
     @Override
@@ -745,8 +1158,73 @@ public class StdCouchDbConnector implements CouchDbConnector {
         ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
                 .continuous(true).heartbeat(heartbeat).since(since).build();
 
-        return new ContinuousChangesFeed(dbName,
-                restTemplate.getUncached(dbURI.append(actualCmd.toString()).toString()));
+        return new ContinuousChangesFeed(dbName, fetchChanges(actualCmd), cmd.queueCapacity);
+    }
+
+    @Override
+    public ChangesFeed resumingChangesFeed(ChangesCommand cmd, ChangesFeedReconnectListener listener) {
+        final int heartbeat = cmd.heartbeat > 0 ? cmd.heartbeat
+                : DEFAULT_HEARTBEAT_INTERVAL;
+
+        String since = cmd.since != null ? cmd.since : getDbInfo().getUpdateSeqAsString();
+
+        final ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
+                .continuous(true).heartbeat(heartbeat).since(since).build();
+
+        ContinuousChangesFeed.Reconnector reconnector = new ContinuousChangesFeed.Reconnector() {
+            @Override
+            public HttpResponse reconnect(String lastSeq) {
+                if (lastSeq == null) {
+                    return fetchChanges(actualCmd);
+                }
+                return fetchChanges(new ChangesCommand.Builder().merge(actualCmd)
+                        .heartbeat(heartbeat).since(lastSeq).build());
+            }
+        };
+        return new ContinuousChangesFeed(dbName, fetchChanges(actualCmd), cmd.queueCapacity,
+                reconnector, heartbeat * MISSED_HEARTBEATS_BEFORE_RECONNECT, listener);
+    }
+
+    @Override
+    public ChangesPublisher<DocumentChange> changesPublisher(ChangesCommand cmd) {
+        return new ContinuousChangesPublisher(dbName, publisherConnector(cmd), objectMapper);
+    }
+
+    @Override
+    public ChangesPublisher<List<DocumentChange>> batchedChangesPublisher(ChangesCommand cmd, int maxBatchSize) {
+        return new BatchingChangesPublisher(dbName, publisherConnector(cmd), objectMapper, maxBatchSize);
+    }
+
+    private AbstractChangesPublisher.Connector publisherConnector(ChangesCommand cmd) {
+        int heartbeat = cmd.heartbeat > 0 ? cmd.heartbeat
+                : DEFAULT_HEARTBEAT_INTERVAL;
+
+        String since = cmd.since != null ? cmd.since : getDbInfo().getUpdateSeqAsString();
+
+        final ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
+                .continuous(true).heartbeat(heartbeat).since(since).build();
+
+        return new AbstractChangesPublisher.Connector() {
+            @Override
+            public HttpResponse connect() {
+                return fetchChanges(actualCmd);
+            }
+        };
+    }
+
+    @Override
+    public <T> TypedChangesFeed<T> changesFeed(ChangesCommand cmd, Class<T> docType) {
+        Assert.notNull(docType, "docType may not be null");
+        int heartbeat = cmd.heartbeat > 0 ? cmd.heartbeat
+                : DEFAULT_HEARTBEAT_INTERVAL;
+
+        String since = cmd.since != null ? cmd.since : getDbInfo().getUpdateSeqAsString();
+
+        ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
+                .continuous(true).includeDocs(true).heartbeat(heartbeat).since(since).build();
+
+        return new TypedContinuousChangesFeed<T>(dbName, fetchChanges(actualCmd), cmd.queueCapacity,
+                objectMapper, docType);
     }
 
     @Override
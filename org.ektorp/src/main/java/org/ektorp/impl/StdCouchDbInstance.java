@@ -10,7 +10,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.ektorp.*;
+import org.ektorp.changes.*;
 import org.ektorp.http.*;
+import org.ektorp.impl.changes.*;
 import org.ektorp.util.*;
 import org.slf4j.*;
 /**
@@ -22,6 +24,8 @@ public class StdCouchDbInstance implements CouchDbInstance {
 
 	private final static Logger LOG = LoggerFactory.getLogger(StdCouchDbInstance.class);
 	private final static TypeReference<List<String>> STRING_LIST_TYPE_DEF = new TypeReference<List<String>>() {};
+	private final static int DEFAULT_HEARTBEAT_INTERVAL = 9000;
+	private final static int MISSED_HEARTBEATS_BEFORE_RECONNECT = 3;
 
 	private final HttpClient client;
 	private final RestTemplate restTemplate;
@@ -65,7 +69,7 @@ public class StdCouchDbInstance implements CouchDbInstance {
 			return false;
 		}
 		LOG.debug("creating db path: {}", db.getPath());
-		return restTemplate.put(db.getPath(), new StdResponseHandler<Boolean>() {
+		return restTemplate.put(db.getCreatePath(), new StdResponseHandler<Boolean>() {
 			@Override
 			public Boolean error(HttpResponse hr) {
 				if (hr.getCode() == HttpStatus.PRECONDITION_FAILED) {
@@ -240,4 +244,22 @@ public class StdCouchDbInstance implements CouchDbInstance {
 
       return ret;
    }
+
+	public DbUpdatesFeed dbUpdatesFeed(final String since) {
+		AbstractContinuousChangesFeed.Reconnector reconnector = new AbstractContinuousChangesFeed.Reconnector() {
+			public HttpResponse reconnect(String lastSeq) {
+				return openDbUpdates(lastSeq != null ? lastSeq : since);
+			}
+		};
+		return new ContinuousDbUpdatesFeed(openDbUpdates(since), reconnector,
+				DEFAULT_HEARTBEAT_INTERVAL * MISSED_HEARTBEATS_BEFORE_RECONNECT, null);
+	}
+
+	private HttpResponse openDbUpdates(String since) {
+		URI uri = URI.of("/_db_updates")
+				.param("feed", "continuous")
+				.param("heartbeat", DEFAULT_HEARTBEAT_INTERVAL)
+				.param("since", since != null ? since : "now");
+		return restTemplate.getUncached(uri.toString());
+	}
 }
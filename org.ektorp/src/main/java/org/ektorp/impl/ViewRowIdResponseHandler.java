@@ -0,0 +1,121 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.ViewResultException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the id of the document each row in a view result refers to, in row order. Keys are skipped.
+ * As with include_docs, a row whose value is an object with an _id field refers to that linked document instead of
+ * the emitting one. If the value also holds a _rev field a specific revision is linked, see hasLinkedRevisions().
+ * Error rows result in a ViewResultException unless the error is not_found and ignoreNotFound is set, in which case
+ * the row is left out.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ViewRowIdResponseHandler extends StdResponseHandler<List<String>> {
+
+    private static final String NOT_FOUND_ERROR = "not_found";
+    private static final String ROWS_FIELD_NAME = "rows";
+
+    private final JsonFactory jsonFactory;
+    private final boolean ignoreNotFound;
+    private boolean linkedRevisions;
+
+    public ViewRowIdResponseHandler(ObjectMapper om, boolean ignoreNotFound) {
+        this.jsonFactory = om.getFactory();
+        this.ignoreNotFound = ignoreNotFound;
+    }
+
+    @Override
+    public List<String> success(HttpResponse hr) throws Exception {
+        JsonParser jp = jsonFactory.createParser(hr.getContent());
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new DbAccessException("Expected data to start with an Object");
+            }
+            List<String> ids = new ArrayList<String>();
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                if (ROWS_FIELD_NAME.equals(jp.getCurrentName()) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+                    readRows(jp, ids);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return ids;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private void readRows(JsonParser jp, List<String> ids) throws IOException {
+        while (jp.nextToken() == JsonToken.START_OBJECT) {
+            String id = null;
+            String linkedId = null;
+            String error = null;
+            JsonNode key = null;
+            while (jp.nextValue() != JsonToken.END_OBJECT) {
+                String name = jp.getCurrentName();
+                if ("id".equals(name)) {
+                    id = jp.getText();
+                } else if ("error".equals(name)) {
+                    error = jp.getText();
+                } else if ("key".equals(name)) {
+                    key = jp.readValueAsTree();
+                } else if ("value".equals(name) && jp.getCurrentToken() == JsonToken.START_OBJECT) {
+                    linkedId = readLinkedId(jp);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (error != null) {
+                if (!(ignoreNotFound && NOT_FOUND_ERROR.equals(error))) {
+                    throw new ViewResultException(key, error);
+                }
+            } else if (linkedId != null) {
+                ids.add(linkedId);
+            } else if (id != null) {
+                ids.add(id);
+            }
+        }
+    }
+
+    private String readLinkedId(JsonParser jp) throws IOException {
+        String linkedId = null;
+        boolean rev = false;
+        while (jp.nextValue() != JsonToken.END_OBJECT) {
+            String name = jp.getCurrentName();
+            if ("_id".equals(name) && jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                linkedId = jp.getText();
+            } else if ("_rev".equals(name) && jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                rev = true;
+            } else {
+                jp.skipChildren();
+            }
+        }
+        if (linkedId != null && rev) {
+            linkedRevisions = true;
+        }
+        return linkedId;
+    }
+
+    /**
+     * @return true if any row read so far links a specific revision through value._rev, which a lookup by id cannot
+     * return
+     */
+    public boolean hasLinkedRevisions() {
+        return linkedRevisions;
+    }
+}
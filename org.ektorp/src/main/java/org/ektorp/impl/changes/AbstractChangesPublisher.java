@@ -0,0 +1,267 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.util.*;
+import org.slf4j.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Publishes a continuous changes feed with demand signalling. Each subscription has a thread of its own that connects
+ * on the first request and then reads the feed only while the subscriber has outstanding demand. Without demand
+ * nothing is read from the connection, so TCP flow control holds the server back.
+ *
+ * The feed is split into lines on the byte level and every line is parsed straight from the read buffer, with the
+ * ObjectMapper of the connector.
+ * Cancelling a subscription aborts its connection.
+ *
+ * @author henrik lundgren
+ *
+ */
+public abstract class AbstractChangesPublisher<T> implements ChangesPublisher<T> {
+	/**
+	 * Opens the connection to the feed.
+	 */
+	public interface Connector {
+
+		HttpResponse connect();
+	}
+
+	private final static Logger LOG = LoggerFactory.getLogger(AbstractChangesPublisher.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private final String dbName;
+	private final Connector connector;
+	private final ObjectMapper objectMapper;
+
+	protected AbstractChangesPublisher(String dbName, Connector connector, ObjectMapper objectMapper) {
+		Assert.notNull(connector, "connector may not be null");
+		Assert.notNull(objectMapper, "objectMapper may not be null");
+		this.dbName = dbName;
+		this.connector = connector;
+		this.objectMapper = objectMapper;
+	}
+
+	public void subscribe(ChangesSubscriber<? super T> subscriber) {
+		Assert.notNull(subscriber, "subscriber may not be null");
+		FeedSubscription s = new FeedSubscription(subscriber);
+		subscriber.onSubscribe(s);
+		s.start();
+	}
+	/**
+	 * Blocks until at least one change can be read.
+	 * @return the next item, null if the feed has ended
+	 */
+	protected abstract T nextItem(LineReader lines) throws IOException;
+	/**
+	 * Splits the feed into lines in its own buffer, so that it is known which changes can be read without blocking.
+	 */
+	protected static class LineReader {
+
+		private final InputStream in;
+		private final ObjectMapper objectMapper;
+		private byte[] buffer = new byte[8192];
+		private int start;
+		private int end;
+		private boolean eof;
+
+		LineReader(InputStream in, ObjectMapper objectMapper) {
+			this.in = in;
+			this.objectMapper = objectMapper;
+		}
+		/**
+		 * @param block if false, only changes already read from the connection are returned
+		 * @return the next change, null if the feed has ended or, when not blocking, no complete change is buffered
+		 */
+		public DocumentChange nextChange(boolean block) throws IOException {
+			while (true) {
+				int lineEnd = indexOfNewline();
+				if (lineEnd != -1) {
+					int lineStart = start;
+					start = lineEnd + 1;
+					if (!isBlank(lineStart, lineEnd)) {
+						JsonNode node = parse(lineStart, lineEnd);
+						if (node.has("id")) {
+							return new StdDocumentChange(node);
+						}
+						// the last_seq line the server sends before it closes the feed
+					}
+				} else if (eof) {
+					if (isBlank(start, end)) {
+						return null;
+					}
+					int lineStart = start;
+					start = end;
+					JsonNode node = parse(lineStart, end);
+					return node.has("id") ? new StdDocumentChange(node) : null;
+				} else if (!block) {
+					return null;
+				} else {
+					fill();
+				}
+			}
+		}
+
+		private int indexOfNewline() {
+			for (int i = start; i < end; i++) {
+				if (buffer[i] == '\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean isBlank(int from, int to) {
+			for (int i = from; i < to; i++) {
+				byte b = buffer[i];
+				if (b != ' ' && b != '\r' && b != '\t' && b != '\n') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void fill() throws IOException {
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+			if (end == buffer.length) {
+				byte[] larger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, larger, 0, end);
+				buffer = larger;
+			}
+			int n = in.read(buffer, end, buffer.length - end);
+			if (n == -1) {
+				eof = true;
+			} else {
+				end += n;
+			}
+		}
+
+		private JsonNode parse(int from, int to) throws IOException {
+			return objectMapper.readTree(objectMapper.getFactory().createParser(buffer, from, to - from));
+		}
+	}
+
+	private class FeedSubscription implements ChangesSubscription, Runnable {
+
+		private final ChangesSubscriber<? super T> subscriber;
+		private final Thread thread;
+		private final AtomicBoolean terminated = new AtomicBoolean();
+		private long demand;
+		private volatile boolean cancelled;
+		private volatile HttpResponse response;
+		private volatile Throwable requestError;
+
+		FeedSubscription(ChangesSubscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+			this.thread = new Thread(this, String.format("ektorp-%s-changes-publisher-thread-%s", dbName, THREAD_COUNT.getAndIncrement()));
+			this.thread.setDaemon(true);
+		}
+
+		void start() {
+			thread.start();
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				cancelWithError(new IllegalArgumentException("requested items must be greater than zero, was " + n));
+				return;
+			}
+			synchronized (this) {
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				notifyAll();
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+			synchronized (this) {
+				notifyAll();
+			}
+			HttpResponse r = response;
+			if (r != null) {
+				r.abort();
+			}
+		}
+
+		private void cancelWithError(Throwable t) {
+			requestError = t;
+			cancel();
+		}
+
+		private synchronized boolean awaitDemand() throws InterruptedException {
+			while (demand == 0 && !cancelled) {
+				wait();
+			}
+			return !cancelled;
+		}
+
+		private synchronized void consumeDemand() {
+			if (demand != Long.MAX_VALUE) {
+				demand--;
+			}
+		}
+
+		public void run() {
+			try {
+				if (!awaitDemand()) {
+					return;
+				}
+				response = connector.connect();
+				if (cancelled) {
+					return;
+				}
+				LineReader lines = new LineReader(response.getContent(), objectMapper);
+				while (awaitDemand()) {
+					T item = nextItem(lines);
+					if (cancelled) {
+						return;
+					}
+					if (item == null) {
+						terminate(null);
+						return;
+					}
+					consumeDemand();
+					subscriber.onNext(item);
+				}
+			} catch (Throwable t) {
+				if (!cancelled) {
+					cancelled = true;
+					terminate(t);
+				} else {
+					LOG.debug("Changes publisher stopped after cancel: " + t);
+				}
+			} finally {
+				HttpResponse r = response;
+				if (r != null) {
+					r.abort();
+				}
+				if (requestError != null) {
+					terminate(requestError);
+				}
+			}
+		}
+		/**
+		 * Signals onComplete, or onError if error is not null, unless a terminal signal has been sent already. A
+		 * non-positive request may race with a failing read.
+		 */
+		private void terminate(Throwable error) {
+			if (!terminated.compareAndSet(false, true)) {
+				LOG.debug("Changes publisher already terminated: " + error);
+				return;
+			}
+			if (error == null) {
+				subscriber.onComplete();
+			} else {
+				subscriber.onError(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.util.*;
+import org.slf4j.*;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Reads a continuous changes feed in a thread of its own and buffers the parsed changes in a bounded queue.
+ * Subclasses decide what a change is parsed into.
+ *
+ * The feed is parsed straight from the response's byte stream by one parser that lives as long as the connection,
+ * every change is a root level value. Heartbeats are just whitespace between root values and are skipped by the parser.
+ *
+ * If the feed is given a Reconnector, it resumes itself when the connection is lost: it reconnects with jittered
+ * exponential backoff, from the sequence of the last change it received. A connection that has not delivered a byte
+ * (change or heartbeat) within the heartbeat timeout is considered dead and is aborted. The time the reading thread
+ * spends waiting for room in a full queue does not count, as nothing is read from the connection meanwhile.
+ * Without a Reconnector, the feed ends when the connection ends.
+ *
+ * @author henrik lundgren
+ *
+ */
+public abstract class AbstractContinuousChangesFeed<C> implements Runnable {
+
+	/**
+	 * Opens a new connection to the feed.
+	 */
+	public interface Reconnector {
+		/**
+		 * @param since the sequence to resume from, null to resume from where the feed originally started.
+		 */
+		HttpResponse reconnect(String since);
+	}
+
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final static Logger LOG = LoggerFactory.getLogger(ContinuousChangesFeed.class);
+	private final static Object INTERRUPT_MARKER = new Object();
+	private final static Set<Class<?>> INTERRUPTED_EXCEPTION_TYPES = new HashSet<Class<?>>();
+	static {
+		INTERRUPTED_EXCEPTION_TYPES.add(InterruptedException.class);
+		INTERRUPTED_EXCEPTION_TYPES.add(InterruptedIOException.class);
+	}
+	private final static long MIN_RECONNECT_DELAY = 100;
+	private final static long MAX_RECONNECT_DELAY = 30000;
+	private final static ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ektorp-changes-heartbeat-watchdog");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final BlockingQueue<Object> changes;
+	private final ObjectMapper objectMapper;
+	private JsonParser jp;
+	private final Thread thread = new Thread(this);
+	private volatile boolean shouldRun = true;
+	private volatile HttpResponse httpResponse;
+	private final Reconnector reconnector;
+	private final long heartbeatTimeout;
+	private final ChangesFeedReconnectListener reconnectListener;
+	private final Random random = new Random();
+	private volatile long lastActivity;
+	private volatile boolean blocked;
+	private volatile String lastReceivedSeq;
+	private volatile String lastSeq;
+	private volatile int failedAttempts;
+	private final AtomicInteger reconnects = new AtomicInteger();
+	private final ChangesFeedMeter meter;
+
+	protected AbstractContinuousChangesFeed(String dbName, HttpResponse httpResponse, int queueCapacity, ObjectMapper objectMapper) {
+		this(dbName, httpResponse, queueCapacity, objectMapper, null, 0, null);
+	}
+	/**
+	 * @param reconnector if null, the feed ends when the connection ends
+	 * @param heartbeatTimeout millis without data after which the connection is considered dead, 0 disables detection
+	 * @param reconnectListener may be null
+	 */
+	protected AbstractContinuousChangesFeed(String dbName, HttpResponse httpResponse, int queueCapacity, ObjectMapper objectMapper,
+			Reconnector reconnector, long heartbeatTimeout, ChangesFeedReconnectListener reconnectListener) {
+		Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than zero");
+		Assert.notNull(objectMapper, "objectMapper may not be null");
+		Assert.isTrue(heartbeatTimeout >= 0, "heartbeatTimeout may not be negative");
+		this.httpResponse = httpResponse;
+		this.objectMapper = objectMapper;
+		this.reconnector = reconnector;
+		this.heartbeatTimeout = heartbeatTimeout;
+		this.reconnectListener = reconnectListener;
+		this.changes = new LinkedBlockingQueue<Object>(queueCapacity);
+		this.meter = new ChangesFeedMeter(dbName);
+		thread.setName(String.format("ektorp-%s-changes-listening-thread-%s", dbName, THREAD_COUNT.getAndIncrement()));
+	}
+	/**
+	 * Starts the reading thread, must be called once by the subclass constructor when the subclass is initialized.
+	 */
+	protected final void start() {
+		thread.start();
+	}
+	/**
+	 * @param jp positioned at the START_OBJECT token of a change, must be left at the matching END_OBJECT token.
+	 * @return the parsed change
+	 */
+	protected abstract C parseChange(JsonParser jp) throws IOException;
+	/**
+	 * @return the sequence of the change as text, null if it has none
+	 */
+	protected abstract String sequenceOf(C change);
+
+	public C next() throws InterruptedException {
+		assertRunningState();
+		Object c = changes.take();
+		checkIfInterrupted(c);
+		return delivered(c);
+	}
+
+	public C poll() throws InterruptedException {
+		assertRunningState();
+		Object c = changes.poll();
+		checkIfInterrupted(c);
+		return delivered(c);
+	}
+
+	public C next(long timeout, TimeUnit unit) throws InterruptedException {
+		assertRunningState();
+		Object c = changes.poll(timeout, unit);
+		checkIfInterrupted(c);
+		return delivered(c);
+	}
+
+	public int nextBatch(List<? super C> target, int maxItems, long timeout, TimeUnit unit) throws InterruptedException {
+		Assert.notNull(target, "target may not be null");
+		Assert.isTrue(maxItems > 0, "maxItems must be greater than zero");
+		C first = next(timeout, unit);
+		if (first == null) {
+			return 0;
+		}
+		target.add(first);
+		if (maxItems == 1) {
+			return 1;
+		}
+		List<Object> drained = new ArrayList<Object>(Math.min(maxItems - 1, changes.size()));
+		changes.drainTo(drained, maxItems - 1);
+		int count = 1;
+		for (Object c : drained) {
+			if (c == INTERRUPT_MARKER) {
+				// leave it for the next call, the changes before it are delivered first
+				sendInterruptMarker();
+				break;
+			}
+			target.add(delivered(c));
+			count++;
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	private C delivered(Object c) {
+		C change = (C) c;
+		if (change != null) {
+			String seq = sequenceOf(change);
+			if (seq != null) {
+				lastSeq = seq;
+			}
+		}
+		return change;
+	}
+	/**
+	 * @return the sequence of the last change returned by next, poll or nextBatch, null if none has been returned.
+	 */
+	public String getLastSeq() {
+		return lastSeq;
+	}
+	/**
+	 * @return the number of times the feed has reconnected.
+	 */
+	public int getReconnectCount() {
+		return reconnects.get();
+	}
+
+	/**
+	 * @return the metrics of this feed, the sequence lag is not known and is -1.
+	 */
+	public ChangesFeedMetrics getMetrics() {
+		return meter.snapshot(changes.size(), reconnects.get(), lastSeq);
+	}
+
+	private void assertRunningState() {
+		if (!isAlive()) {
+			throw new IllegalStateException("Changes feed is not alive");
+		}
+	}
+
+	private void checkIfInterrupted(Object c) throws InterruptedException {
+		if (c == INTERRUPT_MARKER || (!shouldRun && changes.isEmpty())) {
+			throw new InterruptedException();
+		}
+	}
+
+	public void cancel() {
+		LOG.debug("Feed cancelled");
+		shouldRun = false;
+		thread.interrupt();
+	}
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
+	private void sendInterruptMarker()  {
+		LOG.debug("Sending interrupt marker in order to interrupt feed consumer");
+		changes.offer(INTERRUPT_MARKER);
+	}
+
+	public boolean isAlive() {
+		return thread.isAlive();
+	}
+
+	public int queueSize() {
+		return changes.size();
+	}
+
+	public void run() {
+		ScheduledFuture<?> watchdog = startWatchdog();
+		try {
+			while (shouldRun) {
+				Exception cause = null;
+				try {
+					if (httpResponse == null) {
+						httpResponse = reconnector.reconnect(lastReceivedSeq);
+						reconnects.incrementAndGet();
+						LOG.info("Changes feed reconnected since {}", lastReceivedSeq);
+						if (reconnectListener != null) {
+							reconnectListener.reconnected(lastReceivedSeq, failedAttempts);
+						}
+					}
+					readChanges();
+					if (reconnector == null || !shouldRun) {
+						String reason = !shouldRun ? "Cancelled" : "EOF";
+						LOG.info("Changes feed stopped. Reason: " + reason);
+					} else {
+						LOG.info("Changes feed connection closed by server");
+					}
+				} catch (Exception e) {
+					if (reconnector == null || !shouldRun || INTERRUPTED_EXCEPTION_TYPES.contains(e.getClass())) {
+						handleException(e);
+						return;
+					}
+					LOG.warn("Changes feed disconnected: " + e);
+					cause = e;
+				} finally {
+					closeConnection();
+				}
+				if (reconnector == null || !shouldRun) {
+					return;
+				}
+				if (reconnectListener != null) {
+					reconnectListener.disconnected(lastReceivedSeq, cause);
+				}
+				try {
+					Thread.sleep(reconnectDelay(failedAttempts++));
+				} catch (InterruptedException e) {
+					LOG.info("Changes feed was interrupted");
+					return;
+				}
+			}
+		} finally {
+			if (watchdog != null) {
+				watchdog.cancel(false);
+			}
+			sendInterruptMarker();
+		}
+	}
+
+	private void readChanges() throws IOException, InterruptedException {
+		lastActivity = System.currentTimeMillis();
+		// created here as the parser blocks until it has read enough of the stream to detect the encoding
+		jp = objectMapper.getFactory().createParser(new ActivityTrackingInputStream(httpResponse.getContent()));
+		JsonToken token = jp.nextToken();
+		while(shouldRun && token != null) {
+			if (token == JsonToken.START_OBJECT) {
+				handleChange();
+			} else {
+				jp.skipChildren();
+			}
+			token = jp.nextToken();
+		}
+	}
+
+	private void closeConnection() {
+		HttpResponse r = httpResponse;
+		httpResponse = null;
+		if (r != null) {
+			r.abort();
+		}
+		try {
+			if (jp != null) {
+				jp.close();
+			}
+		} catch (IOException e) {}
+		jp = null;
+	}
+
+	private ScheduledFuture<?> startWatchdog() {
+		if (reconnector == null || heartbeatTimeout <= 0) {
+			return null;
+		}
+		long period = Math.max(heartbeatTimeout / 4, 1);
+		return WATCHDOG.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				HttpResponse r = httpResponse;
+				if (r != null && !blocked && System.currentTimeMillis() - lastActivity > heartbeatTimeout) {
+					LOG.warn("No heartbeat from changes feed in {} ms, aborting connection", heartbeatTimeout);
+					lastActivity = System.currentTimeMillis();
+					r.abort();
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private long reconnectDelay(int attempt) {
+		long delay = Math.min(MAX_RECONNECT_DELAY, MIN_RECONNECT_DELAY << Math.min(attempt, 20));
+		// half fixed, half random, so that many feeds dropped at once do not reconnect at once
+		return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+	}
+
+	private void handleChange() throws IOException, InterruptedException {
+		C change = parseChange(jp);
+		String seq = sequenceOf(change);
+		if (seq != null) {
+			lastReceivedSeq = seq;
+		}
+		failedAttempts = 0;
+		meter.changeRead();
+		if (!changes.offer(change)) {
+			meter.blockStarted();
+			blocked = true;
+			try {
+				changes.put(change);
+			} finally {
+				// the heartbeat timeout starts over when reading resumes
+				lastActivity = System.currentTimeMillis();
+				blocked = false;
+				meter.blockEnded();
+			}
+		}
+	}
+
+	private void handleException(Exception e) {
+		if (INTERRUPTED_EXCEPTION_TYPES.contains(e.getClass())) {
+			LOG.info("Changes feed was interrupted");
+		} else {
+			LOG.error("Caught exception while listening to changes feed:", e);
+		}
+	}
+
+	private class ActivityTrackingInputStream extends FilterInputStream {
+
+		ActivityTrackingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				dataRead(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				dataRead(n);
+			}
+			return n;
+		}
+
+		private void dataRead(int n) {
+			long now = System.currentTimeMillis();
+			lastActivity = now;
+			meter.dataRead(n, now);
+		}
+	}
+
+}
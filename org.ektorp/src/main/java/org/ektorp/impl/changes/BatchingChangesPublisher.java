@@ -0,0 +1,44 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Publishes the changes as batches, one batch per requested item. A batch holds at least one change, and as many of the
+ * changes already read from the connection as maxBatchSize allows. A batch is never held back waiting for more changes.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class BatchingChangesPublisher extends AbstractChangesPublisher<List<DocumentChange>> {
+
+	private final int maxBatchSize;
+
+	public BatchingChangesPublisher(String dbName, Connector connector, ObjectMapper objectMapper, int maxBatchSize) {
+		super(dbName, connector, objectMapper);
+		Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than zero");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	protected List<DocumentChange> nextItem(LineReader lines) throws IOException {
+		DocumentChange first = lines.nextChange(true);
+		if (first == null) {
+			return null;
+		}
+		List<DocumentChange> batch = new ArrayList<DocumentChange>();
+		batch.add(first);
+		while (batch.size() < maxBatchSize) {
+			DocumentChange c = lines.nextChange(false);
+			if (c == null) {
+				break;
+			}
+			batch.add(c);
+		}
+		return batch;
+	}
+}
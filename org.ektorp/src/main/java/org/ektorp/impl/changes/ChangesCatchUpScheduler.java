@@ -0,0 +1,323 @@
+package org.ektorp.impl.changes;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.CouchDbInstance;
+import org.ektorp.StreamingChangesResult;
+import org.ektorp.changes.*;
+import org.ektorp.util.*;
+import org.slf4j.*;
+/**
+ * Follows the changes of all databases in an instance with one connection to the _db_updates feed, instead of one
+ * changes feed per database.
+ *
+ * When the _db_updates feed reports that a database was created or updated, a catch-up is scheduled for it: the
+ * database's _changes are read with normal requests, in batches, from the sequence where its previous catch-up ended,
+ * until no more changes are found. Updates of a database that arrive while its catch-up is queued are coalesced into
+ * that catch-up, updates that arrive while it is running cause one more catch-up afterwards. No more than
+ * maxConcurrentCatchUps catch-ups run at any time, so databases that are idle cost nothing and a burst of updates
+ * across many databases cannot open more than that many connections.
+ *
+ * The sequences where each database's catch-up ended are kept in memory, databases not seen before are read from the
+ * start. To resume after a restart, save getCheckpointSeq() and the sequences from getSince(dbName) and pass them to
+ * start(String) and setSince(String, String). getCheckpointSeq() only moves past an update when the catch-up it caused
+ * has completed, so changes may be delivered twice after a restart but never missed. A database that is deleted and
+ * created again while its catch-up is running is read from the start once that catch-up has ended.
+ *
+ * <code>
+ * ChangesCatchUpScheduler scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().includeDocs(true).build(), listener, 8);
+ * scheduler.start(savedCheckpoint);
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ChangesCatchUpScheduler {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesCatchUpScheduler.class);
+	private final static AtomicInteger SCHEDULER_COUNT = new AtomicInteger();
+	private final static int DEFAULT_BATCH_SIZE = 1000;
+	private final static long DEFAULT_RETRY_DELAY = 5000;
+
+	private final CouchDbInstance dbInstance;
+	private final ChangesCommand cmd;
+	private final DatabaseChangesListener listener;
+	private final ScheduledExecutorService executor;
+	private final Thread thread;
+	private final ConcurrentMap<String, String> sinceByDb = new ConcurrentHashMap<String, String>();
+	private final Map<String, CatchUp> catchUps = new HashMap<String, CatchUp>();
+	// the _db_updates sequence before the first update of each database with a pending catch-up, by update number
+	private final SortedMap<Long, String> pendingCheckpoints = new TreeMap<Long, String>();
+	private final AtomicLong completedCatchUps = new AtomicLong();
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+	private volatile DbUpdatesFeed feed;
+	private volatile boolean running;
+	private long updateCount;
+	private String feedSeq;
+
+	/**
+	 * @param cmd the command used for the catch-ups, since, limit and feed are set by the scheduler.
+	 * @param maxConcurrentCatchUps the max number of databases read concurrently, the HttpClient of the instance needs
+	 *        at least this many connections plus one for the _db_updates feed.
+	 */
+	public ChangesCatchUpScheduler(CouchDbInstance dbInstance, ChangesCommand cmd, DatabaseChangesListener listener, int maxConcurrentCatchUps) {
+		Assert.notNull(dbInstance, "dbInstance may not be null");
+		Assert.notNull(cmd, "ChangesCommand may not be null");
+		Assert.notNull(listener, "listener may not be null");
+		Assert.isTrue(maxConcurrentCatchUps > 0, "maxConcurrentCatchUps must be greater than zero");
+		this.dbInstance = dbInstance;
+		this.cmd = cmd;
+		this.listener = listener;
+		final int id = SCHEDULER_COUNT.getAndIncrement();
+		this.executor = Executors.newScheduledThreadPool(maxConcurrentCatchUps, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("ektorp-changes-catch-up-%s-%s", id, count.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				readDbUpdates();
+			}
+		}, String.format("ektorp-db-updates-scheduler-%s", id));
+		this.thread.setDaemon(true);
+	}
+	/**
+	 * Max number of changes fetched per request during a catch-up. Default is 1000.
+	 */
+	public void setBatchSize(int i) {
+		Assert.isTrue(i > 0, "batchSize must be greater than zero");
+		batchSize = i;
+	}
+	/**
+	 * Delay before a failed catch-up is retried. Default is 5000 ms.
+	 */
+	public void setRetryDelay(long delay, TimeUnit unit) {
+		Assert.isTrue(delay >= 0, "delay may not be negative");
+		retryDelay = unit.toMillis(delay);
+	}
+	/**
+	 * Sets the sequence the next catch-up of a database starts from, e.g. one saved from getSince before a restart.
+	 */
+	public void setSince(String dbName, String since) {
+		Assert.hasText(dbName, "dbName may not be null or empty");
+		Assert.notNull(since, "since may not be null");
+		sinceByDb.put(dbName, since);
+	}
+	/**
+	 * @return the sequence of the last change of the database delivered to the listener, null if none has been delivered.
+	 */
+	public String getSince(String dbName) {
+		return sinceByDb.get(dbName);
+	}
+	/**
+	 * Opens the _db_updates feed and starts scheduling catch-ups.
+	 * @param since the _db_updates sequence to start from, null or "now" to start from the current end of the feed.
+	 */
+	public synchronized void start(String since) {
+		if (feed != null) {
+			throw new IllegalStateException("scheduler is already started");
+		}
+		feedSeq = since;
+		running = true;
+		feed = dbInstance.dbUpdatesFeed(since);
+		thread.start();
+	}
+	/**
+	 * Closes the _db_updates feed and stops all catch-ups. Catch-ups in progress are interrupted.
+	 */
+	public void stop() {
+		running = false;
+		DbUpdatesFeed f = feed;
+		if (f != null) {
+			f.cancel();
+		}
+		executor.shutdownNow();
+	}
+	/**
+	 * @return the _db_updates sequence up to which every update has been caught up. Resuming from it will not miss a change.
+	 */
+	public synchronized String getCheckpointSeq() {
+		return pendingCheckpoints.isEmpty() ? feedSeq : pendingCheckpoints.get(pendingCheckpoints.firstKey());
+	}
+	/**
+	 * @return the number of databases with a queued or running catch-up.
+	 */
+	public synchronized int getPendingCount() {
+		return catchUps.size();
+	}
+
+	public long getCompletedCatchUpCount() {
+		return completedCatchUps.get();
+	}
+
+	private void readDbUpdates() {
+		try {
+			while (running) {
+				onUpdate(feed.next());
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("_db_updates feed stopped");
+		}
+	}
+
+	synchronized void onUpdate(DbUpdate update) {
+		String dbName = update.getDbName();
+		String previousSeq = feedSeq;
+		long updateNumber = updateCount++;
+		if (update.getSequence() != null) {
+			feedSeq = update.getSequence();
+		}
+		if (dbName == null) {
+			return;
+		}
+		CatchUp c = catchUps.get(dbName);
+		if (DbUpdate.DELETED.equals(update.getType())) {
+			sinceByDb.remove(dbName);
+			if (c != null) {
+				c.deleted = true;
+				c.deletes++;
+			}
+			return;
+		}
+		if (c == null) {
+			c = new CatchUp(dbName, updateNumber);
+			catchUps.put(dbName, c);
+			pendingCheckpoints.put(updateNumber, previousSeq);
+			schedule(c, 0);
+		} else {
+			c.deleted = false;
+			// a catch-up that has not started yet will see this update as well
+			if (c.inProgress) {
+				c.again = true;
+			}
+		}
+	}
+
+	private void schedule(CatchUp c, long delay) {
+		try {
+			executor.schedule(c, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			LOG.debug("scheduler is stopped, catch-up of {} dropped", c.dbName);
+		}
+	}
+
+	private synchronized void catchUpEnded(CatchUp c, boolean failed) {
+		c.inProgress = false;
+		if (!running) {
+			return;
+		}
+		if (c.deletes != c.runDeletes) {
+			// the sequences of a database deleted during the run do not apply to a database created in its place
+			sinceByDb.remove(c.dbName);
+		}
+		if (!c.deleted && (failed || c.again)) {
+			schedule(c, failed ? retryDelay : 0);
+			return;
+		}
+		catchUps.remove(c.dbName);
+		pendingCheckpoints.remove(c.firstUpdate);
+		completedCatchUps.incrementAndGet();
+	}
+
+	/**
+	 * Records the sequence the next catch-up of the database starts from, unless the database has been deleted since
+	 * the catch-up started.
+	 * @return false if the database has been deleted
+	 */
+	private synchronized boolean advance(CatchUp c, String seq) {
+		if (c.deletes != c.runDeletes) {
+			return false;
+		}
+		sinceByDb.put(c.dbName, seq);
+		return true;
+	}
+
+	private void catchUp(CatchUp c) {
+		String dbName = c.dbName;
+		CouchDbConnector db = dbInstance.createConnector(dbName, false);
+		int received;
+		do {
+			String since = sinceByDb.get(dbName);
+			StreamingChangesResult result = db.changesAsStream(new ChangesCommand.Builder().merge(cmd)
+					.continuous(false)
+					.since(since != null ? since : "0")
+					.limit(batchSize)
+					.build());
+			List<DocumentChange> changes = new ArrayList<DocumentChange>();
+			try {
+				for (DocumentChange change : result) {
+					changes.add(change);
+				}
+			} finally {
+				result.close();
+			}
+			for (DocumentChange change : changes) {
+				if (!running) {
+					return;
+				}
+				listener.onChange(dbName, change);
+				String seq = sequenceOf(change);
+				// null between the sequences sent with seq_interval
+				if (seq != null && !advance(c, seq)) {
+					return;
+				}
+			}
+			if (result.getLastSeqAsText() != null && !advance(c, result.getLastSeqAsText())) {
+				return;
+			}
+			received = changes.size();
+		} while (received >= batchSize && running);
+	}
+
+	private static String sequenceOf(DocumentChange change) {
+		if (change instanceof StdDocumentChange) {
+			return ((StdDocumentChange) change).getSequenceAsText();
+		}
+		return change.getStringSequence();
+	}
+
+	private class CatchUp implements Runnable {
+
+		final String dbName;
+		final long firstUpdate;
+		boolean inProgress;
+		boolean again;
+		boolean deleted;
+		// the number of times the database has been deleted, unlike deleted not reset when it is created again
+		int deletes;
+		int runDeletes;
+
+		CatchUp(String dbName, long firstUpdate) {
+			this.dbName = dbName;
+			this.firstUpdate = firstUpdate;
+		}
+
+		public void run() {
+			synchronized (ChangesCatchUpScheduler.this) {
+				if (deleted) {
+					catchUpEnded(this, false);
+					return;
+				}
+				inProgress = true;
+				again = false;
+				runDeletes = deletes;
+			}
+			boolean failed = false;
+			try {
+				catchUp(this);
+			} catch (Exception e) {
+				LOG.warn(String.format("Catch-up of changes in %s failed", dbName), e);
+				failed = true;
+			}
+			catchUpEnded(this, failed);
+		}
+	}
+}
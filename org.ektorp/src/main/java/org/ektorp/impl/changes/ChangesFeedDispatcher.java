@@ -0,0 +1,262 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.DbAccessException;
+import org.ektorp.DbPath;
+import org.ektorp.changes.*;
+import org.ektorp.http.*;
+import org.ektorp.util.*;
+import org.slf4j.*;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Follows the changes of many databases with a small, fixed number of threads and connections.
+ *
+ * Instead of holding one continuous response (and thread) open per feed, the dispatcher polls each subscribed feed
+ * with short normal (or longpoll) _changes requests from a pool of I/O threads. A feed that returned changes is
+ * polled again right away, idle feeds are polled at an interval that backs off from minPollInterval to
+ * maxPollInterval. No more than ioThreads requests are in flight at any time, regardless of the number of feeds.
+ *
+ * The dispatcher should be given its own HttpClient, so that feeds do not compete with request traffic for
+ * connections:
+ * <code>
+ * HttpClient changesClient = new StdHttpClient.Builder().url(url).maxConnections(4).build();
+ * ChangesFeedDispatcher dispatcher = new ChangesFeedDispatcher(changesClient, 4);
+ * for (String db : tenantDbs) {
+ *		dispatcher.subscribe(db, new ChangesCommand.Builder().includeDocs(true).build(), listener);
+ * }
+ * </code>
+ *
+ * Continuous commands are followed by polling as well. Subscriptions without a since value start from the current
+ * end of the feed.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ChangesFeedDispatcher {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesFeedDispatcher.class);
+	private final static AtomicInteger DISPATCHER_COUNT = new AtomicInteger();
+	private final static int DEFAULT_BATCH_SIZE = 1000;
+	private final static long DEFAULT_MIN_POLL_INTERVAL = 100;
+	private final static long DEFAULT_MAX_POLL_INTERVAL = 5000;
+
+	private final RestTemplate restTemplate;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ScheduledExecutorService executor;
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long minPollInterval = DEFAULT_MIN_POLL_INTERVAL;
+	private volatile long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+	private volatile int longpollTimeout;
+
+	/**
+	 * @param httpClient should have at least ioThreads connections and preferably not be shared with other traffic
+	 * @param ioThreads the max number of feeds polled concurrently
+	 */
+	public ChangesFeedDispatcher(HttpClient httpClient, int ioThreads) {
+		Assert.notNull(httpClient, "httpClient may not be null");
+		Assert.isTrue(ioThreads > 0, "ioThreads must be greater than zero");
+		this.restTemplate = new RestTemplate(httpClient);
+		final int id = DISPATCHER_COUNT.getAndIncrement();
+		this.executor = Executors.newScheduledThreadPool(ioThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("ektorp-changes-dispatcher-%s-%s", id, count.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	/**
+	 * Max number of changes fetched per poll. Default is 1000.
+	 */
+	public void setBatchSize(int i) {
+		Assert.isTrue(i > 0, "batchSize must be greater than zero");
+		batchSize = i;
+	}
+	/**
+	 * The interval of polls of feeds that had no changes in the previous poll starts at min and doubles for each
+	 * empty poll up to max. Defaults are 100 and 5000 ms.
+	 */
+	public void setPollInterval(long min, long max, TimeUnit unit) {
+		Assert.isTrue(min > 0 && max >= min, "0 < min <= max required");
+		minPollInterval = unit.toMillis(min);
+		maxPollInterval = unit.toMillis(max);
+	}
+	/**
+	 * If set, feeds are polled with feed=longpoll and the server holds each request up to the timeout until a change
+	 * arrives. Lowers latency, but every idle feed occupies an I/O thread for the timeout, so only use it when
+	 * there are not many more feeds than threads. Default is 0, i.e. normal polls.
+	 */
+	public void setLongpollTimeout(int millis) {
+		Assert.isTrue(millis >= 0, "timeout may not be negative");
+		longpollTimeout = millis;
+	}
+
+	public Subscription subscribe(String databaseName, ChangesCommand cmd, ChangesListener listener) {
+		Assert.hasText(databaseName, "databaseName may not be null or empty");
+		Assert.notNull(cmd, "ChangesCommand may not be null");
+		Assert.notNull(listener, "listener may not be null");
+		if (executor.isShutdown()) {
+			throw new IllegalStateException("dispatcher is shut down");
+		}
+		Subscription s = new Subscription(DbPath.fromString(databaseName).getPath(), cmd, listener);
+		s.schedule(0);
+		return s;
+	}
+	/**
+	 * Stops all feeds. Polls in progress are completed.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public class Subscription implements Runnable {
+
+		private final String dbPath;
+		private final ChangesCommand cmd;
+		private final ChangesListener listener;
+		private volatile String lastSeq;
+		private volatile boolean cancelled;
+		private long interval;
+		private ScheduledFuture<?> next;
+
+		Subscription(String dbPath, ChangesCommand cmd, ChangesListener listener) {
+			this.dbPath = dbPath;
+			this.cmd = cmd;
+			this.listener = listener;
+			this.lastSeq = cmd.since != null ? cmd.since : "now";
+			this.interval = minPollInterval;
+		}
+		/**
+		 * @return the seq of the last change delivered to the listener, or the seq the feed started from.
+		 */
+		public String getLastSeq() {
+			return lastSeq;
+		}
+
+		public boolean isActive() {
+			return !cancelled && !executor.isShutdown();
+		}
+		/**
+		 * No polls are started after this call, a poll in progress is completed.
+		 */
+		public synchronized void cancel() {
+			cancelled = true;
+			if (next != null) {
+				next.cancel(false);
+			}
+		}
+
+		synchronized void schedule(long delay) {
+			if (cancelled) {
+				return;
+			}
+			try {
+				next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				LOG.debug("dispatcher is shut down, feed for {} stopped", dbPath);
+			}
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			int received;
+			try {
+				received = poll();
+			} catch (Exception e) {
+				LOG.warn(String.format("Polling changes of %s failed", dbPath), e);
+				backOff();
+				return;
+			}
+			if (received >= batchSize) {
+				schedule(0);
+			} else if (received > 0 || longpollTimeout > 0) {
+				interval = minPollInterval;
+				schedule(longpollTimeout > 0 ? 0 : minPollInterval);
+			} else {
+				backOff();
+			}
+		}
+
+		private void backOff() {
+			long delay = interval;
+			interval = Math.min(interval * 2, maxPollInterval);
+			schedule(delay);
+		}
+
+		private int poll() {
+			ChangesCommand.Builder b = new ChangesCommand.Builder().merge(cmd)
+					.continuous(false)
+					.since(lastSeq)
+					.limit(batchSize);
+			if (longpollTimeout > 0) {
+				b.param("feed", "longpoll").param("timeout", Integer.toString(longpollTimeout));
+			}
+			ChangesCommand pollCmd = b.build();
+			StdResponseHandler<Integer> handler = new StdResponseHandler<Integer>() {
+				@Override
+				public Integer success(HttpResponse hr) throws Exception {
+					return readChanges(hr);
+				}
+			};
+			String uri = dbPath + pollCmd.toString();
+			if (pollCmd.hasRequestBody()) {
+				return restTemplate.postUncached(uri, writeRequestBody(pollCmd), handler);
+			}
+			return restTemplate.getUncached(uri, handler);
+		}
+
+		private String writeRequestBody(ChangesCommand pollCmd) {
+			try {
+				return objectMapper.writeValueAsString(pollCmd.getRequestBody());
+			} catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+
+		private int readChanges(HttpResponse hr) throws IOException {
+			JsonParser jp = objectMapper.getFactory().createParser(hr.getContent());
+			try {
+				if (jp.nextToken() != JsonToken.START_OBJECT) {
+					throw new DbAccessException("Expected data to start with an Object");
+				}
+				int received = 0;
+				while (jp.nextValue() != JsonToken.END_OBJECT) {
+					String name = jp.getCurrentName();
+					if ("results".equals(name) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+						while (jp.nextToken() == JsonToken.START_OBJECT && !cancelled) {
+							StdDocumentChange change = new StdDocumentChange(jp.<JsonNode>readValueAsTree());
+							listener.onChange(change);
+							String seq = change.getSequenceAsText();
+							if (seq != null) {
+								// null between the sequences sent with seq_interval, last_seq follows the results
+								lastSeq = seq;
+							}
+							received++;
+						}
+						if (cancelled) {
+							return received;
+						}
+					} else if ("last_seq".equals(name) && jp.getCurrentToken().isScalarValue()) {
+						lastSeq = jp.getText();
+					} else {
+						jp.skipChildren();
+					}
+				}
+				return received;
+			} finally {
+				jp.close();
+			}
+		}
+	}
+}
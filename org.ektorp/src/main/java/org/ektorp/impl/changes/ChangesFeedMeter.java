@@ -0,0 +1,90 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.changes.ChangesFeedMetrics;
+/**
+ * Counts what a changes feed reads. Updated by the thread that reads the feed and read by any thread.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ChangesFeedMeter {
+
+	private final String dbName;
+	private final long started = System.currentTimeMillis();
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong blockedNanos = new AtomicLong();
+	private volatile long lastData = started;
+	private volatile long longestGap;
+	private volatile long blockedSince;
+
+	public ChangesFeedMeter(String dbName) {
+		this.dbName = dbName;
+	}
+
+	public void changeRead() {
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * The feed started waiting for room in its queue. Time spent waiting counts as blocked while the wait goes on.
+	 */
+	public void blockStarted() {
+		blockedSince = System.nanoTime();
+	}
+
+	public void blockEnded() {
+		blockedNanos.addAndGet(System.nanoTime() - blockedSince);
+		blockedSince = 0;
+	}
+
+	public void dataRead(int byteCount, long now) {
+		bytes.addAndGet(byteCount);
+		long gap = now - lastData;
+		if (gap > longestGap) {
+			longestGap = gap;
+		}
+		lastData = now;
+	}
+	/**
+	 * @return a stream that counts the bytes read from in
+	 */
+	public InputStream meter(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1) {
+					dataRead(1, System.currentTimeMillis());
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					dataRead(n, System.currentTimeMillis());
+				}
+				return n;
+			}
+		};
+	}
+
+	public ChangesFeedMetrics snapshot(int queueSize, int reconnectCount, String lastSeq) {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(now - started, 1) / 1000.0;
+		long changeCount = changes.get();
+		long byteCount = bytes.get();
+		long blocked = blockedNanos.get();
+		long since = blockedSince;
+		if (since != 0) {
+			blocked += System.nanoTime() - since;
+		}
+		return new StdChangesFeedMetrics(dbName, now, changeCount, byteCount, changeCount / seconds, byteCount / seconds,
+				queueSize, blocked / 1000000, now - lastData, longestGap, reconnectCount, lastSeq, -1);
+	}
+}
@@ -0,0 +1,99 @@
+package org.ektorp.impl.changes;
+
+import java.util.concurrent.*;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.*;
+import org.ektorp.util.*;
+import org.slf4j.*;
+/**
+ * Reports the metrics of a changes feed to a listener at a fixed interval. The reported rates cover the last interval.
+ *
+ * If the reporter is given the connector of the feed's database, it also computes the sequence lag of the feed, by
+ * comparing the sequence of the last change delivered to the consumer with the update_seq of the database. This costs
+ * one request per interval. A lag that keeps growing means the consumer is falling behind.
+ *
+ * <code>
+ * ChangesFeed feed = db.changesFeed(cmd);
+ * ChangesFeedMetricsReporter reporter = new ChangesFeedMetricsReporter(feed, db, metricsListener);
+ * reporter.start(10, TimeUnit.SECONDS);
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ChangesFeedMetricsReporter {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesFeedMetricsReporter.class);
+	private final static ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ektorp-changes-metrics-reporter");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final ChangesFeedMetricsSource feed;
+	private final CouchDbConnector db;
+	private final ChangesFeedMetricsListener listener;
+	private ScheduledFuture<?> task;
+	private ChangesFeedMetrics previous;
+
+	/**
+	 * @param feed a ChangesFeed, TypedChangesFeed or StreamingChangesResult
+	 * @param db the database of the feed, used to compute the sequence lag. May be null, the lag is then reported as -1.
+	 * @param listener
+	 */
+	public ChangesFeedMetricsReporter(ChangesFeedMetricsSource feed, CouchDbConnector db, ChangesFeedMetricsListener listener) {
+		Assert.notNull(feed, "feed may not be null");
+		Assert.notNull(listener, "listener may not be null");
+		this.feed = feed;
+		this.db = db;
+		this.listener = listener;
+	}
+
+	public synchronized void start(long interval, TimeUnit unit) {
+		Assert.isTrue(interval > 0, "interval must be greater than zero");
+		if (task != null) {
+			throw new IllegalStateException("reporter is already started");
+		}
+		previous = feed.getMetrics();
+		task = SCHEDULER.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					report();
+				} catch (Exception e) {
+					LOG.warn("Reporting changes feed metrics failed", e);
+				}
+			}
+		}, interval, interval, unit);
+	}
+
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+	/**
+	 * Reports the metrics since the previous report, or since the reporter was started, right away.
+	 */
+	public synchronized void report() {
+		ChangesFeedMetrics m = feed.getMetrics();
+		long lag = -1;
+		if (db != null) {
+			lag = Sequences.lag(db.getDbInfo().getUpdateSeqAsString(), m.getLastSeq());
+		}
+		double changesPerSecond = m.getChangesPerSecond();
+		double bytesPerSecond = m.getBytesPerSecond();
+		if (previous != null) {
+			double seconds = Math.max(m.getTimestamp() - previous.getTimestamp(), 1) / 1000.0;
+			changesPerSecond = (m.getChangeCount() - previous.getChangeCount()) / seconds;
+			bytesPerSecond = (m.getByteCount() - previous.getByteCount()) / seconds;
+		}
+		previous = m;
+		listener.onMetrics(new StdChangesFeedMetrics(m.getDbName(), m.getTimestamp(), m.getChangeCount(), m.getByteCount(),
+				changesPerSecond, bytesPerSecond, m.getQueueSize(), m.getBlockedMillis(), m.getMillisSinceLastData(),
+				m.getLongestDataGapMillis(), m.getReconnectCount(), m.getLastSeq(), lag));
+	}
+}
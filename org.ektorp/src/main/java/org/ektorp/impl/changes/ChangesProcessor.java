@@ -0,0 +1,424 @@
+package org.ektorp.impl.changes;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.*;
+import org.ektorp.util.*;
+import org.slf4j.*;
+/**
+ * Follows the changes feed of a database and hands every change to a listener, checkpointing the sequence of the
+ * processed changes in a CheckpointStore so that processing resumes from the checkpoint after a restart.
+ *
+ * Changes are partitioned over a pool of worker threads by the hash of the document id. The changes of a document are
+ * therefore processed one at a time and in sequence order, while changes of different documents are processed in
+ * parallel. The checkpoint is the sequence of the last change before which all changes have been processed, it is
+ * saved periodically and when the processor is stopped.
+ *
+ * Delivery is at least once: a change is delivered again after a restart if it, or any change before it, had not been
+ * processed when the checkpoint was saved. If the listener throws, the change is retried with backoff and the
+ * changes behind it in the same partition wait. Reading of the feed pauses when the checkpoint is held back by more
+ * than maxUncheckpointedChanges received changes. If the feed connection is lost, the feed is reopened from the last
+ * received change with backoff.
+ *
+ * <code>
+ * ChangesProcessor p = new ChangesProcessor(db, new ChangesCommand.Builder().includeDocs(true).build(),
+ *		new LocalDocumentCheckpointStore(db, "indexer"), listener, 4);
+ * p.start();
+ * ...
+ * p.stop(10, TimeUnit.SECONDS);
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ChangesProcessor {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesProcessor.class);
+	private final static AtomicInteger PROCESSOR_COUNT = new AtomicInteger();
+	private final static long DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	private final static long DEFAULT_MIN_BACKOFF = 100;
+	private final static long DEFAULT_MAX_BACKOFF = 30000;
+	private final static int DEFAULT_WORKER_QUEUE_CAPACITY = 100;
+	private final static int DEFAULT_MAX_UNCHECKPOINTED_CHANGES = 10000;
+
+	private final CouchDbConnector db;
+	private final ChangesCommand cmd;
+	private final CheckpointStore checkpointStore;
+	private final ChangesListener listener;
+	private final int workers;
+	private final int id = PROCESSOR_COUNT.getAndIncrement();
+
+	private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private volatile long minBackoff = DEFAULT_MIN_BACKOFF;
+	private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+	private volatile int workerQueueCapacity = DEFAULT_WORKER_QUEUE_CAPACITY;
+	private volatile int maxUncheckpointedChanges = DEFAULT_MAX_UNCHECKPOINTED_CHANGES;
+
+	private volatile boolean running;
+	private volatile ChangesFeed feed;
+	private volatile String lastReceivedSeq;
+	private volatile String checkpointSeq;
+	private Thread readerThread;
+	private ExecutorService workerPool;
+	private ScheduledExecutorService checkpointer;
+	private List<BlockingQueue<PendingChange>> partitions;
+	// guards inSequence and processedSeq, the reader trims inSequence without waiting for a checkpoint being saved
+	private final Object inSequenceLock = new Object();
+	private BlockingQueue<PendingChange> inSequence = new LinkedBlockingQueue<PendingChange>();
+	private String processedSeq;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+
+	/**
+	 * @param cmd the feed to follow, since is only used when the checkpoint store has no checkpoint.
+	 * @param workers the number of threads changes are processed by
+	 */
+	public ChangesProcessor(CouchDbConnector db, ChangesCommand cmd, CheckpointStore checkpointStore, ChangesListener listener, int workers) {
+		Assert.notNull(db, "db may not be null");
+		Assert.notNull(cmd, "ChangesCommand may not be null");
+		Assert.notNull(checkpointStore, "checkpointStore may not be null");
+		Assert.notNull(listener, "listener may not be null");
+		Assert.isTrue(workers > 0, "workers must be greater than zero");
+		this.db = db;
+		this.cmd = cmd;
+		this.checkpointStore = checkpointStore;
+		this.listener = listener;
+		this.workers = workers;
+	}
+	/**
+	 * How often the checkpoint is saved. Default is 1000 ms.
+	 */
+	public void setCheckpointInterval(long interval, TimeUnit unit) {
+		Assert.isTrue(interval > 0, "interval must be greater than zero");
+		checkpointInterval = unit.toMillis(interval);
+	}
+	/**
+	 * Reconnects and retries of failed changes are delayed by min, doubling for each consecutive failure up to max.
+	 * Defaults are 100 and 30000 ms.
+	 */
+	public void setBackoff(long min, long max, TimeUnit unit) {
+		Assert.isTrue(min > 0 && max >= min, "0 < min <= max required");
+		minBackoff = unit.toMillis(min);
+		maxBackoff = unit.toMillis(max);
+	}
+	/**
+	 * Max number of changes waiting for each worker, reading of the feed is paused when a worker's queue is full.
+	 * Default is 100. Must be set before the processor is started.
+	 */
+	public void setWorkerQueueCapacity(int i) {
+		Assert.isTrue(i > 0, "capacity must be greater than zero");
+		workerQueueCapacity = i;
+	}
+	/**
+	 * Max number of received changes the checkpoint has not passed yet, reading of the feed is paused when it is
+	 * reached, e.g. while a change is being retried. Default is 10000. Must be set before the processor is started.
+	 */
+	public void setMaxUncheckpointedChanges(int i) {
+		Assert.isTrue(i > 0, "max must be greater than zero");
+		maxUncheckpointedChanges = i;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			throw new IllegalStateException("processor is already running");
+		}
+		String since = checkpointStore.load();
+		if (since == null) {
+			since = cmd.since;
+		} else {
+			LOG.info("Resuming changes of {} from checkpoint {}", db.getDatabaseName(), since);
+		}
+		lastReceivedSeq = since;
+		checkpointSeq = since;
+		synchronized (inSequenceLock) {
+			processedSeq = null;
+			inSequence = new LinkedBlockingQueue<PendingChange>(maxUncheckpointedChanges);
+		}
+		running = true;
+
+		partitions = new ArrayList<BlockingQueue<PendingChange>>(workers);
+		workerPool = Executors.newFixedThreadPool(workers, threadFactory("worker"));
+		for (int i = 0; i < workers; i++) {
+			BlockingQueue<PendingChange> q = new LinkedBlockingQueue<PendingChange>(workerQueueCapacity);
+			partitions.add(q);
+			workerPool.execute(new Worker(q));
+		}
+		checkpointer = Executors.newSingleThreadScheduledExecutor(threadFactory("checkpointer"));
+		checkpointer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				checkpoint();
+			}
+		}, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+		readerThread = threadFactory("reader").newThread(new Reader());
+		readerThread.start();
+	}
+	/**
+	 * Stops reading the feed, lets the workers finish the changes already received (waiting at most the given time)
+	 * and saves the checkpoint.
+	 */
+	public synchronized void stop(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		ChangesFeed f = feed;
+		if (f != null) {
+			f.cancel();
+		}
+		readerThread.interrupt();
+		readerThread.join(unit.toMillis(timeout));
+		workerPool.shutdown();
+		if (!workerPool.awaitTermination(timeout, unit)) {
+			LOG.warn("Workers did not finish in time, unprocessed changes will be delivered again on restart");
+			workerPool.shutdownNow();
+		}
+		checkpointer.shutdownNow();
+		checkpoint();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+	/**
+	 * Saves the sequence up to which all changes have been processed, if it has advanced since the last checkpoint.
+	 */
+	public synchronized void checkpoint() {
+		String seq = advance();
+		if (seq == null || seq.equals(checkpointSeq)) {
+			return;
+		}
+		try {
+			checkpointStore.save(seq);
+			checkpointSeq = seq;
+		} catch (RuntimeException e) {
+			LOG.warn(String.format("Saving checkpoint %s to %s failed", seq, checkpointStore), e);
+		}
+	}
+	/**
+	 * Removes the processed changes at the head of inSequence, making room for the reader.
+	 * @return the sequence up to which all changes have been processed, null if none has been processed since start.
+	 */
+	private String advance() {
+		synchronized (inSequenceLock) {
+			PendingChange p = inSequence.peek();
+			while (p != null && p.done) {
+				inSequence.poll();
+				if (p.seq != null) {
+					processedSeq = p.seq;
+				}
+				p = inSequence.peek();
+			}
+			return processedSeq;
+		}
+	}
+	/**
+	 * @return the sequence of the last change read from the feed.
+	 */
+	public String getLastReceivedSeq() {
+		return lastReceivedSeq;
+	}
+	/**
+	 * @return the last saved checkpoint.
+	 */
+	public String getCheckpointSeq() {
+		return checkpointSeq;
+	}
+
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	public long getProcessedCount() {
+		return processed.get();
+	}
+	/**
+	 * @return the number of changes received but not yet processed.
+	 */
+	public long getPendingCount() {
+		return received.get() - processed.get();
+	}
+
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+	/**
+	 * Compares the numeric part of the database's current update sequence with that of the checkpoint. Queries the
+	 * database.
+	 *
+	 * @return the approximate number of changes in the database that are not covered by the checkpoint, -1 if the
+	 * sequences are not numeric.
+	 */
+	public long getSequenceLag() {
+		String cp = checkpointSeq;
+		return Sequences.lag(db.getDbInfo().getUpdateSeqAsString(), cp != null ? cp : "0");
+	}
+
+	private long backoff(int attempt) {
+		return Math.min(maxBackoff, minBackoff << Math.min(attempt, 20));
+	}
+
+	private ThreadFactory threadFactory(final String role) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("ektorp-%s-changes-processor-%s-%s-%s",
+						db.getDatabaseName(), id, role, count.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @return null for the changes between the sequences sent with seq_interval
+	 */
+	private static String seqOf(DocumentChange change) {
+		if (change instanceof StdDocumentChange) {
+			return ((StdDocumentChange) change).getSequenceAsText();
+		}
+		String seq = change.getStringSequence();
+		return seq != null ? seq : Integer.toString(change.getSequence());
+	}
+
+	private static boolean isLastSeq(DocumentChange change) {
+		if (change instanceof StdDocumentChange) {
+			return ((StdDocumentChange) change).isLastSeq();
+		}
+		return change.getId() == null;
+	}
+
+	private static class PendingChange {
+
+		// released when processed, only the seq is needed until the checkpoint passes it
+		DocumentChange change;
+		final String seq;
+		volatile boolean done;
+
+		PendingChange(DocumentChange change, String seq) {
+			this.change = change;
+			this.seq = seq;
+		}
+	}
+
+	private class Reader implements Runnable {
+
+		public void run() {
+			int attempt = 0;
+			while (running) {
+				try {
+					ChangesCommand.Builder b = new ChangesCommand.Builder().merge(cmd).continuous(true);
+					if (lastReceivedSeq != null) {
+						b.since(lastReceivedSeq);
+					}
+					feed = db.changesFeed(b.build());
+					if (!running) {
+						feed.cancel();
+						return;
+					}
+					while (running) {
+						dispatch(feed.next());
+						attempt = 0;
+					}
+				} catch (InterruptedException e) {
+					if (!running) {
+						return;
+					}
+					LOG.info("Changes feed of {} ended", db.getDatabaseName());
+				} catch (RuntimeException e) {
+					LOG.warn(String.format("Changes feed of %s failed", db.getDatabaseName()), e);
+				} finally {
+					ChangesFeed f = feed;
+					if (f != null) {
+						f.cancel();
+					}
+				}
+				if (!running) {
+					return;
+				}
+				try {
+					Thread.sleep(backoff(attempt++));
+				} catch (InterruptedException e) {
+					return;
+				}
+				reconnects.incrementAndGet();
+			}
+		}
+
+		private void dispatch(DocumentChange change) throws InterruptedException {
+			PendingChange p = new PendingChange(change, seqOf(change));
+			while (!inSequence.offer(p, 10, TimeUnit.MILLISECONDS)) {
+				// the checkpoint is held back by an unprocessed change, wait for it instead of buffering more
+				advance();
+			}
+			if (p.seq != null) {
+				lastReceivedSeq = p.seq;
+			}
+			if (isLastSeq(change)) {
+				// the last_seq line of a feed that timed out
+				p.done = true;
+				return;
+			}
+			received.incrementAndGet();
+			int partition = (change.getId().hashCode() & Integer.MAX_VALUE) % partitions.size();
+			partitions.get(partition).put(p);
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private final BlockingQueue<PendingChange> queue;
+
+		Worker(BlockingQueue<PendingChange> queue) {
+			this.queue = queue;
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					PendingChange p = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (p == null) {
+						if (!running) {
+							return;
+						}
+					} else if (!process(p)) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private boolean process(PendingChange p) throws InterruptedException {
+			int attempt = 0;
+			while (true) {
+				try {
+					listener.onChange(p.change);
+					p.change = null;
+					p.done = true;
+					processed.incrementAndGet();
+					return true;
+				} catch (RuntimeException e) {
+					if (!running) {
+						// leave this and the rest of the partition for the next run, keeping the per document order
+						return false;
+					}
+					LOG.warn(String.format("Processing change %s of %s failed, retrying", p.seq, p.change.getId()), e);
+					retries.incrementAndGet();
+					Thread.sleep(backoff(attempt++));
+				}
+			}
+		}
+	}
+}
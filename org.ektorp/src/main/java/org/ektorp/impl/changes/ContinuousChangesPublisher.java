@@ -0,0 +1,24 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+
+import org.ektorp.changes.DocumentChange;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Publishes one change per requested item.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class ContinuousChangesPublisher extends AbstractChangesPublisher<DocumentChange> {
+
+	public ContinuousChangesPublisher(String dbName, Connector connector, ObjectMapper objectMapper) {
+		super(dbName, connector, objectMapper);
+	}
+
+	@Override
+	protected DocumentChange nextItem(LineReader lines) throws IOException {
+		return lines.nextChange(true);
+	}
+}
@@ -0,0 +1,38 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.http.HttpResponse;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Reads the continuous _db_updates feed. If given a Reconnector, the feed resumes from the sequence of the last update
+ * received when the connection is lost, in the same way as a resuming ContinuousChangesFeed.
+ *
+ * @author henrik lundgren
+ *
+ */
+public final class ContinuousDbUpdatesFeed extends AbstractContinuousChangesFeed<DbUpdate> implements DbUpdatesFeed {
+
+	private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	public ContinuousDbUpdatesFeed(HttpResponse httpResponse, Reconnector reconnector, long heartbeatTimeout,
+			ChangesFeedReconnectListener reconnectListener) {
+		super("_db_updates", httpResponse, ChangesCommand.DEFAULT_QUEUE_CAPACITY, OBJECT_MAPPER, reconnector,
+				heartbeatTimeout, reconnectListener);
+		start();
+	}
+
+	@Override
+	protected DbUpdate parseChange(JsonParser jp) throws IOException {
+		return new StdDbUpdate(OBJECT_MAPPER.<JsonNode>readTree(jp));
+	}
+
+	@Override
+	protected String sequenceOf(DbUpdate update) {
+		return update.getSequence();
+	}
+}
@@ -0,0 +1,65 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.util.*;
+/**
+ * Keeps the checkpoint in a local file. The sequence is written to a temporary file that then replaces the
+ * checkpoint file, so a crash while saving leaves the previous checkpoint intact.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+	private final File file;
+	private final File tmpFile;
+
+	public FileCheckpointStore(File file) {
+		Assert.notNull(file, "file may not be null");
+		this.file = file;
+		this.tmpFile = new File(file.getPath() + ".tmp");
+	}
+
+	public synchronized String load() {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String seq = reader.readLine();
+				return seq != null && seq.length() > 0 ? seq : null;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	public synchronized void save(String seq) {
+		Assert.hasText(seq, "seq may not be null or empty");
+		try {
+			FileOutputStream out = new FileOutputStream(tmpFile);
+			try {
+				out.write(seq.getBytes("UTF-8"));
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			// renameTo does not replace an existing file on all platforms
+			if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+				throw new IOException("could not replace " + file);
+			}
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+}
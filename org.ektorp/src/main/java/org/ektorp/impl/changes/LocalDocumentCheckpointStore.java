@@ -0,0 +1,86 @@
+package org.ektorp.impl.changes;
+
+import org.ektorp.*;
+import org.ektorp.changes.*;
+import org.ektorp.support.*;
+import org.ektorp.util.*;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+/**
+ * Keeps the checkpoint in a _local document of a database. _local documents are not replicated and do not show up
+ * in the changes feed, so checkpointing does not generate changes of its own.
+ *
+ * @author henrik lundgren
+ *
+ */
+public class LocalDocumentCheckpointStore implements CheckpointStore {
+
+	private final static String LOCAL_PREFIX = "_local/";
+
+	private final CouchDbConnector db;
+	private final String docId;
+	private String revision;
+
+	/**
+	 * @param db the database the checkpoint document is stored in, need not be the database whose changes are processed
+	 * @param checkpointId identifies the checkpoint, e.g. the name of the process, the _local/ prefix is optional
+	 */
+	public LocalDocumentCheckpointStore(CouchDbConnector db, String checkpointId) {
+		Assert.notNull(db, "db may not be null");
+		Assert.hasText(checkpointId, "checkpointId may not be null or empty");
+		this.db = db;
+		this.docId = checkpointId.startsWith(LOCAL_PREFIX) ? checkpointId : LOCAL_PREFIX + checkpointId;
+	}
+
+	public synchronized String load() {
+		Checkpoint cp = db.find(Checkpoint.class, docId);
+		if (cp == null) {
+			return null;
+		}
+		revision = cp.getRevision();
+		return cp.getLastSeq();
+	}
+
+	public synchronized void save(String seq) {
+		Assert.hasText(seq, "seq may not be null or empty");
+		try {
+			update(seq);
+		} catch (UpdateConflictException e) {
+			// someone else wrote the checkpoint, last writer wins
+			load();
+			update(seq);
+		}
+	}
+
+	private void update(String seq) {
+		Checkpoint cp = new Checkpoint();
+		cp.setId(docId);
+		cp.setRevision(revision);
+		cp.setLastSeq(seq);
+		db.update(cp);
+		revision = cp.getRevision();
+	}
+
+	@Override
+	public String toString() {
+		return db.getDatabaseName() + "/" + docId;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Checkpoint extends CouchDbDocument {
+
+		private static final long serialVersionUID = 1L;
+		private String lastSeq;
+
+		@JsonProperty("last_seq")
+		public String getLastSeq() {
+			return lastSeq;
+		}
+
+		@JsonProperty("last_seq")
+		public void setLastSeq(String s) {
+			lastSeq = s;
+		}
+	}
+}
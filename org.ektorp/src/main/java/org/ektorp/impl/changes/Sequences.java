@@ -0,0 +1,28 @@
+package org.ektorp.impl.changes;
+/**
+ * Arithmetic on update sequences. CouchDB 1.x sequences are numbers, CouchDB 2.x sequences are opaque strings that
+ * start with a number that grows with the number of updates, so the leading number serves as an approximation.
+ *
+ * @author henrik lundgren
+ *
+ */
+final class Sequences {
+
+	private Sequences() {}
+	/**
+	 * @return the approximate number of updates between seq and updateSeq, -1 if either is missing or not numeric.
+	 */
+	static long lag(String updateSeq, String seq) {
+		long dbSeq = updateSeq != null ? numericPart(updateSeq) : -1;
+		long s = seq != null ? numericPart(seq) : -1;
+		return dbSeq < 0 || s < 0 ? -1 : Math.max(dbSeq - s, 0);
+	}
+
+	private static long numericPart(String seq) {
+		int end = 0;
+		while (end < seq.length() && Character.isDigit(seq.charAt(end))) {
+			end++;
+		}
+		return end > 0 ? Long.parseLong(seq.substring(0, end)) : -1;
+	}
+}
@@ -0,0 +1,102 @@
+package org.ektorp.impl.changes;
+
+import org.ektorp.changes.*;
+/**
+ *
+ * @author henrik lundgren
+ *
+ */
+public class StdChangesFeedMetrics implements ChangesFeedMetrics {
+
+	private final String dbName;
+	private final long timestamp;
+	private final long changeCount;
+	private final long byteCount;
+	private final double changesPerSecond;
+	private final double bytesPerSecond;
+	private final int queueSize;
+	private final long blockedMillis;
+	private final long millisSinceLastData;
+	private final long longestDataGapMillis;
+	private final int reconnectCount;
+	private final String lastSeq;
+	private final long sequenceLag;
+
+	public StdChangesFeedMetrics(String dbName, long timestamp, long changeCount, long byteCount,
+			double changesPerSecond, double bytesPerSecond, int queueSize, long blockedMillis,
+			long millisSinceLastData, long longestDataGapMillis, int reconnectCount, String lastSeq, long sequenceLag) {
+		this.dbName = dbName;
+		this.timestamp = timestamp;
+		this.changeCount = changeCount;
+		this.byteCount = byteCount;
+		this.changesPerSecond = changesPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.queueSize = queueSize;
+		this.blockedMillis = blockedMillis;
+		this.millisSinceLastData = millisSinceLastData;
+		this.longestDataGapMillis = longestDataGapMillis;
+		this.reconnectCount = reconnectCount;
+		this.lastSeq = lastSeq;
+		this.sequenceLag = sequenceLag;
+	}
+
+	public String getDbName() {
+		return dbName;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getChangeCount() {
+		return changeCount;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public double getChangesPerSecond() {
+		return changesPerSecond;
+	}
+
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public long getBlockedMillis() {
+		return blockedMillis;
+	}
+
+	public long getMillisSinceLastData() {
+		return millisSinceLastData;
+	}
+
+	public long getLongestDataGapMillis() {
+		return longestDataGapMillis;
+	}
+
+	public int getReconnectCount() {
+		return reconnectCount;
+	}
+
+	public String getLastSeq() {
+		return lastSeq;
+	}
+
+	public long getSequenceLag() {
+		return sequenceLag;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d changes (%.1f/s), %d bytes (%.1f/s), queue %d, blocked %d ms, "
+				+ "last data %d ms ago, longest gap %d ms, %d reconnects, last seq %s, lag %d",
+				dbName, changeCount, changesPerSecond, byteCount, bytesPerSecond, queueSize, blockedMillis,
+				millisSinceLastData, longestDataGapMillis, reconnectCount, lastSeq, sequenceLag);
+	}
+}
@@ -0,0 +1,43 @@
+package org.ektorp.impl.changes;
+
+import org.ektorp.changes.*;
+import org.ektorp.util.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+/**
+ *
+ * @author henrik lundgren
+ *
+ */
+public class StdDbUpdate implements DbUpdate {
+
+	private final JsonNode node;
+
+	public StdDbUpdate(JsonNode node) {
+		Assert.notNull(node, "node may not be null");
+		this.node = node;
+	}
+
+	public String getDbName() {
+		return text("db_name");
+	}
+
+	public String getType() {
+		return text("type");
+	}
+
+	public String getSequence() {
+		JsonNode seq = node.get("seq");
+		return seq != null && !seq.isNull() ? seq.asText() : null;
+	}
+
+	private String text(String field) {
+		JsonNode n = node.get(field);
+		return n != null ? n.textValue() : null;
+	}
+
+	@Override
+	public String toString() {
+		return node.toString();
+	}
+}
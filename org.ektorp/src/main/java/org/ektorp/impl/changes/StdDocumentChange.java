@@ -17,6 +17,7 @@ public class StdDocumentChange implements DocumentChange {
 
 	private static final String REV_FIELD_NAME = "rev";
 	private static final String SEQ_FIELD_NAME = "seq";
+	private static final String LAST_SEQ_FIELD_NAME = "last_seq";
 	private static final String ID_FIELD_NAME = "id";
 	private static final String DOC_FIELD_NAME = "doc";
 	private static final String DELETED_FIELD_NAME = "deleted";
@@ -37,6 +38,26 @@ public class StdDocumentChange implements DocumentChange {
 		return node.get(SEQ_FIELD_NAME).textValue();
 	}
 
+	/**
+	 * @return the sequence as text whether it is a number or a string, or the last_seq of the line that ends a feed.
+	 * null if the change has neither.
+	 */
+	public String getSequenceAsText() {
+		JsonNode seq = node.get(SEQ_FIELD_NAME);
+		if (isNull(seq)) {
+			seq = node.get(LAST_SEQ_FIELD_NAME);
+		}
+		return nodeAsString(seq);
+	}
+
+	/**
+	 * @return true if this is the last_seq line that ends a feed, e.g. when the timeout of a continuous feed has
+	 * passed. The line has no id.
+	 */
+	public boolean isLastSeq() {
+		return isNull(node.get(ID_FIELD_NAME)) && !isNull(node.get(LAST_SEQ_FIELD_NAME));
+	}
+
 	public String getId() {
 		return node.get(ID_FIELD_NAME).textValue();
 	}
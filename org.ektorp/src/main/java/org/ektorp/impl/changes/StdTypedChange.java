@@ -0,0 +1,61 @@
+package org.ektorp.impl.changes;
+
+import java.util.*;
+
+import org.ektorp.changes.*;
+/**
+ *
+ * @author henrik lundgren
+ *
+ */
+public class StdTypedChange<T> implements TypedChange<T> {
+
+	private final String seq;
+	private final int intSeq;
+	private final String id;
+	private final List<String> revisions;
+	private final boolean deleted;
+	private final T doc;
+
+	public StdTypedChange(String seq, int intSeq, String id, List<String> revisions, boolean deleted, T doc) {
+		this.seq = seq;
+		this.intSeq = intSeq;
+		this.id = id;
+		this.revisions = Collections.unmodifiableList(revisions);
+		this.deleted = deleted;
+		this.doc = doc;
+	}
+
+	public int getSequence() {
+		return intSeq;
+	}
+
+	public String getStringSequence() {
+		return seq;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getRevision() {
+		return revisions.isEmpty() ? null : revisions.get(0);
+	}
+
+	public List<String> getRevisions() {
+		return revisions;
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public T getDoc() {
+		return doc;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{seq: %s, id: %s, rev: %s, deleted: %s}", seq, id, getRevision(), deleted);
+	}
+}
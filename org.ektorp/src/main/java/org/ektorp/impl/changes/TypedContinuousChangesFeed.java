@@ -0,0 +1,89 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.util.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.util.*;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+/**
+ * Continuous changes feed that binds the included documents directly to a type, without building an intermediate
+ * tree for every change.
+ *
+ * @author henrik lundgren
+ *
+ */
+public final class TypedContinuousChangesFeed<T> extends AbstractContinuousChangesFeed<TypedChange<T>> implements TypedChangesFeed<T> {
+
+	private final ObjectMapper objectMapper;
+	private final Class<T> docType;
+
+	public TypedContinuousChangesFeed(String dbName, HttpResponse httpResponse, int queueCapacity, ObjectMapper objectMapper, Class<T> docType) {
+		super(dbName, httpResponse, queueCapacity, objectMapper);
+		Assert.notNull(docType, "docType may not be null");
+		this.objectMapper = objectMapper;
+		this.docType = docType;
+		start();
+	}
+
+	@Override
+	protected TypedChange<T> parseChange(JsonParser jp) throws IOException {
+		String seq = null;
+		int intSeq = 0;
+		String id = null;
+		List<String> revisions = new ArrayList<String>();
+		boolean deleted = false;
+		T doc = null;
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			String name = jp.getCurrentName();
+			JsonToken token = jp.getCurrentToken();
+			if ("seq".equals(name)) {
+				if (token.isNumeric()) {
+					intSeq = jp.getIntValue();
+				}
+				// null between the sequences sent with seq_interval
+				seq = token == JsonToken.VALUE_NULL ? null : token.isScalarValue() ? jp.getText() : readAsString(jp);
+			} else if ("last_seq".equals(name) && seq == null) {
+				// the line that ends a feed
+				seq = token.isScalarValue() ? jp.getText() : readAsString(jp);
+			} else if ("id".equals(name)) {
+				id = jp.getText();
+			} else if ("deleted".equals(name)) {
+				deleted = token == JsonToken.VALUE_TRUE;
+			} else if ("changes".equals(name) && token == JsonToken.START_ARRAY) {
+				readRevisions(jp, revisions);
+			} else if ("doc".equals(name) && token == JsonToken.START_OBJECT) {
+				doc = objectMapper.readValue(jp, docType);
+			} else {
+				jp.skipChildren();
+			}
+		}
+		return new StdTypedChange<T>(seq, intSeq, id, revisions, deleted, doc);
+	}
+
+	@Override
+	protected String sequenceOf(TypedChange<T> change) {
+		return change.getStringSequence();
+	}
+
+	private String readAsString(JsonParser jp) throws IOException {
+		return objectMapper.writeValueAsString(jp.readValueAsTree());
+	}
+
+	private void readRevisions(JsonParser jp, List<String> revisions) throws IOException {
+		while (jp.nextToken() == JsonToken.START_OBJECT) {
+			while (jp.nextValue() != JsonToken.END_OBJECT) {
+				if ("rev".equals(jp.getCurrentName())) {
+					revisions.add(jp.getText());
+				} else {
+					jp.skipChildren();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.ektorp.impl.replication;
+
+import java.io.*;
+import java.util.*;
+
+import org.ektorp.*;
+import org.ektorp.http.*;
+import org.ektorp.util.*;
+import org.slf4j.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+/**
+ * The requests of the replication protocol that CouchDbConnector does not offer, against one database.
+ *
+ * @author henrik lundgren
+ *
+ */
+class ReplicationEndpoint {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ReplicationEndpoint.class);
+
+	private final CouchDbConnector db;
+	private final RestTemplate restTemplate;
+	private final ObjectMapper objectMapper;
+	private final String path;
+
+	ReplicationEndpoint(CouchDbConnector db, ObjectMapper objectMapper) {
+		this.db = db;
+		this.restTemplate = new RestTemplate(db.getConnection());
+		this.objectMapper = objectMapper;
+		this.path = db.path();
+	}
+
+	CouchDbConnector getDb() {
+		return db;
+	}
+	/**
+	 * @return the uuid of the server, empty if the server does not have one (CouchDB 1.x)
+	 */
+	String serverUuid() {
+		return restTemplate.get("/", new StdResponseHandler<String>() {
+			@Override
+			public String success(HttpResponse hr) throws Exception {
+				return objectMapper.readTree(hr.getContent()).path("uuid").asText();
+			}
+		});
+	}
+	/**
+	 * @param revs the revisions to look for, by document id
+	 * @return the revisions the database does not have, by document id
+	 */
+	Map<String, List<String>> revsDiff(Map<String, List<String>> revs) {
+		return restTemplate.post(path + "_revs_diff", toJson(revs), new StdResponseHandler<Map<String, List<String>>>() {
+			@Override
+			public Map<String, List<String>> success(HttpResponse hr) throws Exception {
+				Map<String, List<String>> missing = new LinkedHashMap<String, List<String>>();
+				Iterator<Map.Entry<String, JsonNode>> i = objectMapper.readTree(hr.getContent()).fields();
+				while (i.hasNext()) {
+					Map.Entry<String, JsonNode> e = i.next();
+					List<String> missingRevs = new ArrayList<String>();
+					for (JsonNode rev : e.getValue().path("missing")) {
+						missingRevs.add(rev.textValue());
+					}
+					if (!missingRevs.isEmpty()) {
+						missing.put(e.getKey(), missingRevs);
+					}
+				}
+				return missing;
+			}
+		});
+	}
+	/**
+	 * Reads the revisions with their revision history and inline attachments. Revisions that cannot be read are
+	 * logged and left out.
+	 * @param revs by document id
+	 */
+	List<ObjectNode> bulkGet(Map<String, List<String>> revs) {
+		ObjectNode body = objectMapper.createObjectNode();
+		ArrayNode docs = body.putArray("docs");
+		for (Map.Entry<String, List<String>> e : revs.entrySet()) {
+			for (String rev : e.getValue()) {
+				docs.addObject().put("id", e.getKey()).put("rev", rev);
+			}
+		}
+		return restTemplate.post(path + "_bulk_get?revs=true&attachments=true", toJson(body), new StdResponseHandler<List<ObjectNode>>() {
+			@Override
+			public List<ObjectNode> success(HttpResponse hr) throws Exception {
+				List<ObjectNode> result = new ArrayList<ObjectNode>();
+				for (JsonNode entry : objectMapper.readTree(hr.getContent()).path("results")) {
+					for (JsonNode doc : entry.path("docs")) {
+						if (doc.has("ok")) {
+							result.add((ObjectNode) doc.get("ok"));
+						} else {
+							LOG.warn(String.format("Could not read %s from %s: %s", entry.path("id").asText(), db.getDatabaseName(), doc.path("error")));
+						}
+					}
+				}
+				return result;
+			}
+		});
+	}
+	/**
+	 * Writes the revisions as they are, with new_edits=false.
+	 * @return the number of documents that could not be written
+	 */
+	int bulkDocs(List<ObjectNode> docs) {
+		ObjectNode body = objectMapper.createObjectNode();
+		body.putArray("docs").addAll(docs);
+		body.put("new_edits", false);
+		return restTemplate.post(path + "_bulk_docs", toJson(body), new StdResponseHandler<Integer>() {
+			@Override
+			public Integer success(HttpResponse hr) throws Exception {
+				int failures = 0;
+				for (JsonNode result : objectMapper.readTree(hr.getContent())) {
+					if (result.has("error")) {
+						LOG.warn(String.format("Could not write %s to %s: %s", result.path("id").asText(), db.getDatabaseName(), result.path("error")));
+						failures++;
+					}
+				}
+				return failures;
+			}
+		});
+	}
+	/**
+	 * @return the _local document, null if it does not exist
+	 */
+	ObjectNode getLocal(String id) {
+		return db.find(ObjectNode.class, id);
+	}
+	/**
+	 * Writes the _local document and sets its new revision. If someone else has written the document, it is overwritten.
+	 */
+	void putLocal(ObjectNode doc) {
+		try {
+			db.update(doc);
+		} catch (UpdateConflictException e) {
+			ObjectNode current = getLocal(doc.get("_id").textValue());
+			if (current != null) {
+				doc.put("_rev", current.get("_rev").textValue());
+			} else {
+				doc.remove("_rev");
+			}
+			db.update(doc);
+		}
+	}
+
+	private String toJson(Object o) {
+		try {
+			return objectMapper.writeValueAsString(o);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package org.ektorp.impl.replication;
+
+import java.io.*;
+import java.security.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.*;
+import org.ektorp.changes.*;
+import org.ektorp.impl.changes.StdDocumentChange;
+import org.ektorp.util.*;
+import org.slf4j.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+/**
+ * Replicates a database to another database from the client, as an alternative to server managed replication
+ * through ReplicationCommand when the replication needs tuning, e.g. over high latency links.
+ *
+ * The replicator follows the CouchDB replication protocol: it reads the source's _changes in batches, asks the target
+ * which of the changed revisions it is missing with _revs_diff, reads the missing revisions with their history and
+ * inline attachments with _bulk_get and writes them to the target with _bulk_docs and new_edits=false. The missing
+ * revisions of a batch are split into _bulk_get requests of at most bulkGetBatchSize revisions that are copied by
+ * parallel workers. After each batch a checkpoint is written to a _local document in both databases.
+ *
+ * The checkpoint documents hold session_id, source_last_seq and the history of up to 50 sessions, like the ones
+ * written by CouchDB, but their ids follow a scheme of their own: _local/ followed by the hex md5 of the server uuids,
+ * database names and filter of the replication. A replicator therefore neither resumes from the checkpoints of a
+ * replication run by the server nor the other way around. The documents carry no replication_id_version, which
+ * would claim CouchDB's id scheme. A replication resumes from the last sequence of the newest session found in the
+ * checkpoints of both databases, or from the start if there is none.
+ *
+ * A call to replicate() replicates the changes up to the current end of the source feed, like a one-shot replication:
+ * <code>
+ * Replicator replicator = new Replicator(sourceDb, targetDb);
+ * replicator.setWorkers(8);
+ * ReplicationStatus status = replicator.replicate();
+ * </code>
+ *
+ * @author henrik lundgren
+ *
+ */
+public class Replicator {
+
+	private final static Logger LOG = LoggerFactory.getLogger(Replicator.class);
+	private final static AtomicInteger REPLICATOR_COUNT = new AtomicInteger();
+	private final static String LOCAL_PREFIX = "_local/";
+	private final static int MAX_HISTORY = 50;
+	private final static int DEFAULT_CHANGES_BATCH_SIZE = 500;
+	private final static int DEFAULT_BULK_GET_BATCH_SIZE = 100;
+	private final static int DEFAULT_WORKERS = 4;
+
+	private final ReplicationEndpoint source;
+	private final ReplicationEndpoint target;
+	private final ChangesCommand cmd;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final int id = REPLICATOR_COUNT.getAndIncrement();
+	private volatile int changesBatchSize = DEFAULT_CHANGES_BATCH_SIZE;
+	private volatile int bulkGetBatchSize = DEFAULT_BULK_GET_BATCH_SIZE;
+	private volatile int workers = DEFAULT_WORKERS;
+	private String replicationId;
+
+	public Replicator(CouchDbConnector source, CouchDbConnector target) {
+		this(source, target, new ChangesCommand.Builder().build());
+	}
+	/**
+	 * @param cmd filters the source changes feed, e.g. with docIds, selector or filter. since, limit, style and feed
+	 * are set by the replicator.
+	 */
+	public Replicator(CouchDbConnector source, CouchDbConnector target, ChangesCommand cmd) {
+		Assert.notNull(source, "source may not be null");
+		Assert.notNull(target, "target may not be null");
+		Assert.notNull(cmd, "ChangesCommand may not be null");
+		this.source = new ReplicationEndpoint(source, objectMapper);
+		this.target = new ReplicationEndpoint(target, objectMapper);
+		this.cmd = cmd;
+	}
+	/**
+	 * Max number of changes read from the source per request. Default is 500.
+	 */
+	public void setChangesBatchSize(int i) {
+		Assert.isTrue(i > 0, "changesBatchSize must be greater than zero");
+		changesBatchSize = i;
+	}
+	/**
+	 * Max number of revisions read with one _bulk_get request and written with one _bulk_docs request. Default is 100.
+	 */
+	public void setBulkGetBatchSize(int i) {
+		Assert.isTrue(i > 0, "bulkGetBatchSize must be greater than zero");
+		bulkGetBatchSize = i;
+	}
+	/**
+	 * Number of threads that copy revisions concurrently. Both HttpClients need at least this many connections. Default is 4.
+	 */
+	public void setWorkers(int i) {
+		Assert.isTrue(i > 0, "workers must be greater than zero");
+		workers = i;
+	}
+	/**
+	 * @return the id of this replication, the checkpoint documents are stored under _local/ followed by the id.
+	 */
+	public synchronized String getReplicationId() {
+		if (replicationId == null) {
+			List<Object> base = new ArrayList<Object>();
+			base.add(source.serverUuid());
+			base.add(source.getDb().getDatabaseName());
+			base.add(target.serverUuid());
+			base.add(target.getDb().getDatabaseName());
+			base.add(cmd.toString());
+			base.add(cmd.hasRequestBody() ? cmd.getRequestBody() : null);
+			replicationId = md5Hex(toJson(base));
+		}
+		return replicationId;
+	}
+	/**
+	 * Replicates the changes of the source up to the current end of its changes feed.
+	 * @return the result in the same form as a replication done by the server.
+	 */
+	public ReplicationStatus replicate() {
+		String checkpointId = LOCAL_PREFIX + getReplicationId();
+		ObjectNode sourceLog = source.getLocal(checkpointId);
+		ObjectNode targetLog = target.getLocal(checkpointId);
+		String startSeq = startSeq(sourceLog, targetLog);
+		Session session = new Session(startSeq, sourceLog);
+		LOG.info(String.format("Replicating %s to %s since %s", source.getDb().getDatabaseName(), target.getDb().getDatabaseName(), startSeq));
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("ektorp-replicator-%s-worker-%s", id, count.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			String since = startSeq;
+			while (true) {
+				StreamingChangesResult result = source.getDb().changesAsStream(new ChangesCommand.Builder().merge(cmd)
+						.continuous(false)
+						.includeDocs(false)
+						.style(ChangesCommand.Style.ALL_DOCS)
+						.since(since)
+						.limit(changesBatchSize)
+						.build());
+				List<DocumentChange> changes = new ArrayList<DocumentChange>();
+				try {
+					for (DocumentChange change : result) {
+						changes.add(change);
+						String seq = sequenceOf(change);
+						// null between the sequences sent with seq_interval
+						if (seq != null) {
+							since = seq;
+						}
+					}
+				} finally {
+					result.close();
+				}
+				if (changes.isEmpty()) {
+					break;
+				}
+				copyMissingRevisions(changes, executor, session);
+				if (result.getLastSeqAsText() != null) {
+					since = result.getLastSeqAsText();
+				}
+				session.recordedSeq = since;
+				sourceLog = writeCheckpoint(source, checkpointId, sourceLog, session);
+				targetLog = writeCheckpoint(target, checkpointId, targetLog, session);
+				if (changes.size() < changesBatchSize) {
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return session.toStatus(checkpointId, sourceLog);
+	}
+
+	private void copyMissingRevisions(List<DocumentChange> changes, ExecutorService executor, Session session) {
+		Map<String, List<String>> revs = new LinkedHashMap<String, List<String>>();
+		for (DocumentChange c : changes) {
+			List<String> docRevs = revs.get(c.getId());
+			if (docRevs == null) {
+				docRevs = new ArrayList<String>();
+				revs.put(c.getId(), docRevs);
+			}
+			docRevs.addAll(c.getRevisions());
+			session.missingChecked += c.getRevisions().size();
+		}
+		Map<String, List<String>> missing = target.revsDiff(revs);
+		List<Future<int[]>> copies = new ArrayList<Future<int[]>>();
+		for (final Map<String, List<String>> chunk : split(missing)) {
+			copies.add(executor.submit(new Callable<int[]>() {
+				public int[] call() {
+					List<ObjectNode> docs = source.bulkGet(chunk);
+					int failures = docs.isEmpty() ? 0 : target.bulkDocs(docs);
+					return new int[] {docs.size(), failures};
+				}
+			}));
+		}
+		for (Future<int[]> copy : copies) {
+			int[] counts = await(copy);
+			session.docsRead += counts[0];
+			session.docsWritten += counts[0] - counts[1];
+			session.docWriteFailures += counts[1];
+		}
+		for (List<String> r : missing.values()) {
+			session.missingFound += r.size();
+		}
+	}
+
+	private List<Map<String, List<String>>> split(Map<String, List<String>> missing) {
+		List<Map<String, List<String>>> chunks = new ArrayList<Map<String, List<String>>>();
+		Map<String, List<String>> chunk = null;
+		int size = 0;
+		for (Map.Entry<String, List<String>> e : missing.entrySet()) {
+			for (String rev : e.getValue()) {
+				if (chunk == null || size == bulkGetBatchSize) {
+					chunk = new LinkedHashMap<String, List<String>>();
+					chunks.add(chunk);
+					size = 0;
+				}
+				List<String> revs = chunk.get(e.getKey());
+				if (revs == null) {
+					revs = new ArrayList<String>();
+					chunk.put(e.getKey(), revs);
+				}
+				revs.add(rev);
+				size++;
+			}
+		}
+		return chunks;
+	}
+
+	private static int[] await(Future<int[]> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Exceptions.propagate(e);
+		} catch (ExecutionException e) {
+			throw Exceptions.propagate(e.getCause());
+		}
+	}
+	/**
+	 * Same rules as CouchDB: if both logs are from the same session, the replication continues from it. Otherwise it
+	 * continues from the newest session in the source history that the target also has seen.
+	 */
+	private static String startSeq(ObjectNode sourceLog, ObjectNode targetLog) {
+		if (sourceLog == null || targetLog == null) {
+			return "0";
+		}
+		String sourceSession = sourceLog.path("session_id").asText();
+		if (sourceSession.equals(targetLog.path("session_id").asText())) {
+			return sourceLog.path("source_last_seq").asText("0");
+		}
+		Set<String> targetSessions = new HashSet<String>();
+		for (JsonNode h : targetLog.path("history")) {
+			targetSessions.add(h.path("session_id").asText());
+		}
+		for (JsonNode h : sourceLog.path("history")) {
+			if (targetSessions.contains(h.path("session_id").asText())) {
+				return h.path("recorded_seq").asText("0");
+			}
+		}
+		return "0";
+	}
+
+	private ObjectNode writeCheckpoint(ReplicationEndpoint endpoint, String checkpointId, ObjectNode log, Session session) {
+		ObjectNode doc = objectMapper.createObjectNode();
+		doc.put("_id", checkpointId);
+		if (log != null && log.has("_rev")) {
+			doc.put("_rev", log.get("_rev").textValue());
+		}
+		doc.put("session_id", session.id);
+		doc.set("source_last_seq", seqNode(session.recordedSeq));
+		doc.set("history", session.history());
+		endpoint.putLocal(doc);
+		return doc;
+	}
+
+	private static JsonNode seqNode(String seq) {
+		// sequences of CouchDB 1.x are numbers, later versions use strings
+		if (seq.length() > 0 && seq.length() < 19 && seq.matches("\\d+")) {
+			return JsonNodeFactory.instance.numberNode(Long.parseLong(seq));
+		}
+		return JsonNodeFactory.instance.textNode(seq);
+	}
+
+	private static String sequenceOf(DocumentChange change) {
+		if (change instanceof StdDocumentChange) {
+			return ((StdDocumentChange) change).getSequenceAsText();
+		}
+		return change.getStringSequence();
+	}
+
+	private String toJson(Object o) {
+		try {
+			return objectMapper.writeValueAsString(o);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private static String md5Hex(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw Exceptions.propagate(e);
+		} catch (UnsupportedEncodingException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private static String now() {
+		// the date format of CouchDB's replication history
+		SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		f.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return f.format(new Date());
+	}
+
+	private class Session {
+
+		final String id = UUID.randomUUID().toString().replace("-", "");
+		final String startTime = now();
+		final String startSeq;
+		final JsonNode previousHistory;
+		String recordedSeq;
+		int missingChecked;
+		int missingFound;
+		int docsRead;
+		int docsWritten;
+		int docWriteFailures;
+
+		Session(String startSeq, ObjectNode sourceLog) {
+			this.startSeq = startSeq;
+			this.recordedSeq = startSeq;
+			this.previousHistory = sourceLog != null ? sourceLog.path("history") : objectMapper.createArrayNode();
+		}
+
+		ArrayNode history() {
+			ArrayNode history = objectMapper.createArrayNode();
+			ObjectNode h = history.addObject();
+			h.put("session_id", id);
+			h.put("start_time", startTime);
+			h.put("end_time", now());
+			h.set("start_last_seq", seqNode(startSeq));
+			h.set("end_last_seq", seqNode(recordedSeq));
+			h.set("recorded_seq", seqNode(recordedSeq));
+			h.put("missing_checked", missingChecked);
+			h.put("missing_found", missingFound);
+			h.put("docs_read", docsRead);
+			h.put("docs_written", docsWritten);
+			h.put("doc_write_failures", docWriteFailures);
+			for (JsonNode previous : previousHistory) {
+				if (history.size() == MAX_HISTORY) {
+					break;
+				}
+				history.add(previous);
+			}
+			return history;
+		}
+
+		ReplicationStatus toStatus(String checkpointId, ObjectNode sourceLog) {
+			boolean noChanges = recordedSeq.equals(startSeq);
+			ObjectNode status = objectMapper.createObjectNode();
+			status.put("ok", true);
+			status.put("no_changes", noChanges);
+			status.put("session_id", id);
+			status.put("_local_id", checkpointId);
+			status.set("source_last_seq", seqNode(recordedSeq));
+			status.set("history", noChanges ? previousHistory : sourceLog.path("history"));
+			try {
+				return objectMapper.treeToValue(status, ReplicationStatus.class);
+			} catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,583 @@
+package org.ektorp.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.ComplexKey;
+import org.ektorp.ViewResult;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Orders view keys the way CouchDB's view collation does:
+ * <pre>
+ * null &lt; false &lt; true &lt; numbers &lt; strings &lt; arrays &lt; objects
+ * </pre>
+ * Arrays are compared element by element, shorter arrays first when all common elements are equal. Objects are
+ * compared key by key and value by value in the order the members appear.
+ *
+ * Strings are compared in levels like ICU does: first by base characters, then by accents and then by case, lower
+ * case before upper case at the first case difference. Printable ASCII follows the order documented for CouchDB and is
+ * compared without allocating. Strings with other characters are decomposed (NFD) first, accented letters share their
+ * base letter's weight, other characters sort after the ASCII letters by code point and control characters are
+ * ignored. Strings that are equal on all levels but not identical are ordered by their UTF-16 code units, so every
+ * pair of strings is compared the same way and the order is total.
+ *
+ * Keys may be given as ComplexKey, JsonNode, plain Java values (null, Boolean, Number, String, List, Object[], Map)
+ * or, through compareJson, as raw JSON encoded keys.
+ *
+ * @author henrik lundgren
+ *
+ */
+public final class CollationComparator implements Comparator<Object> {
+
+	public static final CollationComparator INSTANCE = new CollationComparator();
+
+	private static final int NULL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int NUMBER = 3;
+	private static final int STRING = 4;
+	private static final int ARRAY = 5;
+	private static final int OBJECT = 6;
+	/**
+	 * CouchDB's documented collation order of printable ASCII, upper case letters share weight with lower case.
+	 */
+	private static final String ASCII_ORDER = " \t\n\r^_-,;:!?.'\"()[]{}@*/\\&#%`+<=>|~$0123456789";
+	private static final int[] PRIMARY = new int[128];
+
+	static {
+		for (int i = 0; i < PRIMARY.length; i++) {
+			PRIMARY[i] = -1;
+		}
+		int weight = 1;
+		for (int i = 0; i < ASCII_ORDER.length(); i++) {
+			PRIMARY[ASCII_ORDER.charAt(i)] = weight++;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			PRIMARY[c] = weight;
+			PRIMARY[Character.toUpperCase(c)] = weight++;
+		}
+	}
+
+	private static final int BASE_LEVEL = 0;
+	private static final int ACCENT_LEVEL = 1;
+	private static final int CASE_LEVEL = 2;
+	// weights that are not primary, zero means the character is ignored on the level
+	private static final int NO_ACCENT = 1;
+	private static final int LOWER_CASE = 1;
+	private static final int UPPER_CASE = 2;
+	private static final int NON_ASCII_BASE = 128;
+
+	private static final Comparator<ViewResult.Row> ROW_KEY_ORDER = new Comparator<ViewResult.Row>() {
+		public int compare(ViewResult.Row a, ViewResult.Row b) {
+			int c = INSTANCE.compare(a.getKeyAsNode(), b.getKeyAsNode());
+			if (c != 0) {
+				return c;
+			}
+			return INSTANCE.compare(a.getId(), b.getId());
+		}
+	};
+
+	private CollationComparator() {}
+	/**
+	 * @return a comparator that orders view rows as CouchDB does: by key and then by document id.
+	 */
+	public static Comparator<ViewResult.Row> rowsByKey() {
+		return ROW_KEY_ORDER;
+	}
+
+	public int compare(Object a, Object b) {
+		if (a == b) {
+			return 0;
+		}
+		int ta = typeOf(a);
+		int tb = typeOf(b);
+		if (ta != tb) {
+			return ta < tb ? -1 : 1;
+		}
+		switch (ta) {
+		case NUMBER:
+			return compareNumbers(a, b);
+		case STRING:
+			return compareStrings(stringValue(a), stringValue(b));
+		case ARRAY:
+			return compareIterators(elements(a), elements(b));
+		case OBJECT:
+			return compareObjects(a, b);
+		default:
+			return 0;
+		}
+	}
+	/**
+	 * Compares two JSON encoded keys without parsing them into trees.
+	 */
+	public int compareJson(String a, String b) {
+		Assert.notNull(a, "a may not be null");
+		Assert.notNull(b, "b may not be null");
+		JsonCursor ca = new JsonCursor(a);
+		JsonCursor cb = new JsonCursor(b);
+		return compareJson(ca, cb);
+	}
+
+	private static int typeOf(Object o) {
+		if (o == null) {
+			return NULL;
+		}
+		if (o instanceof JsonNode) {
+			JsonNode n = (JsonNode) o;
+			if (n.isNull() || n.isMissingNode()) return NULL;
+			if (n.isBoolean()) return n.booleanValue() ? TRUE : FALSE;
+			if (n.isNumber()) return NUMBER;
+			if (n.isTextual()) return STRING;
+			if (n.isArray()) return ARRAY;
+			if (n.isObject()) return OBJECT;
+			throw unsupported(o);
+		}
+		if (o instanceof Boolean) return ((Boolean) o) ? TRUE : FALSE;
+		if (o instanceof Number) return NUMBER;
+		if (o instanceof CharSequence || o instanceof Character) return STRING;
+		if (o instanceof ComplexKey || o instanceof List || o instanceof Object[]) return ARRAY;
+		if (o instanceof Map || ComplexKey.isEmptyObject(o)) return OBJECT;
+		if (o instanceof Collection) return ARRAY;
+		throw unsupported(o);
+	}
+
+	private static IllegalArgumentException unsupported(Object o) {
+		return new IllegalArgumentException(String.format("unsupported key type: %s", o.getClass().getName()));
+	}
+
+	private static int compareNumbers(Object a, Object b) {
+		Number na = a instanceof JsonNode ? ((JsonNode) a).numberValue() : (Number) a;
+		Number nb = b instanceof JsonNode ? ((JsonNode) b).numberValue() : (Number) b;
+		if (isIntegral(na) && isIntegral(nb)) {
+			long la = na.longValue();
+			long lb = nb.longValue();
+			return la < lb ? -1 : (la == lb ? 0 : 1);
+		}
+		if (na instanceof BigDecimal || nb instanceof BigDecimal) {
+			return toBigDecimal(na).compareTo(toBigDecimal(nb));
+		}
+		return compareDoubles(na.doubleValue(), nb.doubleValue());
+	}
+
+	private static boolean isIntegral(Number n) {
+		return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+	}
+
+	private static BigDecimal toBigDecimal(Number n) {
+		if (n instanceof BigDecimal) return (BigDecimal) n;
+		if (n instanceof BigInteger) return new BigDecimal((BigInteger) n);
+		if (isIntegral(n)) return BigDecimal.valueOf(n.longValue());
+		return BigDecimal.valueOf(n.doubleValue());
+	}
+
+	private static int compareDoubles(double a, double b) {
+		// unlike Double.compare, -0.0 and 0.0 are equal
+		return a < b ? -1 : (a > b ? 1 : 0);
+	}
+
+	private static String stringValue(Object o) {
+		if (o instanceof JsonNode) {
+			return ((JsonNode) o).textValue();
+		}
+		return o.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Iterator<Object> elements(Object o) {
+		if (o instanceof JsonNode) {
+			return (Iterator<Object>) (Iterator<?>) ((JsonNode) o).elements();
+		}
+		if (o instanceof ComplexKey) {
+			return ((ComplexKey) o).getComponents().iterator();
+		}
+		if (o instanceof Object[]) {
+			return java.util.Arrays.asList((Object[]) o).iterator();
+		}
+		return ((Collection<Object>) o).iterator();
+	}
+
+	private int compareIterators(Iterator<?> a, Iterator<?> b) {
+		while (a.hasNext() && b.hasNext()) {
+			int c = compare(a.next(), b.next());
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.hasNext() ? 1 : (b.hasNext() ? -1 : 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Iterator<Map.Entry<String, Object>> members(Object o) {
+		if (o instanceof JsonNode) {
+			return (Iterator<Map.Entry<String, Object>>) (Iterator<?>) ((JsonNode) o).fields();
+		}
+		if (o instanceof Map) {
+			return ((Map<String, Object>) o).entrySet().iterator();
+		}
+		return java.util.Collections.<Map.Entry<String, Object>>emptyList().iterator();
+	}
+
+	private int compareObjects(Object a, Object b) {
+		Iterator<Map.Entry<String, Object>> ia = members(a);
+		Iterator<Map.Entry<String, Object>> ib = members(b);
+		while (ia.hasNext() && ib.hasNext()) {
+			Map.Entry<String, Object> ea = ia.next();
+			Map.Entry<String, Object> eb = ib.next();
+			int c = compareStrings(String.valueOf(ea.getKey()), String.valueOf(eb.getKey()));
+			if (c != 0) {
+				return c;
+			}
+			c = compare(ea.getValue(), eb.getValue());
+			if (c != 0) {
+				return c;
+			}
+		}
+		return ia.hasNext() ? 1 : (ib.hasNext() ? -1 : 0);
+	}
+	/**
+	 * Compares two strings according to CouchDB's collation.
+	 */
+	public static int compareStrings(String a, String b) {
+		return compareStrings(a, 0, a.length(), b, 0, b.length());
+	}
+
+	private static int compareStrings(String a, int aOff, int aLen, String b, int bOff, int bLen) {
+		String na = a;
+		int naOff = aOff;
+		int naLen = aLen;
+		if (!isAscii(a, aOff, aLen)) {
+			na = Normalizer.normalize(a.substring(aOff, aOff + aLen), Normalizer.Form.NFD);
+			naOff = 0;
+			naLen = na.length();
+		}
+		String nb = b;
+		int nbOff = bOff;
+		int nbLen = bLen;
+		if (!isAscii(b, bOff, bLen)) {
+			nb = Normalizer.normalize(b.substring(bOff, bOff + bLen), Normalizer.Form.NFD);
+			nbOff = 0;
+			nbLen = nb.length();
+		}
+		for (int level = BASE_LEVEL; level <= CASE_LEVEL; level++) {
+			int c = compareLevel(level, na, naOff, naLen, nb, nbOff, nbLen);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return compareCodeUnits(a, aOff, aLen, b, bOff, bLen);
+	}
+	/**
+	 * Compares the sequences of the non zero weights of the strings on a level, a shorter sequence sorts first.
+	 */
+	private static int compareLevel(int level, String a, int aOff, int aLen, String b, int bOff, int bLen) {
+		int i = aOff;
+		int j = bOff;
+		int aEnd = aOff + aLen;
+		int bEnd = bOff + bLen;
+		while (true) {
+			int wa = 0;
+			while (wa == 0 && i < aEnd) {
+				wa = weight(a.charAt(i++), level);
+			}
+			int wb = 0;
+			while (wb == 0 && j < bEnd) {
+				wb = weight(b.charAt(j++), level);
+			}
+			if (wa != wb) {
+				return wa < wb ? -1 : 1;
+			}
+			if (wa == 0) {
+				return 0;
+			}
+		}
+	}
+
+	private static int weight(char c, int level) {
+		if (c < 128) {
+			int p = PRIMARY[c];
+			if (p == -1) {
+				return 0;
+			}
+			switch (level) {
+			case BASE_LEVEL: return p;
+			case ACCENT_LEVEL: return NO_ACCENT;
+			default: return c >= 'A' && c <= 'Z' ? UPPER_CASE : LOWER_CASE;
+			}
+		}
+		int type = Character.getType(c);
+		if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.COMBINING_SPACING_MARK) {
+			// the accent of the preceding character after decomposition
+			switch (level) {
+			case BASE_LEVEL: return 0;
+			case ACCENT_LEVEL: return NO_ACCENT + c;
+			default: return LOWER_CASE;
+			}
+		}
+		if (type == Character.CONTROL || type == Character.FORMAT) {
+			return 0;
+		}
+		switch (level) {
+		case BASE_LEVEL: return NON_ASCII_BASE + Character.toLowerCase(c);
+		case ACCENT_LEVEL: return NO_ACCENT;
+		default: return Character.isUpperCase(c) ? UPPER_CASE : LOWER_CASE;
+		}
+	}
+
+	private static int compareCodeUnits(String a, int aOff, int aLen, String b, int bOff, int bLen) {
+		int n = Math.min(aLen, bLen);
+		for (int i = 0; i < n; i++) {
+			char ca = a.charAt(aOff + i);
+			char cb = b.charAt(bOff + i);
+			if (ca != cb) {
+				return ca < cb ? -1 : 1;
+			}
+		}
+		return aLen < bLen ? -1 : (aLen == bLen ? 0 : 1);
+	}
+
+	private static boolean isAscii(String s, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			if (s.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int compareJson(JsonCursor a, JsonCursor b) {
+		int ta = a.type();
+		int tb = b.type();
+		if (ta != tb) {
+			return ta < tb ? -1 : 1;
+		}
+		switch (ta) {
+		case NULL:
+			a.skip(4);
+			b.skip(4);
+			return 0;
+		case TRUE:
+			a.skip(4);
+			b.skip(4);
+			return 0;
+		case FALSE:
+			a.skip(5);
+			b.skip(5);
+			return 0;
+		case NUMBER:
+			return a.compareNumber(b);
+		case STRING:
+			return a.compareString(b);
+		case ARRAY:
+			return compareJsonContainers(a, b, ']', false);
+		default:
+			return compareJsonContainers(a, b, '}', true);
+		}
+	}
+
+	private int compareJsonContainers(JsonCursor a, JsonCursor b, char end, boolean object) {
+		a.skip(1);
+		b.skip(1);
+		while (true) {
+			boolean aEnd = a.peek() == end;
+			boolean bEnd = b.peek() == end;
+			if (aEnd || bEnd) {
+				if (aEnd && bEnd) {
+					a.skip(1);
+					b.skip(1);
+					return 0;
+				}
+				return aEnd ? -1 : 1;
+			}
+			if (object) {
+				int c = a.compareString(b);
+				if (c != 0) {
+					return c;
+				}
+				a.expect(':');
+				b.expect(':');
+			}
+			int c = compareJson(a, b);
+			if (c != 0) {
+				return c;
+			}
+			if (a.peek() == ',') a.skip(1);
+			if (b.peek() == ',') b.skip(1);
+		}
+	}
+	/**
+	 * Position in a JSON text. Values are only decoded as far as needed to compare them.
+	 */
+	private static final class JsonCursor {
+
+		private final String s;
+		private int pos;
+
+		JsonCursor(String s) {
+			this.s = s;
+		}
+
+		char peek() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+			if (pos >= s.length()) {
+				throw new IllegalArgumentException(String.format("unexpected end of key: %s", s));
+			}
+			return s.charAt(pos);
+		}
+
+		void skip(int n) {
+			pos += n;
+		}
+
+		void expect(char c) {
+			if (peek() != c) {
+				throw new IllegalArgumentException(String.format("expected '%s' at position %s in key: %s", c, pos, s));
+			}
+			pos++;
+		}
+
+		int type() {
+			char c = peek();
+			switch (c) {
+			case 'n': return NULL;
+			case 'f': return FALSE;
+			case 't': return TRUE;
+			case '"': return STRING;
+			case '[': return ARRAY;
+			case '{': return OBJECT;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return NUMBER;
+				}
+				throw new IllegalArgumentException(String.format("unexpected character '%s' at position %s in key: %s", c, pos, s));
+			}
+		}
+
+		private int numberEnd() {
+			int i = pos;
+			while (i < s.length()) {
+				char c = s.charAt(i);
+				if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+					i++;
+				} else {
+					break;
+				}
+			}
+			return i;
+		}
+
+		private boolean isSmallInteger(int start, int end) {
+			int digits = end - start - (s.charAt(start) == '-' ? 1 : 0);
+			if (digits > 18) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') {
+					if (!(i == start && c == '-')) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		private long parseLong(int start, int end) {
+			boolean negative = s.charAt(start) == '-';
+			long v = 0;
+			for (int i = negative ? start + 1 : start; i < end; i++) {
+				v = v * 10 + (s.charAt(i) - '0');
+			}
+			return negative ? -v : v;
+		}
+
+		int compareNumber(JsonCursor o) {
+			peek();
+			o.peek();
+			int end = numberEnd();
+			int oEnd = o.numberEnd();
+			int c;
+			if (isSmallInteger(pos, end) && o.isSmallInteger(o.pos, oEnd)) {
+				long a = parseLong(pos, end);
+				long b = o.parseLong(o.pos, oEnd);
+				c = a < b ? -1 : (a == b ? 0 : 1);
+			} else {
+				c = new BigDecimal(s.substring(pos, end)).compareTo(new BigDecimal(o.s.substring(o.pos, oEnd)));
+			}
+			pos = end;
+			o.pos = oEnd;
+			return c;
+		}
+		/**
+		 * Advances past the string at the current position.
+		 * @return the index of the closing quote, negated if the string contains escapes.
+		 */
+		private int stringEnd() {
+			boolean escaped = false;
+			int i = pos + 1;
+			while (i < s.length()) {
+				char c = s.charAt(i);
+				if (c == '\\') {
+					escaped = true;
+					i += 2;
+				} else if (c == '"') {
+					return escaped ? -i : i;
+				} else {
+					i++;
+				}
+			}
+			throw new IllegalArgumentException(String.format("unterminated string in key: %s", s));
+		}
+
+		int compareString(JsonCursor o) {
+			if (peek() != '"' || o.peek() != '"') {
+				throw new IllegalArgumentException(String.format("expected string in keys: %s %s", s, o.s));
+			}
+			int end = stringEnd();
+			int oEnd = o.stringEnd();
+			int c;
+			if (end > 0 && oEnd > 0) {
+				c = compareStrings(s, pos + 1, end - pos - 1, o.s, o.pos + 1, oEnd - o.pos - 1);
+			} else {
+				c = compareStrings(decode(Math.abs(end)), o.decode(Math.abs(oEnd)));
+			}
+			pos = Math.abs(end) + 1;
+			o.pos = Math.abs(oEnd) + 1;
+			return c;
+		}
+
+		private String decode(int end) {
+			StringBuilder sb = new StringBuilder(end - pos);
+			for (int i = pos + 1; i < end; i++) {
+				char c = s.charAt(i);
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				char e = s.charAt(++i);
+				switch (e) {
+				case 'n': sb.append('\n'); break;
+				case 't': sb.append('\t'); break;
+				case 'r': sb.append('\r'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+					i += 4;
+					break;
+				default: sb.append(e);
+				}
+			}
+			return sb.toString();
+		}
+	}
+}
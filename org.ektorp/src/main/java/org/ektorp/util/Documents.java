@@ -32,6 +32,7 @@ public final class Documents {
 	private final static ConcurrentMap<Class<?>, DocumentAccessor> accessors = new ConcurrentHashMap<Class<?>, DocumentAccessor>();
 	private static final String ID_FIELD_NAME = "_id";
 	private static final String REV_FIELD_NAME = "_rev";
+	private static final char PARTITION_SEPARATOR = ':';
 
 	static {
 		accessors.put(Map.class, new MapAccessor());
@@ -84,6 +85,40 @@ public final class Documents {
 	public static boolean isNew(Object document) {
 		return getRevision(document) == null;
 	}
+	/**
+	 * Creates a document id for a partitioned database, i.e. partition:docId
+	 * @param partition may not be empty, contain a colon or start with an underscore
+	 * @param docId the id of the document within the partition
+	 * @return
+	 */
+	public static String partitionedId(String partition, String docId) {
+		assertValidPartition(partition);
+		Assert.hasText(docId, "docId may not be null or empty");
+		return partition + PARTITION_SEPARATOR + docId;
+	}
+	/**
+	 * @param id
+	 * @return the partition of a partitioned document id or null if the id has no partition.
+	 */
+	public static String getPartition(String id) {
+		Assert.notNull(id, "id may not be null");
+		int i = id.indexOf(PARTITION_SEPARATOR);
+		return i > 0 && !id.startsWith("_") ? id.substring(0, i) : null;
+	}
+	/**
+	 * @param id
+	 * @return the id without its partition prefix, or the id unchanged if it has no partition.
+	 */
+	public static String getPartitionLocalId(String id) {
+		String partition = getPartition(id);
+		return partition != null ? id.substring(partition.length() + 1) : id;
+	}
+
+	public static void assertValidPartition(String partition) {
+		Assert.hasText(partition, "partition may not be null or empty");
+		Assert.isTrue(partition.indexOf(PARTITION_SEPARATOR) == -1, "partition may not contain ':'");
+		Assert.isTrue(!partition.startsWith("_"), "partition may not start with '_'");
+	}
 
 	private static <T> void putAccessor(Class<? extends T> documentType, DocumentAccessor accessor){
 		accessors.put(documentType, accessor);
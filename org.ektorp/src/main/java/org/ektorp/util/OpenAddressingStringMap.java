@@ -0,0 +1,183 @@
+package org.ektorp.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact String to String map for large id sets, e.g. document ids mapped to revisions.
+ *
+ * Keys and values are stored in two flat arrays with linear probing instead of one entry object per mapping, which
+ * takes less than half the memory of a HashMap and keeps lookups cache friendly. Null keys are not supported.
+ * Entries cannot be removed.
+ *
+ * @author henrik lundgren
+ *
+ */
+public final class OpenAddressingStringMap extends AbstractMap<String, String> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private String[] keys;
+	private String[] values;
+	private int size;
+	private int modCount;
+
+	public OpenAddressingStringMap() {
+		this(MIN_CAPACITY / 2);
+	}
+	/**
+	 * @param expectedSize the number of mappings that can be added without resizing
+	 */
+	public OpenAddressingStringMap(int expectedSize) {
+		Assert.isTrue(expectedSize >= 0, "expectedSize may not be negative");
+		int capacity = MIN_CAPACITY;
+		// load factor <= 0.5
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new String[capacity];
+		values = new String[capacity];
+	}
+
+	private static int slot(String key, int mask) {
+		int h = key.hashCode();
+		// spread the bits as String hashes of similar ids differ mostly in the low bits
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		String k = (String) key;
+		int mask = keys.length - 1;
+		for (int i = slot(k, mask); keys[i] != null; i = (i + 1) & mask) {
+			if (keys[i].equals(k)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String get(Object key) {
+		int i = indexOf(key);
+		return i != -1 ? values[i] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) != -1;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		Assert.notNull(key, "key may not be null");
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != null) {
+			if (keys[i].equals(key)) {
+				String old = values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	private void resize(int capacity) {
+		String[] oldKeys = keys;
+		String[] oldValues = values;
+		keys = new String[capacity];
+		values = new String[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				int i = slot(oldKeys[j], mask);
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+		private final int expectedModCount = modCount;
+		private int next = advance(0);
+
+		private int advance(int from) {
+			int i = from;
+			while (i < keys.length && keys[i] == null) {
+				i++;
+			}
+			return i;
+		}
+
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		public Map.Entry<String, String> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final int i = next;
+			next = advance(i + 1);
+			return new SimpleEntry<String, String>(keys[i], values[i]) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public String setValue(String value) {
+					values[i] = value;
+					return super.setValue(value);
+				}
+			};
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.ektorp.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges a number of individually sorted iterators into one sorted iterator, e.g. the rows of view queries run
+ * against several partitions or databases.
+ *
+ * <code>
+ * Iterator&lt;ViewResult.Row&gt; merged = new SortedMergeIterator&lt;ViewResult.Row&gt;(
+ *		Arrays.asList(a.iterator(), b.iterator()), CollationComparator.rowsByKey());
+ * </code>
+ *
+ * Only the current head of each source is held in memory. Elements that compare as equal are returned in the order
+ * of their sources.
+ *
+ * @author henrik lundgren
+ *
+ * @param <T>
+ */
+public class SortedMergeIterator<T> implements Iterator<T> {
+
+	private final Comparator<? super T> comparator;
+	private final PriorityQueue<Head<T>> heads;
+
+	public SortedMergeIterator(Collection<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+		Assert.notNull(sources, "sources may not be null");
+		Assert.notNull(comparator, "comparator may not be null");
+		this.comparator = comparator;
+		this.heads = new PriorityQueue<Head<T>>(Math.max(1, sources.size()), new Comparator<Head<T>>() {
+			public int compare(Head<T> a, Head<T> b) {
+				int c = SortedMergeIterator.this.comparator.compare(a.value, b.value);
+				return c != 0 ? c : (a.source < b.source ? -1 : (a.source == b.source ? 0 : 1));
+			}
+		});
+		int i = 0;
+		for (Iterator<? extends T> it : sources) {
+			Head<T> head = new Head<T>(it, i++);
+			if (head.advance()) {
+				heads.add(head);
+			}
+		}
+	}
+	/**
+	 * Reads all sources to completion and returns the merged elements.
+	 */
+	public static <T> List<T> merge(Collection<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+		List<T> result = new ArrayList<T>();
+		for (Iterator<T> it = new SortedMergeIterator<T>(sources, comparator); it.hasNext();) {
+			result.add(it.next());
+		}
+		return result;
+	}
+
+	public boolean hasNext() {
+		return !heads.isEmpty();
+	}
+
+	public T next() {
+		Head<T> head = heads.poll();
+		if (head == null) {
+			throw new NoSuchElementException();
+		}
+		T value = head.value;
+		if (head.advance()) {
+			heads.add(head);
+		}
+		return value;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private static final class Head<T> {
+
+		final Iterator<? extends T> it;
+		final int source;
+		T value;
+
+		Head(Iterator<? extends T> it, int source) {
+			this.it = it;
+			this.source = source;
+		}
+
+		boolean advance() {
+			if (!it.hasNext()) {
+				value = null;
+				return false;
+			}
+			value = it.next();
+			return true;
+		}
+	}
+}
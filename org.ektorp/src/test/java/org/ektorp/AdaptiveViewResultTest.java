@@ -0,0 +1,156 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.http.HttpResponse;
+import org.junit.*;
+
+public class AdaptiveViewResultTest {
+
+    ObjectMapper om = new ObjectMapper();
+
+    @Test
+    public void result_within_limit_should_be_read_into_memory() throws Exception {
+        ResponseStub rsp = new ResponseStub("impl/view_result.json", -1);
+        AdaptiveViewResult result = new AdaptiveViewResult(om, rsp, false, new ResultSizeLimit().maxRows(2));
+        assertFalse(result.isStreaming());
+        assertTrue(rsp.released);
+        assertEquals(2, result.getTotalRows());
+        assertEquals(1, result.getOffset());
+        assertEquals(Arrays.asList("doc_id1", "doc_id2"), ids(result));
+        assertEquals(Arrays.asList("doc_id1", "doc_id2"), ids(result));
+
+        ViewResult vr = result.toViewResult();
+        assertEquals(2, vr.getSize());
+        assertEquals("doc_value2", vr.getRows().get(1).getValue());
+    }
+
+    @Test
+    public void rows_beyond_row_limit_should_be_streamed() throws Exception {
+        ResponseStub rsp = new ResponseStub("impl/view_result_with_ignored_docs.json", -1);
+        AdaptiveViewResult result = new AdaptiveViewResult(om, rsp, true, new ResultSizeLimit().maxRows(1));
+        assertTrue(result.isStreaming());
+        assertFalse(rsp.released);
+        assertEquals(Arrays.asList("doc_id1", "doc_id3", "doc_id5", "doc_id6"), ids(result));
+        assertTrue(rsp.released);
+        assertFalse(rsp.aborted);
+    }
+
+    @Test
+    public void declared_content_length_beyond_limit_should_stream_all_rows() throws Exception {
+        ResponseStub rsp = new ResponseStub("impl/view_result.json", 10000);
+        AdaptiveViewResult result = new AdaptiveViewResult(om, rsp, false, new ResultSizeLimit().maxBytes(1000));
+        assertTrue(result.isStreaming());
+        assertEquals(2, result.getTotalRows());
+        assertEquals(Arrays.asList("doc_id1", "doc_id2"), ids(result));
+    }
+
+    @Test
+    public void bytes_read_beyond_limit_should_switch_to_streaming() throws Exception {
+        StringBuilder sb = new StringBuilder("{\"total_rows\":20000,\"offset\":0,\"rows\":[");
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"id\":\"").append(i).append("\",\"key\":").append(i).append(",\"value\":null}");
+        }
+        sb.append("],\"update_seq\":\"12-abc\"}");
+        ResponseStub rsp = new ResponseStub(sb.toString().getBytes("UTF-8"), -1);
+        AdaptiveViewResult result = new AdaptiveViewResult(om, rsp, false, new ResultSizeLimit().maxBytes(64 * 1024));
+        assertTrue(result.isStreaming());
+        int count = 0;
+        for (ViewResult.Row row : result) {
+            assertEquals(Integer.toString(count++), row.getId());
+        }
+        assertEquals(20000, count);
+        assertEquals("12-abc", result.getUpdateSeq());
+    }
+
+    @Test
+    public void closing_a_streaming_result_should_abort_the_response() throws Exception {
+        ResponseStub rsp = new ResponseStub("impl/view_result.json", -1);
+        AdaptiveViewResult result = new AdaptiveViewResult(om, rsp, false, new ResultSizeLimit().maxRows(1));
+        Iterator<ViewResult.Row> it = result.iterator();
+        assertEquals("doc_id1", it.next().getId());
+        result.close();
+        assertTrue(rsp.aborted);
+        assertFalse(it.hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streaming_result_can_only_be_iterated_once() throws Exception {
+        AdaptiveViewResult result = new AdaptiveViewResult(om, new ResponseStub("impl/view_result.json", -1), false, new ResultSizeLimit().maxRows(1));
+        result.iterator();
+        result.iterator();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streaming_result_cannot_be_converted_to_view_result() throws Exception {
+        new AdaptiveViewResult(om, new ResponseStub("impl/view_result.json", -1), false, new ResultSizeLimit().maxRows(1)).toViewResult();
+    }
+
+    private List<String> ids(AdaptiveViewResult result) {
+        List<String> ids = new ArrayList<String>();
+        for (ViewResult.Row row : result) {
+            ids.add(row.getId());
+        }
+        return ids;
+    }
+
+    private static class ResponseStub implements HttpResponse {
+
+        final byte[] body;
+        final long contentLength;
+        boolean released;
+        boolean aborted;
+
+        ResponseStub(String resource, long contentLength) throws Exception {
+            this(IOUtils.toByteArray(AdaptiveViewResultTest.class.getResourceAsStream(resource)), contentLength);
+        }
+
+        ResponseStub(byte[] body, long contentLength) {
+            this.body = body;
+            this.contentLength = contentLength;
+        }
+
+        public boolean isSuccessful() {
+            return true;
+        }
+
+        public int getCode() {
+            return 200;
+        }
+
+        public String getRequestURI() {
+            return "/test_db/_design/test/_view/test";
+        }
+
+        public String getContentType() {
+            return "application/json";
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        public InputStream getContent() {
+            return new ByteArrayInputStream(body);
+        }
+
+        public String getETag() {
+            return null;
+        }
+
+        public void releaseConnection() {
+            released = true;
+        }
+
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.ektorp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares retained heap and throughput of ViewResult and CompactViewResult.
+ * Not a unit test, run the main method manually, preferably with a fixed heap size (e.g. -Xms1g -Xmx1g).
+ *
+ * Usage: CompactViewResultBenchmark [rows] [iterations]
+ */
+public class CompactViewResultBenchmark {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		byte[] response = createResponse(rows);
+		System.out.println(String.format("response size: %d rows, %d KB", rows, response.length / 1024));
+
+		verify(parseViewResult(response), new CompactViewResult(response, MAPPER, false));
+
+		// warm up
+		for (int i = 0; i < 2; i++) {
+			accessViewResult(parseViewResult(response));
+			accessCompactViewResult(new CompactViewResult(response, MAPPER, false));
+		}
+
+		long before = usedMemory();
+		ViewResult viewResult = parseViewResult(response);
+		long viewResultHeap = usedMemory() - before;
+		accessViewResult(viewResult);
+		viewResult = null;
+
+		before = usedMemory();
+		CompactViewResult compactResult = new CompactViewResult(response, MAPPER, false);
+		long compactHeap = usedMemory() - before;
+		accessCompactViewResult(compactResult);
+		compactResult = null;
+
+		System.out.println(String.format("retained heap ViewResult: %d KB, CompactViewResult: %d KB + %d KB raw response",
+				viewResultHeap / 1024, compactHeap / 1024, response.length / 1024));
+
+		long parseView = 0, accessView = 0, parseCompact = 0, accessCompact = 0;
+		for (int i = 0; i < iterations; i++) {
+			long t0 = System.nanoTime();
+			ViewResult vr = parseViewResult(response);
+			long t1 = System.nanoTime();
+			accessViewResult(vr);
+			long t2 = System.nanoTime();
+			CompactViewResult cr = new CompactViewResult(response, MAPPER, false);
+			long t3 = System.nanoTime();
+			accessCompactViewResult(cr);
+			long t4 = System.nanoTime();
+			parseView += t1 - t0;
+			accessView += t2 - t1;
+			parseCompact += t3 - t2;
+			accessCompact += t4 - t3;
+		}
+		System.out.println(String.format("parse rows/s   ViewResult: %d, CompactViewResult: %d",
+				rowsPerSecond(rows * iterations, parseView), rowsPerSecond(rows * iterations, parseCompact)));
+		System.out.println(String.format("id+key access rows/s ViewResult: %d, CompactViewResult: %d",
+				rowsPerSecond(rows * iterations, accessView), rowsPerSecond(rows * iterations, accessCompact)));
+	}
+
+	private static ViewResult parseViewResult(byte[] response) throws IOException {
+		return new ViewResult(MAPPER.readTree(response), false);
+	}
+
+	/**
+	 * Measuring the compact result is pointless if its ranges do not hold the same fields.
+	 */
+	private static void verify(ViewResult viewResult, CompactViewResult compactResult) {
+		for (int i = 0; i < viewResult.getSize(); i++) {
+			ViewResult.Row row = viewResult.getRows().get(i);
+			if (!row.getId().equals(compactResult.getId(i)) || !row.getKey().equals(compactResult.getKey(i))
+					|| !row.getValueAsNode().equals(compactResult.getValueAsNode(i))
+					|| !row.getDocAsNode().equals(compactResult.getDocAsNode(i))) {
+				throw new IllegalStateException(String.format("row %d differs: %s", i, compactResult.getRow(i)));
+			}
+		}
+	}
+
+	private static long accessViewResult(ViewResult result) {
+		long hash = 0;
+		for (ViewResult.Row row : result) {
+			hash += row.getId().hashCode() + row.getKey().hashCode();
+		}
+		return hash;
+	}
+
+	private static long accessCompactViewResult(CompactViewResult result) {
+		long hash = 0;
+		for (int i = 0; i < result.getSize(); i++) {
+			hash += result.getId(i).hashCode() + result.getKey(i).hashCode();
+		}
+		return hash;
+	}
+
+	private static long rowsPerSecond(long rows, long nanos) {
+		return rows * 1000000000L / Math.max(nanos, 1);
+	}
+
+	private static long usedMemory() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static byte[] createResponse(int rows) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonGenerator jg = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		jg.writeStartObject();
+		jg.writeNumberField("total_rows", rows);
+		jg.writeNumberField("offset", 0);
+		jg.writeArrayFieldStart("rows");
+		for (int i = 0; i < rows; i++) {
+			jg.writeStartObject();
+			jg.writeStringField("id", "doc_" + i);
+			jg.writeStringField("key", "key_" + i);
+			jg.writeObjectFieldStart("value");
+			jg.writeStringField("rev", "1-" + Integer.toHexString(i * 31));
+			jg.writeEndObject();
+			jg.writeObjectFieldStart("doc");
+			jg.writeStringField("_id", "doc_" + i);
+			jg.writeStringField("name", "name of document " + i);
+			jg.writeNumberField("age", i % 100);
+			jg.writeArrayFieldStart("tags");
+			jg.writeString("a");
+			jg.writeString("b");
+			jg.writeString("c");
+			jg.writeEndArray();
+			jg.writeEndObject();
+			jg.writeEndObject();
+		}
+		jg.writeEndArray();
+		jg.writeEndObject();
+		jg.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,141 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.*;
+
+public class CompactViewResultTest {
+
+    ObjectMapper om = new ObjectMapper();
+
+    @Test
+    public void fromJson() throws Exception {
+        CompactViewResult result = readResult("impl/view_result.json");
+        assertEquals(2, result.getSize());
+        assertEquals(1, result.getOffset());
+        assertEquals("doc_id1", result.getId(0));
+        assertEquals("key_value", result.getKey(0));
+        assertEquals("doc_value1", result.getValue(0));
+
+        assertEquals("doc_id2", result.getId(1));
+        assertEquals("key_value", result.getKey(1));
+        assertEquals("doc_value2", result.getValue(1));
+
+        assertNull(result.getDoc(0));
+        assertTrue(result.getDocAsNode(0).isMissingNode());
+    }
+
+    @Test
+    public void rows_should_match_view_result_rows() throws Exception {
+        CompactViewResult result = readResult("impl/view_result_with_included_docs.json");
+        List<ViewResult.Row> rows = result.getRows();
+        assertEquals(2, rows.size());
+        assertEquals("doc_id1", rows.get(0).getId());
+        assertEquals("doc_id2", rows.get(1).getDocAsNode().get("_id").textValue());
+    }
+
+    @Test
+    public void test_read_grouped_result() throws Exception {
+        CompactViewResult result = readResult("impl/group_view_result.json");
+        assertEquals(2, result.getSize());
+        assertNull(result.getId(0));
+        assertEquals("h", result.getKey(0));
+        assertEquals(2, result.getValueAsInt(0));
+        assertEquals("m", result.getKey(1));
+        assertEquals(1, result.getValueAsInt(1));
+    }
+
+    @Test
+    public void array_and_object_values_should_be_returned_as_json() throws Exception {
+        CompactViewResult result = readResult("impl/array_and_object_view_result.json");
+        assertEquals("[\"foo\",\"bar\"]", result.getValue(0));
+        assertEquals("{\"foo\":\"bar\"}", result.getValue(1));
+        assertEquals("{\"foo\":\"bar\"}", result.getValueAsJson(1));
+    }
+
+    @Test
+    public void complex_key_view_result() throws Exception {
+        CompactViewResult result = readResult("impl/complex_key_view_result.json");
+        assertEquals("[1337,\"key\"]", result.getKey(0));
+        assertEquals(1337, result.getKeyAsNode(1).get(0).intValue());
+    }
+
+    @Test
+    public void docs_should_be_bound_directly() throws Exception {
+        CompactViewResult result = readResult("impl/view_result_with_included_docs.json");
+        JsonNode doc = result.getDocAs(1, JsonNode.class);
+        assertEquals(99, doc.get("age").intValue());
+    }
+
+    @Test
+    public void error_rows_should_be_skipped_when_ignoring_not_found() throws Exception {
+        CompactViewResult result = readResult("impl/view_result_with_ignored_docs.json", true);
+        assertEquals(4, result.getSize());
+        assertEquals("doc_id1", result.getId(0));
+        assertEquals("doc_id6", result.getId(3));
+        assertEquals(8, result.getTotalRows());
+    }
+
+    @Test(expected = ViewResultException.class)
+    public void view_result_with_error_row() throws Exception {
+        readResult("impl/view_result_with_error.json");
+    }
+
+    @Test
+    public void nested_error_field_should_not_cause_exception() throws Exception {
+        CompactViewResult result = readResult("impl/view_result_with_nested_error.json");
+        assertEquals(2, result.getSize());
+    }
+
+    @Test
+    public void string_update_seq_view_result() throws Exception {
+        CompactViewResult result = readResult("impl/view_result_with_string_update_seq.json");
+        assertEquals("1234-abc", result.getUpdateSeqAsString());
+    }
+
+    @Test
+    public void escaped_ids_should_be_decoded() throws Exception {
+        byte[] json = "{\"rows\":[{\"id\":\"a\\\"b\",\"key\":\"å\",\"value\":1}]}".getBytes("UTF-8");
+        CompactViewResult result = new CompactViewResult(json, om, false);
+        assertEquals("a\"b", result.getId(0));
+        assertEquals("å", result.getKey(0));
+    }
+
+    @Test
+    public void raw_json_should_start_at_the_value() throws Exception {
+        byte[] json = ("{\"rows\": [\n {\"id\": \"a\", \"key\" : [\"k\\\":\", 1],\n  \"value\":{\"v\":1}},"
+                + "\n {\"key\":\"b\",\"id\":\"b\",\"value\": \"x\"}]}").getBytes("UTF-8");
+        CompactViewResult result = new CompactViewResult(json, om, false);
+        assertEquals("[\"k\\\":\", 1]", result.getKeyAsJson(0));
+        assertEquals("{\"v\":1}", result.getValueAsJson(0));
+        assertEquals("\"x\"", result.getValueAsJson(1));
+        assertEquals("b", result.getId(1));
+        assertEquals("b", result.getRow(1).getKey());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void access_beyond_size_should_fail() throws Exception {
+        readResult("impl/view_result.json").getId(2);
+    }
+
+    private CompactViewResult readResult(String path) throws Exception {
+        return readResult(path, false);
+    }
+
+    private CompactViewResult readResult(String path, boolean ignoreNotFound) throws Exception {
+        InputStream resourceAsStream = null;
+        try {
+            resourceAsStream = getClass().getResourceAsStream(path);
+            return CompactViewResult.parse(resourceAsStream, om, ignoreNotFound);
+        } finally {
+            IOUtils.closeQuietly(resourceAsStream);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DbPathTest {
+
+	@Test
+	public void create_path_of_plain_db() {
+		DbPath db = DbPath.fromString("customers");
+		assertFalse(db.isPartitioned());
+		assertEquals("/customers/", db.getCreatePath());
+	}
+
+	@Test
+	public void partitioned_db_should_be_created_with_partitioned_parameter() {
+		DbPath db = DbPath.partitioned("customers");
+		assertTrue(db.isPartitioned());
+		assertEquals("/customers/?partitioned=true", db.getCreatePath());
+		assertEquals("/customers/", db.getPath());
+	}
+
+	@Test
+	public void partition_paths() {
+		DbPath db = DbPath.partitioned("customers");
+		assertEquals("/customers/_partition/c%C3%A5/", db.getPartitionPath("c\u00e5"));
+		assertEquals("/customers/_partition/c1/_all_docs", db.getPartitionAllDocsPath("c1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void empty_partition_should_fail() {
+		DbPath.partitioned("customers").getPartitionPath("");
+	}
+}
@@ -0,0 +1,79 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FindQueryTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void raw_selector_should_be_written_as_is() {
+		FindQuery q = new FindQuery().selector("{\"type\":\"person\"}");
+		assertEquals("{\"selector\":{\"type\":\"person\"}}", q.toJson(mapper));
+	}
+
+	@Test
+	public void all_options_should_be_written() throws Exception {
+		Map<String, Object> selector = new LinkedHashMap<String, Object>();
+		selector.put("age", 30);
+		FindQuery q = new FindQuery()
+				.selector(selector)
+				.fields("_id", "name")
+				.sort("age")
+				.sortDescending("name")
+				.limit(10)
+				.skip(5)
+				.bookmark("abc")
+				.useIndex("_design/idx", "by_age")
+				.conflicts(true)
+				.update(false)
+				.stable(true)
+				.executionStats(true);
+		JsonNode json = mapper.readTree(q.toJson(mapper));
+		assertEquals(30, json.get("selector").get("age").intValue());
+		assertEquals("name", json.get("fields").get(1).textValue());
+		assertEquals("asc", json.get("sort").get(0).get("age").textValue());
+		assertEquals("desc", json.get("sort").get(1).get("name").textValue());
+		assertEquals(10, json.get("limit").intValue());
+		assertEquals(5, json.get("skip").intValue());
+		assertEquals("abc", json.get("bookmark").textValue());
+		assertEquals("by_age", json.get("use_index").get(1).textValue());
+		assertTrue(json.get("conflicts").booleanValue());
+		assertFalse(json.get("update").booleanValue());
+		assertTrue(json.get("stable").booleanValue());
+		assertTrue(json.get("execution_stats").booleanValue());
+	}
+
+	@Test
+	public void missing_selector_should_match_all() {
+		assertEquals("{\"selector\":{},\"use_index\":\"_design/idx\"}", new FindQuery().useIndex("_design/idx").toJson(mapper));
+	}
+
+	@Test
+	public void index_definition_should_be_written() {
+		MangoIndex index = MangoIndex.on("type").fieldDescending("age").name("type-age").designDocId("_design/mango");
+		assertEquals("{\"index\":{\"fields\":[{\"type\":\"asc\"},{\"age\":\"desc\"}]},"
+				+ "\"ddoc\":\"_design/mango\",\"name\":\"type-age\",\"type\":\"json\"}", index.toJson(mapper));
+	}
+
+	@Test
+	public void index_should_be_read_from_listing() throws Exception {
+		JsonNode node = mapper.readTree("{\"ddoc\":\"_design/mango\",\"name\":\"type-age\",\"type\":\"json\","
+				+ "\"def\":{\"fields\":[{\"type\":\"asc\"},{\"age\":\"desc\"}],\"partial_filter_selector\":{\"x\":1}}}");
+		MangoIndex index = MangoIndex.fromJson(node);
+		assertEquals("_design/mango", index.getDesignDocId());
+		assertEquals("type-age", index.getName());
+		assertEquals(2, index.getFields().size());
+		assertFalse(index.isDescending("type"));
+		assertTrue(index.isDescending("age"));
+		assertNotNull(index.getPartialFilterSelector());
+	}
+}
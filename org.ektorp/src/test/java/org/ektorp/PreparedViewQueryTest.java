@@ -0,0 +1,125 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.net.URLEncoder;
+import java.util.*;
+
+import org.junit.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PreparedViewQueryTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	PreparedViewQuery prepared = PreparedViewQuery.of(new ViewQuery(mapper)
+			.dbPath("/somedb/")
+			.designDocId("_design/doc")
+			.viewName("viewname")
+			.includeDocs(true)
+			.key("ignored")
+			.limit(99));
+
+	@Test
+	public void static_params_should_be_encoded_in_prefix() {
+		assertEquals("_design/doc/_view/viewname?include_docs=true", prepared.getPrefix());
+	}
+
+	@Test
+	public void template_without_db_path_should_be_bound_to_any_db_path() {
+		PreparedViewQuery p = PreparedViewQuery.of(new ViewQuery(mapper).designDocId("_design/doc").viewName("v").includeDocs(true));
+		ViewQuery bound = p.key("x");
+		assertEquals("/db/_design/doc/_view/v?include_docs=true&key=%22x%22", bound.dbPath("/db/").buildQuery());
+		assertEquals("/other/_design/doc/_view/v?include_docs=true&key=%22x%22", bound.dbPath("/other").buildQuery());
+	}
+
+	@Test
+	public void setting_db_path_should_keep_prepared_query_string() {
+		ViewQuery bound = prepared.key("foo");
+		bound.dbPath("/somedb/");
+		// the prepared string has the key after the static params, a rebuilt query has it first
+		assertEquals("/somedb/_design/doc/_view/viewname?include_docs=true&key=%22foo%22", bound.buildQuery());
+	}
+
+	@Test
+	public void bound_query_should_contain_same_params_as_view_query() {
+		ViewQuery bound = prepared.bind().key("foo").limit(10).toQuery();
+		ViewQuery expected = new ViewQuery(mapper)
+				.dbPath("/somedb/")
+				.designDocId("_design/doc")
+				.viewName("viewname")
+				.includeDocs(true)
+				.key("foo")
+				.limit(10);
+		assertEquals(params(expected.buildQuery()), params(bound.buildQuery()));
+		assertEquals("foo", bound.getKey());
+		assertEquals(10, bound.getLimit());
+		assertTrue(bound.isIncludeDocs());
+	}
+
+	@Test
+	public void range_should_bind_start_and_end_key() {
+		ViewQuery bound = prepared.range(ComplexKey.of("a", 1), ComplexKey.of("a", ComplexKey.emptyObject()));
+		assertEquals("/somedb/_design/doc/_view/viewname?include_docs=true"
+				+ "&startkey=%5B%22a%22%2C1%5D&endkey=%5B%22a%22%2C%7B%7D%5D", bound.buildQuery());
+	}
+
+	@Test
+	public void prefix_without_params() {
+		PreparedViewQuery p = PreparedViewQuery.of(new ViewQuery(mapper).allDocs().dbPath("/db/"));
+		assertEquals("/db/_all_docs?key=1", p.key(1).buildQuery());
+	}
+
+	@Test
+	public void modifying_bound_query_should_rebuild_query() {
+		ViewQuery bound = prepared.key("foo");
+		bound.descending(true);
+		assertEquals(params("key=%22foo%22&include_docs=true&descending=true"), params(bound.buildQuery()));
+	}
+
+	@Test
+	public void query_param_added_to_bound_query_should_rebuild_query() {
+		ViewQuery bound = prepared.key("foo");
+		bound.buildQuery();
+		bound.queryParam("sorted", "false").dbPath("/somedb/");
+		assertTrue(bound.buildQuery().contains("sorted=false"));
+	}
+
+	@Test
+	public void later_changes_to_template_should_not_affect_prepared_query() {
+		ViewQuery template = new ViewQuery(mapper).dbPath("/db/").designDocId("_design/doc").viewName("v");
+		PreparedViewQuery p = PreparedViewQuery.of(template);
+		template.descending(true);
+		assertEquals("/db/_design/doc/_view/v?key=%22x%22", p.key("x").buildQuery());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void multiple_key_queries_cannot_be_prepared() {
+		PreparedViewQuery.of(new ViewQuery(mapper).dbPath("/db/").designDocId("_design/doc").viewName("v")
+				.keys(Arrays.asList("a", "b")));
+	}
+
+	@Test
+	public void fast_key_encoding_should_equal_object_mapper_and_url_encoder() throws Exception {
+		List<Object> keys = new ArrayList<Object>(Arrays.<Object>asList(
+				"plain", "with space", "quote\" and \\ backslash", "new\nline\ttab\u0001ctrl", "\u00e5\u00e4\u00f6 \u20ac \uD83D\uDE00",
+				"/path?&=+#%", 0, -1, Integer.MAX_VALUE, Long.MIN_VALUE, (short) 7, (byte) 3,
+				1.5d, 1.0E20d, -0.0d, 2.5f, Double.NaN, true, false,
+				ComplexKey.of("a", 1, true, ComplexKey.emptyObject()),
+				ComplexKey.of(ComplexKey.emptyArray(), "x", Arrays.asList(1, "y")),
+				new java.math.BigDecimal("12.50"), new Date(0)));
+		for (Object key : keys) {
+			String expectedJson = mapper.writeValueAsString(key);
+			String json = QueryKeyEncoder.toJson(key, mapper);
+			assertEquals(expectedJson, json);
+			StringBuilder sb = new StringBuilder();
+			QueryKeyEncoder.appendUrlEncoded(sb, json);
+			assertEquals(URLEncoder.encode(expectedJson, "UTF-8"), sb.toString());
+		}
+	}
+
+	private Set<String> params(String query) {
+		return new HashSet<String>(Arrays.asList(query.substring(query.indexOf('?') + 1).split("&")));
+	}
+}
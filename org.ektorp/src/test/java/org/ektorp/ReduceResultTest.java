@@ -0,0 +1,111 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+public class ReduceResultTest {
+
+	JsonFactory jsonFactory = new JsonFactory();
+
+	@Test
+	public void grouped_counts_should_be_decoded_to_longs() throws Exception {
+		LongReduceResult result = LongReduceResult.parse(resource("impl/group_view_result.json"), jsonFactory);
+		assertEquals(2, result.getSize());
+		assertEquals("h", result.getKey(0));
+		assertEquals(2L, result.getValue(0));
+		assertEquals(1L, result.getValue("m"));
+		assertEquals(-1L, result.getValue("x", -1L));
+		assertEquals(3L, result.getTotal());
+	}
+
+	@Test
+	public void string_values_should_be_parsed() throws Exception {
+		LongReduceResult result = LongReduceResult.parse(resource("impl/reduce_view_result.json"), jsonFactory);
+		assertArrayEquals(new long[] {4, 5, 6}, result.getValues());
+	}
+
+	@Test
+	public void ungrouped_reduction_should_have_null_key() throws Exception {
+		DoubleReduceResult result = DoubleReduceResult.parse(json("{\"rows\":[{\"key\":null,\"value\":12.5}]}"), jsonFactory);
+		assertNull(result.getKey(0));
+		assertEquals(12.5, result.getValue(null), 0);
+	}
+
+	@Test
+	public void empty_result() throws Exception {
+		LongReduceResult result = LongReduceResult.parse(resource("impl/empty_reduced_view_result.json"), jsonFactory);
+		assertTrue(result.isEmpty());
+		assertEquals(-1, result.indexOf("foo"));
+	}
+
+	@Test
+	public void many_rows_should_grow_arrays() throws Exception {
+		StringBuilder sb = new StringBuilder("{\"rows\":[");
+		for (int i = 0; i < 1000; i++) {
+			sb.append(i > 0 ? "," : "").append("{\"key\":").append(i).append(",\"value\":").append(i * 2).append("}");
+		}
+		LongReduceResult result = LongReduceResult.parse(json(sb.append("]}").toString()), jsonFactory);
+		assertEquals(1000, result.getSize());
+		assertEquals(1998L, result.getValue("999"));
+	}
+
+	@Test
+	public void index_should_find_every_key_and_first_row_of_repeated_keys() throws Exception {
+		StringBuilder sb = new StringBuilder("{\"rows\":[{\"key\":null,\"value\":0}");
+		for (int i = 1; i < 100; i++) {
+			sb.append(",{\"key\":[\"k\",").append(i % 50).append("],\"value\":").append(i).append("}");
+		}
+		LongReduceResult result = LongReduceResult.parse(json(sb.append("]}").toString()), jsonFactory);
+		assertEquals(0, result.indexOf(null));
+		for (int i = 1; i < 50; i++) {
+			assertEquals(i, result.indexOf("[\"k\"," + i + "]"));
+		}
+		assertEquals(50, result.indexOf("[\"k\",0]"));
+		assertEquals(-1, result.indexOf("[\"k\",50]"));
+	}
+
+	@Test
+	public void stats_should_be_decoded_per_group() throws Exception {
+		StatsReduceResult result = StatsReduceResult.parse(resource("impl/stats_view_result.json"), jsonFactory);
+		assertEquals(2, result.getSize());
+		assertEquals("[\"a\",1]", result.getKey(0));
+		assertEquals(10, result.getSum(0), 0);
+		assertEquals(4, result.getCount(0));
+		assertEquals(1, result.getMin(0), 0);
+		assertEquals(4, result.getMax(0), 0);
+		assertEquals(2.5, result.getMean(0), 0);
+		assertEquals(1.25, result.getVariance(0), 0.0001);
+		assertEquals(6.25, result.getSumsqr(1), 0);
+		assertEquals(1, result.indexOf("[\"b\",1]"));
+	}
+
+	@Test(expected = DbAccessException.class)
+	public void non_numeric_value_should_fail() throws Exception {
+		LongReduceResult.parse(json("{\"rows\":[{\"key\":null,\"value\":[1,2]}]}"), jsonFactory);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void access_beyond_size_should_fail() throws Exception {
+		LongReduceResult.parse(resource("impl/group_view_result.json"), jsonFactory).getValue(2);
+	}
+
+	private InputStream json(String s) throws Exception {
+		return new ByteArrayInputStream(s.getBytes("UTF-8"));
+	}
+
+	private InputStream resource(String path) throws Exception {
+		InputStream in = getClass().getResourceAsStream(path);
+		try {
+			return new ByteArrayInputStream(IOUtils.toByteArray(in));
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
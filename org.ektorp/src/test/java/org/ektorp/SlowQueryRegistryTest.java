@@ -0,0 +1,38 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.*;
+
+public class SlowQueryRegistryTest {
+
+    @Test
+    public void slowest_queries_should_be_retained_slowest_first() {
+        SlowQueryRegistry registry = new SlowQueryRegistry(3);
+        long[] durations = {5, 1, 9, 3, 7, 2};
+        for (long d : durations) {
+            registry.queryCompleted(profile("q" + d, d));
+        }
+        List<QueryProfile> slowest = registry.getSlowest();
+        assertEquals(3, slowest.size());
+        assertEquals("q9", slowest.get(0).getLabel());
+        assertEquals("q7", slowest.get(1).getLabel());
+        assertEquals("q5", slowest.get(2).getLabel());
+    }
+
+    @Test
+    public void clear_should_remove_all_profiles() {
+        SlowQueryRegistry registry = new SlowQueryRegistry(3);
+        registry.queryCompleted(profile("q", 1));
+        registry.clear();
+        assertTrue(registry.getSlowest().isEmpty());
+    }
+
+    private QueryProfile profile(String label, long millis) {
+        QueryProfile p = new QueryProfile("_design/test", "by_name", label);
+        p.complete(true, millis * 1000000);
+        return p;
+    }
+}
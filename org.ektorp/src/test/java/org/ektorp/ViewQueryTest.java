@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -33,6 +34,22 @@ public class ViewQueryTest {
 		assertEquals("/somedb/_design/doc/_view/viewname", query.buildQuery());
 	}
 	
+	@Test
+	public void partition_should_be_prepended_to_design_doc() {
+		assertEquals("/somedb/_partition/customer1/_design/doc/_view/viewname?key=%22x%22",
+				query.partition("customer1").key("x").buildQuery());
+	}
+
+	@Test
+	public void partition_scoped_all_docs() {
+		assertEquals("/somedb/_partition/customer1/_all_docs", query.allDocs().partition("customer1").buildQuery());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void partition_may_not_start_with_underscore() {
+		query.partition("_design").buildQuery();
+	}
+
 	@Test
 	public void string_key() throws Exception {
 		String url = query.key("value").buildQuery();
@@ -126,6 +143,20 @@ public class ViewQueryTest {
 		assertEquals("{\"keys\":[[\"foo1\",\"bar1\"],[\"foo2\",\"bar2\"]]}", keys.toJson());
 	}
 	
+	@Test
+	public void streamed_keys_should_equal_keys_as_json() throws Exception {
+		query.keys(Arrays.asList("key1", ComplexKey.of("foo", 2), 3));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		query.writeKeysTo(out);
+		assertEquals(query.getKeysAsJson(), out.toString("UTF-8"));
+	}
+	
+	@Test
+	public void keys_parameter_should_contain_keys_as_json_array() throws Exception {
+		String url = query.keys(Arrays.asList("key1", "key2")).buildQueryWithKeysParameter();
+		assertTrue(contains(url, "?keys=%5B%22key1%22%2C%22key2%22%5D"));
+	}
+	
 	@Test
 	public void rawKey_should_be_unchanged() throws Exception {
 		String url = query.rawKey("\"value\"").buildQuery();
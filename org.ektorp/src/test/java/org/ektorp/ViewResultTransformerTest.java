@@ -0,0 +1,95 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.ektorp.util.Predicate;
+import org.junit.*;
+
+public class ViewResultTransformerTest {
+
+    ObjectMapper om = new ObjectMapper();
+
+    static final String INCLUDED_DOCS_RESULT = "{\"total_rows\":3,\"offset\":0,\"rows\":["
+            + "{\"id\":\"p1\",\"key\":\"a\",\"value\":null,\"doc\":{\"_id\":\"p1\",\"name\":\"Ann\",\"age\":34,\"address\":{\"city\":\"Oslo\",\"zip\":\"0150\"},\"tags\":[\"x\",\"y\"]}},"
+            + "{\"id\":\"p2\",\"key\":\"b\",\"value\":null,\"doc\":{\"_id\":\"p2\",\"name\":\"Bo\",\"age\":12,\"tags\":[]}},"
+            + "{\"id\":\"p3\",\"key\":\"c\",\"value\":{\"rev\":\"1-a\",\"deleted\":true},\"doc\":null}"
+            + "],\"update_seq\":42}";
+
+    @Test
+    public void without_configuration_the_result_is_relayed_unchanged() throws Exception {
+        ViewResultTransformer t = new ViewResultTransformer(om);
+        assertEquals(om.readTree(INCLUDED_DOCS_RESULT), transform(t, INCLUDED_DOCS_RESULT));
+    }
+
+    @Test
+    public void docs_are_projected() throws Exception {
+        ViewResultTransformer t = new ViewResultTransformer(om)
+                .project("/name", "/tags/1")
+                .projectAs("city", "/address/city");
+        JsonNode result = transform(t, INCLUDED_DOCS_RESULT);
+        assertEquals(42, result.get("update_seq").intValue());
+        assertEquals(3, result.get("rows").size());
+        assertEquals(om.readTree("{\"name\":\"Ann\",\"1\":\"y\",\"city\":\"Oslo\"}"), result.get("rows").get(0).get("doc"));
+        assertEquals(om.readTree("{\"name\":\"Bo\"}"), result.get("rows").get(1).get("doc"));
+        assertTrue(result.get("rows").get(2).get("doc").isNull());
+        assertEquals("p2", result.get("rows").get(1).get("id").textValue());
+        assertEquals("b", result.get("rows").get(1).get("key").textValue());
+    }
+
+    @Test
+    public void values_are_projected_when_rows_have_no_docs() throws Exception {
+        String json = "{\"rows\":[{\"id\":\"1\",\"key\":1,\"value\":{\"a\":{\"b\":[1,2]},\"c\":3}}]}";
+        ViewResultTransformer t = new ViewResultTransformer(om)
+                .projectAs("ab", "/a/b")
+                .projectAs("a", "/a");
+        JsonNode result = transform(t, json);
+        assertEquals(om.readTree("{\"ab\":[1,2],\"a\":{\"b\":[1,2]}}"), result.get("rows").get(0).get("value"));
+    }
+
+    @Test
+    public void rows_are_filtered_on_projected_fields() throws Exception {
+        ViewResultTransformer t = new ViewResultTransformer(om)
+                .project("/age")
+                .filter(new Predicate<ViewResultTransformer.RowView>() {
+                    public boolean apply(ViewResultTransformer.RowView row) {
+                        JsonNode age = row.getField("age");
+                        return age != null && age.intValue() >= 18;
+                    }
+                });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = t.transform(new ByteArrayInputStream(INCLUDED_DOCS_RESULT.getBytes("UTF-8")), out);
+        assertEquals(1, written);
+        JsonNode result = om.readTree(out.toByteArray());
+        assertEquals("p1", result.get("rows").get(0).get("id").textValue());
+    }
+
+    @Test
+    public void rows_are_filtered_on_id_and_key() throws Exception {
+        ViewResultTransformer t = new ViewResultTransformer(om)
+                .filter(new Predicate<ViewResultTransformer.RowView>() {
+                    public boolean apply(ViewResultTransformer.RowView row) {
+                        return !row.getId().equals("p1") && !"c".equals(row.getKey().textValue());
+                    }
+                });
+        JsonNode result = transform(t, INCLUDED_DOCS_RESULT);
+        assertEquals(1, result.get("rows").size());
+        assertEquals(12, result.get("rows").get(0).get("doc").get("age").intValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicate_projection_names_are_rejected() {
+        new ViewResultTransformer(om).project("/a/name", "/b/name");
+    }
+
+    private JsonNode transform(ViewResultTransformer t, String json) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        t.transform(new ByteArrayInputStream(json.getBytes("UTF-8")), out);
+        return om.readTree(out.toByteArray());
+    }
+}
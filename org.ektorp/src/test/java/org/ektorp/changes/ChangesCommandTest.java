@@ -2,6 +2,8 @@ package org.ektorp.changes;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
+
 import org.junit.*;
 
 public class ChangesCommandTest {
@@ -27,4 +29,49 @@ public class ChangesCommandTest {
 										.param("paramName", "paramValue")
 										.build().toString());
 	}
+
+	@Test
+	public void docIds_should_be_posted_in_body() {
+		ChangesCommand cmd = new ChangesCommand.Builder().docIds(Arrays.asList("a", "b")).build();
+		assertEquals("_changes?filter=_doc_ids", cmd.toString());
+		assertTrue(cmd.hasRequestBody());
+		assertEquals(Collections.singletonMap("doc_ids", Arrays.asList("a", "b")), cmd.getRequestBody());
+	}
+
+	@Test
+	public void selector_should_be_posted_in_body() {
+		Map<String, Object> selector = Collections.<String, Object>singletonMap("type", "order");
+		ChangesCommand cmd = new ChangesCommand.Builder().continuous(true).selector(selector).build();
+		assertEquals("_changes?feed=continuous&filter=_selector", cmd.toString());
+		assertEquals(Collections.singletonMap("selector", selector), cmd.getRequestBody());
+	}
+
+	@Test
+	public void view_filter_should_be_query_parameter() {
+		ChangesCommand cmd = new ChangesCommand.Builder().view("mydesigndoc/myview").build();
+		assertEquals("_changes?filter=_view&view=mydesigndoc%2Fmyview", cmd.toString());
+		assertFalse(cmd.hasRequestBody());
+		assertNull(cmd.getRequestBody());
+	}
+
+	@Test
+	public void style_and_seqInterval_should_be_query_parameters() {
+		assertEquals("_changes?limit=10&style=all_docs&seq_interval=100",
+				new ChangesCommand.Builder().limit(10).style(ChangesCommand.Style.ALL_DOCS).seqInterval(100).build().toString());
+	}
+
+	@Test
+	public void filter_should_replace_built_in_filter() {
+		ChangesCommand cmd = new ChangesCommand.Builder().docIds(Arrays.asList("a")).filter("mydesigndoc/myfilter").build();
+		assertEquals("_changes?filter=mydesigndoc%2Fmyfilter", cmd.toString());
+		assertFalse(cmd.hasRequestBody());
+	}
+
+	@Test
+	public void merge_should_copy_filter_arguments() {
+		ChangesCommand cmd = new ChangesCommand.Builder().docIds(Arrays.asList("a")).style(ChangesCommand.Style.MAIN_ONLY).build();
+		ChangesCommand merged = new ChangesCommand.Builder().merge(cmd).continuous(true).build();
+		assertEquals("_changes?feed=continuous&filter=_doc_ids&style=main_only", merged.toString());
+		assertEquals(cmd.getRequestBody(), merged.getRequestBody());
+	}
 }
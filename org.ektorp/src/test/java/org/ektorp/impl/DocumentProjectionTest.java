@@ -0,0 +1,131 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.*;
+
+public class DocumentProjectionTest {
+
+    ObjectMapper om = new ObjectMapper();
+
+    static final String DOC = "{\"_id\":\"p1\",\"_rev\":\"1-a\",\"name\":\"Ann\",\"age\":34,"
+            + "\"address\":{\"city\":\"Oslo\",\"zip\":\"0150\"},\"tags\":[\"x\",{\"y\":1,\"z\":2},\"w\"],"
+            + "\"history\":[{\"big\":[1,2,3]},{\"big\":[4,5,6]}]}";
+
+    @Test
+    public void only_projected_fields_are_copied() throws Exception {
+        assertProjection("{\"name\":\"Ann\",\"address\":{\"city\":\"Oslo\"}}", "/name", "/address/city");
+    }
+
+    @Test
+    public void whole_subtrees_are_copied() throws Exception {
+        assertProjection("{\"_id\":\"p1\",\"address\":{\"city\":\"Oslo\",\"zip\":\"0150\"}}", "/_id", "/address", "/address/city");
+    }
+
+    @Test
+    public void array_elements_keep_their_position() throws Exception {
+        assertProjection("{\"tags\":[null,{\"z\":2}]}", "/tags/1/z");
+    }
+
+    @Test
+    public void missing_paths_are_left_out() throws Exception {
+        assertProjection("{\"address\":{}}", "/nope", "/address/street");
+    }
+
+    @Test
+    public void empty_pointer_copies_the_document() throws Exception {
+        assertProjection(DOC, "");
+    }
+
+    @Test
+    public void projection_binds_to_document_class() throws Exception {
+        JsonParser jp = om.getFactory().createParser(DOC);
+        jp.nextToken();
+        Person p = new DocumentProjection("/_id", "/name", "/address/city").read(jp, om, Person.class);
+        assertEquals("p1", p.getId());
+        assertEquals("Ann", p.getName());
+        assertEquals("Oslo", p.getAddress().getCity());
+        assertNull(p.getAddress().getZip());
+        assertEquals(0, p.getAge());
+    }
+
+    private void assertProjection(String expected, String... pointers) throws Exception {
+        JsonParser jp = om.getFactory().createParser(DOC);
+        jp.nextToken();
+        StringWriter w = new StringWriter();
+        JsonGenerator jg = om.getFactory().createGenerator(w);
+        new DocumentProjection(pointers).copy(jp, jg);
+        jg.close();
+        assertEquals(om.readTree(expected), om.readTree(w.toString()));
+        assertNull(jp.nextToken());
+    }
+
+    public static class Person {
+        private String id;
+        private String name;
+        private int age;
+        private Address address;
+
+        @JsonProperty("_id")
+        public String getId() {
+            return id;
+        }
+
+        @JsonProperty("_id")
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public void setAddress(Address address) {
+            this.address = address;
+        }
+    }
+
+    public static class Address {
+        private String city;
+        private String zip;
+
+        public String getCity() {
+            return city;
+        }
+
+        public void setCity(String city) {
+            this.city = city;
+        }
+
+        public String getZip() {
+            return zip;
+        }
+
+        public void setZip(String zip) {
+            this.zip = zip;
+        }
+    }
+}
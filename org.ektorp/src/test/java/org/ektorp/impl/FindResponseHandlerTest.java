@@ -0,0 +1,77 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.FindResult;
+import org.ektorp.support.CouchDbDocument;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FindResponseHandlerTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void docs_should_be_bound_to_type() throws Exception {
+		FindResult<Person> result = new FindResponseHandler<Person>(
+				Person.class, mapper).success(HttpResponseStub.valueOf(200, resource("find_result.json")));
+		assertEquals(2, result.getSize());
+		assertEquals("doc_id2", result.getDocs().get(1).getId());
+		assertEquals("kalle", result.getDocs().get(1).getName());
+		assertTrue(result.getBookmark().startsWith("g1AAAA"));
+		assertNotNull(result.getWarning());
+	}
+
+	@Test
+	public void execution_stats_should_be_read() throws Exception {
+		FindResult<Object> result = new FindResponseHandler<Object>(Object.class, mapper)
+				.success(HttpResponseStub.valueOf(200, resource("find_result.json")));
+		assertEquals(200, result.getExecutionStats().getTotalDocsExamined());
+		assertEquals(2, result.getExecutionStats().getResultsReturned());
+		assertEquals(100.0, result.getExecutionStats().getDocsExaminedPerResult(), 0);
+		assertEquals(5.52, result.getExecutionStats().getExecutionTimeMs(), 0);
+	}
+
+	@Test
+	public void empty_result() throws Exception {
+		FindResult<Object> result = new FindResponseHandler<Object>(Object.class, mapper)
+				.success(HttpResponseStub.valueOf(200, "{\"docs\":[],\"bookmark\":\"nil\"}"));
+		assertTrue(result.isEmpty());
+		assertNull(result.getExecutionStats());
+	}
+
+	public static class Person extends CouchDbDocument {
+		private static final long serialVersionUID = 1L;
+		private String name;
+		private int age;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+	}
+
+	private String resource(String name) throws Exception {
+		InputStream in = getClass().getResourceAsStream(name);
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
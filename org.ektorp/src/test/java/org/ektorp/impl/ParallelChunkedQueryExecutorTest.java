@@ -0,0 +1,186 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.DbAccessException;
+import org.ektorp.QueryProfile;
+import org.ektorp.QueryProfileListener;
+import org.ektorp.SlowQueryRegistry;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.ResponseCallback;
+import org.ektorp.http.RestTemplate;
+import org.ektorp.http.StdResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ParallelChunkedQueryExecutorTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+	ExecutorService executorService;
+	EchoingRestTemplate restTemplate;
+	ParallelChunkedQueryExecutor executor;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newFixedThreadPool(4);
+		restTemplate = new EchoingRestTemplate();
+		executor = new ParallelChunkedQueryExecutor(restTemplate, executorService);
+		executor.setChunkSize(10);
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void rows_from_all_chunks_should_be_merged_in_key_order() {
+		ViewResult result = executor.executeQuery(createQuery(35), new ViewResultHandler());
+		assertEquals(4, restTemplate.posts.get());
+		assertEquals(35, result.getSize());
+		for (int i = 0; i < 35; i++) {
+			assertEquals("key" + i, result.getRows().get(i).getKey());
+		}
+		assertEquals(1000, result.getTotalRows());
+	}
+
+	@Test
+	public void small_key_sets_should_not_be_split() {
+		ViewResult result = executor.executeQuery(createQuery(10), new ViewResultHandler());
+		assertEquals(1, restTemplate.posts.get());
+		assertEquals(10, result.getSize());
+	}
+
+	@Test
+	public void queries_with_limit_should_not_be_split() {
+		executor.executeQuery(createQuery(35).limit(5), new ViewResultHandler());
+		assertEquals(1, restTemplate.posts.get());
+	}
+
+	@Test(expected = DbAccessException.class)
+	public void failing_chunk_should_fail_the_query() {
+		restTemplate.failOnKey = "key25";
+		executor.executeQuery(createQuery(35), new ViewResultHandler());
+	}
+
+	@Test
+	public void merged_result_should_be_parseable_by_query_result_parser() throws Exception {
+		List<JsonNode> rows = executor.executeQuery(createQuery(25),
+				new EmbeddedDocViewResponseHandler<JsonNode>(JsonNode.class, mapper));
+		assertEquals(25, rows.size());
+		assertTrue(rows.get(24).isInt());
+	}
+
+	@Test
+	public void split_query_should_be_profiled_as_one_query() {
+		final List<QueryProfile> profiles = new ArrayList<QueryProfile>();
+		executor.addProfileListener(new QueryProfileListener() {
+			public void queryCompleted(QueryProfile profile) {
+				profiles.add(profile);
+			}
+		});
+		executor.executeQuery(createQuery(35).label("lookup"),
+				new EmbeddedDocViewResponseHandler<JsonNode>(JsonNode.class, mapper));
+		assertEquals(1, profiles.size());
+		QueryProfile p = profiles.get(0);
+		assertEquals("_design/testdoc", p.getDesignDocId());
+		assertEquals("test_view", p.getViewName());
+		assertEquals("lookup", p.getLabel());
+		assertEquals(35, p.getRowsParsed());
+		assertEquals(0, p.getRowsSkipped());
+		assertTrue(p.getBytesReceived() > 0);
+		assertTrue(p.getTimeToFirstByteNanos() >= 0);
+		assertTrue(p.getTotalNanos() >= p.getParseNanos() + p.getBindNanos());
+		assertTrue(p.isSuccessful());
+	}
+
+	@Test
+	public void failed_query_should_be_profiled() {
+		SlowQueryRegistry registry = new SlowQueryRegistry(5);
+		executor.addProfileListener(registry);
+		restTemplate.failOnKey = "key3";
+		try {
+			executor.executeQuery(createQuery(5), new ViewResultHandler());
+		} catch (DbAccessException e) {
+			// expected
+		}
+		assertEquals(1, registry.getSlowest().size());
+		assertFalse(registry.getSlowest().get(0).isSuccessful());
+	}
+
+	private ViewQuery createQuery(int keyCount) {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < keyCount; i++) {
+			keys.add("key" + i);
+		}
+		return new ViewQuery()
+				.dbPath("/test_db/")
+				.designDocId("_design/testdoc")
+				.viewName("test_view")
+				.keys(keys);
+	}
+
+	private class ViewResultHandler extends StdResponseHandler<ViewResult> {
+		@Override
+		public ViewResult success(HttpResponse hr) throws Exception {
+			return new ViewResult(mapper.readTree(hr.getContent()), false);
+		}
+	}
+
+	/**
+	 * Responds to multiple-key queries with one row per posted key.
+	 */
+	private class EchoingRestTemplate extends RestTemplate {
+
+		final AtomicInteger posts = new AtomicInteger();
+		volatile String failOnKey;
+
+		EchoingRestTemplate() {
+			super(null);
+		}
+
+		@Override
+		public <T> T post(String path, HttpEntity httpEntity, ResponseCallback<T> callback) {
+			posts.incrementAndGet();
+			try {
+				JsonNode body = mapper.readTree(httpEntity.getContent());
+				ObjectNode result = mapper.createObjectNode();
+				result.put("total_rows", 1000);
+				result.put("offset", 0);
+				ArrayNode rows = result.putArray("rows");
+				int i = 0;
+				for (JsonNode key : body.get("keys")) {
+					if (key.textValue().equals(failOnKey)) {
+						return callback.error(HttpResponseStub.valueOf(500, "{\"error\":\"failed\"}"));
+					}
+					ObjectNode row = rows.addObject();
+					row.put("id", "doc" + i);
+					row.set("key", key);
+					row.put("value", i++);
+				}
+				return callback.success(HttpResponseStub.valueOf(200, mapper.writeValueAsString(result)));
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
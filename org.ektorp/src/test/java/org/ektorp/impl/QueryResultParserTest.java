@@ -3,13 +3,17 @@ package org.ektorp.impl;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ektorp.DbAccessException;
+import org.ektorp.QueryProfile;
 import org.ektorp.ViewResultException;
 import org.ektorp.support.CouchDbDocument;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -28,6 +32,19 @@ public class QueryResultParserTest {
 		assertEquals("doc_id2", result.get(1).getId());
 	}
 
+	@Test
+	public void rows_and_timings_should_be_recorded_in_profile() throws Exception {
+		QueryProfile profile = new QueryProfile("_design/testdoc", "test_view", null);
+		parser.setIgnoreNotFound(true);
+		parser.setQueryProfile(profile);
+		parser.parseResult(loadData("view_result_with_ignored_docs.json"));
+		assertEquals(3, parser.getRows().size());
+		assertEquals(8, profile.getRowsParsed());
+		assertEquals(5, profile.getRowsSkipped());
+		assertTrue(profile.getBindNanos() > 0);
+		assertTrue(profile.getParseNanos() > 0);
+	}
+
 	@Test
 	public void test_doc_in_value_field() throws Exception {
 		parser.parseResult(loadData("view_result_with_embedded_docs.json"));
@@ -96,6 +113,60 @@ public class QueryResultParserTest {
 		parser.parseResult(loadData("erroneous_cloudant_view_result.json"));
 	}
 
+	@Test
+	public void pipelined_binding_should_preserve_row_order() throws Exception {
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		try {
+			parser.setBindingExecutor(es, 7);
+			parser.parseResult(generateResult(1000));
+			List<TestDoc> result = parser.getRows();
+			assertEquals(999, result.size());
+			for (int i = 0; i < result.size(); i++) {
+				int n = i < 500 ? i : i + 1;
+				assertEquals("doc_" + n, result.get(i).getId());
+				assertEquals(n, result.get(i).getAge());
+			}
+			assertEquals("doc_0", parser.getFirstId());
+			assertEquals("doc_999", parser.getLastId());
+			assertEquals(999, parser.getLastKey().intValue());
+			assertEquals(1000, parser.getTotalRows());
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	@Test( expected = ViewResultException.class )
+	public void pipelined_binding_should_throw_on_error_row() throws Exception {
+		ExecutorService es = Executors.newFixedThreadPool(2);
+		try {
+			parser.setBindingExecutor(es, 2);
+			parser.parseResult(loadData("view_result_with_error.json"));
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	/**
+	 * include_docs result where row 500 refers to a deleted document.
+	 */
+	private InputStream generateResult(int rows) {
+		StringBuilder sb = new StringBuilder("{\"total_rows\":" + rows + ",\"offset\":0,\"rows\":[");
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":\"doc_").append(i).append("\",\"key\":").append(i).append(",\"value\":null,\"doc\":");
+			if (i == 500) {
+				sb.append("null}");
+			} else {
+				sb.append("{\"_id\":\"doc_").append(i).append("\",\"_rev\":\"1-x\",\"name\":\"n").append(i)
+					.append("\",\"age\":").append(i).append("}}");
+			}
+		}
+		sb.append("]}");
+		return new ByteArrayInputStream(sb.toString().getBytes());
+	}
+
 	private InputStream loadData(String name) throws JsonParseException, IOException {
 		return getClass().getResourceAsStream(name);
 	}
@@ -5,10 +5,12 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
 import org.apache.commons.io.input.ReaderInputStream;
 import org.ektorp.*;
 import org.ektorp.http.HttpResponse;
 import org.ektorp.http.HttpStatus;
+import org.ektorp.http.RestTemplate;
 import org.ektorp.http.StdHttpClient;
 import org.ektorp.support.CouchDbDocument;
 import org.ektorp.util.JSONComparator;
@@ -31,6 +33,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -363,6 +366,23 @@ public class StdCouchDbConnectorTest {
         assertEquals("doc_id2", result.getRows().get(1).getId());
     }
 
+    @Test
+    public void prepared_query_should_be_sent_with_prepared_query_string() {
+        PreparedViewQuery prepared = PreparedViewQuery.of(new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .includeDocs(true));
+        ViewQuery query = prepared.bind().key("key_value").limit(2).toQuery();
+        // a query built from its fields has the key first, a prepared query appends it to the prefix
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_included_docs.json")).when(httpClient)
+                .getUncached("/test_db/_design/testdoc/_view/test_view?include_docs=true&key=%22key_value%22&limit=2");
+
+        List<TestDoc> result = dbCon.queryView(query, TestDoc.class);
+
+        assertEquals(2, result.size());
+        assertEquals("/test_db/_design/testdoc/_view/test_view?include_docs=true&key=%22key_value%22&limit=2", query.buildQuery());
+    }
+
     @Test
     public void documents_embedded_in_view_result_should_be_read_directly() {
         ViewQuery query = new ViewQuery()
@@ -404,7 +424,244 @@ public class StdCouchDbConnectorTest {
     }
 
     @Test
-    public void queries_with_ignore_not_found() {
+    public void deduplicated_docs_should_be_fetched_once_and_joined_to_rows() throws IOException {
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("by_tag")
+                .deduplicateDocs(true);
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_repeated_ids.json")).when(httpClient).getUncached(anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "all_docs_result_with_deleted_doc.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        List<TestDoc> result = dbCon.queryView(query, TestDoc.class);
+
+        assertEquals(5, result.size());
+        assertEquals("doc_id1", result.get(0).getId());
+        assertEquals("doc_id2", result.get(1).getId());
+        assertSame(result.get(0), result.get(2));
+        assertSame(result.get(1), result.get(4));
+        verify(httpClient).getUncached(TEST_DB_PATH + "_design/testdoc/_view/by_tag");
+        ArgumentCaptor<HttpEntity> ac = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(httpClient).post(eq(TEST_DB_PATH + "_all_docs?include_docs=true"), ac.capture());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ac.getValue().writeTo(body);
+        assertEquals("{\"keys\":[\"doc_id1\",\"doc_id2\",\"doc_id3\"]}", body.toString("UTF-8"));
+    }
+
+    @Test
+    public void deduplicated_docs_should_be_joined_to_linked_documents() throws IOException {
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("orders")
+                .deduplicateDocs(true);
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_linked_docs.json")).when(httpClient).getUncached(anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "all_docs_result_with_deleted_doc.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        List<TestDoc> result = dbCon.queryView(query, TestDoc.class);
+
+        assertEquals(3, result.size());
+        assertEquals("doc_id1", result.get(0).getId());
+        assertEquals("doc_id2", result.get(1).getId());
+        assertSame(result.get(0), result.get(2));
+        ArgumentCaptor<HttpEntity> ac = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(httpClient).post(eq(TEST_DB_PATH + "_all_docs?include_docs=true"), ac.capture());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ac.getValue().writeTo(body);
+        assertEquals("{\"keys\":[\"doc_id1\",\"doc_id2\"]}", body.toString("UTF-8"));
+    }
+
+    @Test
+    public void deduplicated_docs_linking_a_revision_should_fall_back_to_include_docs() {
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("orders")
+                .deduplicateDocs(true);
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_linked_revision.json"))
+                .doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_included_docs.json"))
+                .when(httpClient).getUncached(anyString());
+
+        List<TestDoc> result = dbCon.queryView(query, TestDoc.class);
+
+        assertEquals(2, result.size());
+        assertEquals("doc_id1", result.get(0).getId());
+        assertEquals("rev1", result.get(0).getRevision());
+        verify(httpClient).getUncached(TEST_DB_PATH + "_design/testdoc/_view/orders");
+        verify(httpClient).getUncached(TEST_DB_PATH + "_design/testdoc/_view/orders?include_docs=true");
+        verify(httpClient, never()).post(anyString(), any(HttpEntity.class));
+    }
+
+    @Test(expected = ViewResultTooLargeException.class)
+    public void view_result_exceeding_size_limit_should_fail() {
+        ((StdCouchDbConnector) dbCon).setResultSizeLimit(new ResultSizeLimit().maxRows(1));
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).getUncached(anyString());
+
+        dbCon.queryView(query);
+    }
+
+    @Test
+    public void view_result_within_size_limit_should_be_returned() {
+        ((StdCouchDbConnector) dbCon).setResultSizeLimit(new ResultSizeLimit().maxRows(2));
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).getUncached(anyString());
+
+        ViewResult result = dbCon.queryView(query);
+        assertEquals(2, result.getSize());
+        assertEquals(1, result.getOffset());
+    }
+
+    @Test
+    public void find_should_post_query_to_find_endpoint() {
+        doReturn(ResponseOnFileStub.newInstance(200, "find_result.json")).when(httpClient).postUncached(anyString(), anyString());
+        FindQuery query = new FindQuery().selector("{\"age\":{\"$gt\":10}}").sort("age").limit(2);
+
+        FindResult<TestDoc> result = dbCon.find(query, TestDoc.class);
+
+        verify(httpClient).postUncached(TEST_DB_PATH + "_find", query.toJson(new ObjectMapper()));
+        assertEquals(2, result.getSize());
+        assertEquals("doc_id1", result.getDocs().get(0).getId());
+        assertEquals("kalle", result.getDocs().get(1).getName());
+        assertEquals("g1AAAABweJzLYWBgYMpgSmHgKy5JLCrJTq2MT8lPzkzJBYqzpKQWp", result.getBookmark());
+        assertNotNull(result.getWarning());
+    }
+
+    @Test
+    public void createIndex_should_post_index_definition() throws IOException {
+        doReturn(HttpResponseStub.valueOf(200, "{\"result\":\"created\",\"id\":\"_design/abc\",\"name\":\"type-age\"}"))
+                .when(httpClient).post(anyString(), anyString());
+
+        MangoIndex index = dbCon.createIndex(MangoIndex.on("type").fieldDescending("age").name("type-age"));
+
+        ArgumentCaptor<String> ac = ArgumentCaptor.forClass(String.class);
+        verify(httpClient).post(eq(TEST_DB_PATH + "_index"), ac.capture());
+        JsonNode body = new ObjectMapper().readTree(ac.getValue());
+        assertEquals("asc", body.path("index").path("fields").get(0).path("type").textValue());
+        assertEquals("desc", body.path("index").path("fields").get(1).path("age").textValue());
+        assertEquals("type-age", body.path("name").textValue());
+        assertEquals("json", body.path("type").textValue());
+        assertFalse(body.has("ddoc"));
+
+        assertEquals("_design/abc", index.getDesignDocId());
+        assertEquals("type-age", index.getName());
+        assertEquals(Arrays.asList("type", "age"), index.getFields());
+        assertTrue(index.isDescending("age"));
+    }
+
+    @Test
+    public void getIndexes_should_parse_index_definitions() {
+        doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":2,\"indexes\":["
+                + "{\"ddoc\":null,\"name\":\"_all_docs\",\"type\":\"special\",\"def\":{\"fields\":[{\"_id\":\"asc\"}]}},"
+                + "{\"ddoc\":\"_design/abc\",\"name\":\"type-age\",\"type\":\"json\","
+                + "\"def\":{\"fields\":[{\"type\":\"asc\"},{\"age\":\"desc\"}],\"partial_filter_selector\":{\"active\":true}}}]}"))
+                .when(httpClient).getUncached(anyString());
+
+        List<MangoIndex> indexes = dbCon.getIndexes();
+
+        verify(httpClient).getUncached(TEST_DB_PATH + "_index");
+        assertEquals(2, indexes.size());
+        assertNull(indexes.get(0).getDesignDocId());
+        assertEquals("special", indexes.get(0).getType());
+        MangoIndex index = indexes.get(1);
+        assertEquals("_design/abc", index.getDesignDocId());
+        assertEquals("type-age", index.getName());
+        assertEquals("json", index.getType());
+        assertEquals(Arrays.asList("type", "age"), index.getFields());
+        assertFalse(index.isDescending("type"));
+        assertTrue(index.isDescending("age"));
+        assertTrue(((JsonNode) index.getPartialFilterSelector()).path("active").booleanValue());
+    }
+
+    @Test
+    public void deleteIndex_should_delete_index_of_design_doc() {
+        doReturn(HttpResponseStub.valueOf(200, OK_RESPONSE)).when(httpClient).delete(anyString());
+
+        dbCon.deleteIndex("abc", "type-age");
+        dbCon.deleteIndex("_design/abc", "type-age");
+
+        verify(httpClient, times(2)).delete(TEST_DB_PATH + "_index/_design/abc/json/type-age");
+    }
+
+    @Test
+    public void projected_get_should_only_bind_requested_fields() {
+        setupGetDocResponse();
+        TestDoc doc = dbCon.getProjected("some_id", TestDoc.class, "/_id", "/name");
+        verify(httpClient).get("/test_db/some_id");
+        assertEquals("some_id", doc.getId());
+        assertEquals("nisse", doc.getName());
+        assertEquals(0, doc.getAge());
+        assertNull(doc.getRevision());
+    }
+
+    @Test
+    public void projected_view_should_only_bind_requested_fields_of_included_docs() {
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .includeDocs(true);
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_included_docs.json")).when(httpClient).getUncached(anyString());
+
+        List<TestDoc> result = dbCon.queryViewProjected(query, TestDoc.class, "/age");
+        assertEquals(2, result.size());
+        assertEquals(99, result.get(1).getAge());
+        assertNull(result.get(1).getName());
+        assertNull(result.get(1).getId());
+    }
+
+    @Test
+    public void current_revisions_should_be_fetched_in_one_request() throws IOException {
+        doReturn(ResponseOnFileStub.newInstance(200, "all_docs_revisions_result.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        Map<String, String> revs = dbCon.getCurrentRevisions(Arrays.asList("doc_id1", "doc_id2", "doc_id3", "doc_id4"));
+
+        assertEquals(2, revs.size());
+        assertEquals("1-rev1", revs.get("doc_id1"));
+        assertEquals("3-rev4", revs.get("doc_id4"));
+        assertFalse(revs.containsKey("doc_id3"));
+        ArgumentCaptor<HttpEntity> ac = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(httpClient).post(eq(TEST_DB_PATH + "_all_docs"), ac.capture());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ac.getValue().writeTo(body);
+        assertEquals("{\"keys\":[\"doc_id1\",\"doc_id2\",\"doc_id3\",\"doc_id4\"]}", body.toString("UTF-8"));
+    }
+
+    @Test
+    public void containsAll_should_be_false_if_any_doc_is_missing_or_deleted() {
+        doReturn(ResponseOnFileStub.newInstance(200, "all_docs_revisions_result.json"))
+                .doReturn(ResponseOnFileStub.newInstance(200, "all_docs_revisions_result.json"))
+                .when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        assertFalse(dbCon.containsAll(Arrays.asList("doc_id1", "doc_id3")));
+        assertTrue(dbCon.containsAll(Arrays.asList("doc_id1", "doc_id4")));
+        assertTrue(dbCon.containsAll(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void count_should_be_computed_from_offsets() {
+        ViewQuery query = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .key("a");
+
+        doReturn(ResponseOnFileStub.newInstance(200, "limit_zero_view_result.json")).when(httpClient).getUncached(anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "limit_zero_descending_view_result.json")).when(httpClient).getUncached(contains("descending=true"));
+
+        // 10 rows - 5 rows after "a" - 3 rows before "a"
+        assertEquals(2, dbCon.count(query));
+        verify(httpClient).getUncached(TEST_DB_PATH + "_design/testdoc/_view/test_view?startkey=%22a%22&limit=0&reduce=false");
+        verify(httpClient).getUncached(TEST_DB_PATH + "_design/testdoc/_view/test_view?startkey=%22a%22&limit=0&descending=true&reduce=false");
+    }
+
+    @Test
+    public void queries_with_ignore_not_found() throws IOException {
         ViewQuery query = new ViewQuery()
                 .dbPath(TEST_DB_PATH)
                 .designDocId("_design/testdoc")
@@ -413,7 +670,7 @@ public class StdCouchDbConnectorTest {
                 .keys(Arrays.asList("doc_id0", "doc_id1", "doc_id2", "doc_id3", "doc_id4", "doc_id5", "doc_id6"));
         query.setIgnoreNotFound(true);
 
-        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_ignored_docs.json")).when(httpClient).postUncached(anyString(), anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_ignored_docs.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
 
         List<TestDoc> result = dbCon.queryView(query, TestDoc.class);
 
@@ -422,11 +679,11 @@ public class StdCouchDbConnectorTest {
         assertEquals("doc_id1", result.get(0).getId());
         assertEquals("doc_id3", result.get(1).getId());
         assertEquals("doc_id6", result.get(2).getId());
-        verify(httpClient).postUncached(query.buildQuery(), query.getKeysAsJson());
+        verifyKeysPosted(query);
     }
 
     @Test
-    public void multiple_query_keys_should_be_posted() {
+    public void multiple_query_keys_should_be_posted() throws IOException {
         List<Object> keys = new ArrayList<Object>();
         keys.add("key1");
         keys.add("key2");
@@ -438,13 +695,13 @@ public class StdCouchDbConnectorTest {
                 .viewName("test_view")
                 .keys(keys);
 
-        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_embedded_docs.json")).when(httpClient).postUncached(anyString(), anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_embedded_docs.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
         dbCon.queryView(query, TestDoc.class);
-        verify(httpClient).postUncached(query.buildQuery(), query.getKeysAsJson());
+        verifyKeysPosted(query);
     }
 
     @Test
-    public void multiple_query_keys_should_be_posted_2() {
+    public void multiple_query_keys_should_be_posted_2() throws IOException {
         List<Object> keys = new ArrayList<Object>();
         keys.add("key1");
         keys.add("key2");
@@ -456,9 +713,9 @@ public class StdCouchDbConnectorTest {
                 .viewName("test_view")
                 .keys(keys);
 
-        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).postUncached(anyString(), anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
         dbCon.queryView(query);
-        verify(httpClient).postUncached(query.buildQuery(), query.getKeysAsJson());
+        verifyKeysPosted(query);
     }
 
     @Test
@@ -474,9 +731,88 @@ public class StdCouchDbConnectorTest {
                 .viewName("test_view")
                 .keys(keys);
 
-        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).postUncached(anyString(), anyString());
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
         dbCon.queryForStream(query).close();
-        verify(httpClient).postUncached(query.buildQuery(), query.getKeysAsJson());
+        verifyKeysPosted(query);
+    }
+
+    @Test
+    public void small_key_sets_should_be_sent_as_get_when_configured() {
+        DefaultQueryExecutor queryExecutor = new DefaultQueryExecutor(new RestTemplate(httpClient));
+        queryExecutor.setMaxKeysAsQueryParameter(3);
+        ((StdCouchDbConnector) dbCon).setQueryExecutor(queryExecutor);
+
+        ViewQuery query = new ViewQuery()
+                .dbPath(TEST_DB_PATH)
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .keys(Arrays.asList("key1", "key2", "key3"));
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result.json")).when(httpClient).getUncached(anyString());
+        dbCon.queryView(query);
+        verify(httpClient).getUncached(query.buildQueryWithKeysParameter());
+        assertTrue(query.buildQueryWithKeysParameter().endsWith("?keys=%5B%22key1%22%2C%22key2%22%2C%22key3%22%5D"));
+    }
+
+    @Test
+    public void multiple_queries_should_be_sent_in_one_request() throws IOException {
+        ViewQuery q1 = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .startKey("key1")
+                .limit(2);
+        ViewQuery q2 = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .keys(Arrays.asList("key3"))
+                .includeDocs(true);
+
+        doReturn(ResponseOnFileStub.newInstance(200, "multi_query_result.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        List<List<TestDoc>> result = dbCon.queryViews(Arrays.asList(q1, q2), TestDoc.class);
+
+        assertEquals(2, result.size());
+        assertEquals(2, result.get(0).size());
+        assertEquals("doc_id2", result.get(0).get(1).getId());
+        assertEquals("olle", result.get(1).get(0).name);
+
+        ArgumentCaptor<HttpEntity> ac = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(httpClient).post(eq(TEST_DB_PATH + "_design/testdoc/_view/test_view/queries"), ac.capture());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ac.getValue().writeTo(body);
+        assertEquals("{\"queries\":[{\"startkey\":\"key1\",\"limit\":2},{\"keys\":[\"key3\"],\"include_docs\":true}]}",
+                body.toString("UTF-8"));
+    }
+
+    @Test
+    public void multiple_queries_should_return_view_results() throws IOException {
+        ViewQuery q = new ViewQuery()
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        doReturn(ResponseOnFileStub.newInstance(200, "multi_query_result.json")).when(httpClient).post(anyString(), any(HttpEntity.class));
+
+        List<ViewResult> result = dbCon.queryViews(Arrays.asList(q, q.clone().descending(true)));
+
+        assertEquals(2, result.size());
+        assertEquals(2, result.get(0).getSize());
+        assertEquals(2, result.get(1).getOffset());
+        assertEquals("key3", result.get(1).getRows().get(0).getKey());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multiple_queries_must_target_the_same_view() {
+        dbCon.queryViews(Arrays.asList(
+                new ViewQuery().designDocId("_design/testdoc").viewName("test_view"),
+                new ViewQuery().designDocId("_design/testdoc").viewName("other_view")));
+    }
+
+    private void verifyKeysPosted(ViewQuery query) throws IOException {
+        ArgumentCaptor<HttpEntity> ac = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(httpClient).post(eq(query.buildQuery()), ac.capture());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ac.getValue().writeTo(body);
+        assertEquals(query.getKeysAsJson(), body.toString("UTF-8"));
     }
 
     @Test
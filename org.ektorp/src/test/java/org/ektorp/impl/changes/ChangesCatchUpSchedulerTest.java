@@ -0,0 +1,210 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ChangesCatchUpSchedulerTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbInstance dbInstance = new StdCouchDbInstance(server);
+	RecordingListener listener = new RecordingListener();
+	ChangesCatchUpScheduler scheduler;
+
+	@After
+	public void tearDown() {
+		if (scheduler != null) {
+			scheduler.stop();
+		}
+	}
+
+	@Test
+	public void changes_of_updated_databases_should_be_delivered() throws Exception {
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), listener, 2);
+		scheduler.start(null);
+		awaitFeedOpen();
+		server.addChange("a", "doc1");
+		server.addChange("b", "doc1");
+		server.addChange("a", "doc2");
+		waitFor(3);
+		assertEquals(Arrays.asList("a/doc1", "a/doc2"), listener.changesOf("a"));
+		assertEquals(Arrays.asList("b/doc1"), listener.changesOf("b"));
+		assertEquals("2", scheduler.getSince("a"));
+	}
+
+	@Test
+	public void catch_up_should_continue_from_where_previous_ended() throws Exception {
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), listener, 1);
+		scheduler.setBatchSize(2);
+		scheduler.setSince("a", "1");
+		scheduler.start("0");
+		for (int i = 1; i <= 5; i++) {
+			server.addChange("a", "doc" + i);
+		}
+		waitFor(4);
+		server.addChange("a", "doc6");
+		waitFor(5);
+		Thread.sleep(50);
+		assertEquals(Arrays.asList("a/doc2", "a/doc3", "a/doc4", "a/doc5", "a/doc6"), listener.changesOf("a"));
+	}
+
+	@Test
+	public void catch_up_with_seq_interval_should_continue_from_last_seq() throws Exception {
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().seqInterval(2).build(), listener, 1);
+		scheduler.setBatchSize(3);
+		scheduler.setRetryDelay(10, TimeUnit.MILLISECONDS);
+		scheduler.start("0");
+		for (int i = 1; i <= 5; i++) {
+			server.addChange("a", "doc" + i);
+		}
+		waitFor(5);
+		server.addChange("a", "doc6");
+		waitFor(6);
+		Thread.sleep(50);
+		assertEquals(Arrays.asList("a/doc1", "a/doc2", "a/doc3", "a/doc4", "a/doc5", "a/doc6"), listener.changesOf("a"));
+		assertEquals("6", scheduler.getSince("a"));
+	}
+
+	@Test
+	public void no_more_than_max_catch_ups_should_run_concurrently() throws Exception {
+		server.latencyMillis = 20;
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), listener, 2);
+		scheduler.start("0");
+		for (int i = 0; i < 10; i++) {
+			server.addChange("db" + i, "doc");
+		}
+		waitFor(10);
+		assertTrue("max in flight: " + server.maxInFlight.get(), server.maxInFlight.get() <= 2);
+	}
+
+	@Test
+	public void checkpoint_should_not_pass_an_update_that_is_not_caught_up() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), new DatabaseChangesListener() {
+			public void onChange(String dbName, DocumentChange change) {
+				if (dbName.equals("slow")) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				listener.onChange(dbName, change);
+			}
+		}, 2);
+		scheduler.start("0");
+		server.addChange("slow", "doc");
+		server.addChange("fast", "doc");
+		waitFor(1);
+		assertEquals(Arrays.asList("fast/doc"), listener.changesOf("fast"));
+		assertEquals("0", scheduler.getCheckpointSeq());
+
+		release.countDown();
+		waitFor(2);
+		for (int i = 0; i < 100 && scheduler.getPendingCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals("2", scheduler.getCheckpointSeq());
+	}
+
+	@Test
+	public void database_recreated_during_catch_up_should_be_read_from_the_start() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), new DatabaseChangesListener() {
+			public void onChange(String dbName, DocumentChange change) {
+				if (change.getId().equals("doc2")) {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				listener.onChange(dbName, change);
+			}
+		}, 2);
+		for (int i = 1; i <= 3; i++) {
+			server.addChange("a", "doc" + i);
+		}
+		scheduler.start("0");
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		assertEquals("1", scheduler.getSince("a"));
+
+		server.deleteDb("a");
+		for (int i = 0; i < 100 && scheduler.getSince("a") != null; i++) {
+			Thread.sleep(10);
+		}
+		assertNull(scheduler.getSince("a"));
+		server.addChange("a", "new1");
+		// updates are handled in order, so a's created update has been seen when b is caught up
+		server.addChange("b", "doc1");
+		waitFor(2);
+
+		release.countDown();
+		waitFor(4);
+		for (int i = 0; i < 100 && scheduler.getPendingCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList("a/doc1", "a/doc2", "a/new1"), listener.changesOf("a"));
+		assertEquals("1", scheduler.getSince("a"));
+	}
+
+	@Test
+	public void failed_catch_up_should_be_retried() throws Exception {
+		final List<String> failures = new CopyOnWriteArrayList<String>();
+		scheduler = new ChangesCatchUpScheduler(dbInstance, new ChangesCommand.Builder().build(), new DatabaseChangesListener() {
+			public void onChange(String dbName, DocumentChange change) {
+				if (failures.isEmpty()) {
+					failures.add(change.getId());
+					throw new IllegalStateException("failing on purpose");
+				}
+				listener.onChange(dbName, change);
+			}
+		}, 1);
+		scheduler.setRetryDelay(10, TimeUnit.MILLISECONDS);
+		scheduler.start("0");
+		server.addChange("a", "doc1");
+		waitFor(1);
+		assertEquals(Arrays.asList("doc1"), failures);
+		assertEquals(Arrays.asList("a/doc1"), listener.changesOf("a"));
+	}
+
+	private void awaitFeedOpen() throws InterruptedException {
+		for (int i = 0; i < 100 && server.openConnections() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, server.openConnections());
+	}
+
+	private void waitFor(int changes) throws InterruptedException {
+		for (int i = 0; i < 500 && listener.changes.size() < changes; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(changes, listener.changes.size());
+	}
+
+	static class RecordingListener implements DatabaseChangesListener {
+
+		final List<String> changes = new CopyOnWriteArrayList<String>();
+
+		public void onChange(String dbName, DocumentChange change) {
+			changes.add(dbName + "/" + change.getId());
+		}
+
+		List<String> changesOf(String dbName) {
+			List<String> result = new ArrayList<String>();
+			for (String c : changes) {
+				if (c.startsWith(dbName + "/")) {
+					result.add(c);
+				}
+			}
+			return result;
+		}
+	}
+}
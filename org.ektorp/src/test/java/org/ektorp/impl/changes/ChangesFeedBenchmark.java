@@ -0,0 +1,129 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.ResponseOnFileStub;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures changes per second per core of parsing a continuous changes feed with include_docs=true.
+ * Compares reading lines and parsing each line to a tree (how the feed used to be read) with the byte level parsing
+ * done by ContinuousChangesFeed and TypedContinuousChangesFeed. The parse loops run in the calling thread, so the
+ * figures are per core. Finally the whole feed is read through ContinuousChangesFeed and drained with nextBatch.
+ * Not a unit test, run the main method manually, preferably with a fixed heap size (e.g. -Xms1g -Xmx1g).
+ *
+ * Usage: ChangesFeedBenchmark [changes] [iterations]
+ */
+public class ChangesFeedBenchmark {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static void main(String[] args) throws Exception {
+		int changes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		byte[] feed = createFeed(changes);
+		System.out.println(String.format("feed size: %d changes, %d KB", changes, feed.length / 1024));
+
+		ContinuousChangesFeed treeFeed = new ContinuousChangesFeed("bench", emptyResponse());
+		TypedContinuousChangesFeed<Doc> typedFeed = new TypedContinuousChangesFeed<Doc>("bench", emptyResponse(), 1, MAPPER, Doc.class);
+
+		// warm up
+		for (int i = 0; i < 2; i++) {
+			readLines(feed);
+			readBytes(feed, treeFeed);
+			readBytes(feed, typedFeed);
+		}
+
+		long lines = 0, bytes = 0, typed = 0;
+		for (int i = 0; i < iterations; i++) {
+			long t0 = System.nanoTime();
+			readLines(feed);
+			long t1 = System.nanoTime();
+			readBytes(feed, treeFeed);
+			long t2 = System.nanoTime();
+			readBytes(feed, typedFeed);
+			long t3 = System.nanoTime();
+			lines += t1 - t0;
+			bytes += t2 - t1;
+			typed += t3 - t2;
+		}
+		long total = (long) changes * iterations;
+		System.out.println(String.format("changes/s/core  lines+readTree: %d, byte level tree: %d, byte level typed: %d",
+				perSecond(total, lines), perSecond(total, bytes), perSecond(total, typed)));
+
+		long t0 = System.nanoTime();
+		ContinuousChangesFeed f = new ContinuousChangesFeed("bench", ResponseOnFileStub.newInstance(200,
+				new ByteArrayInputStream(feed), "application/json", feed.length), 1000);
+		List<DocumentChange> batch = new ArrayList<DocumentChange>(1000);
+		int received = 0;
+		while (received < changes) {
+			batch.clear();
+			received += f.nextBatch(batch, 1000, 10, TimeUnit.SECONDS);
+		}
+		System.out.println(String.format("changes/s through ContinuousChangesFeed and nextBatch: %d",
+				perSecond(received, System.nanoTime() - t0)));
+	}
+
+	private static long readLines(byte[] feed) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(feed), "UTF-8"));
+		long hash = 0;
+		String line = reader.readLine();
+		while (line != null) {
+			if (line.length() > 0) {
+				hash += new StdDocumentChange(MAPPER.readTree(line)).getId().hashCode();
+			}
+			line = reader.readLine();
+		}
+		return hash;
+	}
+
+	private static long readBytes(byte[] feed, AbstractContinuousChangesFeed<?> parser) throws IOException {
+		JsonParser jp = MAPPER.getFactory().createParser(new ByteArrayInputStream(feed));
+		long hash = 0;
+		JsonToken token = jp.nextToken();
+		while (token != null) {
+			hash += parser.parseChange(jp).hashCode();
+			token = jp.nextToken();
+		}
+		jp.close();
+		return hash;
+	}
+
+	private static HttpResponse emptyResponse() {
+		return ResponseOnFileStub.newInstance(200, new ByteArrayInputStream(new byte[0]), "application/json", 0);
+	}
+
+	private static long perSecond(long count, long nanos) {
+		return count * 1000000000L / Math.max(nanos, 1);
+	}
+
+	private static byte[] createFeed(int changes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < changes; i++) {
+			String rev = "1-" + Integer.toHexString(i * 31);
+			out.write(String.format("{\"seq\":%d,\"id\":\"doc_%d\",\"changes\":[{\"rev\":\"%s\"}],"
+					+ "\"doc\":{\"_id\":\"doc_%d\",\"_rev\":\"%s\",\"name\":\"name of document %d\",\"age\":%d,\"tags\":[\"a\",\"b\",\"c\"]}}\n",
+					i + 1, i, rev, i, rev, i, i % 100).getBytes("UTF-8"));
+			if (i % 1000 == 0) {
+				// heartbeat
+				out.write('\n');
+			}
+		}
+		return out.toByteArray();
+	}
+
+	public static class Doc {
+		public String _id;
+		public String _rev;
+		public String name;
+		public int age;
+		public List<String> tags;
+	}
+}
@@ -0,0 +1,141 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.changes.*;
+import org.junit.*;
+
+public class ChangesFeedDispatcherTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	ChangesFeedDispatcher dispatcher = new ChangesFeedDispatcher(server, 3);
+
+	@Before
+	public void setUp() {
+		dispatcher.setPollInterval(5, 20, TimeUnit.MILLISECONDS);
+	}
+
+	@After
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void many_feeds_should_be_followed_by_few_threads() throws Exception {
+		server.latencyMillis = 1;
+		int dbCount = 200;
+		final CountDownLatch latch = new CountDownLatch(dbCount * 2);
+		final Map<String, List<String>> received = new ConcurrentHashMap<String, List<String>>();
+		for (int i = 0; i < dbCount; i++) {
+			final String db = "tenant_" + i;
+			server.addChange(db, "before_subscription");
+			received.put(db, Collections.synchronizedList(new ArrayList<String>()));
+			dispatcher.subscribe(db, new ChangesCommand.Builder().since(0).build(), new ChangesListener() {
+				public void onChange(DocumentChange change) {
+					received.get(db).add(change.getId());
+					latch.countDown();
+				}
+			});
+		}
+		for (int i = 0; i < dbCount; i++) {
+			server.addChange("tenant_" + i, "after_subscription");
+		}
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		for (List<String> ids : received.values()) {
+			assertEquals(Arrays.asList("before_subscription", "after_subscription"), ids);
+		}
+		assertTrue(server.maxInFlight.get() <= 3);
+	}
+
+	@Test
+	public void subscription_without_since_should_start_at_end_of_feed() throws Exception {
+		server.addChange("db", "old");
+		final BlockingQueue<String> ids = new LinkedBlockingQueue<String>();
+		ChangesFeedDispatcher.Subscription s = dispatcher.subscribe("db", new ChangesCommand.Builder().build(), new ChangesListener() {
+			public void onChange(DocumentChange change) {
+				ids.add(change.getId());
+			}
+		});
+		waitForSeq(s, "1");
+		server.addChange("db", "new");
+		assertEquals("new", ids.poll(10, TimeUnit.SECONDS));
+		waitForSeq(s, "2");
+		assertTrue(ids.isEmpty());
+	}
+
+	@Test
+	public void large_backlog_should_be_read_in_batches() throws Exception {
+		dispatcher.setBatchSize(10);
+		for (int i = 0; i < 95; i++) {
+			server.addChange("db", "doc" + i);
+		}
+		final CountDownLatch latch = new CountDownLatch(95);
+		dispatcher.subscribe("db", new ChangesCommand.Builder().since(0).build(), new ChangesListener() {
+			public void onChange(DocumentChange change) {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertTrue(server.requests.get() >= 10);
+	}
+
+	@Test
+	public void failing_listener_should_get_change_again() throws Exception {
+		server.addChange("db", "doc");
+		final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(1);
+		dispatcher.subscribe("db", new ChangesCommand.Builder().since(0).build(), new ChangesListener() {
+			public void onChange(DocumentChange change) {
+				ids.add(change.getId());
+				if (ids.size() == 1) {
+					throw new IllegalStateException("failing first time");
+				}
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("doc", "doc"), ids);
+	}
+
+	@Test
+	public void cancelled_subscription_should_not_be_polled() throws Exception {
+		ChangesFeedDispatcher.Subscription s = dispatcher.subscribe("db", new ChangesCommand.Builder().since(0).build(), new ChangesListener() {
+			public void onChange(DocumentChange change) {
+			}
+		});
+		s.cancel();
+		assertFalse(s.isActive());
+		Thread.sleep(50);
+		int requests = server.requests.get();
+		Thread.sleep(100);
+		assertEquals(requests, server.requests.get());
+	}
+
+	@Test
+	public void null_seqs_of_seq_interval_should_not_be_used_as_since() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			server.addChange("db", "doc" + i);
+		}
+		final BlockingQueue<String> ids = new LinkedBlockingQueue<String>();
+		ChangesFeedDispatcher.Subscription s = dispatcher.subscribe("db", new ChangesCommand.Builder().since(0).seqInterval(2).build(), new ChangesListener() {
+			public void onChange(DocumentChange change) {
+				ids.add(change.getId());
+			}
+		});
+		waitForSeq(s, "5");
+		server.addChange("db", "doc5");
+		waitForSeq(s, "6");
+		Thread.sleep(50);
+		assertEquals(Arrays.asList("doc0", "doc1", "doc2", "doc3", "doc4", "doc5"), new ArrayList<String>(ids));
+	}
+
+	private void waitForSeq(ChangesFeedDispatcher.Subscription s, String seq) throws InterruptedException {
+		for (int i = 0; i < 1000 && !seq.equals(s.getLastSeq()); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(seq, s.getLastSeq());
+	}
+}
@@ -0,0 +1,111 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.StreamingChangesResult;
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ChangesFeedMetricsTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+	RecordingMetricsListener listener = new RecordingMetricsListener();
+	ChangesFeed feed;
+
+	@After
+	public void tearDown() {
+		if (feed != null) {
+			feed.cancel();
+		}
+	}
+
+	@Test
+	public void feed_should_count_changes_and_bytes() throws Exception {
+		addChanges(3);
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).build());
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(feed.next(1, TimeUnit.SECONDS));
+		}
+		ChangesFeedMetrics m = feed.getMetrics();
+		assertEquals("db", m.getDbName());
+		assertEquals(3, m.getChangeCount());
+		assertTrue(m.getByteCount() > 0);
+		assertEquals(0, m.getQueueSize());
+		assertEquals("3", m.getLastSeq());
+		assertEquals(-1, m.getSequenceLag());
+	}
+
+	@Test
+	public void time_blocked_on_full_queue_should_be_measured() throws Exception {
+		addChanges(5);
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).queueCapacity(1).build());
+		Thread.sleep(100);
+		ChangesFeedMetrics m = feed.getMetrics();
+		assertEquals(1, m.getQueueSize());
+		assertTrue("blocked " + m.getBlockedMillis(), m.getBlockedMillis() >= 50);
+	}
+
+	@Test
+	public void reporter_should_compute_sequence_lag() throws Exception {
+		addChanges(5);
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).build());
+		feed.next(1, TimeUnit.SECONDS);
+		feed.next(1, TimeUnit.SECONDS);
+		new ChangesFeedMetricsReporter(feed, db, listener).report();
+		ChangesFeedMetrics m = listener.metrics.get(0);
+		assertEquals("2", m.getLastSeq());
+		assertEquals(3, m.getSequenceLag());
+	}
+
+	@Test
+	public void reporter_should_report_rates_of_each_interval() throws Exception {
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).build());
+		ChangesFeedMetricsReporter reporter = new ChangesFeedMetricsReporter(feed, null, listener);
+		reporter.start(20, TimeUnit.MILLISECONDS);
+		try {
+			for (int i = 0; i < 100 && listener.metrics.size() < 2; i++) {
+				Thread.sleep(10);
+			}
+		} finally {
+			reporter.stop();
+		}
+		assertTrue(listener.metrics.size() >= 2);
+		assertEquals(0.0, listener.metrics.get(1).getChangesPerSecond(), 0.0);
+		assertEquals(-1, listener.metrics.get(1).getSequenceLag());
+	}
+
+	@Test
+	public void streaming_result_should_count_changes() throws Exception {
+		addChanges(2);
+		StreamingChangesResult result = db.changesAsStream(new ChangesCommand.Builder().since(0).build());
+		List<String> ids = new ArrayList<String>();
+		for (DocumentChange c : result) {
+			ids.add(c.getId());
+		}
+		assertEquals(Arrays.asList("doc1", "doc2"), ids);
+		ChangesFeedMetrics m = result.getMetrics();
+		assertEquals(2, m.getChangeCount());
+		assertTrue(m.getByteCount() > 0);
+		assertEquals("2", m.getLastSeq());
+	}
+
+	private void addChanges(int count) {
+		for (int i = 1; i <= count; i++) {
+			server.addChange("db", "doc" + i);
+		}
+	}
+
+	static class RecordingMetricsListener implements ChangesFeedMetricsListener {
+
+		final List<ChangesFeedMetrics> metrics = new CopyOnWriteArrayList<ChangesFeedMetrics>();
+
+		public void onMetrics(ChangesFeedMetrics m) {
+			metrics.add(m);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ChangesFilterTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+
+	@Before
+	public void setUp() {
+		server.addChange("db", "a");
+		server.addChange("db", "b");
+		server.addChange("db", "c");
+	}
+
+	@Test
+	public void changes_should_post_doc_ids() {
+		List<DocumentChange> changes = db.changes(new ChangesCommand.Builder().docIds(Arrays.asList("a", "c")).build());
+		assertEquals(2, changes.size());
+		assertEquals("a", changes.get(0).getId());
+		assertEquals("c", changes.get(1).getId());
+		assertEquals("{\"doc_ids\":[\"a\",\"c\"]}", server.lastRequestBody);
+	}
+
+	@Test
+	public void changesFeed_should_post_doc_ids() throws InterruptedException {
+		ChangesFeed feed = db.changesFeed(new ChangesCommand.Builder().since(0).docIds(Arrays.asList("b")).build());
+		try {
+			assertEquals("b", feed.next(1, TimeUnit.SECONDS).getId());
+			server.addChange("db", "a");
+			server.addChange("db", "b");
+			assertEquals(5, feed.next(1, TimeUnit.SECONDS).getSequence());
+		} finally {
+			feed.cancel();
+		}
+	}
+
+	@Test
+	public void dispatcher_should_post_doc_ids() throws InterruptedException {
+		ChangesFeedDispatcher dispatcher = new ChangesFeedDispatcher(server, 1);
+		final BlockingQueue<String> ids = new LinkedBlockingQueue<String>();
+		try {
+			dispatcher.subscribe("db", new ChangesCommand.Builder().since(0).docIds(Arrays.asList("c")).build(), new ChangesListener() {
+				public void onChange(DocumentChange change) {
+					ids.add(change.getId());
+				}
+			});
+			assertEquals("c", ids.poll(10, TimeUnit.SECONDS));
+			assertNull(ids.poll(50, TimeUnit.MILLISECONDS));
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ChangesProcessorTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	CouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+	MemoryCheckpointStore store = new MemoryCheckpointStore();
+	RecordingListener listener = new RecordingListener();
+	ChangesProcessor processor;
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (processor != null) {
+			processor.stop(1, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void changes_of_a_document_should_be_processed_in_order() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			server.addChange("db", "doc" + (i % 10));
+		}
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 4);
+		processor.start();
+		listener.await(200);
+		waitForProcessed(200);
+		processor.stop(1, TimeUnit.SECONDS);
+
+		for (int i = 0; i < 10; i++) {
+			List<Integer> seqs = listener.seqsOf("doc" + i);
+			assertEquals(20, seqs.size());
+			for (int j = 1; j < seqs.size(); j++) {
+				assertTrue(seqs.get(j - 1) < seqs.get(j));
+			}
+		}
+		assertEquals(4, listener.threads.size());
+		assertEquals("200", store.seq);
+		assertEquals(200, processor.getProcessedCount());
+		assertEquals(0, processor.getPendingCount());
+		assertEquals(0, processor.getSequenceLag());
+	}
+
+	@Test
+	public void processing_should_resume_from_checkpoint() throws Exception {
+		server.addChange("db", "a");
+		server.addChange("db", "b");
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.start();
+		listener.await(2);
+		processor.stop(1, TimeUnit.SECONDS);
+		assertEquals("2", store.seq);
+
+		server.addChange("db", "c");
+		listener = new RecordingListener();
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.start();
+		listener.await(1);
+		Thread.sleep(50);
+		assertEquals(Arrays.asList("c"), listener.ids());
+	}
+
+	@Test
+	public void feed_should_be_reopened_when_connection_is_lost() throws Exception {
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.start();
+		server.addChange("db", "a");
+		listener.await(1);
+		server.dropConnections();
+		server.addChange("db", "b");
+		listener.await(2);
+		assertEquals(Arrays.asList("a", "b"), listener.ids());
+		assertTrue(processor.getReconnectCount() > 0);
+		assertEquals("2", processor.getLastReceivedSeq());
+	}
+
+	@Test
+	public void checkpoint_should_not_pass_unprocessed_change() throws Exception {
+		// a and b are in different partitions with two workers
+		server.addChange("db", "a");
+		server.addChange("db", "b");
+		listener.failing.add("a");
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.start();
+		listener.await(1);
+		waitForProcessed(1);
+		for (int i = 0; i < 100 && processor.getRetryCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList("b"), listener.ids());
+		processor.checkpoint();
+		assertNull(store.seq);
+
+		listener.failing.clear();
+		waitForProcessed(2);
+		processor.checkpoint();
+		assertEquals("2", store.seq);
+		assertTrue(processor.getRetryCount() > 0);
+	}
+
+	@Test
+	public void reading_should_pause_while_a_failing_change_holds_back_the_checkpoint() throws Exception {
+		server.addChange("db", "a");
+		for (int i = 0; i < 20; i++) {
+			server.addChange("db", "b" + i);
+		}
+		listener.failing.add("a");
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.setMaxUncheckpointedChanges(5);
+		processor.start();
+		for (int i = 0; i < 100 && processor.getRetryCount() < 3; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(5, processor.getReceivedCount());
+		assertNull(store.seq);
+
+		listener.failing.clear();
+		waitForProcessed(21);
+		processor.checkpoint();
+		assertEquals("21", store.seq);
+	}
+
+	@Test
+	public void changes_should_be_followed_from_the_current_end_when_there_is_no_checkpoint() throws Exception {
+		server.addChange("db", "old");
+		processor = newProcessor(new ChangesCommand.Builder().build(), 1);
+		processor.start();
+		for (int i = 0; i < 100 && server.openConnections() == 0; i++) {
+			Thread.sleep(10);
+		}
+		server.addChange("db", "new");
+		listener.await(1);
+		assertEquals(Arrays.asList("new"), listener.ids());
+	}
+
+	@Test
+	public void null_seqs_of_seq_interval_should_not_reset_checkpoint() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			server.addChange("db", "doc" + i);
+		}
+		processor = newProcessor(new ChangesCommand.Builder().since(0).seqInterval(3).build(), 2);
+		processor.start();
+		listener.await(5);
+		waitForProcessed(5);
+		processor.checkpoint();
+		// only the third change has a sequence
+		assertEquals("3", store.seq);
+		assertEquals("3", processor.getLastReceivedSeq());
+	}
+
+	@Test
+	public void last_seq_line_of_timed_out_feed_should_not_block_checkpoint() throws Exception {
+		server.addChange("db", "a");
+		processor = newProcessor(new ChangesCommand.Builder().since(0).build(), 2);
+		processor.start();
+		listener.await(1);
+		server.timeOutConnections();
+		for (int i = 0; i < 500 && server.continuousRequests.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		server.addChange("db", "b");
+		listener.await(2);
+		waitForProcessed(2);
+		processor.checkpoint();
+		assertEquals("2", store.seq);
+		assertEquals(Arrays.asList("a", "b"), listener.ids());
+	}
+
+	private void waitForProcessed(int count) throws InterruptedException {
+		for (int i = 0; i < 1000 && processor.getProcessedCount() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, processor.getProcessedCount());
+	}
+
+	private ChangesProcessor newProcessor(ChangesCommand cmd, int workers) {
+		ChangesProcessor p = new ChangesProcessor(db, cmd, store, listener, workers);
+		p.setBackoff(5, 20, TimeUnit.MILLISECONDS);
+		p.setCheckpointInterval(10, TimeUnit.MILLISECONDS);
+		return p;
+	}
+
+	static class MemoryCheckpointStore implements CheckpointStore {
+
+		volatile String seq;
+
+		public String load() {
+			return seq;
+		}
+
+		public void save(String seq) {
+			this.seq = seq;
+		}
+	}
+
+	static class RecordingListener implements ChangesListener {
+
+		final List<DocumentChange> changes = new ArrayList<DocumentChange>();
+		final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		public void onChange(DocumentChange change) {
+			threads.add(Thread.currentThread());
+			if (failing.contains(change.getId())) {
+				throw new IllegalStateException("simulated failure");
+			}
+			synchronized (this) {
+				changes.add(change);
+				notifyAll();
+			}
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 10000;
+			while (changes.size() < count && System.currentTimeMillis() < end) {
+				wait(100);
+			}
+			assertTrue(changes.size() >= count);
+		}
+
+		synchronized List<String> ids() {
+			List<String> ids = new ArrayList<String>();
+			for (DocumentChange c : changes) {
+				ids.add(c.getId());
+			}
+			return ids;
+		}
+
+		synchronized List<Integer> seqsOf(String id) {
+			List<Integer> seqs = new ArrayList<Integer>();
+			for (DocumentChange c : changes) {
+				if (c.getId().equals(id)) {
+					seqs.add(c.getSequence());
+				}
+			}
+			return seqs;
+		}
+	}
+}
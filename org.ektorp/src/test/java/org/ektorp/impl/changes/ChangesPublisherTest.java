@@ -0,0 +1,178 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ChangesPublisherTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+	RecordingSubscriber<DocumentChange> subscriber = new RecordingSubscriber<DocumentChange>();
+
+	@After
+	public void tearDown() {
+		if (subscriber.subscription != null) {
+			subscriber.subscription.cancel();
+		}
+	}
+
+	@Test
+	public void feed_should_not_be_opened_before_first_request() throws Exception {
+		server.addChange("db", "a");
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		assertNotNull(subscriber.subscription);
+		Thread.sleep(50);
+		assertEquals(0, server.continuousRequests.get());
+
+		subscriber.subscription.request(1);
+		assertEquals("a", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+		assertEquals(1, server.continuousRequests.get());
+	}
+
+	@Test
+	public void no_more_changes_than_requested_should_be_published() throws Exception {
+		for (String id : new String[] {"a", "b", "c", "d"}) {
+			server.addChange("db", id);
+		}
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		subscriber.subscription.request(2);
+		assertEquals("a", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+		assertEquals("b", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+		assertNull(subscriber.items.poll(100, TimeUnit.MILLISECONDS));
+
+		subscriber.subscription.request(1);
+		assertEquals("c", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+	}
+
+	@Test
+	public void cancel_should_close_connection() throws Exception {
+		server.addChange("db", "a");
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals("a", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+		assertEquals(1, server.openConnections());
+
+		subscriber.subscription.cancel();
+		for (int i = 0; i < 100 && server.openConnections() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, server.openConnections());
+		server.addChange("db", "b");
+		assertNull(subscriber.items.poll(100, TimeUnit.MILLISECONDS));
+		assertFalse(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void batches_should_hold_arrived_changes_up_to_max_batch_size() throws Exception {
+		for (String id : new String[] {"a", "b", "c", "d", "e"}) {
+			server.addChange("db", id);
+		}
+		RecordingSubscriber<List<DocumentChange>> batches = new RecordingSubscriber<List<DocumentChange>>();
+		db.batchedChangesPublisher(new ChangesCommand.Builder().since(0).build(), 3).subscribe(batches);
+		try {
+			batches.subscription.request(2);
+			assertEquals(Arrays.asList("a", "b", "c"), ids(batches.items.poll(5, TimeUnit.SECONDS)));
+			assertEquals(Arrays.asList("d", "e"), ids(batches.items.poll(5, TimeUnit.SECONDS)));
+		} finally {
+			batches.subscription.cancel();
+		}
+	}
+
+	@Test
+	public void non_positive_request_should_signal_error() throws Exception {
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void error_should_be_signalled_once_when_request_races_a_failure() throws Exception {
+		final CountDownLatch inOnError = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger errors = new AtomicInteger();
+		subscriber = new RecordingSubscriber<DocumentChange>() {
+			@Override
+			public void onNext(DocumentChange item) {
+				throw new IllegalStateException("failing on purpose");
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				errors.incrementAndGet();
+				inOnError.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				super.onError(throwable);
+			}
+		};
+		server.addChange("db", "a");
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		subscriber.subscription.request(1);
+		assertTrue(inOnError.await(5, TimeUnit.SECONDS));
+		subscriber.subscription.request(0);
+		release.countDown();
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(1, errors.get());
+		assertTrue(subscriber.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void end_of_feed_should_complete_subscription() throws Exception {
+		server.addChange("db", "a");
+		db.changesPublisher(new ChangesCommand.Builder().since(0).build()).subscribe(subscriber);
+		subscriber.subscription.request(10);
+		assertEquals("a", subscriber.items.poll(5, TimeUnit.SECONDS).getId());
+		server.dropConnections();
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	private static List<String> ids(List<DocumentChange> changes) {
+		List<String> ids = new ArrayList<String>();
+		for (DocumentChange c : changes) {
+			ids.add(c.getId());
+		}
+		return ids;
+	}
+
+	static class RecordingSubscriber<T> implements ChangesSubscriber<T> {
+
+		final BlockingQueue<T> items = new LinkedBlockingQueue<T>();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile ChangesSubscription subscription;
+		volatile boolean completed;
+		volatile Throwable error;
+
+		public void onSubscribe(ChangesSubscription subscription) {
+			this.subscription = subscription;
+		}
+
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package org.ektorp.impl.changes;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.http.*;
+import org.ektorp.impl.HttpResponseStub;
+import org.ektorp.impl.ResponseOnFileStub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * In-memory stand-in for the normal and continuous _changes feeds (with the _doc_ids filter), the db info and the
+ * _local documents of any number of databases, and for the continuous _db_updates feed.
+ *
+ * Documents stored with putDoc are served by _revs_diff and _bulk_get and documents can be written with
+ * _bulk_docs?new_edits=false, which is what a replicator needs. Every instance has a server uuid of its own.
+ */
+public class ChangesServerStub implements HttpClient {
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+	private final static String DB_UPDATES = "_db_updates";
+
+	private final Map<String, List<String>> changes = new HashMap<String, List<String>>();
+	private final Map<String, ObjectNode> localDocs = new HashMap<String, ObjectNode>();
+	private final List<ContinuousStream> openStreams = new ArrayList<ContinuousStream>();
+	// revisions by rev of each document, by db/id
+	private final Map<String, Map<String, ObjectNode>> docs = new HashMap<String, Map<String, ObjectNode>>();
+	private final String uuid = UUID.randomUUID().toString().replace("-", "");
+	final AtomicInteger continuousRequests = new AtomicInteger();
+	volatile String lastRequestBody;
+	final AtomicInteger requests = new AtomicInteger();
+	final AtomicInteger inFlight = new AtomicInteger();
+	final AtomicInteger maxInFlight = new AtomicInteger();
+	volatile long latencyMillis;
+
+	public synchronized int addChange(String db, String docId) {
+		return addChange(db, docId, "1-" + (dbChanges(db).size() + 1), false);
+	}
+
+	private int addChange(String db, String docId, String rev, boolean deleted) {
+		List<String> dbChanges = dbChanges(db);
+		int seq = dbChanges.size() + 1;
+		dbChanges.add(String.format("{\"seq\":%d,\"id\":\"%s\",\"changes\":[{\"rev\":\"%s\"}]%s}", seq, docId, rev,
+				deleted ? ",\"deleted\":true" : ""));
+		addDbUpdate(db, seq == 1 ? "created" : "updated");
+		notifyAll();
+		return seq;
+	}
+	/**
+	 * Stores a new revision of a document, as a child of its latest revision.
+	 * @param json the body of the document, may contain _deleted and inline _attachments
+	 * @return the new revision
+	 */
+	public synchronized String putDoc(String db, String id, String json) {
+		ObjectNode doc;
+		try {
+			doc = (ObjectNode) MAPPER.readTree(json);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		ObjectNode parent = getDocNode(db, id);
+		int generation = parent != null ? parent.get("_revisions").get("start").intValue() + 1 : 1;
+		String hash = Integer.toHexString((id + generation + json).hashCode());
+		doc.put("_id", id);
+		doc.put("_rev", generation + "-" + hash);
+		ObjectNode revisions = doc.putObject("_revisions");
+		revisions.put("start", generation);
+		revisions.putArray("ids").add(hash);
+		if (parent != null) {
+			revisions.withArray("ids").addAll((ArrayNode) parent.get("_revisions").get("ids"));
+		}
+		storeRevision(db, doc);
+		return doc.get("_rev").textValue();
+	}
+	/**
+	 * @return the latest revision of the document, with _revisions, null if it does not exist
+	 */
+	public synchronized String getDoc(String db, String id) {
+		ObjectNode doc = getDocNode(db, id);
+		return doc != null ? doc.toString() : null;
+	}
+
+	private ObjectNode getDocNode(String db, String id) {
+		Map<String, ObjectNode> revs = docs.get(db + "/" + id);
+		if (revs == null) {
+			return null;
+		}
+		ObjectNode latest = null;
+		for (ObjectNode doc : revs.values()) {
+			if (latest == null || doc.get("_revisions").get("start").intValue() > latest.get("_revisions").get("start").intValue()) {
+				latest = doc;
+			}
+		}
+		return latest;
+	}
+
+	private void storeRevision(String db, ObjectNode doc) {
+		String id = doc.get("_id").textValue();
+		Map<String, ObjectNode> revs = docs.get(db + "/" + id);
+		if (revs == null) {
+			revs = new HashMap<String, ObjectNode>();
+			docs.put(db + "/" + id, revs);
+		}
+		String rev = doc.get("_rev").textValue();
+		revs.put(rev, doc);
+		addChange(db, id, rev, doc.path("_deleted").asBoolean());
+	}
+
+	private synchronized HttpResponse revsDiff(String db, String content) throws IOException {
+		ObjectNode result = MAPPER.createObjectNode();
+		Iterator<Map.Entry<String, JsonNode>> i = MAPPER.readTree(content).fields();
+		while (i.hasNext()) {
+			Map.Entry<String, JsonNode> e = i.next();
+			Map<String, ObjectNode> revs = docs.get(db + "/" + e.getKey());
+			for (JsonNode rev : e.getValue()) {
+				if (revs == null || !revs.containsKey(rev.textValue())) {
+					result.with(e.getKey()).withArray("missing").add(rev.textValue());
+				}
+			}
+		}
+		return HttpResponseStub.valueOf(200, result.toString());
+	}
+
+	private synchronized HttpResponse bulkGet(String db, String content) throws IOException {
+		ObjectNode result = MAPPER.createObjectNode();
+		for (JsonNode request : MAPPER.readTree(content).get("docs")) {
+			String id = request.get("id").textValue();
+			String rev = request.get("rev").textValue();
+			Map<String, ObjectNode> revs = docs.get(db + "/" + id);
+			ObjectNode entry = result.withArray("results").addObject();
+			entry.put("id", id);
+			ObjectNode doc = entry.putArray("docs").addObject();
+			if (revs != null && revs.containsKey(rev)) {
+				doc.set("ok", revs.get(rev));
+			} else {
+				doc.putObject("error").put("id", id).put("rev", rev).put("error", "not_found").put("reason", "missing");
+			}
+		}
+		return HttpResponseStub.valueOf(200, result.toString());
+	}
+
+	private synchronized HttpResponse bulkDocs(String db, String content) throws IOException {
+		JsonNode request = MAPPER.readTree(content);
+		if (request.path("new_edits").asBoolean(true)) {
+			throw new UnsupportedOperationException("only new_edits=false is supported");
+		}
+		for (JsonNode doc : request.get("docs")) {
+			storeRevision(db, (ObjectNode) doc);
+		}
+		return HttpResponseStub.valueOf(201, "[]");
+	}
+	/**
+	 * Removes the database and its changes, as seen from the _changes and _db_updates feeds.
+	 */
+	public synchronized void deleteDb(String db) {
+		changes.remove(db);
+		addDbUpdate(db, "deleted");
+		notifyAll();
+	}
+
+	private void addDbUpdate(String db, String type) {
+		List<String> dbUpdates = dbChanges(DB_UPDATES);
+		dbUpdates.add(String.format("{\"db_name\":\"%s\",\"type\":\"%s\",\"seq\":\"%d\"}", db, type, dbUpdates.size() + 1));
+	}
+	/**
+	 * Ends all open continuous feeds as if the server had closed the connections.
+	 */
+	public synchronized void dropConnections() {
+		for (ContinuousStream s : openStreams) {
+			s.closed = true;
+		}
+		openStreams.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Ends all open continuous feeds with a last_seq line, as the server does when the timeout of a feed has passed.
+	 */
+	public synchronized void timeOutConnections() {
+		for (ContinuousStream s : openStreams) {
+			s.timedOut = true;
+		}
+		openStreams.clear();
+		notifyAll();
+	}
+
+	public synchronized int openConnections() {
+		return openStreams.size();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	public void setLatencyMillis(long millis) {
+		latencyMillis = millis;
+	}
+
+	public synchronized String getLocalDoc(String db, String id) {
+		ObjectNode doc = localDocs.get(db + "/" + id);
+		return doc != null ? doc.toString() : null;
+	}
+
+	public HttpResponse getUncached(String uri) {
+		return handle(uri, null);
+	}
+
+	private HttpResponse handle(String uri, Set<String> docIds) {
+		requestStarted();
+		try {
+			if (uri.contains("feed=continuous")) {
+				return respondContinuous(uri, docIds);
+			}
+			return respond(uri, docIds);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	private void requestStarted() {
+		requests.incrementAndGet();
+		int n = inFlight.incrementAndGet();
+		while (true) {
+			int max = maxInFlight.get();
+			if (n <= max || maxInFlight.compareAndSet(max, n)) {
+				break;
+			}
+		}
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				inFlight.decrementAndGet();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private HttpResponse handlePost(String uri, String content) {
+		String db = uri.substring(1, uri.indexOf('/', 1));
+		if (uri.contains("/_revs_diff") || uri.contains("/_bulk_get") || uri.contains("/_bulk_docs")) {
+			requestStarted();
+			try {
+				if (uri.contains("/_revs_diff")) {
+					return revsDiff(db, content);
+				}
+				if (uri.contains("/_bulk_get")) {
+					return bulkGet(db, content);
+				}
+				return bulkDocs(db, content);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+		return postChanges(uri, content);
+	}
+
+	private synchronized HttpResponse respond(String uri, Set<String> docIds) throws IOException {
+		int local = uri.indexOf("/_local/");
+		if (local != -1) {
+			ObjectNode doc = localDocs.get(uri.substring(1, local) + "/" + uri.substring(local + 1));
+			return doc != null ? HttpResponseStub.valueOf(200, doc.toString()) : HttpResponseStub.valueOf(404, "{\"error\":\"not_found\"}");
+		}
+		if (uri.equals("/")) {
+			return HttpResponseStub.valueOf(200, String.format("{\"couchdb\":\"Welcome\",\"uuid\":\"%s\"}", uuid));
+		}
+		int q = uri.indexOf("/_changes");
+		if (q == -1) {
+			String db = uri.substring(1).replace("/", "");
+			return HttpResponseStub.valueOf(200, String.format("{\"db_name\":\"%s\",\"update_seq\":%d}", db, dbChanges(db).size()));
+		}
+		String db = uri.substring(1, q);
+		Map<String, String> params = params(uri);
+		List<String> dbChanges = dbChanges(db);
+		int from = from(params, dbChanges);
+		int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+		int seqInterval = seqInterval(params);
+		StringBuilder sb = new StringBuilder("{\"results\":[");
+		int to = from;
+		int count = 0;
+		while (to < dbChanges.size() && count < limit) {
+			String change = dbChanges.get(to++);
+			if (matches(change, docIds)) {
+				sb.append(count++ > 0 ? "," : "").append(withSeqInterval(change, count, seqInterval));
+			}
+		}
+		sb.append("],\"last_seq\":").append(to).append(",\"pending\":").append(dbChanges.size() - to).append("}");
+		return HttpResponseStub.valueOf(200, sb.toString());
+	}
+
+	private synchronized HttpResponse respondContinuous(String uri, Set<String> docIds) throws UnsupportedEncodingException {
+		continuousRequests.incrementAndGet();
+		String db = uri.startsWith("/" + DB_UPDATES) ? DB_UPDATES : uri.substring(1, uri.indexOf("/_changes"));
+		Map<String, String> params = params(uri);
+		ContinuousStream s = new ContinuousStream(dbChanges(db), from(params, dbChanges(db)), docIds, seqInterval(params));
+		openStreams.add(s);
+		return ResponseOnFileStub.newInstance(200, s, "application/json", -1);
+	}
+
+	private static int seqInterval(Map<String, String> params) {
+		return params.containsKey("seq_interval") ? Integer.parseInt(params.get("seq_interval")) : 1;
+	}
+	/**
+	 * Like CouchDB, only every seqInterval:th change gets a sequence, the others have "seq":null. Unlike CouchDB, the
+	 * last change of a response is not given one, so that clients have to use last_seq.
+	 */
+	private static String withSeqInterval(String change, int number, int seqInterval) {
+		return number % seqInterval == 0 ? change : change.replaceFirst("\"seq\":\\d+", "\"seq\":null");
+	}
+
+	private static boolean matches(String change, Set<String> docIds) throws IOException {
+		return docIds == null || docIds.contains(MAPPER.readTree(change).get("id").textValue());
+	}
+
+	private HttpResponse postChanges(String uri, String content) {
+		lastRequestBody = content;
+		if (!uri.contains("filter=_doc_ids")) {
+			throw new UnsupportedOperationException();
+		}
+		Set<String> docIds = new HashSet<String>();
+		try {
+			for (JsonNode id : MAPPER.readTree(content).get("doc_ids")) {
+				docIds.add(id.textValue());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return handle(uri, docIds);
+	}
+
+	private List<String> dbChanges(String db) {
+		List<String> dbChanges = changes.get(db);
+		if (dbChanges == null) {
+			dbChanges = new ArrayList<String>();
+			changes.put(db, dbChanges);
+		}
+		return dbChanges;
+	}
+
+	private Map<String, String> params(String uri) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		int qs = uri.indexOf('?');
+		if (qs != -1) {
+			for (String kv : uri.substring(qs + 1).split("&")) {
+				String[] a = kv.split("=", 2);
+				params.put(a[0], URLDecoder.decode(a[1], "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private int from(Map<String, String> params, List<String> dbChanges) {
+		String since = params.get("since");
+		return since == null ? 0 : "now".equals(since) ? dbChanges.size() : Integer.parseInt(since);
+	}
+
+	private synchronized HttpResponse putLocal(String uri, String content) throws IOException {
+		int local = uri.indexOf("/_local/");
+		String key = uri.substring(1, local) + "/" + uri.substring(local + 1);
+		ObjectNode doc = (ObjectNode) MAPPER.readTree(content);
+		ObjectNode current = localDocs.get(key);
+		String currentRev = current != null ? current.get("_rev").textValue() : null;
+		String rev = doc.has("_rev") ? doc.get("_rev").textValue() : null;
+		if (currentRev == null ? rev != null : !currentRev.equals(rev)) {
+			return HttpResponseStub.valueOf(409, "{\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}");
+		}
+		int generation = currentRev == null ? 1 : Integer.parseInt(currentRev.substring(2)) + 1;
+		String newRev = "0-" + generation;
+		doc.put("_rev", newRev);
+		localDocs.put(key, doc);
+		return HttpResponseStub.valueOf(201, String.format("{\"ok\":true,\"id\":\"%s\",\"rev\":\"%s\"}", doc.get("_id").textValue(), newRev));
+	}
+
+	/**
+	 * Streams the changes of a database from a position, blocking for new changes until closed.
+	 */
+	class ContinuousStream extends InputStream {
+
+		private final List<String> dbChanges;
+		private final Set<String> docIds;
+		private final int seqInterval;
+		private int next;
+		private int sent;
+		private byte[] buffer = new byte[0];
+		private int pos;
+		volatile boolean closed;
+		volatile boolean timedOut;
+
+		ContinuousStream(List<String> dbChanges, int from, Set<String> docIds, int seqInterval) {
+			this.dbChanges = dbChanges;
+			this.docIds = docIds;
+			this.seqInterval = seqInterval;
+			this.next = from;
+		}
+
+		private boolean fill() throws IOException {
+			if (pos < buffer.length) {
+				return true;
+			}
+			synchronized (ChangesServerStub.this) {
+				try {
+					while (!closed) {
+						// everything available is sent at once, like changes arriving in one packet
+						StringBuilder sb = new StringBuilder();
+						while (next < dbChanges.size()) {
+							String change = dbChanges.get(next++);
+							if (matches(change, docIds)) {
+								sb.append(withSeqInterval(change, ++sent, seqInterval)).append('\n');
+							}
+						}
+						if (timedOut) {
+							sb.append("{\"last_seq\":").append(next).append("}\n");
+							closed = true;
+						}
+						if (sb.length() > 0) {
+							buffer = sb.toString().getBytes("UTF-8");
+							pos = 0;
+							return true;
+						}
+						ChangesServerStub.this.wait();
+					}
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				return false;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? buffer[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.length - pos);
+			System.arraycopy(buffer, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			synchronized (ChangesServerStub.this) {
+				closed = true;
+				openStreams.remove(this);
+				ChangesServerStub.this.notifyAll();
+			}
+		}
+	}
+
+	public HttpResponse get(String uri) {
+		return getUncached(uri);
+	}
+
+	public HttpResponse get(String uri, Map<String, String> headers) {
+		return getUncached(uri);
+	}
+
+	public HttpResponse put(String uri, String content) {
+		if (!uri.contains("/_local/")) {
+			throw new UnsupportedOperationException();
+		}
+		try {
+			return putLocal(uri, content);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public HttpResponse put(String uri) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse put(String uri, InputStream data, String contentType, long contentLength) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse put(String uri, HttpEntity httpEntity) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse post(String uri, String content) {
+		return handlePost(uri, content);
+	}
+
+	public HttpResponse post(String uri, InputStream content) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse post(String uri, HttpEntity httpEntity) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse delete(String uri) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse head(String uri) {
+		throw new UnsupportedOperationException();
+	}
+
+	public HttpResponse postUncached(String uri, String content) {
+		return handlePost(uri, content);
+	}
+
+	public HttpResponse copy(String sourceUri, String destination) {
+		throw new UnsupportedOperationException();
+	}
+
+	public void shutdown() {
+	}
+}
@@ -3,12 +3,15 @@ package org.ektorp.impl.changes;
 import static org.junit.Assert.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 import org.ektorp.changes.*;
 import org.ektorp.impl.ResponseOnFileStub;
 import org.junit.*;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class ContinuousChangesFeedTest {
 	
 	ContinuousChangesFeed feed;
@@ -19,11 +22,7 @@ public class ContinuousChangesFeedTest {
 	
 	@Before
 	public void setUp() throws Exception {
-		PipedInputStream in = new PipedInputStream();
-		PipedOutputStream out = new PipedOutputStream(in);
-		writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-		
-		testStream = new TestStream(in);
+		openStream();
 		feed = new ContinuousChangesFeed("testDB", ResponseOnFileStub.newInstance(200, testStream, "application/json", change.length()));
 	}
 
@@ -35,6 +34,84 @@ public class ContinuousChangesFeedTest {
 		assertNotNull(c);
 	}
 
+	@Test
+	public void change_arriving_in_pieces_between_heartbeats_should_be_parsed() throws IOException, InterruptedException {
+		writeHeartbeat();
+		writer.write(change.substring(0, 20));
+		writer.flush();
+		Thread.sleep(50);
+		assertEquals(0, feed.queueSize());
+		writer.write(change.substring(20));
+		writer.newLine();
+		writeHeartbeat();
+		writeChange();
+
+		DocumentChange c = feed.next(1, TimeUnit.SECONDS);
+		assertEquals("test", c.getId());
+		assertEquals("1-aaa8e2a031bca334f50b48b6682fb486", c.getRevision());
+		assertNotNull(feed.next(1, TimeUnit.SECONDS));
+		assertEquals(0, feed.queueSize());
+		assertTrue(feed.isAlive());
+	}
+
+	@Test
+	public void nextBatch_should_drain_available_changes() throws IOException, InterruptedException {
+		writeChange();
+		writeChange();
+		writeChange();
+		waitForQueueSize(3);
+
+		List<DocumentChange> batch = new ArrayList<DocumentChange>();
+		assertEquals(2, feed.nextBatch(batch, 2, 1, TimeUnit.SECONDS));
+		assertEquals(2, batch.size());
+		assertEquals(1, feed.nextBatch(batch, 10, 1, TimeUnit.SECONDS));
+		assertEquals(3, batch.size());
+		assertEquals(0, feed.nextBatch(batch, 10, 10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void reading_should_pause_when_queue_is_full() throws Exception {
+		feed.cancel();
+		openStream();
+		feed = new ContinuousChangesFeed("testDB", ResponseOnFileStub.newInstance(200, testStream, "application/json", change.length()), 2);
+		writeChange();
+		writeChange();
+		writeChange();
+		waitForQueueSize(2);
+		Thread.sleep(50);
+		assertEquals(2, feed.queueSize());
+		assertNotNull(feed.next());
+		waitForQueueSize(2);
+	}
+
+	@Test
+	public void typed_feed_should_bind_docs() throws Exception {
+		feed.cancel();
+		openStream();
+		TypedContinuousChangesFeed<Map> typedFeed = new TypedContinuousChangesFeed<Map>("testDB",
+				ResponseOnFileStub.newInstance(200, testStream, "application/json", change.length()), 10, new ObjectMapper(), Map.class);
+		writer.write("{\"seq\":\"12-g1AAAA\",\"id\":\"doc_id\",\"changes\":[{\"rev\":\"2-bbb\"},{\"rev\":\"1-aaa\"}],\"doc\":{\"_id\":\"doc_id\",\"name\":\"x\"}}");
+		writer.newLine();
+		writer.write("{\"seq\":13,\"id\":\"gone\",\"changes\":[{\"rev\":\"3-ccc\"}],\"deleted\":true,\"doc\":null}");
+		writer.newLine();
+		writer.flush();
+
+		TypedChange<Map> c = typedFeed.next(1, TimeUnit.SECONDS);
+		assertEquals("12-g1AAAA", c.getStringSequence());
+		assertEquals("doc_id", c.getId());
+		assertEquals("2-bbb", c.getRevision());
+		assertEquals(Arrays.asList("2-bbb", "1-aaa"), c.getRevisions());
+		assertFalse(c.isDeleted());
+		assertEquals("x", c.getDoc().get("name"));
+
+		c = typedFeed.next(1, TimeUnit.SECONDS);
+		assertEquals(13, c.getSequence());
+		assertEquals("13", c.getStringSequence());
+		assertTrue(c.isDeleted());
+		assertNull(c.getDoc());
+		typedFeed.cancel();
+	}
+
 	@Test
 	public void test_heartbeat() throws IOException, InterruptedException {
 		writeHeartbeat();
@@ -93,6 +170,20 @@ public class ContinuousChangesFeedTest {
 		assertFalse(feed.isAlive());
 	}
 	
+	private void openStream() throws IOException {
+		PipedInputStream in = new PipedInputStream();
+		PipedOutputStream out = new PipedOutputStream(in);
+		writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		testStream = new TestStream(in);
+	}
+
+	private void waitForQueueSize(int size) throws InterruptedException {
+		for (int i = 0; i < 100 && feed.queueSize() < size; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(size, feed.queueSize());
+	}
+
 	private void writeChange() throws IOException {
 		writer.write(change);
 		writer.newLine();
@@ -0,0 +1,55 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ContinuousDbUpdatesFeedTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbInstance dbInstance = new StdCouchDbInstance(server);
+	DbUpdatesFeed feed;
+
+	@After
+	public void tearDown() {
+		if (feed != null) {
+			feed.cancel();
+		}
+	}
+
+	@Test
+	public void updates_should_be_read_with_type_and_sequence() throws Exception {
+		server.addChange("a", "doc1");
+		server.addChange("a", "doc2");
+		server.deleteDb("a");
+		feed = dbInstance.dbUpdatesFeed("0");
+		assertUpdate("a", DbUpdate.CREATED, "1", feed.next(1, TimeUnit.SECONDS));
+		assertUpdate("a", DbUpdate.UPDATED, "2", feed.next(1, TimeUnit.SECONDS));
+		assertUpdate("a", DbUpdate.DELETED, "3", feed.next(1, TimeUnit.SECONDS));
+		assertEquals("3", feed.getLastSeq());
+	}
+
+	@Test
+	public void feed_should_resume_from_last_received_update_when_connection_is_lost() throws Exception {
+		server.addChange("a", "doc1");
+		feed = dbInstance.dbUpdatesFeed("0");
+		assertEquals("1", feed.next(1, TimeUnit.SECONDS).getSequence());
+
+		server.dropConnections();
+		server.addChange("b", "doc1");
+		assertUpdate("b", DbUpdate.CREATED, "2", feed.next(5, TimeUnit.SECONDS));
+		assertNull(feed.next(50, TimeUnit.MILLISECONDS));
+		assertTrue(feed.isAlive());
+	}
+
+	private static void assertUpdate(String dbName, String type, String seq, DbUpdate update) {
+		assertNotNull(update);
+		assertEquals(dbName, update.getDbName());
+		assertEquals(type, update.getType());
+		assertEquals(seq, update.getSequence());
+	}
+}
@@ -0,0 +1,38 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.*;
+
+public class FileCheckpointStoreTest {
+
+	File file;
+	FileCheckpointStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("checkpoint", ".seq");
+		assertTrue(file.delete());
+		store = new FileCheckpointStore(file);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void load_should_return_null_when_no_checkpoint_exists() {
+		assertNull(store.load());
+	}
+
+	@Test
+	public void saved_checkpoint_should_be_loaded_by_new_store() {
+		store.save("12-g1AAAAFTeJzLYWBg");
+		store.save("13-g1AAAAFTeJzLYWBg");
+		assertEquals("13-g1AAAAFTeJzLYWBg", new FileCheckpointStore(file).load());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+}
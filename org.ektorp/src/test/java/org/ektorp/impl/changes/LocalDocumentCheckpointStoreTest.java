@@ -0,0 +1,32 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class LocalDocumentCheckpointStoreTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+
+	@Test
+	public void checkpoint_should_be_stored_in_local_doc() {
+		LocalDocumentCheckpointStore store = new LocalDocumentCheckpointStore(db, "indexer");
+		assertNull(store.load());
+		store.save("1");
+		store.save("2");
+		assertEquals("2", new LocalDocumentCheckpointStore(db, "_local/indexer").load());
+		assertTrue(server.getLocalDoc("db", "_local/indexer").contains("\"last_seq\":\"2\""));
+	}
+
+	@Test
+	public void save_should_overwrite_checkpoint_written_by_other_store() {
+		LocalDocumentCheckpointStore first = new LocalDocumentCheckpointStore(db, "indexer");
+		LocalDocumentCheckpointStore second = new LocalDocumentCheckpointStore(db, "indexer");
+		first.save("1");
+		second.save("5");
+		first.save("2");
+		assertEquals("2", second.load());
+	}
+}
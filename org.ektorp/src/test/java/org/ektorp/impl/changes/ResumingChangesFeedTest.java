@@ -0,0 +1,108 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.junit.*;
+
+public class ResumingChangesFeedTest {
+
+	ChangesServerStub server = new ChangesServerStub();
+	StdCouchDbConnector db = new StdCouchDbConnector("db", new StdCouchDbInstance(server));
+	RecordingReconnectListener listener = new RecordingReconnectListener();
+	ChangesFeed feed;
+
+	@After
+	public void tearDown() {
+		if (feed != null) {
+			feed.cancel();
+		}
+	}
+
+	@Test
+	public void feed_should_resume_from_last_received_change_when_connection_is_lost() throws Exception {
+		server.addChange("db", "a");
+		feed = db.resumingChangesFeed(new ChangesCommand.Builder().since(0).build(), listener);
+		assertEquals("a", feed.next(1, TimeUnit.SECONDS).getId());
+
+		server.dropConnections();
+		server.addChange("db", "b");
+		assertEquals("b", feed.next(5, TimeUnit.SECONDS).getId());
+		assertNull(feed.next(50, TimeUnit.MILLISECONDS));
+		assertTrue(feed.isAlive());
+		assertEquals("2", feed.getLastSeq());
+		assertEquals(Arrays.asList("disconnected since 1", "reconnected since 1"), listener.events.subList(0, 2));
+	}
+
+	@Test
+	public void silent_connection_should_be_replaced() throws Exception {
+		feed = db.resumingChangesFeed(new ChangesCommand.Builder().since(0).heartbeat(30).build(), listener);
+		for (int i = 0; i < 200 && server.continuousRequests.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(server.continuousRequests.get() >= 2);
+		server.addChange("db", "a");
+		assertEquals("a", feed.next(5, TimeUnit.SECONDS).getId());
+		assertEquals("disconnected since null", listener.events.get(0));
+	}
+
+	@Test
+	public void lastSeq_should_be_sequence_of_last_delivered_change() throws Exception {
+		server.addChange("db", "a");
+		server.addChange("db", "b");
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).build());
+		assertNull(feed.getLastSeq());
+		feed.next(1, TimeUnit.SECONDS);
+		assertEquals("1", feed.getLastSeq());
+		List<DocumentChange> batch = new ArrayList<DocumentChange>();
+		feed.nextBatch(batch, 10, 1, TimeUnit.SECONDS);
+		assertEquals("2", feed.getLastSeq());
+	}
+
+	@Test
+	public void connection_should_not_be_replaced_while_queue_is_full() throws Exception {
+		server.addChange("db", "a");
+		server.addChange("db", "b");
+		server.addChange("db", "c");
+		feed = db.resumingChangesFeed(new ChangesCommand.Builder().since(0).heartbeat(100).queueCapacity(1).build(), listener);
+		// the reading thread waits for room in the queue several heartbeat timeouts long
+		Thread.sleep(1000);
+
+		assertEquals("a", feed.next(1, TimeUnit.SECONDS).getId());
+		assertEquals("b", feed.next(1, TimeUnit.SECONDS).getId());
+		assertEquals("c", feed.next(1, TimeUnit.SECONDS).getId());
+		assertNull(feed.next(100, TimeUnit.MILLISECONDS));
+		assertTrue(listener.events.isEmpty());
+		assertEquals(1, server.continuousRequests.get());
+	}
+
+	@Test
+	public void plain_feed_should_end_when_connection_is_lost() throws Exception {
+		feed = db.changesFeed(new ChangesCommand.Builder().since(0).build());
+		for (int i = 0; i < 100 && server.openConnections() == 0; i++) {
+			Thread.sleep(10);
+		}
+		server.dropConnections();
+		for (int i = 0; i < 500 && feed.isAlive(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(feed.isAlive());
+	}
+
+	static class RecordingReconnectListener implements ChangesFeedReconnectListener {
+
+		final List<String> events = new CopyOnWriteArrayList<String>();
+
+		public void disconnected(String lastSeq, Exception cause) {
+			events.add("disconnected since " + lastSeq);
+		}
+
+		public void reconnected(String since, int failedAttempts) {
+			events.add("reconnected since " + since);
+		}
+	}
+}
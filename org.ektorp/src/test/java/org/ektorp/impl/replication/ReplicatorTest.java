@@ -0,0 +1,149 @@
+package org.ektorp.impl.replication;
+
+import static org.junit.Assert.*;
+
+import org.ektorp.*;
+import org.ektorp.changes.*;
+import org.ektorp.impl.*;
+import org.ektorp.impl.changes.*;
+import org.junit.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ReplicatorTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+	ChangesServerStub sourceServer = new ChangesServerStub();
+	ChangesServerStub targetServer = new ChangesServerStub();
+	StdCouchDbConnector source = new StdCouchDbConnector("db", new StdCouchDbInstance(sourceServer));
+	StdCouchDbConnector target = new StdCouchDbConnector("db", new StdCouchDbInstance(targetServer));
+
+	@Test
+	public void all_revisions_should_be_copied_to_target() throws Exception {
+		sourceServer.putDoc("db", "a", "{\"v\":1}");
+		sourceServer.putDoc("db", "a", "{\"v\":2}");
+		sourceServer.putDoc("db", "b", "{\"v\":1,\"_attachments\":{\"x.txt\":{\"content_type\":\"text/plain\",\"data\":\"aGVq\"}}}");
+		sourceServer.putDoc("db", "c", "{\"v\":1}");
+		sourceServer.putDoc("db", "c", "{\"_deleted\":true}");
+
+		ReplicationStatus status = new Replicator(source, target).replicate();
+
+		assertTrue(status.isOk());
+		assertFalse(status.isNoChanges());
+		for (String id : new String[] {"a", "b", "c"}) {
+			assertEquals(sourceServer.getDoc("db", id), targetServer.getDoc("db", id));
+		}
+		ReplicationStatus.History h = status.getHistory().get(0);
+		// the stub lists every revision in _changes, not only the leaves
+		assertEquals(5, h.getMissingFound());
+		assertEquals(5, h.getDocsWritten());
+		assertEquals(0, h.getDocWriteFailures());
+	}
+
+	@Test
+	public void checkpoint_should_be_written_to_both_databases() throws Exception {
+		sourceServer.putDoc("db", "a", "{\"v\":1}");
+		Replicator replicator = new Replicator(source, target);
+		ReplicationStatus status = replicator.replicate();
+
+		String localId = "_local/" + replicator.getReplicationId();
+		assertEquals(localId, status.getId());
+		JsonNode sourceLog = mapper.readTree(sourceServer.getLocalDoc("db", localId));
+		JsonNode targetLog = mapper.readTree(targetServer.getLocalDoc("db", localId));
+		assertEquals(status.getSessionId(), sourceLog.get("session_id").textValue());
+		assertEquals(status.getSessionId(), targetLog.get("session_id").textValue());
+		assertFalse(sourceLog.has("replication_id_version"));
+		assertEquals(1, sourceLog.get("source_last_seq").intValue());
+		assertEquals(1, sourceLog.get("history").size());
+	}
+
+	@Test
+	public void second_run_without_changes_should_resume_from_checkpoint() throws Exception {
+		sourceServer.putDoc("db", "a", "{\"v\":1}");
+		ReplicationStatus first = new Replicator(source, target).replicate();
+
+		ReplicationStatus status = new Replicator(source, target).replicate();
+
+		assertTrue(status.isNoChanges());
+		assertEquals("1", status.getSourceLastSequence());
+		assertEquals(1, status.getHistory().size());
+		assertEquals(first.getSessionId(), status.getHistory().get(0).getSessionId());
+	}
+
+	@Test
+	public void incremental_run_should_copy_only_new_changes() throws Exception {
+		sourceServer.putDoc("db", "a", "{\"v\":1}");
+		new Replicator(source, target).replicate();
+		sourceServer.putDoc("db", "a", "{\"v\":2}");
+		sourceServer.putDoc("db", "b", "{\"v\":1}");
+
+		ReplicationStatus status = new Replicator(source, target).replicate();
+
+		assertFalse(status.isNoChanges());
+		ReplicationStatus.History h = status.getHistory().get(0);
+		assertEquals("1", h.getStartLastSeq());
+		assertEquals("3", h.getRecordedSeq());
+		assertEquals(2, h.getMissingChecked());
+		assertEquals(2, h.getDocsWritten());
+		assertEquals(2, status.getHistory().size());
+		assertEquals(sourceServer.getDoc("db", "a"), targetServer.getDoc("db", "a"));
+		assertEquals(sourceServer.getDoc("db", "b"), targetServer.getDoc("db", "b"));
+	}
+
+	@Test
+	public void changes_should_be_read_in_batches() throws Exception {
+		for (int i = 0; i < 7; i++) {
+			sourceServer.putDoc("db", "d" + i, "{\"v\":1}");
+		}
+		Replicator replicator = new Replicator(source, target);
+		replicator.setChangesBatchSize(3);
+		ReplicationStatus status = replicator.replicate();
+
+		assertEquals("7", status.getSourceLastSequence());
+		assertEquals(7, status.getHistory().get(0).getDocsWritten());
+		for (int i = 0; i < 7; i++) {
+			assertNotNull(targetServer.getDoc("db", "d" + i));
+		}
+	}
+
+	@Test
+	public void null_seqs_of_seq_interval_should_be_skipped() throws Exception {
+		for (int i = 0; i < 7; i++) {
+			sourceServer.putDoc("db", "d" + i, "{\"v\":1}");
+		}
+		Replicator replicator = new Replicator(source, target, new ChangesCommand.Builder().seqInterval(2).build());
+		replicator.setChangesBatchSize(3);
+		ReplicationStatus status = replicator.replicate();
+
+		assertEquals("7", status.getSourceLastSequence());
+		assertEquals(7, status.getHistory().get(0).getDocsWritten());
+	}
+
+	@Test
+	public void missing_revisions_should_be_copied_by_parallel_workers() throws Exception {
+		for (int i = 0; i < 8; i++) {
+			sourceServer.putDoc("db", "d" + i, "{\"v\":1}");
+		}
+		sourceServer.setLatencyMillis(50);
+		Replicator replicator = new Replicator(source, target);
+		replicator.setBulkGetBatchSize(1);
+		replicator.setWorkers(4);
+		replicator.replicate();
+
+		assertTrue(sourceServer.getMaxInFlight() > 1);
+		assertTrue(sourceServer.getMaxInFlight() <= 4);
+		for (int i = 0; i < 8; i++) {
+			assertEquals(sourceServer.getDoc("db", "d" + i), targetServer.getDoc("db", "d" + i));
+		}
+	}
+
+	@Test
+	public void replication_id_should_depend_on_filter() throws Exception {
+		Replicator all = new Replicator(source, target);
+		Replicator filtered = new Replicator(source, target, new ChangesCommand.Builder().filter("app/f").build());
+		assertEquals(32, all.getReplicationId().length());
+		assertEquals(all.getReplicationId(), new Replicator(source, target).getReplicationId());
+		assertFalse(all.getReplicationId().equals(filtered.getReplicationId()));
+	}
+}
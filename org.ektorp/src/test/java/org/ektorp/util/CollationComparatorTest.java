@@ -0,0 +1,177 @@
+package org.ektorp.util;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.ektorp.ComplexKey;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class CollationComparatorTest {
+
+	/**
+	 * The example from the CouchDB documentation on view collation, in expected order.
+	 */
+	static final String[] DOCUMENTED_ORDER = {
+		"null", "false", "true",
+		"1", "2", "3.0", "4",
+		"\"a\"", "\"A\"", "\"aa\"", "\"b\"", "\"B\"", "\"ba\"", "\"bb\"",
+		"[\"a\"]", "[\"b\"]", "[\"b\",\"c\"]", "[\"b\",\"c\",\"a\"]", "[\"b\",\"d\"]", "[\"b\",\"d\",\"e\"]",
+		"{\"a\":1}", "{\"a\":2}", "{\"b\":1}", "{\"b\":2}", "{\"b\":2,\"a\":1}", "{\"b\":2,\"c\":2}"
+	};
+
+	ObjectMapper mapper = new ObjectMapper();
+	CollationComparator cmp = CollationComparator.INSTANCE;
+
+	@Test
+	public void raw_json_keys_follow_documented_order() {
+		for (int i = 0; i < DOCUMENTED_ORDER.length; i++) {
+			for (int j = 0; j < DOCUMENTED_ORDER.length; j++) {
+				int c = cmp.compareJson(DOCUMENTED_ORDER[i], DOCUMENTED_ORDER[j]);
+				assertEquals(DOCUMENTED_ORDER[i] + " vs " + DOCUMENTED_ORDER[j], Integer.signum(i - j), Integer.signum(c));
+			}
+		}
+	}
+
+	@Test
+	public void json_nodes_follow_documented_order() throws Exception {
+		List<JsonNode> nodes = new ArrayList<JsonNode>();
+		for (String s : DOCUMENTED_ORDER) {
+			nodes.add(mapper.readTree(s));
+		}
+		List<JsonNode> shuffled = new ArrayList<JsonNode>(nodes);
+		Collections.shuffle(shuffled, new Random(42));
+		Collections.sort(shuffled, cmp);
+		assertEquals(nodes, shuffled);
+	}
+
+	@Test
+	public void java_values_follow_documented_order() throws Exception {
+		List<Object> values = new ArrayList<Object>();
+		for (String s : DOCUMENTED_ORDER) {
+			values.add(mapper.readValue(s, Object.class));
+		}
+		for (int i = 1; i < values.size(); i++) {
+			assertTrue(values.get(i - 1) + " < " + values.get(i), cmp.compare(values.get(i - 1), values.get(i)) < 0);
+		}
+	}
+
+	@Test
+	public void numbers_compare_across_types() {
+		assertEquals(0, cmp.compare(3, 3.0));
+		assertEquals(0, cmp.compare(0.0, -0.0));
+		assertTrue(cmp.compare(2L, 2.5f) < 0);
+		assertTrue(cmp.compareJson("-1", "0") < 0);
+		assertTrue(cmp.compareJson("10", "9") > 0);
+		assertEquals(0, cmp.compareJson("1e2", "100"));
+		assertTrue(cmp.compareJson("12345678901234567890", "12345678901234567891") < 0);
+	}
+
+	@Test
+	public void punctuation_sorts_before_digits_and_letters() {
+		assertTrue(CollationComparator.compareStrings("_", "-") < 0);
+		assertTrue(CollationComparator.compareStrings("~", "1") < 0);
+		assertTrue(CollationComparator.compareStrings("9", "a") < 0);
+		assertTrue(CollationComparator.compareStrings("aB", "ab") > 0);
+		assertTrue(CollationComparator.compareStrings("aB", "abc") < 0);
+	}
+
+	@Test
+	public void escaped_and_non_ascii_strings() {
+		assertEquals(0, cmp.compareJson("\"\\u0061\"", "\"a\""));
+		assertTrue(cmp.compareJson("\"a\\\"b\"", "\"a\\\"c\"") < 0);
+		assertTrue(cmp.compare("\u00e9", "f") < 0);
+		assertTrue(cmp.compare("e", "\u00e9") < 0);
+	}
+
+	@Test
+	public void string_order_is_transitive_across_ascii_and_non_ascii() {
+		String[] strings = {"a-c", "ab", "ab\u00e9", "abe", "abE", "ab\u00c9", "abe\u0301", "a", "A", "\u00e0", "b",
+				"a b", "a_b", "\u00df", "ss", "\u03c9", "\u03a9", "z", "-", "\u2013", "a\u0001b", "ab1", "", "9", "\u00e9a", "eb"};
+		for (String a : strings) {
+			for (String b : strings) {
+				int ab = Integer.signum(CollationComparator.compareStrings(a, b));
+				assertEquals(a + " vs " + b, -ab, Integer.signum(CollationComparator.compareStrings(b, a)));
+				assertEquals(a + " vs " + b, ab, Integer.signum(cmp.compareJson(json(a), json(b))));
+				for (String c : strings) {
+					int bc = CollationComparator.compareStrings(b, c);
+					if (ab <= 0 && bc <= 0) {
+						assertTrue(a + " <= " + b + " <= " + c, CollationComparator.compareStrings(a, c) <= 0);
+					}
+				}
+			}
+		}
+		assertTrue(CollationComparator.compareStrings("a-c", "ab") < 0);
+		assertTrue(CollationComparator.compareStrings("ab", "ab\u00e9") < 0);
+		assertTrue(CollationComparator.compareStrings("a-c", "ab\u00e9") < 0);
+		assertTrue(CollationComparator.compareStrings("abe", "ab\u00e9") < 0);
+		assertTrue(CollationComparator.compareStrings("ab\u00e9", "abf") < 0);
+		assertTrue(CollationComparator.compareStrings("\u00e9a", "eb") < 0);
+	}
+
+	private String json(String s) {
+		try {
+			return mapper.writeValueAsString(s);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void complex_keys_compare_as_arrays() {
+		assertTrue(cmp.compare(ComplexKey.of("a", 1), ComplexKey.of("a", 2)) < 0);
+		assertEquals(0, cmp.compare(ComplexKey.of("a", 1), Arrays.asList("a", 1)));
+		assertTrue(cmp.compare(ComplexKey.of("a"), ComplexKey.of("a", 1)) < 0);
+		assertTrue(cmp.compare(ComplexKey.of("a", "z"), ComplexKey.of("a", ComplexKey.emptyObject())) < 0);
+	}
+
+	@Test
+	public void whitespace_in_raw_keys_is_ignored() {
+		assertEquals(0, cmp.compareJson("[ 1 , \"a\" ]", "[1,\"a\"]"));
+		assertEquals(0, cmp.compareJson("{ \"a\" : null }", "{\"a\":null}"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupported_types_are_rejected() {
+		cmp.compare(new Object(), "a");
+	}
+
+	@Test
+	public void merge_iterator_produces_sorted_output() {
+		ComplexKey complex = ComplexKey.of("a");
+		List<Iterator<Object>> sources = new ArrayList<Iterator<Object>>();
+		sources.add(Arrays.<Object>asList(null, 1, "a", "b").iterator());
+		sources.add(Arrays.<Object>asList(false, 2, "A").iterator());
+		sources.add(Collections.<Object>emptyList().iterator());
+		sources.add(Arrays.<Object>asList(true, "B", complex).iterator());
+		List<Object> merged = SortedMergeIterator.merge(sources, cmp);
+		assertEquals(Arrays.<Object>asList(null, false, true, 1, 2, "a", "A", "b", "B", complex), merged);
+	}
+
+	@Test
+	public void merge_iterator_is_stable() {
+		List<Iterator<String>> sources = new ArrayList<Iterator<String>>();
+		sources.add(Arrays.asList("x", "y").iterator());
+		sources.add(Arrays.asList("x", "y").iterator());
+		Comparator<String> byFirstChar = new Comparator<String>() {
+			public int compare(String a, String b) {
+				return a.charAt(0) - b.charAt(0);
+			}
+		};
+		Iterator<String> it = new SortedMergeIterator<String>(sources, byFirstChar);
+		List<String> result = new ArrayList<String>();
+		while (it.hasNext()) {
+			result.add(it.next());
+		}
+		assertEquals(Arrays.asList("x", "x", "y", "y"), result);
+		try {
+			it.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+}
@@ -63,6 +63,25 @@ public class DocumentsTest {
 		Documents.setId(constDoc, "new_id");
 	}
 
+	@Test
+	public void partitioned_id_should_be_joined_with_colon() {
+		assertEquals("customer1:order_1", Documents.partitionedId("customer1", "order_1"));
+		assertEquals("customer1", Documents.getPartition("customer1:order_1"));
+		assertEquals("order_1", Documents.getPartitionLocalId("customer1:order_1"));
+	}
+
+	@Test
+	public void id_without_partition() {
+		assertNull(Documents.getPartition("order_1"));
+		assertNull(Documents.getPartition("_design/foo:bar"));
+		assertEquals("order_1", Documents.getPartitionLocalId("order_1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void partition_may_not_contain_colon() {
+		Documents.partitionedId("a:b", "order_1");
+	}
+
 	@Test
 	public void annotdated_id_should_return_id() {
 		assertEquals("id_2", Documents.getId(annotatedDoc));
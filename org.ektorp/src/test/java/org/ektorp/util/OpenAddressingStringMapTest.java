@@ -0,0 +1,70 @@
+package org.ektorp.util;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class OpenAddressingStringMapTest {
+
+    @Test
+    public void mappings_should_survive_resizing() {
+        OpenAddressingStringMap map = new OpenAddressingStringMap();
+        for (int i = 0; i < 10000; i++) {
+            assertNull(map.put("doc_" + i, "1-" + i));
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("1-" + i, map.get("doc_" + i));
+        }
+        assertNull(map.get("doc_10000"));
+        assertFalse(map.containsKey(null));
+        assertFalse(map.containsKey(Integer.valueOf(1)));
+    }
+
+    @Test
+    public void put_should_replace_existing_value() {
+        OpenAddressingStringMap map = new OpenAddressingStringMap(2);
+        map.put("a", "1-a");
+        assertEquals("1-a", map.put("a", "2-a"));
+        assertEquals("2-a", map.get("a"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void should_be_equal_to_hash_map_with_same_mappings() {
+        Map<String, String> expected = new HashMap<String, String>();
+        OpenAddressingStringMap map = new OpenAddressingStringMap(100);
+        for (int i = 0; i < 100; i++) {
+            expected.put("id" + i, "rev" + i);
+            map.put("id" + i, "rev" + i);
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(expected.keySet(), map.keySet());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void remove_should_not_be_supported() {
+        OpenAddressingStringMap map = new OpenAddressingStringMap();
+        map.put("a", "b");
+        map.remove("a");
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteration_should_fail_when_map_is_modified() {
+        OpenAddressingStringMap map = new OpenAddressingStringMap();
+        map.put("a", "b");
+        map.put("c", "d");
+        Iterator<String> it = map.keySet().iterator();
+        it.next();
+        map.put("e", "f");
+        it.next();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_keys_should_be_rejected() {
+        new OpenAddressingStringMap().put(null, "a");
+    }
+}